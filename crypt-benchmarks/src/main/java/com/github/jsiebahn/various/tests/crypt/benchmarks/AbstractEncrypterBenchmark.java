@@ -0,0 +1,88 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Crypter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the in memory {@link String} and {@code byte[]} api of {@link EncryptionUtil}
+ * for all {@link Crypter}s. The payloads are limited to 16 MiB, because they are held in memory
+ * as plain and encrypted value. Larger payloads are covered by {@link AbstractStreamBenchmark}.
+ * One {@link EncryptionUtil} is shared by all threads like in an application.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:15
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class AbstractEncrypterBenchmark {
+
+    @Param({"NOOP", "CBC", "GCM", "RSA"})
+    public Crypter crypter;
+
+    @Param({"16", "1024", "65536", "1048576", "16777216"})
+    public int payloadSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private String plainString;
+
+    private String encryptedString;
+
+    private byte[] plainBytes;
+
+    private byte[] encryptedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionUtil = BenchmarkFixtures.createEncryptionUtil(crypter, Encoding.BASE64);
+        plainString = BenchmarkFixtures.text(payloadSize);
+        encryptedString = encryptionUtil.encrypt(plainString);
+        plainBytes = BenchmarkFixtures.randomBytes(payloadSize);
+        encryptedBytes = encryptionUtil.encrypt(plainBytes);
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public String encryptString() {
+        return encryptionUtil.encrypt(plainString);
+    }
+
+    @Benchmark
+    public String decryptString() {
+        return encryptionUtil.decrypt(encryptedString);
+    }
+
+    @Benchmark
+    public byte[] encryptBytes() {
+        return encryptionUtil.encrypt(plainBytes);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() {
+        return encryptionUtil.decrypt(encryptedBytes);
+    }
+
+}
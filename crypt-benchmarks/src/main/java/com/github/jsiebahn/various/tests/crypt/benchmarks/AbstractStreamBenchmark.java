@@ -0,0 +1,97 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Crypter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the stream api of {@link EncryptionUtil} for all {@link Crypter}s and payloads
+ * from 16 B to 1 GiB. The plain data is generated while it is read and the encrypted output is
+ * discarded, so the memory does not limit the payload size. The encrypted data to decrypt is
+ * prepared once per trial in a temporary file, which is usually served from the page cache.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:21
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public abstract class AbstractStreamBenchmark {
+
+    @Param({"NOOP", "CBC", "GCM", "RSA"})
+    public Crypter crypter;
+
+    @Param({"BASE64", "BINARY"})
+    public Encoding encoding;
+
+    @Param({"16", "65536", "16777216", "1073741824"})
+    public long payloadSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private byte[] block;
+
+    private Path encryptedFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        encryptionUtil = BenchmarkFixtures.createEncryptionUtil(crypter, encoding);
+        block = BenchmarkFixtures.randomBytes(BenchmarkFixtures.BLOCK_SIZE);
+        encryptedFile = Files.createTempFile("crypt-benchmark", ".enc");
+        try (OutputStream out = Files.newOutputStream(encryptedFile)) {
+            if (!encryptionUtil.encrypt(new PayloadInputStream(block, payloadSize), out)) {
+                throw new IllegalStateException("Could not prepare encrypted data.");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(encryptedFile);
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public long encryptStream() {
+        CountingOutputStream encrypted = new CountingOutputStream();
+        encryptionUtil.encrypt(new PayloadInputStream(block, payloadSize), encrypted);
+        return encrypted.getCount();
+    }
+
+    @Benchmark
+    public long decryptStream() throws IOException {
+        CountingOutputStream plain = new CountingOutputStream();
+        try (InputStream encrypted = Files.newInputStream(encryptedFile)) {
+            encryptionUtil.decrypt(encrypted, plain);
+        }
+        return plain.getCount();
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EncryptionUtil#encryptAll(List, boolean, boolean)} and
+ * {@link EncryptionUtil#decryptAll(List, boolean)} with a loop of single value calls for
+ * {@value #VALUES} short values, e.g. the columns of a result set.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:38
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final int VALUES = 10000;
+
+    @Param({"CBC", "GCM", "RSA"})
+    public BenchmarkFixtures.Crypter crypter;
+
+    @Param({"64"})
+    public int valueSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private List<String> plain;
+
+    private List<String> encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionUtil = BenchmarkFixtures.createEncryptionUtil(crypter, Encoding.BASE64);
+        String text = BenchmarkFixtures.text(VALUES + valueSize);
+        plain = new ArrayList<>(VALUES);
+        for (int i = 0; i < VALUES; i++) {
+            plain.add(text.substring(i, i + valueSize));
+        }
+        encrypted = encryptionUtil.encryptAll(plain);
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public List<String> encryptLoop() {
+        List<String> result = new ArrayList<>(VALUES);
+        for (String value : plain) {
+            result.add(encryptionUtil.encrypt(value));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> encryptAll() {
+        return encryptionUtil.encryptAll(plain, false, false);
+    }
+
+    @Benchmark
+    public List<String> encryptAllParallel() {
+        return encryptionUtil.encryptAll(plain, false, true);
+    }
+
+    @Benchmark
+    public List<String> decryptLoop() {
+        List<String> result = new ArrayList<>(VALUES);
+        for (String value : encrypted) {
+            result.add(encryptionUtil.decrypt(value));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<String> decryptAll() {
+        return encryptionUtil.decryptAll(encrypted, false);
+    }
+
+    @Benchmark
+    public List<String> decryptAllParallel() {
+        return encryptionUtil.decryptAll(encrypted, true);
+    }
+
+}
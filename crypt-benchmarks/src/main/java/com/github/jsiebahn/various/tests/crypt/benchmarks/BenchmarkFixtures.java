@@ -0,0 +1,186 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.CipherMode;
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtilBuilder;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Creates the {@link EncryptionUtil}s and payloads shared by the benchmarks. All payloads are
+ * created from fixed seeds, so every run and every release encrypts the same data.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:08
+ */
+public final class BenchmarkFixtures {
+
+    /**
+     * The pass phrase of all symmetric benchmarks.
+     */
+    public static final String PASS_PHRASE = "crypt benchmark pass phrase";
+
+    /**
+     * The size of the block {@link PayloadInputStream} repeats. It is larger than the window of
+     * the deflater, so random payloads stay incompressible.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final long SEED = 0x5EEDL;
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet",
+            "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt",
+            "ut", "labore", "et", "dolore", "magna", "aliqua", "encrypt", "decrypt", "stream"};
+
+    private static byte[] privateKey;
+
+    private static byte[] publicKey;
+
+    private BenchmarkFixtures() {
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * @param crypter the {@link Crypter} to create
+     * @param encoding the encoding of encrypted streams
+     * @return a new {@link EncryptionUtil} for {@code crypter}
+     */
+    public static EncryptionUtil createEncryptionUtil(Crypter crypter, Encoding encoding) {
+        return createEncryptionUtil(crypter, encoding, Compression.NONE, false);
+    }
+
+    /**
+     * @param crypter the {@link Crypter} to create
+     * @param encoding the encoding of encrypted streams
+     * @param compression the compression applied before encryption
+     * @param streamAuthentication whether CBC streams are authenticated
+     * @return a new {@link EncryptionUtil} for {@code crypter}
+     */
+    public static EncryptionUtil createEncryptionUtil(Crypter crypter, Encoding encoding,
+            Compression compression, boolean streamAuthentication) {
+        EncryptionUtilBuilder builder = EncryptionUtilBuilder.encryptionUtil()
+                .withEncoding(encoding)
+                .withCompression(compression)
+                .withStreamAuthentication(streamAuthentication);
+        switch (crypter) {
+            case NOOP:
+                builder.withNoop();
+                break;
+            case CBC:
+                builder.withPassPhrase(PASS_PHRASE).withCipherMode(CipherMode.CBC);
+                break;
+            case GCM:
+                builder.withPassPhrase(PASS_PHRASE).withCipherMode(CipherMode.GCM);
+                break;
+            case RSA:
+                builder.withPrivateKeyFromInputStream(new ByteArrayInputStream(privateKey()))
+                        .withPublicKeyFromInputStream(new ByteArrayInputStream(publicKey()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown crypter " + crypter);
+        }
+        EncryptionUtil encryptionUtil = builder.build();
+        if (encryptionUtil == null) {
+            throw new IllegalStateException("Could not create EncryptionUtil for " + crypter);
+        }
+        return encryptionUtil;
+    }
+
+    /**
+     * @return the serialized private key of the RSA key pair of this JVM
+     */
+    public static synchronized byte[] privateKey() {
+        createKeys();
+        return privateKey;
+    }
+
+    /**
+     * @return the serialized public key of the RSA key pair of this JVM
+     */
+    public static synchronized byte[] publicKey() {
+        createKeys();
+        return publicKey;
+    }
+
+    /**
+     * @param size the number of bytes to create
+     * @return {@code size} random bytes
+     */
+    public static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param size the number of characters to create
+     * @return {@code size} ASCII characters of random words, which compress similar to natural
+     *      text
+     */
+    public static String text(int size) {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(size);
+        return text.toString();
+    }
+
+    /**
+     * @param size the number of bytes to create
+     * @param payload the kind of payload
+     * @return {@code size} bytes of {@code payload}
+     */
+    public static byte[] payload(int size, Payload payload) {
+        return payload == Payload.TEXT
+                ? text(size).getBytes(StandardCharsets.US_ASCII) : randomBytes(size);
+    }
+
+
+    //
+    // helper
+    //
+
+    private static void createKeys() {
+        if (privateKey == null) {
+            ByteArrayOutputStream privateKeyBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream publicKeyBytes = new ByteArrayOutputStream();
+            if (new RsaKeyFactory().createKeys(privateKeyBytes, publicKeyBytes) == null) {
+                throw new IllegalStateException("Could not create RSA keys.");
+            }
+            privateKey = privateKeyBytes.toByteArray();
+            publicKey = publicKeyBytes.toByteArray();
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The crypters covered by the benchmarks.
+     */
+    public enum Crypter {
+        NOOP, CBC, GCM, RSA
+    }
+
+    /**
+     * The kinds of payloads. Random bytes do not compress, text does.
+     */
+    public enum Payload {
+        RANDOM, TEXT
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmark jar. It accepts all options of the JMH command line and writes
+ * the results as JSON to {@value #DEFAULT_RESULT_FILE} unless a result format is given with
+ * {@code -rf}. The JSON files of two releases can be compared with any JMH result viewer or a
+ * simple diff of the scores.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:05
+ */
+public class BenchmarkMain {
+
+    /**
+     * The file the results are written to when no result format is given.
+     */
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf") && !arguments.contains("-h")
+                && !arguments.contains("-l")) {
+            arguments.add("-rf");
+            arguments.add("json");
+            if (!arguments.contains("-rff")) {
+                arguments.add("-rff");
+                arguments.add(DEFAULT_RESULT_FILE);
+            }
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.ByteBufferDecrypter;
+import com.github.jsiebahn.various.tests.crypt.ByteBufferEncrypter;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmEncrypter;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Crypter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation rate of the {@link ByteBuffer} api of {@link ByteBufferEncrypter} and
+ * {@link ByteBufferDecrypter} with the {@code byte[]} api of {@link EncryptionUtil} for small
+ * messages. The buffers are allocated once per trial, so the {@link ByteBuffer} benchmarks only
+ * allocate what the crypters allocate internally. The allocation rate is reported by the JMH GC
+ * profiler as {@code gc.alloc.rate.norm} in bytes per operation. {@link #main(String[])} runs
+ * this benchmark with the profiler, from the benchmark jar it is enabled with {@code -prof gc}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:50
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteBufferBenchmark {
+
+    @Param({"CBC", "GCM"})
+    public Crypter crypter;
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private ByteBufferEncrypter encrypter;
+
+    private ByteBufferDecrypter decrypter;
+
+    private byte[] plainBytes;
+
+    private byte[] encryptedBytes;
+
+    private ByteBuffer plain;
+
+    private ByteBuffer encrypted;
+
+    private ByteBuffer encryptTarget;
+
+    private ByteBuffer decryptTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (crypter) {
+            case CBC:
+                encrypter = new SymmetricKeyEncrypter(BenchmarkFixtures.PASS_PHRASE);
+                decrypter = new SymmetricKeyDecrypter(BenchmarkFixtures.PASS_PHRASE);
+                break;
+            case GCM:
+                encrypter = new GcmEncrypter(BenchmarkFixtures.PASS_PHRASE);
+                decrypter = new GcmDecrypter(BenchmarkFixtures.PASS_PHRASE);
+                break;
+            default:
+                throw new IllegalArgumentException("No ByteBuffer api for " + crypter);
+        }
+        encryptionUtil = new EncryptionUtil(encrypter, decrypter);
+        plainBytes = BenchmarkFixtures.randomBytes(payloadSize);
+        encryptedBytes = encryptionUtil.encrypt(plainBytes);
+
+        plain = ByteBuffer.allocateDirect(payloadSize);
+        plain.put(plainBytes).flip();
+        encryptTarget = ByteBuffer.allocateDirect(encrypter.getMaxEncryptedLength(payloadSize));
+        if (!encrypter.encrypt(plain.duplicate(), encryptTarget)) {
+            throw new IllegalStateException("Could not prepare encrypted data.");
+        }
+        encryptTarget.flip();
+        encrypted = ByteBuffer.allocateDirect(encryptTarget.remaining());
+        encrypted.put(encryptTarget).flip();
+        decryptTarget = ByteBuffer.allocateDirect(
+                decrypter.getMaxPlainLength(encrypted.remaining()));
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public boolean encryptByteBuffer() {
+        plain.rewind();
+        encryptTarget.clear();
+        return encrypter.encrypt(plain, encryptTarget);
+    }
+
+    @Benchmark
+    public boolean decryptByteBuffer() {
+        encrypted.rewind();
+        decryptTarget.clear();
+        return decrypter.decrypt(encrypted, decryptTarget);
+    }
+
+    @Benchmark
+    public byte[] encryptBytes() {
+        return encryptionUtil.encrypt(plainBytes);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() {
+        return encryptionUtil.decrypt(encryptedBytes);
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Runs this benchmark with the GC profiler and writes the results as JSON to
+     * {@value BenchmarkMain#DEFAULT_RESULT_FILE}.
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ByteBufferBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(BenchmarkMain.DEFAULT_RESULT_FILE)
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the benchmarks of {@link AbstractEncrypterBenchmark} with one thread per available
+ * processor sharing the same {@link com.github.jsiebahn.various.tests.crypt.EncryptionUtil}.
+ * Compared to {@link EncrypterBenchmark} it shows contention in the cipher pools and the random
+ * source. The scaling from 1 to 64 threads is measured by repeating the run with {@code -t 1},
+ * {@code -t 2} and so on up to {@code -t 64}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:18
+ */
+@Threads(Threads.MAX)
+public class ConcurrentEncrypterBenchmark extends AbstractEncrypterBenchmark {
+}
@@ -0,0 +1,15 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the benchmarks of {@link AbstractStreamBenchmark} with one thread per available
+ * processor. Each thread streams its own copy of the payload, so the 1 GiB runs move one
+ * gigabyte per thread and operation.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:24
+ */
+@Threads(Threads.MAX)
+public class ConcurrentStreamBenchmark extends AbstractStreamBenchmark {
+}
@@ -0,0 +1,32 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that discards all data and only counts the written bytes.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:13
+ */
+public class CountingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+}
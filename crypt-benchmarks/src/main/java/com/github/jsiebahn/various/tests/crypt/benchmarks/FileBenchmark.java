@@ -0,0 +1,113 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Crypter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EncryptionUtil#encryptFile(Path, Path)} and
+ * {@link EncryptionUtil#decryptFile(Path, Path)}, which read the plain file through memory
+ * mapped regions, with the stream api on the same files for payloads of 1 MiB, 100 MiB and
+ * 4 GiB. The files are created once per trial in the temporary directory, which needs about
+ * three times the payload size of free space. Every invocation replaces its target file.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:50
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class FileBenchmark {
+
+    @Param({"CBC", "GCM"})
+    public Crypter crypter;
+
+    @Param({"1048576", "104857600", "4294967296"})
+    public long payloadSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private Path plainFile;
+
+    private Path encryptedFile;
+
+    private Path targetFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        encryptionUtil = BenchmarkFixtures.createEncryptionUtil(crypter, Encoding.BINARY);
+        byte[] block = BenchmarkFixtures.randomBytes(BenchmarkFixtures.BLOCK_SIZE);
+        plainFile = Files.createTempFile("crypt-benchmark", ".plain");
+        try (InputStream in = new PayloadInputStream(block, payloadSize)) {
+            Files.copy(in, plainFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        encryptedFile = Files.createTempFile("crypt-benchmark", ".enc");
+        if (!encryptionUtil.encryptFile(plainFile, encryptedFile)) {
+            throw new IllegalStateException("Could not prepare encrypted data.");
+        }
+        targetFile = Files.createTempFile("crypt-benchmark", ".target");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(plainFile);
+        Files.deleteIfExists(encryptedFile);
+        Files.deleteIfExists(targetFile);
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public boolean encryptFile() {
+        return encryptionUtil.encryptFile(plainFile, targetFile);
+    }
+
+    @Benchmark
+    public boolean encryptStream() throws IOException {
+        try (InputStream plain = Files.newInputStream(plainFile);
+                OutputStream encrypted = Files.newOutputStream(targetFile)) {
+            return encryptionUtil.encrypt(plain, encrypted);
+        }
+    }
+
+    @Benchmark
+    public boolean decryptFile() {
+        return encryptionUtil.decryptFile(encryptedFile, targetFile);
+    }
+
+    @Benchmark
+    public boolean decryptStream() throws IOException {
+        try (InputStream encrypted = Files.newInputStream(encryptedFile);
+                OutputStream plain = Files.newOutputStream(targetFile)) {
+            return encryptionUtil.decrypt(encrypted, plain);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.rsa.KeyFormat;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeySpecPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the keys of {@value #TENANTS} tenants as a multi-tenant application does at
+ * startup, for each {@link KeyFormat}. The key files are held in memory, so only parsing is
+ * measured. Generating that many RSA keys would take minutes, so {@value #DISTINCT_KEYS} distinct
+ * key pairs are shared by the tenants, which does not change the work to parse them.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyLoadingBenchmark {
+
+    private static final int TENANTS = 10000;
+
+    private static final int DISTINCT_KEYS = 8;
+
+    @Param({"LEGACY", "COMPACT", "PEM"})
+    public KeyFormat format;
+
+    private byte[][] privateKeys;
+
+    private byte[][] publicKeys;
+
+    private final RsaKeyFactory keyFactory = new RsaKeyFactory();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[][] distinctPrivateKeys = new byte[DISTINCT_KEYS][];
+        byte[][] distinctPublicKeys = new byte[DISTINCT_KEYS][];
+        for (int i = 0; i < DISTINCT_KEYS; i++) {
+            RsaKeySpecPair keys = keyFactory.generateKeys();
+            ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+            ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+            if (keys == null || !keyFactory.writeKeys(keys, privateKey, publicKey, format)) {
+                throw new IllegalStateException("Could not create benchmark keys.");
+            }
+            distinctPrivateKeys[i] = privateKey.toByteArray();
+            distinctPublicKeys[i] = publicKey.toByteArray();
+        }
+
+        privateKeys = new byte[TENANTS][];
+        publicKeys = new byte[TENANTS][];
+        for (int i = 0; i < TENANTS; i++) {
+            privateKeys[i] = distinctPrivateKeys[i % DISTINCT_KEYS];
+            publicKeys[i] = distinctPublicKeys[i % DISTINCT_KEYS];
+        }
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public RSAPrivateKeySpec[] loadPrivateKeys() {
+        RSAPrivateKeySpec[] keys = new RSAPrivateKeySpec[TENANTS];
+        for (int i = 0; i < TENANTS; i++) {
+            keys[i] = keyFactory.readPrivateKey(new ByteArrayInputStream(privateKeys[i]));
+            if (keys[i] == null) {
+                throw new IllegalStateException("Could not read private key.");
+            }
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public RSAPublicKeySpec[] loadPublicKeys() {
+        RSAPublicKeySpec[] keys = new RSAPublicKeySpec[TENANTS];
+        for (int i = 0; i < TENANTS; i++) {
+            keys[i] = keyFactory.readPublicKey(new ByteArrayInputStream(publicKeys[i]));
+            if (keys[i] == null) {
+                throw new IllegalStateException("Could not read public key.");
+            }
+        }
+        return keys;
+    }
+
+}
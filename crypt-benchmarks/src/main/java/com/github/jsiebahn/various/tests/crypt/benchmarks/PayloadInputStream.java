@@ -0,0 +1,57 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that repeats a block of bytes up to a given length. Payloads of a
+ * gigabyte can be streamed without holding them in memory.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:12
+ */
+public class PayloadInputStream extends InputStream {
+
+    private final byte[] block;
+
+    private final long length;
+
+    private long position;
+
+    /**
+     * @param block the bytes to repeat, must not be empty
+     * @param length the total number of bytes to provide
+     */
+    public PayloadInputStream(byte[] block, long length) {
+        this.block = block;
+        this.length = length;
+    }
+
+    @Override
+    public int read() {
+        if (position >= length) {
+            return -1;
+        }
+        return block[(int) (position++ % block.length)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int offset = (int) (position % block.length);
+        int count = (int) Math.min(Math.min(len, block.length - offset), length - position);
+        System.arraycopy(block, offset, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+}
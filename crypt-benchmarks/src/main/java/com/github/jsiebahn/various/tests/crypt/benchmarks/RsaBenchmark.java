@@ -0,0 +1,118 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaDecrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaEncrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the RSA options for small messages, where the RSA operation dominates: private keys
+ * with and without CRT parameters and a new symmetric key per message against session keys
+ * reused for many messages. The decryption cycles through {@value #MESSAGES} different messages
+ * to hit the session key cache of the {@link RsaDecrypter} like a real consumer would.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RsaBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"CRT", "PLAIN"})
+    public PrivateKeyFormat privateKeyFormat;
+
+    @Param({"1", "1000"})
+    public int messagesPerKey;
+
+    private EncryptionUtil encryptionUtil;
+
+    private String plain;
+
+    private String[] encrypted;
+
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RsaKeyFactory factory = new RsaKeyFactory();
+        RSAPublicKeySpec publicKeySpec = factory.readPublicKey(
+                new ByteArrayInputStream(BenchmarkFixtures.publicKey()));
+        RSAPrivateKeySpec privateKeySpec = factory.readPrivateKey(
+                new ByteArrayInputStream(BenchmarkFixtures.privateKey()));
+        if (privateKeyFormat == PrivateKeyFormat.PLAIN) {
+            privateKeySpec = new RSAPrivateKeySpec(privateKeySpec.getModulus(),
+                    privateKeySpec.getPrivateExponent());
+        }
+        encryptionUtil = new EncryptionUtil(
+                new RsaEncrypter(publicKeySpec, Encoding.BASE64, messagesPerKey, 0),
+                new RsaDecrypter(privateKeySpec));
+
+        plain = BenchmarkFixtures.text(64);
+        encrypted = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            encrypted[i] = encryptionUtil.encrypt(plain);
+        }
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public String encrypt() {
+        return encryptionUtil.encrypt(plain);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        index = (index + 1) % MESSAGES;
+        return encryptionUtil.decrypt(encrypted[index]);
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The formats of the private key.
+     */
+    public enum PrivateKeyFormat {
+
+        /**
+         * The private key with the CRT parameters as written by current key files.
+         */
+        CRT,
+
+        /**
+         * Only modulus and private exponent as written by legacy key files.
+         */
+        PLAIN
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmEncrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaEncrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the creation of {@value #INSTANCES} encrypters as an application with many keys does
+ * at startup. {@code create} only constructs them, {@code createAndCheck} also runs the self test
+ * of {@link Encrypter#isReadyToOperate()}. With {@link KeyReuse#SHARED} all instances use the
+ * same key, with {@link KeyReuse#DISTINCT} every instance has its own key. Every instance
+ * derives its key once when it is created.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:34
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final int INSTANCES = 1000;
+
+    @Param({"CBC", "GCM", "RSA"})
+    public BenchmarkFixtures.Crypter crypter;
+
+    @Param({"SHARED", "DISTINCT"})
+    public KeyReuse keyReuse;
+
+    private String[] passPhrases;
+
+    private RSAPublicKeySpec publicKeySpec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        passPhrases = new String[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            passPhrases[i] = keyReuse == KeyReuse.SHARED
+                    ? BenchmarkFixtures.PASS_PHRASE : BenchmarkFixtures.PASS_PHRASE + i;
+        }
+        publicKeySpec = new RsaKeyFactory().readPublicKey(
+                new ByteArrayInputStream(BenchmarkFixtures.publicKey()));
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public Encrypter[] create() {
+        Encrypter[] encrypters = new Encrypter[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            encrypters[i] = createEncrypter(i);
+        }
+        return encrypters;
+    }
+
+    @Benchmark
+    public Encrypter[] createAndCheck() {
+        Encrypter[] encrypters = new Encrypter[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            encrypters[i] = createEncrypter(i);
+            if (!encrypters[i].isReadyToOperate()) {
+                throw new IllegalStateException("Encrypter not ready to operate.");
+            }
+        }
+        return encrypters;
+    }
+
+
+    //
+    // helper
+    //
+
+    private Encrypter createEncrypter(int i) {
+        switch (crypter) {
+            case CBC:
+                return new SymmetricKeyEncrypter(passPhrases[i]);
+            case GCM:
+                return new GcmEncrypter(passPhrases[i]);
+            case RSA:
+                // RSA keys are not derived, every instance uses the same public key
+                return new RsaEncrypter(publicKeySpec);
+            default:
+                throw new IllegalArgumentException("Unsupported crypter " + crypter);
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Whether the created encrypters share their key.
+     */
+    public enum KeyReuse {
+        SHARED, DISTINCT
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the benchmarks of {@link AbstractStreamBenchmark} in a single thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:24
+ */
+@Threads(1)
+public class StreamBenchmark extends AbstractStreamBenchmark {
+}
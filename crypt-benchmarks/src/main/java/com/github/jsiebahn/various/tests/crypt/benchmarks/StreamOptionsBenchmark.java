@@ -0,0 +1,138 @@
+package com.github.jsiebahn.various.tests.crypt.benchmarks;
+
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Crypter;
+import com.github.jsiebahn.various.tests.crypt.benchmarks.BenchmarkFixtures.Payload;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the optional stages of binary encrypted streams against plain CBC: the HMAC frames
+ * of authenticated CBC streams, the authenticated GCM chunks and the deflate compression. The
+ * sizes of plain and encrypted data are reported as the secondary results {@code plainBytes}
+ * and {@code encryptedBytes}, their ratio is the size effect of the option.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 14:42
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamOptionsBenchmark {
+
+    @Param({"CBC", "CBC_HMAC", "GCM", "CBC_DEFLATE", "GCM_DEFLATE"})
+    public StreamOption option;
+
+    @Param({"RANDOM", "TEXT"})
+    public Payload payload;
+
+    @Param({"16777216"})
+    public int payloadSize;
+
+    private EncryptionUtil encryptionUtil;
+
+    private byte[] plain;
+
+    private byte[] encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionUtil = BenchmarkFixtures.createEncryptionUtil(option.crypter, Encoding.BINARY,
+                option.compression, option.authenticated);
+        plain = BenchmarkFixtures.payload(payloadSize, payload);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!encryptionUtil.encrypt(new ByteArrayInputStream(plain), out)) {
+            throw new IllegalStateException("Could not prepare encrypted data.");
+        }
+        encrypted = out.toByteArray();
+    }
+
+
+    //
+    // benchmarks
+    //
+
+    @Benchmark
+    public long encryptStream(Sizes sizes) {
+        CountingOutputStream out = new CountingOutputStream();
+        encryptionUtil.encrypt(new ByteArrayInputStream(plain), out);
+        sizes.plainBytes += plain.length;
+        sizes.encryptedBytes += out.getCount();
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long decryptStream() {
+        CountingOutputStream out = new CountingOutputStream();
+        encryptionUtil.decrypt(new ByteArrayInputStream(encrypted), out);
+        return out.getCount();
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The combinations of crypter and optional stream stages.
+     */
+    public enum StreamOption {
+
+        CBC(Crypter.CBC, Compression.NONE, false),
+        CBC_HMAC(Crypter.CBC, Compression.NONE, true),
+        GCM(Crypter.GCM, Compression.NONE, false),
+        CBC_DEFLATE(Crypter.CBC, Compression.DEFLATE, false),
+        GCM_DEFLATE(Crypter.GCM, Compression.DEFLATE, false);
+
+        private final Crypter crypter;
+
+        private final Compression compression;
+
+        private final boolean authenticated;
+
+        StreamOption(Crypter crypter, Compression compression, boolean authenticated) {
+            this.crypter = crypter;
+            this.compression = compression;
+            this.authenticated = authenticated;
+        }
+    }
+
+    /**
+     * Counts the bytes before and after encryption of each iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long plainBytes;
+
+        public long encryptedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            plainBytes = 0;
+            encryptedBytes = 0;
+        }
+    }
+
+}
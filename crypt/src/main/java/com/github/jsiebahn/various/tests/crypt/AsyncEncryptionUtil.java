@@ -0,0 +1,536 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.internal.BoundedPipe;
+import com.github.jsiebahn.various.tests.crypt.internal.PullingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking operations of an {@link EncryptionUtil} on an {@link ExecutorService}, so
+ * that callers can continue while data is encrypted or decrypted. The results are delivered as
+ * {@link Future}s that complete with the same values the {@link EncryptionUtil} returns:
+ * {@code null} or {@code false} if the operation failed. Callers that must not block on the
+ * {@link Future} pass a {@link CompletionListener} that is notified when the operation ends.
+ *
+ * Streams can be processed as a pull source with {@link #openEncryptingStream(InputStream)} and
+ * {@link #openDecryptingStream(InputStream)}. If the {@link Encrypter} or {@link Decrypter} is a
+ * {@link StreamingEncrypter} or {@link StreamingDecrypter}, like those of AES, the cipher runs in
+ * the reading thread and no executor is involved. Other implementations are run by a background
+ * task that writes into a pipe with a buffer of {@link #PIPE_SIZE} bytes and blocks while the
+ * buffer is full, so the consumer controls the pace and the memory used per stream is bounded.
+ * Such a task occupies a thread of the executor until the stream is consumed or closed. If it
+ * does not start within the start timeout, e.g. because all threads of a bounded executor are
+ * occupied, reading fails with an {@link IOException} instead of waiting forever.
+ *
+ * Without an explicit executor, a pool of daemon threads sized to the available processors is
+ * used. Its threads are reused, so the ciphers and random generators cached per thread are
+ * reused as well. That executor is shut down by {@link #close()}, an executor provided by the
+ * caller is left untouched. Operations the executor rejects, e.g. after it has been shut down,
+ * are logged and end with a failed {@link Future} instead of an exception.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:45
+ */
+public class AsyncEncryptionUtil implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEncryptionUtil.class);
+
+    /**
+     * The size of the buffer between the source and the consumer of an
+     * {@link #openEncryptingStream(InputStream) encrypting} or
+     * {@link #openDecryptingStream(InputStream) decrypting} stream.
+     */
+    public static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * The default time in milliseconds a background task of an opened stream may take to start.
+     */
+    public static final long DEFAULT_START_TIMEOUT_MILLIS = 10 * 1000;
+
+    private final EncryptionUtil encryptionUtil;
+
+    private final ExecutorService executor;
+
+    /**
+     * If the {@link #executor} has been created by this instance and is shut down on
+     * {@link #close()}.
+     */
+    private final boolean ownExecutor;
+
+    /**
+     * The time in milliseconds a background task of an opened stream may take to start.
+     */
+    private final long startTimeoutMillis;
+
+
+    /**
+     * Creates an {@link AsyncEncryptionUtil} with a default executor.
+     *
+     * @param encryptionUtil the {@link EncryptionUtil} performing the operations
+     */
+    public AsyncEncryptionUtil(EncryptionUtil encryptionUtil) {
+        this(encryptionUtil, null);
+    }
+
+    /**
+     * @param encryptionUtil the {@link EncryptionUtil} performing the operations
+     * @param executor the executor to run the operations on, {@code null} for a default executor
+     */
+    public AsyncEncryptionUtil(EncryptionUtil encryptionUtil, ExecutorService executor) {
+        this(encryptionUtil, executor, DEFAULT_START_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param encryptionUtil the {@link EncryptionUtil} performing the operations
+     * @param executor the executor to run the operations on, {@code null} for a default executor
+     * @param startTimeoutMillis the time in milliseconds a background task of an opened stream
+     *      may take to start before the stream fails
+     */
+    public AsyncEncryptionUtil(EncryptionUtil encryptionUtil, ExecutorService executor,
+            long startTimeoutMillis) {
+        this.encryptionUtil = encryptionUtil;
+        this.ownExecutor = executor == null;
+        this.executor = executor == null ? createDefaultExecutor() : executor;
+        this.startTimeoutMillis = startTimeoutMillis;
+    }
+
+
+    //
+    // encryption api
+    //
+
+    /**
+     * @see EncryptionUtil#encrypt(String)
+     */
+    public Future<String> encrypt(String plain) {
+        return encrypt(plain, null);
+    }
+
+    /**
+     * @param listener notified when the encryption ends, may be {@code null}
+     * @see EncryptionUtil#encrypt(String)
+     */
+    public Future<String> encrypt(final String plain,
+            CompletionListener<? super String> listener) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return encryptionUtil.encrypt(plain);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see EncryptionUtil#encrypt(byte[])
+     */
+    public Future<byte[]> encrypt(byte[] plain) {
+        return encrypt(plain, null);
+    }
+
+    /**
+     * @param listener notified when the encryption ends, may be {@code null}
+     * @see EncryptionUtil#encrypt(byte[])
+     */
+    public Future<byte[]> encrypt(final byte[] plain,
+            CompletionListener<? super byte[]> listener) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return encryptionUtil.encrypt(plain);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see EncryptionUtil#encrypt(InputStream, OutputStream)
+     */
+    public Future<Boolean> encrypt(InputStream plain, OutputStream encrypted) {
+        return encrypt(plain, encrypted, null);
+    }
+
+    /**
+     * @param listener notified when the encryption ends, may be {@code null}
+     * @see EncryptionUtil#encrypt(InputStream, OutputStream)
+     */
+    public Future<Boolean> encrypt(InputStream plain, OutputStream encrypted,
+            CompletionListener<? super Boolean> listener) {
+        return submit(new StreamTask(plain, encrypted, true), listener);
+    }
+
+    /**
+     * Provides the encrypted content of {@code plain} as a stream. Reading the returned stream
+     * throws an {@link IOException} if the encryption failed. Closing it before the end stops the
+     * encryption.
+     *
+     * @param plain the stream where the plain content is read from
+     * @return the stream of the encrypted content or {@code null} if the encryption can not be
+     *      started
+     */
+    public InputStream openEncryptingStream(InputStream plain) {
+        if (!encryptionUtil.supportsOpenedStreams(true)) {
+            return openPipe(plain, true);
+        }
+        PullingInputStream.Buffer buffer = new PullingInputStream.Buffer();
+        OutputStream encrypting = encryptionUtil.openEncryptingStream(buffer);
+        return encrypting != null
+                ? new PullingInputStream(plain, encrypting, buffer, PIPE_SIZE)
+                : null;
+    }
+
+
+    //
+    // decryption api
+    //
+
+    /**
+     * @see EncryptionUtil#decrypt(String)
+     */
+    public Future<String> decrypt(String encrypted) {
+        return decrypt(encrypted, null);
+    }
+
+    /**
+     * @param listener notified when the decryption ends, may be {@code null}
+     * @see EncryptionUtil#decrypt(String)
+     */
+    public Future<String> decrypt(final String encrypted,
+            CompletionListener<? super String> listener) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return encryptionUtil.decrypt(encrypted);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see EncryptionUtil#decrypt(byte[])
+     */
+    public Future<byte[]> decrypt(byte[] encrypted) {
+        return decrypt(encrypted, null);
+    }
+
+    /**
+     * @param listener notified when the decryption ends, may be {@code null}
+     * @see EncryptionUtil#decrypt(byte[])
+     */
+    public Future<byte[]> decrypt(final byte[] encrypted,
+            CompletionListener<? super byte[]> listener) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return encryptionUtil.decrypt(encrypted);
+            }
+        }, listener);
+    }
+
+    /**
+     * @see EncryptionUtil#decrypt(InputStream, OutputStream)
+     */
+    public Future<Boolean> decrypt(InputStream encrypted, OutputStream plain) {
+        return decrypt(encrypted, plain, null);
+    }
+
+    /**
+     * @param listener notified when the decryption ends, may be {@code null}
+     * @see EncryptionUtil#decrypt(InputStream, OutputStream)
+     */
+    public Future<Boolean> decrypt(InputStream encrypted, OutputStream plain,
+            CompletionListener<? super Boolean> listener) {
+        return submit(new StreamTask(encrypted, plain, false), listener);
+    }
+
+    /**
+     * Provides the plain content of {@code encrypted} as a stream. Reading the returned stream
+     * throws an {@link IOException} if the decryption failed, so content read from a stream that
+     * did not end regularly must not be trusted. Closing it before the end stops the decryption.
+     *
+     * @param encrypted the stream where the encrypted content is read from
+     * @return the stream of the plain content or {@code null} if the decryption can not be
+     *      started
+     */
+    public InputStream openDecryptingStream(InputStream encrypted) {
+        if (!encryptionUtil.supportsOpenedStreams(false)) {
+            return openPipe(encrypted, false);
+        }
+        return encryptionUtil.openDecryptingStream(encrypted);
+    }
+
+
+    //
+    // lifecycle
+    //
+
+    /**
+     * Shuts down the default executor after the submitted operations. An executor provided by the
+     * caller is not shut down.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Runs {@code callable} on the {@link #executor} and notifies the {@code listener} when it
+     * ends.
+     */
+    private <T> Future<T> submit(Callable<T> callable, CompletionListener<? super T> listener) {
+        FutureTask<T> task = createTask(callable, listener);
+        try {
+            executor.execute(task);
+            return task;
+        } catch (final RejectedExecutionException e) {
+            log.error("Executor rejected the operation, it may have been shut down.", e);
+            FutureTask<T> failed = createTask(new Callable<T>() {
+                @Override
+                public T call() {
+                    throw e;
+                }
+            }, listener);
+            // completes the task exceptionally and notifies the listener in the calling thread
+            failed.run();
+            return failed;
+        }
+    }
+
+    /**
+     * Creates a task for {@code callable} that notifies the {@code listener} if there is one.
+     */
+    private static <T> FutureTask<T> createTask(Callable<T> callable,
+            CompletionListener<? super T> listener) {
+        return listener == null
+                ? new FutureTask<T>(callable)
+                : new NotifyingTask<T>(callable, listener);
+    }
+
+    /**
+     * Processes {@code source} in a background task that writes into a pipe.
+     */
+    private InputStream openPipe(InputStream source, boolean encryption) {
+        BoundedPipe pipe = new BoundedPipe(PIPE_SIZE);
+        StreamTask task = new StreamTask(source, pipe.sink(), encryption);
+        Future<Boolean> result;
+        try {
+            result = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            log.error("Executor rejected the stream processing, it may have been shut down.", e);
+            return null;
+        }
+        return new PipeInputStream(pipe.source(), task, result);
+    }
+
+    /**
+     * Waits until the background task of a pipe has started. The task is cancelled if it does not
+     * start in time.
+     *
+     * @throws IOException if the task did not start in time
+     */
+    private void awaitStart(StreamTask task, Future<Boolean> result) throws IOException {
+        try {
+            if (!task.started.await(startTimeoutMillis, TimeUnit.MILLISECONDS)
+                    && result.cancel(true)) {
+                throw new IOException("Background processing of stream did not start within "
+                        + startTimeoutMillis + " ms, the executor may be saturated.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel(true);
+            throw new IOException("Interrupted while waiting for background processing.", e);
+        }
+    }
+
+    /**
+     * Waits for the background processing of a stream.
+     *
+     * @throws IOException if the processing failed
+     */
+    private static void checkResult(Future<Boolean> result) throws IOException {
+        try {
+            if (!Boolean.TRUE.equals(result.get())) {
+                throw new IOException("Background processing of stream failed.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for background processing.", e);
+        } catch (CancellationException e) {
+            throw new IOException("Background processing of stream has been cancelled.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Background processing of stream failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads sized to the available processors.
+     */
+    private static ExecutorService createDefaultExecutor() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new DaemonThreadFactory());
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Encrypts or decrypts a stream and closes the target, so that a pipe sees the end.
+     */
+    private class StreamTask implements Callable<Boolean> {
+
+        /**
+         * Counted down when the task starts.
+         */
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final InputStream source;
+
+        private final OutputStream target;
+
+        private final boolean encryption;
+
+        StreamTask(InputStream source, OutputStream target, boolean encryption) {
+            this.source = source;
+            this.target = target;
+            this.encryption = encryption;
+        }
+
+        @Override
+        public Boolean call() {
+            started.countDown();
+            try (OutputStream closedTarget = target) {
+                return encryption
+                        ? encryptionUtil.encrypt(source, closedTarget)
+                        : encryptionUtil.decrypt(source, closedTarget);
+            } catch (IOException e) {
+                log.error("Could not close target stream.", e);
+                return false;
+            }
+        }
+
+    }
+
+    /**
+     * A task that notifies a {@link CompletionListener} when it ends.
+     */
+    private static class NotifyingTask<T> extends FutureTask<T> {
+
+        private final CompletionListener<? super T> listener;
+
+        NotifyingTask(Callable<T> callable, CompletionListener<? super T> listener) {
+            super(callable);
+            this.listener = listener;
+        }
+
+        @Override
+        protected void done() {
+            try {
+                if (isCancelled()) {
+                    listener.failed(new CancellationException());
+                    return;
+                }
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    listener.failed(e.getCause());
+                    return;
+                } catch (InterruptedException e) {
+                    // can not happen as the task is done
+                    Thread.currentThread().interrupt();
+                    listener.failed(e);
+                    return;
+                }
+                listener.completed(result);
+            } catch (RuntimeException e) {
+                log.error("Completion listener failed.", e);
+            }
+        }
+
+    }
+
+    /**
+     * The consumer side of a pipe that reports the failure of the background task at the end of
+     * the stream.
+     */
+    private class PipeInputStream extends FilterInputStream {
+
+        private final StreamTask task;
+
+        private final Future<Boolean> result;
+
+        PipeInputStream(InputStream in, StreamTask task, Future<Boolean> result) {
+            super(in);
+            this.task = task;
+            this.result = result;
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitStart(task, result);
+            int read = super.read();
+            if (read == -1) {
+                checkResult(result);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            awaitStart(task, result);
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                checkResult(result);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            result.cancel(true);
+        }
+
+    }
+
+    /**
+     * Creates daemon threads so that the default executor does not keep the VM alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "async-encryption-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.util.List;
+
+/**
+ * An {@link Encrypter} that is also able to encrypt many values in one call. Implementations
+ * share the expensive parts of an encryption, like the cipher, the output buffer and the call of
+ * the {@link RandomSource}, between all values of the call. Every value is encrypted with its own
+ * initialisation vector and can be decrypted by the corresponding {@link Decrypter} like a single
+ * encrypted value.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:10
+ */
+public interface BatchEncrypter extends Encrypter {
+
+    /**
+     * Encrypts the texts {@code plain[from, to)} like {@link #encrypt(String)} into
+     * {@code encrypted[from, to)}. Values that can not be encrypted are left {@code null}.
+     *
+     * @param plain the plain texts
+     * @param encrypted receives the encrypted texts at the index of the plain text
+     * @param from the index of the first value to encrypt
+     * @param to the index after the last value to encrypt
+     */
+    public void encryptAll(List<String> plain, String[] encrypted, int from, int to);
+
+    /**
+     * Encrypts the byte arrays {@code plain[from, to)} into {@code encrypted[from, to)}. The
+     * result of every value is the same as if it were encrypted with
+     * {@link #encrypt(java.io.InputStream, java.io.OutputStream)}. Values that can not be
+     * encrypted are left {@code null}.
+     *
+     * @param plain the plain byte arrays
+     * @param encrypted receives the encrypted byte arrays at the index of the plain byte array
+     * @param from the index of the first value to encrypt
+     * @param to the index after the last value to encrypt
+     */
+    public void encryptAll(byte[][] plain, byte[][] encrypted, int from, int to);
+
+}
@@ -0,0 +1,38 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Decrypter} that is also able to decrypt {@link ByteBuffer}s into {@link ByteBuffer}s
+ * supplied by the caller. It reads the raw binary output of
+ * {@link ByteBufferEncrypter#encrypt(ByteBuffer, ByteBuffer)}, which is the Base64 decoded form of
+ * {@link Encrypter#encrypt(String)}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:04
+ */
+public interface ByteBufferDecrypter extends Decrypter {
+
+    /**
+     * Calculates the space required in the {@code plain} buffer of
+     * {@link #decrypt(ByteBuffer, ByteBuffer)}.
+     *
+     * @param encryptedLength the number of encrypted bytes to decrypt
+     * @return the maximum number of plain bytes for {@code encryptedLength} encrypted bytes
+     */
+    public int getMaxPlainLength(int encryptedLength);
+
+    /**
+     * Decrypts the remaining bytes of {@code encrypted} into {@code plain}. On success the
+     * position of {@code encrypted} is at its limit and the position of {@code plain} is advanced
+     * by the number of bytes written. On failure both positions are unchanged, but the content of
+     * {@code plain} behind its position is undefined.
+     *
+     * @param encrypted the buffer with the encrypted data
+     * @param plain the buffer the plain data is written to. It needs at least
+     *      {@link #getMaxPlainLength(int)} bytes remaining.
+     * @return if the decryption ended successfully
+     */
+    public boolean decrypt(ByteBuffer encrypted, ByteBuffer plain);
+
+}
@@ -0,0 +1,39 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link Encrypter} that is also able to encrypt {@link ByteBuffer}s into {@link ByteBuffer}s
+ * supplied by the caller. It is meant for hot paths that encrypt many small messages, where the
+ * {@link String} and stream methods allocate intermediate arrays and Base64 representations for
+ * every call. The output is the raw binary form of the result of {@link #encrypt(String)}, so a
+ * Base64 encoding of it can be decrypted with the corresponding {@link Decrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:02
+ */
+public interface ByteBufferEncrypter extends Encrypter {
+
+    /**
+     * Calculates the space required in the {@code encrypted} buffer of
+     * {@link #encrypt(ByteBuffer, ByteBuffer)}.
+     *
+     * @param plainLength the number of plain bytes to encrypt
+     * @return the maximum number of bytes written for {@code plainLength} plain bytes
+     */
+    public int getMaxEncryptedLength(int plainLength);
+
+    /**
+     * Encrypts the remaining bytes of {@code plain} into {@code encrypted}. On success the
+     * position of {@code plain} is at its limit and the position of {@code encrypted} is advanced
+     * by the number of bytes written. On failure both positions are unchanged, but the content of
+     * {@code encrypted} behind its position is undefined.
+     *
+     * @param plain the buffer with the plain data
+     * @param encrypted the buffer the encrypted data is written to. It needs at least
+     *      {@link #getMaxEncryptedLength(int)} bytes remaining.
+     * @return if the encryption ended successfully
+     */
+    public boolean encrypt(ByteBuffer plain, ByteBuffer encrypted);
+
+}
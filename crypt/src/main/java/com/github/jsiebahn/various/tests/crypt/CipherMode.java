@@ -0,0 +1,26 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * The block cipher modes supported for symmetric key encryption with a pass phrase. The mode is
+ * selected with {@link EncryptionUtilBuilder#withCipherMode(CipherMode)}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 13:10
+ */
+public enum CipherMode {
+
+    /**
+     * AES in Cipher Block Chaining mode as implemented by
+     * {@link com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter}. The encrypted
+     * data is not authenticated. This is the default for compatibility with existing data.
+     */
+    CBC,
+
+    /**
+     * AES in Galois/Counter Mode as implemented by
+     * {@link com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmEncrypter}. The encrypted data is
+     * split into authenticated chunks.
+     */
+    GCM
+
+}
@@ -0,0 +1,31 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * Is notified when an operation of the {@link AsyncEncryptionUtil} ends, so that the caller does
+ * not have to block on the returned {@link java.util.concurrent.Future}. The listener is called
+ * in the thread that ended the operation, usually a thread of the executor, and should return
+ * quickly.
+ *
+ * @param <T> the type of the result of the operation
+ * @author jsiebahn
+ * @since 17.10.26 20:45
+ */
+public interface CompletionListener<T> {
+
+    /**
+     * Called when the operation has been performed. Like the operations of the
+     * {@link EncryptionUtil}, the {@code result} is {@code null} or {@code false} if the
+     * operation failed.
+     *
+     * @param result the result of the operation
+     */
+    public void completed(T result);
+
+    /**
+     * Called when the operation has been cancelled or ended with an exception.
+     *
+     * @param cause the exception or a {@link java.util.concurrent.CancellationException}
+     */
+    public void failed(Throwable cause);
+
+}
@@ -0,0 +1,25 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * The compression applied to streams before they are encrypted. The compression is selected with
+ * {@link EncryptionUtilBuilder#withCompression(Compression)}. The codec is recorded as type in
+ * the binary header of the encrypted data, so decryption reverses it without further
+ * configuration.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+public enum Compression {
+
+    /**
+     * No compression. This is the default.
+     */
+    NONE,
+
+    /**
+     * Compression with {@link java.util.zip.Deflater} in the zlib format. It suits text based
+     * payloads like JSON and logs.
+     */
+    DEFLATE
+
+}
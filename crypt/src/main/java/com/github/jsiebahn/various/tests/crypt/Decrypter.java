@@ -4,8 +4,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * A {@code Decrypter} performs the decryption. All implemented methods should be thread safe. Every
- * {@code Decrypter} shall have a corresponding {@link Encrypter}.
+ * A {@code Decrypter} performs the decryption. All implemented methods must be thread safe, like
+ * those of the {@link Encrypter}. Every {@code Decrypter} shall have a corresponding
+ * {@link Encrypter}.
  *
  * @author jsiebahn
  * @since 24.10.14 07:01
@@ -0,0 +1,26 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * The encodings of encrypted streams and byte arrays. The encoding is selected with
+ * {@link EncryptionUtilBuilder#withEncoding(Encoding)}. Decryption detects the encoding
+ * automatically, so data written with any encoding can be decrypted. Encrypted {@link String}s are
+ * always Base64 encoded.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:40
+ */
+public enum Encoding {
+
+    /**
+     * The encrypted data is Base64 encoded without a header. This is the default and the format
+     * of all data encrypted before binary encoding was available.
+     */
+    BASE64,
+
+    /**
+     * The encrypted data is written as binary data behind a versioned header. It is about 25%
+     * smaller than {@link #BASE64} and avoids the encoding and decoding costs.
+     */
+    BINARY
+
+}
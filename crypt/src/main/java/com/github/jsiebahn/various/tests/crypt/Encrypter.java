@@ -4,7 +4,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
- * An {@code Encrypter} performs the encryption. All implemented methods should be thread safe.
+ * An {@code Encrypter} performs the encryption. All implemented methods must be thread safe, one
+ * instance is usually shared by all threads using the same key.
  * Every {@code Encrypter} shall have a corresponding {@link Decrypter}. Because an
  * {@code Encrypter} is able to return {@link String} values as encryption result, the encrypted
  * result of {@link #encrypt(String)} and
@@ -37,6 +38,11 @@ public interface Encrypter {
 
 
     /**
+     * Implementations may run a test encryption on the first call instead of in their
+     * constructor, so creating many instances stays cheap. The first call may therefore be
+     * expensive and can be made from a background thread to check the instance before it is
+     * used.
+     *
      * @return returns {@code true} if the instance is ready to operate and can start with
      *      encryption. It may be not ready to operate if required data is missing to perform
      *      encryption or initialization is in progress.
@@ -1,12 +1,36 @@
 package com.github.jsiebahn.various.tests.crypt;
 
+import com.github.jsiebahn.various.tests.crypt.internal.BatchUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.TextInputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.TextOutputStream;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Operation;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.internal.TimedInputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.TimedOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A utility that wraps the java crypt api for easy access without exceptions to perform encryption
@@ -25,6 +49,27 @@ import java.io.OutputStream;
  * If you are tired of catching exceptions and need encryption, {@code EncryptionUtil} is the right
  * tool for you.
  *
+ * An {@code EncryptionUtil} is thread safe if its {@code Encrypter} and {@code Decrypter} are,
+ * which holds for all implementations of this module. One instance per key should be shared by
+ * all threads of an application. Shared state of the implementations is either immutable,
+ * confined to the calling thread, like pooled ciphers, buffers and random generators, or held in
+ * short per instance critical sections, like the session key of the RSA encrypter and the session
+ * key cache of the RSA decrypter. Process wide state is limited to atomic counters, the lock free
+ * queues of the RSA key pool and the worker pool shared by parallel batches and GCM streams. The
+ * only process wide lock is that of the strong seed generator, which is taken when a random
+ * generator of a thread reseeds periodically.
+ *
+ * All operations, including those on byte arrays, files and batches, are reported to the
+ * {@link Instrumentations#getDefault() Instrumentation} if one is set. Stream operations also
+ * report the time spent reading and writing the given streams as {@link Phase#IO}. Opened streams
+ * are not reported, as their duration is controlled by the caller.
+ *
+ * Large texts are encrypted by writing them to a {@link #openEncryptingWriter(OutputStream)
+ * Writer} and decrypted by reading them from a {@link #openDecryptingReader(InputStream) Reader}.
+ * Writers and readers are synchronous wrappers of the opened streams that run the cipher in the
+ * calling thread and are only available for a {@link StreamingEncrypter} or
+ * {@link StreamingDecrypter}.
+ *
  * As the {@code EncryptionUtil} uses standard Java APIs, it gives you the security and bugs the
  * Java standard API of {@code javax.crypto} and {@code java.security} offers. There will be no
  * warranty for insecure encryption or loss of data. How the API is accessed can and should be
@@ -41,12 +86,12 @@ public class EncryptionUtil {
     /**
      * The {@link Encrypter} used to encrypt data.
      */
-    private Encrypter encrypter;
+    private final Encrypter encrypter;
 
     /**
      * The {@link Decrypter} used to decrypt data.
      */
-    private Decrypter decrypter;
+    private final Decrypter decrypter;
 
 
     /**
@@ -114,9 +159,10 @@ public class EncryptionUtil {
      */
     public String encrypt(String plain, boolean force) {
         if (!isConfiguredForEncryption(force)) {
+            recordRejected(Operation.ENCRYPT_STRING);
             return null;
         }
-        return encrypter.encrypt(plain);
+        return encryptString(plain);
     }
 
     /**
@@ -158,7 +204,11 @@ public class EncryptionUtil {
      * @return if the encryption has been successful
      */
     public boolean encrypt(InputStream plain, OutputStream encrypted, boolean force) {
-        return isConfiguredForEncryption(force) && encrypter.encrypt(plain, encrypted);
+        if (!isConfiguredForEncryption(force)) {
+            recordRejected(Operation.ENCRYPT_STREAM);
+            return false;
+        }
+        return processStream(plain, encrypted, true);
     }
 
     public byte[] encrypt(byte[] plain) {
@@ -177,6 +227,210 @@ public class EncryptionUtil {
         return os.toByteArray();
     }
 
+    /**
+     * Encrypts the content of the file {@code plain} into the file {@code encrypted}. If the
+     * {@link #encrypter} is a {@link FileEncrypter}, the plain file is read through memory
+     * mapped regions directly into the cipher and the encrypted file is written through its
+     * channel, otherwise both files are processed through buffered streams. The encrypted file
+     * has the same content as if the files were processed with
+     * {@link #encrypt(InputStream, OutputStream)}. An existing {@code encrypted} file is
+     * replaced. If the encryption fails, the incomplete {@code encrypted} file is deleted. If the
+     * instance is initialized without {@link #decrypter},
+     * {@link #encryptFile(Path, Path, boolean)} should be used for encryption instead of this
+     * method.
+     *
+     * @param plain the file where the plain content is read from
+     * @param encrypted the file where the encrypted content is written to
+     * @return if the encryption has been successful
+     */
+    public boolean encryptFile(Path plain, Path encrypted) {
+        return encryptFile(plain, encrypted, false);
+    }
+
+    /**
+     * Encrypts the content of the file {@code plain} into the file {@code encrypted} as described
+     * in {@link #encryptFile(Path, Path)}.
+     *
+     * @param plain the file where the plain content is read from
+     * @param encrypted the file where the encrypted content is written to
+     * @param force if encryption should be performed although there is no {@link #decrypter} that
+     *      {@link Decrypter#isReadyToOperate() is ready to operate}
+     * @return if the encryption has been successful
+     */
+    public boolean encryptFile(Path plain, Path encrypted, boolean force) {
+        return isConfiguredForEncryption(force) && processFile(plain, encrypted, true);
+    }
+
+    /**
+     * Opens a stream that encrypts everything written to it into {@code encrypted}. The cipher
+     * runs in the writing thread, so large content can be encrypted incrementally without a
+     * background thread. The result equals the result of
+     * {@link #encrypt(InputStream, OutputStream)} for the same content. Closing the returned
+     * stream completes the encryption and closes {@code encrypted}. This requires a
+     * {@link StreamingEncrypter}. If the instance is initialized without {@link #decrypter},
+     * {@link #openEncryptingStream(OutputStream, boolean)} should be used instead of this method.
+     *
+     * @param encrypted the stream where the encrypted content is written to
+     * @return the stream for the plain content or {@code null} if the encryption can not be
+     *      started, e.g. because the {@link #encrypter} is not a {@link StreamingEncrypter}
+     */
+    public OutputStream openEncryptingStream(OutputStream encrypted) {
+        return openEncryptingStream(encrypted, false);
+    }
+
+    /**
+     * Opens a stream that encrypts everything written to it into {@code encrypted} as described
+     * in {@link #openEncryptingStream(OutputStream)}.
+     *
+     * @param encrypted the stream where the encrypted content is written to
+     * @param force if encryption should be performed although there is no {@link #decrypter} that
+     *      {@link Decrypter#isReadyToOperate() is ready to operate}
+     * @return the stream for the plain content or {@code null} if the encryption can not be
+     *      started, e.g. because the {@link #encrypter} is not a {@link StreamingEncrypter}
+     */
+    public OutputStream openEncryptingStream(OutputStream encrypted, boolean force) {
+        if (!isConfiguredForEncryption(force)) {
+            return null;
+        }
+        if (!supportsOpenedStreams(true)) {
+            log.error("Encrypter {} can not encrypt opened streams.", this.encrypter);
+            return null;
+        }
+        return ((StreamingEncrypter) this.encrypter).openEncryptingStream(encrypted);
+    }
+
+    /**
+     * Encrypts the characters written to the returned {@link Writer} into {@code encrypted}. The
+     * characters are UTF-8 encoded and passed through
+     * {@link #openEncryptingStream(OutputStream)}, so the text is never held as a whole, unlike
+     * with {@link #encrypt(String)}. The result equals the result of {@link #encrypt(String)} for
+     * the whole text if the encrypted streams are Base64 encoded. Closing the writer completes
+     * the encryption, closes {@code encrypted} and throws an {@link IOException} if the
+     * encryption failed. This requires a {@link StreamingEncrypter}.
+     *
+     * @param encrypted the stream where the encrypted content is written to
+     * @return the writer for the plain text or {@code null} if the encryption can not be started,
+     *      e.g. because the {@link #encrypter} is not a {@link StreamingEncrypter}
+     */
+    public Writer openEncryptingWriter(OutputStream encrypted) {
+        OutputStream plain = openEncryptingStream(encrypted);
+        return plain != null ? new OutputStreamWriter(plain, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Encrypts the characters written to the returned {@link Writer} and writes the Base64
+     * encoded result as text to {@code encrypted}, e.g. a text column of a database. If this
+     * instance is configured for {@link Encoding#BINARY binary} streams, the encryption can not
+     * be started.
+     *
+     * @param encrypted the writer where the encrypted text is written to
+     * @return the writer for the plain text or {@code null} if the encryption can not be started
+     * @see #openEncryptingWriter(OutputStream)
+     */
+    public Writer openEncryptingWriter(Writer encrypted) {
+        return openEncryptingWriter(new TextOutputStream(encrypted));
+    }
+
+
+    //
+    // batch encryption api
+    //
+
+    /**
+     * Encrypts all {@code plain} texts like {@link #encrypt(String)}. The configuration is checked
+     * once for the whole batch instead of once per value.
+     *
+     * @param plain the plain texts that should be encrypted
+     * @return the encrypted texts in the order of {@code plain}, with {@code null} for every value
+     *      that could not be encrypted, or {@code null} if this instance is not configured for
+     *      encryption
+     */
+    public List<String> encryptAll(List<String> plain) {
+        return encryptAll(plain, false, false);
+    }
+
+    /**
+     * Encrypts all {@code plain} texts like {@link #encrypt(String, boolean)}. The configuration
+     * is checked once for the whole batch. If the {@link #encrypter} is a {@link BatchEncrypter},
+     * all values of a slice share one cipher, one output buffer and one call of the
+     * {@link RandomSource}. Large batches may be split into slices of
+     * {@link BatchUtil#SLICE_SIZE} values that are encrypted concurrently.
+     *
+     * @param plain the plain texts that should be encrypted
+     * @param force if encryption should be performed although there is no {@link #decrypter} that
+     *      {@link Decrypter#isReadyToOperate() is ready to operate}
+     * @param parallel if slices of large batches shall be encrypted on all available processors
+     * @return the encrypted texts in the order of {@code plain}, with {@code null} for every value
+     *      that could not be encrypted, or {@code null} if this instance is not configured for
+     *      encryption
+     */
+    public List<String> encryptAll(final List<String> plain, boolean force, boolean parallel) {
+        if (plain == null || !isConfiguredForEncryption(force)) {
+            return null;
+        }
+        final String[] encrypted = new String[plain.size()];
+        boolean success = BatchUtil.process(encrypted.length, parallel,
+                new BatchUtil.SliceProcessor() {
+                    @Override
+                    public void process(int from, int to) {
+                        if (encrypter instanceof BatchEncrypter) {
+                            encryptSlice(plain, encrypted, from, to);
+                            return;
+                        }
+                        for (int i = from; i < to; i++) {
+                            encrypted[i] = encryptString(plain.get(i));
+                        }
+                    }
+                });
+        return success ? Arrays.asList(encrypted) : null;
+    }
+
+    /**
+     * Encrypts all {@code plain} byte arrays like {@link #encrypt(byte[])}. The configuration is
+     * checked once for the whole batch and the output buffer is reused for all values.
+     *
+     * @param plain the plain byte arrays that should be encrypted
+     * @return the encrypted byte arrays in the order of {@code plain}, with {@code null} for every
+     *      value that could not be encrypted, or {@code null} if this instance is not configured
+     *      for encryption
+     */
+    public byte[][] encryptAll(byte[][] plain) {
+        return encryptAll(plain, false, false);
+    }
+
+    /**
+     * Encrypts all {@code plain} byte arrays like {@link #encrypt(byte[], boolean)}. The
+     * configuration is checked once for the whole batch and the output buffer is reused for all
+     * values of a slice. If the {@link #encrypter} is a {@link BatchEncrypter}, the values of a
+     * slice also share one cipher and one call of the {@link RandomSource}. Large batches may be
+     * split into slices of {@link BatchUtil#SLICE_SIZE} values that are encrypted concurrently.
+     *
+     * @param plain the plain byte arrays that should be encrypted
+     * @param force if encryption should be performed although there is no {@link #decrypter} that
+     *      {@link Decrypter#isReadyToOperate() is ready to operate}
+     * @param parallel if slices of large batches shall be encrypted on all available processors
+     * @return the encrypted byte arrays in the order of {@code plain}, with {@code null} for every
+     *      value that could not be encrypted, or {@code null} if this instance is not configured
+     *      for encryption
+     */
+    public byte[][] encryptAll(final byte[][] plain, boolean force, boolean parallel) {
+        if (plain == null || !isConfiguredForEncryption(force)) {
+            return null;
+        }
+        if (!(this.encrypter instanceof BatchEncrypter)) {
+            return processAll(plain, parallel, true);
+        }
+        final byte[][] encrypted = new byte[plain.length][];
+        boolean success = BatchUtil.process(plain.length, parallel,
+                new BatchUtil.SliceProcessor() {
+                    @Override
+                    public void process(int from, int to) {
+                        encryptSlice(plain, encrypted, from, to);
+                    }
+                });
+        return success ? encrypted : null;
+    }
+
 
     //
     // decryption api
@@ -184,13 +438,18 @@ public class EncryptionUtil {
 
     public String decrypt(String encrypted) {
         if (!isConfiguredForDecryption()) {
+            recordRejected(Operation.DECRYPT_STRING);
             return null;
         }
-        return decrypter.decrypt(encrypted);
+        return decryptString(encrypted);
     }
 
     public boolean decrypt(InputStream encrypted, OutputStream plain) {
-        return isConfiguredForDecryption() && this.decrypter.decrypt(encrypted, plain);
+        if (!isConfiguredForDecryption()) {
+            recordRejected(Operation.DECRYPT_STREAM);
+            return false;
+        }
+        return processStream(encrypted, plain, false);
     }
 
 
@@ -206,11 +465,288 @@ public class EncryptionUtil {
         return os.toByteArray();
     }
 
+    /**
+     * Decrypts the content of the file {@code encrypted} into the file {@code plain}. If the
+     * {@link #decrypter} is a {@link FileDecrypter}, the encrypted file is read through memory
+     * mapped regions directly into the cipher and the plain file is written through its channel,
+     * otherwise both files are processed through buffered streams. An existing {@code plain}
+     * file is replaced. If the decryption fails, the incomplete {@code plain} file is deleted.
+     *
+     * @param encrypted the file where the encrypted content is read from
+     * @param plain the file where the plain content is written to
+     * @return if the decryption has been successful
+     */
+    public boolean decryptFile(Path encrypted, Path plain) {
+        return isConfiguredForDecryption() && processFile(encrypted, plain, false);
+    }
+
+    /**
+     * Opens a stream that provides the plain content of {@code encrypted} while it is read. The
+     * cipher runs in the reading thread, so large content can be decrypted incrementally without
+     * a background thread. Reading the returned stream throws an {@link IOException} if the
+     * content can not be decrypted, so content read from a stream that did not end regularly
+     * must not be trusted. Closing the returned stream closes {@code encrypted}. This requires a
+     * {@link StreamingDecrypter}.
+     *
+     * @param encrypted the stream where the encrypted content is read from
+     * @return the stream of the plain content or {@code null} if the decryption can not be
+     *      started, e.g. because the {@link #decrypter} is not a {@link StreamingDecrypter}
+     */
+    public InputStream openDecryptingStream(InputStream encrypted) {
+        if (!isConfiguredForDecryption()) {
+            return null;
+        }
+        if (!supportsOpenedStreams(false)) {
+            log.error("Decrypter {} can not decrypt opened streams.", this.decrypter);
+            return null;
+        }
+        return ((StreamingDecrypter) this.decrypter).openDecryptingStream(encrypted);
+    }
+
+    /**
+     * Decrypts {@code encrypted} and provides the plain text as a {@link Reader}. The plain
+     * content is read through {@link #openDecryptingStream(InputStream)} and decoded as UTF-8.
+     * Like the opened stream the reader throws an {@link IOException} if the decryption failed,
+     * so text read from a reader that did not end regularly must not be trusted. This requires a
+     * {@link StreamingDecrypter}.
+     *
+     * @param encrypted the stream where the encrypted content is read from
+     * @return the reader of the plain text or {@code null} if the decryption can not be started,
+     *      e.g. because the {@link #decrypter} is not a {@link StreamingDecrypter}
+     */
+    public Reader openDecryptingReader(InputStream encrypted) {
+        InputStream plain = openDecryptingStream(encrypted);
+        return plain != null ? new InputStreamReader(plain, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Decrypts Base64 encoded text read from {@code encrypted}, e.g. the result of
+     * {@link #encrypt(String)} stored in a text column, and provides the plain text as a
+     * {@link Reader}.
+     *
+     * @param encrypted the reader where the encrypted text is read from
+     * @return the reader of the plain text or {@code null} if the decryption can not be started
+     * @see #openDecryptingReader(InputStream)
+     */
+    public Reader openDecryptingReader(Reader encrypted) {
+        return openDecryptingReader(new TextInputStream(encrypted));
+    }
+
+
+    //
+    // batch decryption api
+    //
+
+    /**
+     * Decrypts all {@code encrypted} texts like {@link #decrypt(String)}. The configuration is
+     * checked once for the whole batch instead of once per value.
+     *
+     * @param encrypted the encrypted texts
+     * @return the plain texts in the order of {@code encrypted}, with {@code null} for every value
+     *      that could not be decrypted, or {@code null} if this instance is not configured for
+     *      decryption
+     */
+    public List<String> decryptAll(List<String> encrypted) {
+        return decryptAll(encrypted, false);
+    }
+
+    /**
+     * Decrypts all {@code encrypted} texts like {@link #decrypt(String)}. Large batches may be
+     * split into slices of {@link BatchUtil#SLICE_SIZE} values that are decrypted concurrently.
+     *
+     * @param encrypted the encrypted texts
+     * @param parallel if slices of large batches shall be decrypted on all available processors
+     * @return the plain texts in the order of {@code encrypted}, with {@code null} for every value
+     *      that could not be decrypted, or {@code null} if this instance is not configured for
+     *      decryption
+     */
+    public List<String> decryptAll(final List<String> encrypted, boolean parallel) {
+        if (encrypted == null || !isConfiguredForDecryption()) {
+            return null;
+        }
+        final String[] plain = new String[encrypted.size()];
+        boolean success = BatchUtil.process(plain.length, parallel,
+                new BatchUtil.SliceProcessor() {
+                    @Override
+                    public void process(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            plain[i] = decryptString(encrypted.get(i));
+                        }
+                    }
+                });
+        return success ? Arrays.asList(plain) : null;
+    }
+
+    /**
+     * Decrypts all {@code encrypted} byte arrays like {@link #decrypt(byte[])}. The configuration
+     * is checked once for the whole batch and the output buffer is reused for all values.
+     *
+     * @param encrypted the encrypted byte arrays
+     * @return the plain byte arrays in the order of {@code encrypted}, with {@code null} for every
+     *      value that could not be decrypted, or {@code null} if this instance is not configured
+     *      for decryption
+     */
+    public byte[][] decryptAll(byte[][] encrypted) {
+        return decryptAll(encrypted, false);
+    }
+
+    /**
+     * Decrypts all {@code encrypted} byte arrays like {@link #decrypt(byte[])}. Large batches may
+     * be split into slices of {@link BatchUtil#SLICE_SIZE} values that are decrypted concurrently.
+     *
+     * @param encrypted the encrypted byte arrays
+     * @param parallel if slices of large batches shall be decrypted on all available processors
+     * @return the plain byte arrays in the order of {@code encrypted}, with {@code null} for every
+     *      value that could not be decrypted, or {@code null} if this instance is not configured
+     *      for decryption
+     */
+    public byte[][] decryptAll(byte[][] encrypted, boolean parallel) {
+        if (encrypted == null || !isConfiguredForDecryption()) {
+            return null;
+        }
+        return processAll(encrypted, parallel, false);
+    }
+
 
     //
     // helper
     //
 
+    /**
+     * Encrypts or decrypts all {@code sources} into new byte arrays. One output buffer is reused
+     * for all values of a slice.
+     *
+     * @param sources the byte arrays to process
+     * @param parallel if slices of large batches shall be processed concurrently
+     * @param encryption {@code true} to use the {@link #encrypter}, {@code false} to use the
+     *      {@link #decrypter}
+     * @return the processed byte arrays or {@code null} if the batch could not be processed
+     */
+    private byte[][] processAll(final byte[][] sources, boolean parallel,
+            final boolean encryption) {
+        final byte[][] targets = new byte[sources.length][];
+        boolean success = BatchUtil.process(sources.length, parallel,
+                new BatchUtil.SliceProcessor() {
+                    @Override
+                    public void process(int from, int to) {
+                        ByteArrayOutputStream os = new ByteArrayOutputStream();
+                        for (int i = from; i < to; i++) {
+                            if (sources[i] == null) {
+                                continue;
+                            }
+                            os.reset();
+                            InputStream is = new ByteArrayInputStream(sources[i]);
+                            boolean processed = processStream(is, os, encryption);
+                            targets[i] = processed ? os.toByteArray() : null;
+                        }
+                    }
+                });
+        return success ? targets : null;
+    }
+
+    /**
+     * Encrypts the texts of a slice with the {@link BatchEncrypter}. The time of the slice is
+     * reported evenly split between its values.
+     */
+    private void encryptSlice(List<String> plain, String[] encrypted, int from, int to) {
+        long start = Instrumentations.startNanos();
+        ((BatchEncrypter) this.encrypter).encryptAll(plain, encrypted, from, to);
+        if (start == 0 || from >= to) {
+            return;
+        }
+        long nanos = (System.nanoTime() - start) / (to - from);
+        for (int i = from; i < to; i++) {
+            String value = plain.get(i);
+            Instrumentations.getDefault().recordOperation(Operation.ENCRYPT_STRING, nanos,
+                    StringUtil.utf8Length(value), encrypted[i] != null);
+        }
+    }
+
+    /**
+     * Encrypts the byte arrays of a slice with the {@link BatchEncrypter}. The time of the slice
+     * is reported evenly split between its values.
+     */
+    private void encryptSlice(byte[][] plain, byte[][] encrypted, int from, int to) {
+        long start = Instrumentations.startNanos();
+        ((BatchEncrypter) this.encrypter).encryptAll(plain, encrypted, from, to);
+        if (start == 0 || from >= to) {
+            return;
+        }
+        long nanos = (System.nanoTime() - start) / (to - from);
+        for (int i = from; i < to; i++) {
+            if (plain[i] != null) {
+                Instrumentations.getDefault().recordOperation(Operation.ENCRYPT_STREAM, nanos,
+                        plain[i].length, encrypted[i] != null);
+            }
+        }
+    }
+
+    private String encryptString(String plain) {
+        if (!Instrumentations.isEnabled()) {
+            return this.encrypter.encrypt(plain);
+        }
+        long start = System.nanoTime();
+        String encrypted = this.encrypter.encrypt(plain);
+        Instrumentations.getDefault().recordOperation(Operation.ENCRYPT_STRING,
+                System.nanoTime() - start, StringUtil.utf8Length(plain), encrypted != null);
+        return encrypted;
+    }
+
+    private String decryptString(String encrypted) {
+        if (!Instrumentations.isEnabled()) {
+            return this.decrypter.decrypt(encrypted);
+        }
+        long start = System.nanoTime();
+        String plain = this.decrypter.decrypt(encrypted);
+        Instrumentations.getDefault().recordOperation(Operation.DECRYPT_STRING,
+                System.nanoTime() - start, StringUtil.base64DecodedLength(encrypted),
+                plain != null);
+        return plain;
+    }
+
+    /**
+     * Encrypts or decrypts {@code source} into {@code target}. If measurements are enabled, the
+     * streams are wrapped to separate the time spent in the streams from the processing.
+     *
+     * @param encryption {@code true} to use the {@link #encrypter}, {@code false} to use the
+     *      {@link #decrypter}
+     * @return if the processing has been successful
+     */
+    private boolean processStream(InputStream source, OutputStream target, boolean encryption) {
+        if (!Instrumentations.isEnabled()) {
+            return encryption
+                    ? this.encrypter.encrypt(source, target)
+                    : this.decrypter.decrypt(source, target);
+        }
+
+        // null streams are passed through to be reported by the crypters
+        TimedInputStream timedSource = source != null ? new TimedInputStream(source) : null;
+        TimedOutputStream timedTarget = target != null ? new TimedOutputStream(target) : null;
+        long start = System.nanoTime();
+        boolean success = encryption
+                ? this.encrypter.encrypt(timedSource, timedTarget)
+                : this.decrypter.decrypt(timedSource, timedTarget);
+        long nanos = System.nanoTime() - start;
+
+        Instrumentation instrumentation = Instrumentations.getDefault();
+        instrumentation.recordOperation(encryption ? Operation.ENCRYPT_STREAM
+                : Operation.DECRYPT_STREAM, nanos, timedSource != null
+                ? timedSource.getBytes() : 0, success);
+        instrumentation.recordPhase(Phase.IO, (timedSource != null ? timedSource.getNanos() : 0)
+                + (timedTarget != null ? timedTarget.getNanos() : 0));
+        return success;
+    }
+
+    /**
+     * Reports an operation that has not been performed because this instance is not configured
+     * for it.
+     */
+    private static void recordRejected(Operation operation) {
+        if (Instrumentations.isEnabled()) {
+            Instrumentations.getDefault().recordOperation(operation, 0, 0, false);
+        }
+    }
+
     /**
      * Checks if this instance is configured to process encryption. The methods logs at info level
      * if the encryption is forced without a {@link #decrypter} that
@@ -243,6 +779,103 @@ public class EncryptionUtil {
     }
 
 
+    /**
+     * Encrypts or decrypts the content of {@code source} into {@code target}. The {@code target}
+     * is deleted if the processing fails after it has been opened.
+     *
+     * @param source the file to read from
+     * @param target the file to write to
+     * @param encryption {@code true} to use the {@link #encrypter}, {@code false} to use the
+     *      {@link #decrypter}
+     * @return if the processing has been successful
+     */
+    private boolean processFile(Path source, Path target, boolean encryption) {
+        if (source == null || target == null) {
+            log.error("Source file {} or target file {} is null.", source, target);
+            return false;
+        }
+
+        FileChannel sourceChannel;
+        try {
+            if (Files.exists(target) && Files.isSameFile(source, target)) {
+                log.error("Source file and target file are the same: {}", target);
+                return false;
+            }
+            sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.error("Could not open source file {}.", source, e);
+            return false;
+        }
+
+        boolean success = false;
+        boolean targetOpened = false;
+        try (FileChannel sourceCh = sourceChannel;
+             FileChannel targetCh = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            targetOpened = true;
+            success = processChannel(sourceCh, targetCh, encryption);
+        } catch (IOException e) {
+            log.error("Could not process source file {} into target file {}.", source, target,
+                    e);
+            success = false;
+        }
+
+        if (!success && targetOpened) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e) {
+                log.error("Could not delete incomplete target file {}.", target, e);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Encrypts or decrypts the file of {@code source} into the file of {@code target}. The
+     * channels are passed to a {@link FileEncrypter} or {@link FileDecrypter} if available,
+     * otherwise they are processed as buffered streams. Both channels are closed.
+     *
+     * @param encryption {@code true} to use the {@link #encrypter}, {@code false} to use the
+     *      {@link #decrypter}
+     * @return if the processing has been successful
+     */
+    private boolean processChannel(FileChannel source, FileChannel target, boolean encryption)
+            throws IOException {
+        boolean fileCrypter = encryption
+                ? this.encrypter instanceof FileEncrypter
+                : this.decrypter instanceof FileDecrypter;
+        if (!fileCrypter) {
+            return processStream(new BufferedInputStream(Channels.newInputStream(source),
+                    CipherStreamUtil.DEFAULT_BUFFER_SIZE), new BufferedOutputStream(
+                    Channels.newOutputStream(target), CipherStreamUtil.DEFAULT_BUFFER_SIZE),
+                    encryption);
+        }
+
+        long size = source.size();
+        long start = Instrumentations.startNanos();
+        boolean success = encryption
+                ? ((FileEncrypter) this.encrypter).encrypt(source, target)
+                : ((FileDecrypter) this.decrypter).decrypt(source, target);
+        if (start != 0) {
+            Instrumentations.getDefault().recordOperation(encryption
+                    ? Operation.ENCRYPT_STREAM : Operation.DECRYPT_STREAM,
+                    System.nanoTime() - start, size, success);
+        }
+        return success;
+    }
+
+    /**
+     * @param encryption {@code true} to check the {@link #encrypter}, {@code false} to check the
+     *      {@link #decrypter}
+     * @return if streams can be {@link #openEncryptingStream(OutputStream) opened} for the
+     *      operation
+     */
+    boolean supportsOpenedStreams(boolean encryption) {
+        return encryption
+                ? this.encrypter instanceof StreamingEncrypter
+                : this.decrypter instanceof StreamingDecrypter;
+    }
+
     /**
      * Checks if this instance is configured to process decryption. This method logs at error level
      * if there is no {@link #decrypter} that
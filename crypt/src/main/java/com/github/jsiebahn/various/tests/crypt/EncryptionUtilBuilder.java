@@ -1,9 +1,21 @@
 package com.github.jsiebahn.various.tests.crypt;
 
+import com.github.jsiebahn.various.tests.crypt.compress.ByteBufferCompressingEncrypter;
+import com.github.jsiebahn.various.tests.crypt.compress.ByteBufferDecompressingDecrypter;
+import com.github.jsiebahn.various.tests.crypt.compress.CompressingEncrypter;
+import com.github.jsiebahn.various.tests.crypt.compress.DecompressingDecrypter;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopDecrypter;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopEncrypter;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import com.github.jsiebahn.various.tests.crypt.keyring.KeyRing;
+import com.github.jsiebahn.various.tests.crypt.keyring.KeyRingDecrypter;
+import com.github.jsiebahn.various.tests.crypt.keyring.KeyRingEncrypter;
 import com.github.jsiebahn.various.tests.crypt.rsa.RsaDecrypter;
 import com.github.jsiebahn.various.tests.crypt.rsa.RsaEncrypter;
 import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
@@ -15,9 +27,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Builds instances of {@link EncryptionUtil}.
@@ -30,12 +47,15 @@ public class EncryptionUtilBuilder {
     private static final Logger log = LoggerFactory.getLogger(EncryptionUtilBuilder.class);
 
     /**
-     * Used to synchronize {@link #withKeyPair(java.io.File, java.io.File)} to avoid multiple
-     * creation of keys. If the same paths are used to store the keys, they may be created twice and
-     * different keys are loaded which will cause that encrypted objects can not be decrypted by
-     * another instance of {@link EncryptionUtil}.
+     * The locks used to synchronize {@link #withKeyPair(java.io.File, java.io.File)} by the
+     * canonical paths of the key files to avoid multiple creation of keys. If the same paths are
+     * used to store the keys, they may be created twice and different keys are loaded which will
+     * cause that encrypted objects can not be decrypted by another instance of
+     * {@link EncryptionUtil}. Key pairs in different locations are loaded and created in parallel.
+     * A lock is removed when its last user has loaded or created the keys, so the map only holds
+     * the locations currently in use. The map itself is guarded by its monitor.
      */
-    private static final Object KEY_CREATION_LOCK = new Object();
+    private static final Map<String, KeyCreationLock> KEY_CREATION_LOCKS = new HashMap<>();
 
     /**
      * The {@link EncryptionUtil#encrypter} for the {@link EncryptionUtil} to build.
@@ -47,6 +67,62 @@ public class EncryptionUtilBuilder {
      */
     private Decrypter decrypter;
 
+    /**
+     * The pass phrase set by {@link #withPassPhrase(byte[])}. The symmetric {@link #encrypter} and
+     * {@link #decrypter} are created when the {@link EncryptionUtil} is built, so that the
+     * {@link #cipherMode} applies independent of the order of the "with" methods.
+     */
+    private byte[] passPhrase;
+
+    /**
+     * If a {@link #passPhrase} has been set and the symmetric {@link #encrypter} and
+     * {@link #decrypter} still need to be created.
+     */
+    private boolean passPhraseConfigured;
+
+    /**
+     * The {@link CipherMode} used for symmetric key encryption with a {@link #passPhrase}.
+     */
+    private CipherMode cipherMode = CipherMode.CBC;
+
+    /**
+     * The maximum number of chunks processed concurrently with {@link CipherMode#GCM}.
+     */
+    private int parallelism = 1;
+
+    /**
+     * The public key read by {@link #withPublicKeyFromInputStream(InputStream)}. The
+     * {@link RsaEncrypter} is created when the {@link EncryptionUtil} is built, so that the
+     * {@link #encoding} and session keys apply independent of the order of the "with" methods.
+     */
+    private RSAPublicKeySpec publicKeySpec;
+
+    /**
+     * The {@link Encoding} of encrypted streams and byte arrays.
+     */
+    private Encoding encoding = Encoding.BASE64;
+
+    /**
+     * The maximum number of messages encrypted with the same symmetric key by the
+     * {@link RsaEncrypter}.
+     */
+    private int maxMessagesPerKey = 1;
+
+    /**
+     * The maximum age of a symmetric key reused by the {@link RsaEncrypter} in milliseconds.
+     */
+    private long maxKeyAgeMillis;
+
+    /**
+     * If CBC streams are written and required in frames authenticated with an HMAC tag.
+     */
+    private boolean streamAuthentication;
+
+    /**
+     * The compression applied to streams before encryption.
+     */
+    private Compression compression = Compression.NONE;
+
 
     //
     // builder construction
@@ -122,6 +198,7 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withPrivateKeyFromInputStream(InputStream is) {
+        this.createSymmetricCrypters();
 
         RsaKeyFactory factory = new RsaKeyFactory();
         RSAPrivateKeySpec privateKeySpec = factory.readPrivateKey(is);
@@ -182,11 +259,11 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withPublicKeyFromInputStream(InputStream is) {
+        this.createSymmetricCrypters();
 
         RsaKeyFactory factory = new RsaKeyFactory();
-        RSAPublicKeySpec publicKeySpec = factory.readPublicKey(is);
-
-        this.encrypter = new RsaEncrypter(publicKeySpec);
+        this.publicKeySpec = factory.readPublicKey(is);
+        this.encrypter = null;
 
         return this;
     }
@@ -213,7 +290,7 @@ public class EncryptionUtilBuilder {
      * Loads the {@code private key} from {@code privateKeyFile} and the {@code public key} from
      * {@code publicKeyFile} if both files exist. If one of the files does not exist, both keys will
      * be generated and stored in the given location. This method is synchronized across all
-     * instances to avoid duplicate key creation.
+     * instances using the same files to avoid duplicate key creation.
      * When key files are read, the {@link #encrypter} and {@link #decrypter} instances will be
      * created with the given or created keys.
      * The method will fail if exactly one of the files does not exist or can not be read and if
@@ -224,31 +301,40 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withKeyPair(File privateKeyFile, File publicKeyFile) {
-        // synchronize to avoid duplicate key creation for the same paths
-        synchronized (KEY_CREATION_LOCK) {
-            // load the keys if they exist
-            if (privateKeyFile.exists() && publicKeyFile.exists()) {
-                this.withPrivateKeyFromFile(privateKeyFile);
-                this.withPublicKeyFromFile(publicKeyFile);
-                return this;
-            }
-
-            // the keys do not exist and have to be created and stored
+        String location = keyLocation(privateKeyFile, publicKeyFile);
+        KeyCreationLock lock = acquireKeyCreationLock(location);
+        try {
+            // synchronize to avoid duplicate key creation for the same paths
+            synchronized (lock) {
+                // load the keys if they exist
+                if (privateKeyFile.exists() && publicKeyFile.exists()) {
+                    this.withPrivateKeyFromFile(privateKeyFile);
+                    this.withPublicKeyFromFile(publicKeyFile);
+                    return this;
+                }
+
+                // the keys do not exist and have to be created and stored
+                this.createConfiguredCrypters();
+
+                RsaKeyFactory factory = new RsaKeyFactory();
+                RsaKeySpecPair keySpec;
+                try {
+                    keySpec = factory.createKeys(new FileOutputStream(privateKeyFile),
+                            new FileOutputStream(publicKeyFile));
+                } catch (FileNotFoundException e) {
+                    log.error("Unable to save generated keys.", e);
+                    return this;
+                }
+
+                this.decrypter = new RsaDecrypter(keySpec.getPrivateKeySpec());
+                this.publicKeySpec = keySpec.getPublicKeySpec();
+                this.encrypter = null;
 
-            RsaKeyFactory factory = new RsaKeyFactory();
-            RsaKeySpecPair keySpec;
-            try {
-                keySpec = factory.createKeys(new FileOutputStream(privateKeyFile),
-                        new FileOutputStream(publicKeyFile));
-            } catch (FileNotFoundException e) {
-                log.error("Unable to save generated keys.", e);
                 return this;
             }
-
-            this.decrypter = new RsaDecrypter(keySpec.getPrivateKeySpec());
-            this.encrypter = new RsaEncrypter(keySpec.getPublicKeySpec());
-
-            return this;
+        }
+        finally {
+            releaseKeyCreationLock(location, lock);
         }
     }
 
@@ -262,9 +348,7 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withPassPhrase(String passPhrase) {
-        this.encrypter = new SymmetricKeyEncrypter(passPhrase);
-        this.decrypter = new SymmetricKeyDecrypter(passPhrase);
-        return this;
+        return this.withPassPhrase(StringUtil.stringToByte(passPhrase));
     }
 
     /**
@@ -274,8 +358,122 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withPassPhrase(byte[] passPhrase) {
-        this.encrypter = new SymmetricKeyEncrypter(passPhrase);
-        this.decrypter = new SymmetricKeyDecrypter(passPhrase);
+        this.passPhrase = passPhrase;
+        this.passPhraseConfigured = true;
+        this.publicKeySpec = null;
+        this.encrypter = null;
+        this.decrypter = null;
+        return this;
+    }
+
+    /**
+     * Selects the {@link CipherMode} for symmetric key encryption configured with
+     * {@link #withPassPhrase(String)}. {@link CipherMode#CBC} is used by default.
+     *
+     * @param cipherMode the {@link CipherMode} to use
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withCipherMode(CipherMode cipherMode) {
+        this.cipherMode = cipherMode == null ? CipherMode.CBC : cipherMode;
+        return this;
+    }
+
+
+    /**
+     * Enables parallel encryption and decryption of streams for {@link CipherMode#GCM}. The
+     * chunks of a stream are processed on a shared pool sized to the available processors while
+     * their order is preserved. At most {@code parallelism} chunks are in flight, which bounds the
+     * memory to about {@code 2 * parallelism} chunks of 64 KiB. {@link CipherMode#CBC} can not be
+     * parallelised and ignores this setting. Values below {@code 1} are logged and the previous
+     * setting is kept.
+     *
+     * @param parallelism the maximum number of chunks in flight, {@code 1} to disable parallel
+     *      processing
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            log.error("Invalid parallelism {}, at least 1 chunk must be in flight.", parallelism);
+            return this;
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+    /**
+     * Selects the {@link Encoding} of encrypted streams and byte arrays for the encrypters
+     * configured with {@link #withPassPhrase(String)} or a public key. {@link Encoding#BASE64} is
+     * used by default. {@link Encoding#BINARY} avoids the Base64 overhead when encrypted data is
+     * stored as binary data. Encrypted {@link String}s are always Base64 encoded and decryption
+     * detects the encoding automatically.
+     *
+     * @param encoding the {@link Encoding} to use
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withEncoding(Encoding encoding) {
+        this.encoding = encoding == null ? Encoding.BASE64 : encoding;
+        return this;
+    }
+
+
+    /**
+     * Authenticates the streams encrypted with {@link CipherMode#CBC} and a pass phrase. Every
+     * encrypted buffer is written as a frame with an HMAC tag that is verified before the frame is
+     * decrypted, so modifications are detected while the stream is decrypted without buffering
+     * the whole stream. Authenticated streams are always binary. The decrypter rejects streams
+     * without authentication. {@link CipherMode#GCM} streams are always authenticated and ignore
+     * this setting.
+     *
+     * @param streamAuthentication if CBC streams shall be authenticated
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withStreamAuthentication(boolean streamAuthentication) {
+        this.streamAuthentication = streamAuthentication;
+        return this;
+    }
+
+
+    /**
+     * Compresses streams and byte arrays before they are encrypted. The codec is recorded as type
+     * in the binary header of the encrypted data, so the decrypter of the built
+     * {@link EncryptionUtil} decompresses it and still decrypts uncompressed data. Compressed
+     * streams are always binary. Encrypted {@link String}s are not compressed. The
+     * compression applies to all encrypters including those set with
+     * {@link #withEncrypter(Encrypter)}. {@link Compression#NONE} is used by default.
+     *
+     * @param compression the {@link Compression} to use
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withCompression(Compression compression) {
+        this.compression = compression == null ? Compression.NONE : compression;
+        return this;
+    }
+
+
+    /**
+     * Lets the {@link RsaEncrypter} configured with a public key reuse its random symmetric key
+     * for up to {@code maxMessagesPerKey} messages and at most {@code maxKeyAge}. This saves the
+     * RSA encryption and the setup of the symmetric encryption for most messages, which dominates
+     * the encryption of many small messages. The {@link RsaDecrypter} caches the keys of recent
+     * sessions. By default every message gets its own key. Invalid values are logged and the
+     * previous settings are kept.
+     *
+     * @param maxMessagesPerKey the maximum number of messages encrypted with the same key, at
+     *      least {@code 1}
+     * @param maxKeyAge the maximum time a key is used, {@code 0} for no time limit
+     * @param unit the unit of {@code maxKeyAge}
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withSessionKeys(int maxMessagesPerKey, long maxKeyAge,
+            TimeUnit unit) {
+        if (maxMessagesPerKey < 1 || maxKeyAge < 0 || unit == null) {
+            log.error("Invalid session keys with {} messages per key and a maximum age of {} {}.",
+                    maxMessagesPerKey, maxKeyAge, unit);
+            return this;
+        }
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxKeyAgeMillis = unit.toMillis(maxKeyAge);
         return this;
     }
 
@@ -294,6 +492,7 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withNoop() {
+        this.createConfiguredCrypters();
         log.warn("Initialising EncryptionUtil without encryption should only be used in test "
                 + "and development scenarios.");
         this.encrypter = new NoopEncrypter();
@@ -312,6 +511,7 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withEncrypter(Encrypter encrypter) {
+        this.createConfiguredCrypters();
         this.encrypter = encrypter;
         return this;
     }
@@ -324,11 +524,31 @@ public class EncryptionUtilBuilder {
      * @return the current instance
      */
     public EncryptionUtilBuilder withDecrypter(Decrypter decrypter) {
+        this.createSymmetricCrypters();
         this.decrypter = decrypter;
         return this;
     }
 
 
+    // Fluent setter for key rotation
+
+    /**
+     * Creates an {@link EncryptionUtil} that encrypts with the primary key of the given
+     * {@code keyRing} and decrypts with the key whose id is stored in front of the encrypted data.
+     * Keys can be added to the {@link KeyRing} and the primary key can be changed while the built
+     * {@link EncryptionUtil} is in use.
+     *
+     * @param keyRing the {@link KeyRing} with the keys to use
+     * @return the current instance
+     */
+    public EncryptionUtilBuilder withKeyRing(KeyRing keyRing) {
+        this.createConfiguredCrypters();
+        this.encrypter = new KeyRingEncrypter(keyRing);
+        this.decrypter = new KeyRingDecrypter(keyRing);
+        return this;
+    }
+
+
     //
     // Fluent final creation with checking the encryption
     //
@@ -343,6 +563,9 @@ public class EncryptionUtilBuilder {
      */
     public EncryptionUtil build() {
 
+        this.createConfiguredCrypters();
+        this.applyCompression();
+
         // build() is for encryption and decryption, no null values allowed
         if (this.encrypter == null || this.decrypter == null) {
             log.error("Building EncryptionUtil for encryption and decryption impossible with "
@@ -375,6 +598,9 @@ public class EncryptionUtilBuilder {
      */
     public EncryptionUtil buildForEncryption() {
 
+        this.createConfiguredCrypters();
+        this.applyCompression();
+
         // buildForEncryption() is for encryption, no null values allowed for the encrypter
         if (this.encrypter == null) {
             log.error("Building EncryptionUtil for encryption impossible with configured "
@@ -394,6 +620,9 @@ public class EncryptionUtilBuilder {
      */
     public EncryptionUtil buildForDecryption() {
 
+        this.createConfiguredCrypters();
+        this.applyCompression();
+
         // buildForDecryption() is for decryption, no null values allowed for the decrypter
         if (this.decrypter == null) {
             log.error("Building EncryptionUtil for decryption impossible with configured "
@@ -404,4 +633,170 @@ public class EncryptionUtilBuilder {
         return new EncryptionUtil(null, this.decrypter);
     }
 
+    /**
+     * Creates the desired {@link EncryptionUtil} like {@link #build()} and wraps it into an
+     * {@link AsyncEncryptionUtil} that runs the operations on a default pool of daemon threads.
+     *
+     * @return the created {@link AsyncEncryptionUtil} or {@code null} if not configured properly
+     */
+    public AsyncEncryptionUtil buildAsync() {
+        return buildAsync(null);
+    }
+
+    /**
+     * Creates the desired {@link EncryptionUtil} like {@link #build()} and wraps it into an
+     * {@link AsyncEncryptionUtil} that runs the operations on the given {@code executor}.
+     *
+     * @param executor the executor to run the operations on, {@code null} for the default
+     * @return the created {@link AsyncEncryptionUtil} or {@code null} if not configured properly
+     */
+    public AsyncEncryptionUtil buildAsync(ExecutorService executor) {
+        EncryptionUtil encryptionUtil = build();
+        if (encryptionUtil == null) {
+            return null;
+        }
+        return new AsyncEncryptionUtil(encryptionUtil, executor);
+    }
+
+
+
+    //
+    // helper
+    //
+
+    /**
+     * @return the key of {@link #KEY_CREATION_LOCKS} for the key pair in the given files
+     */
+    private static String keyLocation(File privateKeyFile, File publicKeyFile) {
+        return canonicalPath(privateKeyFile) + File.pathSeparator + canonicalPath(publicKeyFile);
+    }
+
+    /**
+     * @return the lock of {@link #KEY_CREATION_LOCKS} for {@code location}, which must be
+     *      released by {@link #releaseKeyCreationLock(String, KeyCreationLock)}
+     */
+    private static KeyCreationLock acquireKeyCreationLock(String location) {
+        synchronized (KEY_CREATION_LOCKS) {
+            KeyCreationLock lock = KEY_CREATION_LOCKS.get(location);
+            if (lock == null) {
+                lock = new KeyCreationLock();
+                KEY_CREATION_LOCKS.put(location, lock);
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    /**
+     * Removes the {@code lock} of {@code location} if it has no other users.
+     */
+    private static void releaseKeyCreationLock(String location, KeyCreationLock lock) {
+        synchronized (KEY_CREATION_LOCKS) {
+            if (--lock.users == 0) {
+                KEY_CREATION_LOCKS.remove(location);
+            }
+        }
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            // the file will fail to be read or written anyway, any stable name is sufficient
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Creates all pending crypters: the symmetric ones for a {@link #passPhrase} and the
+     * {@link RsaEncrypter} for a {@link #publicKeySpec}.
+     */
+    private void createConfiguredCrypters() {
+        this.createSymmetricCrypters();
+        if (this.publicKeySpec != null) {
+            this.encrypter = new RsaEncrypter(this.publicKeySpec, streamEncoding(),
+                    this.maxMessagesPerKey, this.maxKeyAgeMillis);
+            this.publicKeySpec = null;
+        }
+    }
+
+    /**
+     * Wraps the {@link #encrypter} and {@link #decrypter} for the configured
+     * {@link #compression}. It is applied when building, so that it covers crypters set directly.
+     */
+    private void applyCompression() {
+        if (this.compression == Compression.NONE) {
+            return;
+        }
+        if (this.encrypter instanceof ByteBufferEncrypter
+                && !(this.encrypter instanceof CompressingEncrypter)) {
+            this.encrypter = new ByteBufferCompressingEncrypter(
+                    (ByteBufferEncrypter) this.encrypter, this.compression);
+        }
+        else if (this.encrypter != null && !(this.encrypter instanceof CompressingEncrypter)) {
+            this.encrypter = new CompressingEncrypter(this.encrypter, this.compression);
+        }
+        if (this.decrypter instanceof ByteBufferDecrypter
+                && !(this.decrypter instanceof DecompressingDecrypter)) {
+            this.decrypter = new ByteBufferDecompressingDecrypter(
+                    (ByteBufferDecrypter) this.decrypter);
+        }
+        else if (this.decrypter != null && !(this.decrypter instanceof DecompressingDecrypter)) {
+            this.decrypter = new DecompressingDecrypter(this.decrypter);
+        }
+    }
+
+    /**
+     * Creates the symmetric {@link #encrypter} and {@link #decrypter} for the configured
+     * {@link #passPhrase}, {@link #cipherMode} and {@link #encoding}. Other "with" methods call
+     * this before they set {@link #encrypter} or {@link #decrypter} so that the last
+     * configuration wins.
+     */
+    private void createSymmetricCrypters() {
+        if (!this.passPhraseConfigured) {
+            return;
+        }
+        switch (this.cipherMode) {
+            case GCM:
+                this.encrypter = new GcmEncrypter(this.passPhrase, GcmUtil.DEFAULT_CHUNK_SIZE,
+                        this.parallelism, streamEncoding());
+                this.decrypter = new GcmDecrypter(this.passPhrase, this.parallelism);
+                break;
+            default:
+                this.encrypter = new SymmetricKeyEncrypter(this.passPhrase,
+                        CipherStreamUtil.DEFAULT_BUFFER_SIZE, streamEncoding(),
+                        this.streamAuthentication);
+                this.decrypter = new SymmetricKeyDecrypter(this.passPhrase,
+                        CipherStreamUtil.DEFAULT_BUFFER_SIZE, this.streamAuthentication);
+        }
+        this.passPhrase = null;
+        this.passPhraseConfigured = false;
+    }
+
+    /**
+     * @return the {@link Encoding} of the created crypters. Compressed streams are binary, so the
+     *      data behind the compression header is not Base64 encoded.
+     */
+    private Encoding streamEncoding() {
+        return this.compression == Compression.NONE ? this.encoding : Encoding.BINARY;
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The lock of a key pair location that counts the threads using it.
+     */
+    private static class KeyCreationLock {
+
+        /**
+         * The number of threads holding or waiting for the lock, guarded by
+         * {@link #KEY_CREATION_LOCKS}.
+         */
+        private int users;
+
+    }
+
 }
@@ -0,0 +1,26 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Decrypter} that is also able to decrypt a file through {@link FileChannel}s. The
+ * encrypted file is read from memory mapped regions directly into the cipher and the plain data
+ * is written to the channel of the target file. It decrypts everything the corresponding
+ * {@link Encrypter} writes to streams.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:35
+ */
+public interface FileDecrypter extends Decrypter {
+
+    /**
+     * Decrypts the whole content of {@code encrypted} and writes it to {@code plain} starting at
+     * its current position. Both channels are closed.
+     *
+     * @param encrypted the channel of the encrypted file
+     * @param plain the channel the plain data is written to
+     * @return if the decryption ended successfully
+     */
+    public boolean decrypt(FileChannel encrypted, FileChannel plain);
+
+}
@@ -0,0 +1,27 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link Encrypter} that is also able to encrypt a file through {@link FileChannel}s. The plain
+ * file is read from memory mapped regions directly into the cipher and the encrypted data is
+ * written to the channel of the target file, so no stream copies the file content to the heap.
+ * The output is identical to the one of {@link #encrypt(java.io.InputStream,
+ * java.io.OutputStream)} and can be decrypted by the corresponding {@link Decrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:35
+ */
+public interface FileEncrypter extends Encrypter {
+
+    /**
+     * Encrypts the whole content of {@code plain} and writes it to {@code encrypted} starting at
+     * its current position. Both channels are closed.
+     *
+     * @param plain the channel of the plain file
+     * @param encrypted the channel the encrypted data is written to
+     * @return if the encryption ended successfully
+     */
+    public boolean encrypt(FileChannel plain, FileChannel encrypted);
+
+}
@@ -0,0 +1,278 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An {@link Instrumentation} that keeps counters and latency histograms in memory. It is meant
+ * for tests and as source for exporters that read the values periodically with
+ * {@link #snapshot()}.
+ *
+ * The histograms have one bucket per power of two nanoseconds, so recording is a single atomic
+ * increment and percentiles are accurate to a factor of two, which is enough to tell a 50 us
+ * cipher initialisation from a 5 ms RSA operation.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:40
+ */
+public class InMemoryInstrumentation implements Instrumentation {
+
+    /**
+     * The number of histogram buckets, bucket {@code i} counts durations of less than
+     * {@code 2^i} nanoseconds that did not fit into bucket {@code i - 1}.
+     */
+    private static final int BUCKETS = 64;
+
+    private final Timer[] operations = new Timer[Operation.values().length];
+
+    private final AtomicLongArray operationBytes = new AtomicLongArray(operations.length);
+
+    private final AtomicLongArray operationFailures = new AtomicLongArray(operations.length);
+
+    private final Timer[] phases = new Timer[Phase.values().length];
+
+    private final AtomicLongArray cacheHits = new AtomicLongArray(Cache.values().length);
+
+    private final AtomicLongArray cacheMisses = new AtomicLongArray(Cache.values().length);
+
+    public InMemoryInstrumentation() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new Timer();
+        }
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Timer();
+        }
+    }
+
+
+    //
+    // recording
+    //
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordOperation(Operation operation, long nanos, long bytes, boolean success) {
+        this.operations[operation.ordinal()].record(nanos);
+        this.operationBytes.addAndGet(operation.ordinal(), bytes);
+        if (!success) {
+            this.operationFailures.incrementAndGet(operation.ordinal());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordPhase(Phase phase, long nanos) {
+        this.phases[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCacheAccess(Cache cache, boolean hit) {
+        (hit ? this.cacheHits : this.cacheMisses).incrementAndGet(cache.ordinal());
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * @return the number of recorded operations
+     */
+    public long getCount(Operation operation) {
+        return this.operations[operation.ordinal()].count.get();
+    }
+
+    /**
+     * @return the number of recorded operations that did not return a result
+     */
+    public long getFailures(Operation operation) {
+        return this.operationFailures.get(operation.ordinal());
+    }
+
+    /**
+     * @return the sum of the input sizes of the recorded operations
+     */
+    public long getBytes(Operation operation) {
+        return this.operationBytes.get(operation.ordinal());
+    }
+
+    /**
+     * @return the sum of the durations of the recorded operations in nanoseconds
+     */
+    public long getTotalNanos(Operation operation) {
+        return this.operations[operation.ordinal()].totalNanos.get();
+    }
+
+    /**
+     * @param percentile the percentile between {@code 0} and {@code 100}, e.g. {@code 99}
+     * @return the upper bound of the histogram bucket containing the percentile of the durations
+     *      in nanoseconds or {@code 0} if nothing has been recorded
+     */
+    public long getPercentileNanos(Operation operation, double percentile) {
+        return this.operations[operation.ordinal()].percentile(percentile);
+    }
+
+    /**
+     * @return the number of recorded phases
+     */
+    public long getCount(Phase phase) {
+        return this.phases[phase.ordinal()].count.get();
+    }
+
+    /**
+     * @return the sum of the durations of the recorded phases in nanoseconds
+     */
+    public long getTotalNanos(Phase phase) {
+        return this.phases[phase.ordinal()].totalNanos.get();
+    }
+
+    /**
+     * @see #getPercentileNanos(Operation, double)
+     */
+    public long getPercentileNanos(Phase phase, double percentile) {
+        return this.phases[phase.ordinal()].percentile(percentile);
+    }
+
+    /**
+     * @return the number of lookups served by the {@code cache}
+     */
+    public long getHits(Cache cache) {
+        return this.cacheHits.get(cache.ordinal());
+    }
+
+    /**
+     * @return the number of lookups not served by the {@code cache}
+     */
+    public long getMisses(Cache cache) {
+        return this.cacheMisses.get(cache.ordinal());
+    }
+
+    /**
+     * Creates a flat view of all values for export, e.g.
+     * {@code encrypt_string.count}, {@code encrypt_string.p99_nanos} or
+     * {@code cipher_pool.hits}. Operations and phases that have not been recorded are omitted.
+     *
+     * @return the values by name in a stable order
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            if (getCount(operation) > 0) {
+                String name = name(operation);
+                putTimer(snapshot, name, this.operations[operation.ordinal()]);
+                snapshot.put(name + ".failures", getFailures(operation));
+                snapshot.put(name + ".bytes", getBytes(operation));
+            }
+        }
+        for (Phase phase : Phase.values()) {
+            if (getCount(phase) > 0) {
+                putTimer(snapshot, name(phase), this.phases[phase.ordinal()]);
+            }
+        }
+        for (Cache cache : Cache.values()) {
+            snapshot.put(name(cache) + ".hits", getHits(cache));
+            snapshot.put(name(cache) + ".misses", getMisses(cache));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Resets all values to {@code 0}. Measurements recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (Timer timer : this.operations) {
+            timer.reset();
+        }
+        for (Timer timer : this.phases) {
+            timer.reset();
+        }
+        for (int i = 0; i < this.operations.length; i++) {
+            this.operationBytes.set(i, 0);
+            this.operationFailures.set(i, 0);
+        }
+        for (int i = 0; i < this.cacheHits.length(); i++) {
+            this.cacheHits.set(i, 0);
+            this.cacheMisses.set(i, 0);
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private static void putTimer(Map<String, Long> snapshot, String name, Timer timer) {
+        snapshot.put(name + ".count", timer.count.get());
+        snapshot.put(name + ".total_nanos", timer.totalNanos.get());
+        snapshot.put(name + ".p50_nanos", timer.percentile(50));
+        snapshot.put(name + ".p99_nanos", timer.percentile(99));
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Counts durations in a histogram with power of two buckets.
+     */
+    private static class Timer {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            long positive = Math.max(0, nanos);
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(positive);
+            this.buckets.incrementAndGet(Math.min(BUCKETS - 1,
+                    Long.SIZE - Long.numberOfLeadingZeros(positive)));
+        }
+
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += this.buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            this.count.set(0);
+            this.totalNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets.set(i, 0);
+            }
+        }
+
+    }
+
+}
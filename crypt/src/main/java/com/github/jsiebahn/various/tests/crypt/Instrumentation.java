@@ -0,0 +1,116 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * Receives measurements of the crypt module, e.g. to export them to a metrics system. The
+ * instance in use is configured through {@link Instrumentations#setDefault(Instrumentation)}.
+ * Measurements are taken on the threads doing the encryption, so all methods must be thread
+ * safe and should return quickly without blocking.
+ *
+ * Nothing is measured as long as no {@link Instrumentation} is set, the hot paths then only check
+ * {@link Instrumentations#isEnabled()}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:40
+ * @see InMemoryInstrumentation
+ */
+public interface Instrumentation {
+
+    /**
+     * Records a completed operation of an {@link EncryptionUtil}.
+     *
+     * @param operation the operation
+     * @param nanos the duration of the operation in nanoseconds
+     * @param bytes the size of the input in bytes: the UTF-8 encoded plain text or the Base64
+     *      decoded encrypted text for {@link String}s
+     * @param success if the operation returned a result
+     */
+    public void recordOperation(Operation operation, long nanos, long bytes, boolean success);
+
+    /**
+     * Records a phase within an operation. Phases of one operation may be recorded on other
+     * threads, e.g. with parallel GCM encryption.
+     *
+     * @param phase the phase
+     * @param nanos the duration of the phase in nanoseconds
+     */
+    public void recordPhase(Phase phase, long nanos);
+
+    /**
+     * Records a lookup in one of the caches of the crypt module.
+     *
+     * @param cache the cache
+     * @param hit {@code true} if the cached value was used
+     */
+    public void recordCacheAccess(Cache cache, boolean hit);
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The operations of an {@link EncryptionUtil}. Byte arrays, files and batches are processed
+     * by the {@link String} and stream operations and recorded as those.
+     */
+    public enum Operation {
+        ENCRYPT_STRING, ENCRYPT_STREAM, DECRYPT_STRING, DECRYPT_STREAM
+    }
+
+    /**
+     * The phases within an operation.
+     */
+    public enum Phase {
+
+        /**
+         * Reading the input and writing the output of a stream operation.
+         */
+        IO,
+
+        /**
+         * Creating a {@link javax.crypto.Cipher} instance that was not pooled.
+         */
+        CIPHER_CREATION,
+
+        /**
+         * Initialising a cipher with key and initialisation vector.
+         */
+        CIPHER_INIT,
+
+        /**
+         * Generating random bytes for initialisation vectors, nonces and keys.
+         */
+        RANDOM,
+
+        /**
+         * Deriving a symmetric key from a pass phrase.
+         */
+        KEY_DERIVATION,
+
+        /**
+         * Encrypting a symmetric key with an RSA public key.
+         */
+        RSA_WRAP,
+
+        /**
+         * Decrypting a symmetric key with an RSA private key.
+         */
+        RSA_UNWRAP
+    }
+
+    /**
+     * The caches of the crypt module.
+     */
+    public enum Cache {
+
+        /**
+         * The pool of {@link javax.crypto.Cipher} instances.
+         */
+        CIPHER_POOL,
+
+        /**
+         * The decrypted session keys of an RSA decrypter.
+         */
+        RSA_SESSION_KEY
+    }
+
+}
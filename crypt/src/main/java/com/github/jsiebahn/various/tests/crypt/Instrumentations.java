@@ -0,0 +1,115 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * Holds the {@link Instrumentation} that receives the measurements of the crypt module. By
+ * default no {@link Instrumentation} is set and nothing is measured. Code measuring a hot path
+ * only reads the clock if measurements are enabled:
+ * <pre>
+ *   long start = Instrumentations.startNanos();
+ *   cipher.init(...);
+ *   Instrumentations.recordPhase(Phase.CIPHER_INIT, start);
+ * </pre>
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:40
+ */
+public class Instrumentations {
+
+    /**
+     * The {@link Instrumentation} used if no other one is {@link #setDefault(Instrumentation)
+     * set}. It discards all measurements.
+     */
+    private static final Instrumentation NOOP = new Instrumentation() {
+        @Override
+        public void recordOperation(Operation operation, long nanos, long bytes,
+                boolean success) {
+            // nothing to do here
+        }
+
+        @Override
+        public void recordPhase(Phase phase, long nanos) {
+            // nothing to do here
+        }
+
+        @Override
+        public void recordCacheAccess(Cache cache, boolean hit) {
+            // nothing to do here
+        }
+    };
+
+    /**
+     * The {@link Instrumentation} currently in use.
+     */
+    private static volatile Instrumentation current = NOOP;
+
+    /**
+     * If an {@link Instrumentation} other than {@link #NOOP} is set.
+     */
+    private static volatile boolean enabled;
+
+
+    /**
+     * Use the static methods.
+     */
+    private Instrumentations() {
+        // nothing to do here
+    }
+
+    /**
+     * @return the {@link Instrumentation} receiving the measurements, never {@code null}
+     */
+    public static Instrumentation getDefault() {
+        return current;
+    }
+
+    /**
+     * Replaces the {@link Instrumentation} receiving the measurements.
+     *
+     * @param instrumentation the {@link Instrumentation} to use. {@code null} disables the
+     *      measurements.
+     */
+    public static void setDefault(Instrumentation instrumentation) {
+        current = instrumentation != null ? instrumentation : NOOP;
+        enabled = instrumentation != null;
+    }
+
+    /**
+     * @return {@code true} if measurements should be taken
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a phase that started at {@code startNanos} if measurements are enabled.
+     *
+     * @param phase the phase
+     * @param startNanos the {@link System#nanoTime()} when the phase started or {@code 0} if
+     *      measurements were disabled at that time
+     */
+    public static void recordPhase(Instrumentation.Phase phase, long startNanos) {
+        if (startNanos != 0) {
+            current.recordPhase(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records a cache lookup if measurements are enabled.
+     *
+     * @param cache the cache
+     * @param hit {@code true} if the cached value was used
+     */
+    public static void recordCacheAccess(Instrumentation.Cache cache, boolean hit) {
+        if (enabled) {
+            current.recordCacheAccess(cache, hit);
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} if measurements are enabled, {@code 0} otherwise
+     */
+    public static long startNanos() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+/**
+ * A {@code RandomSource} provides the cryptographically strong random bytes used for
+ * initialisation vectors, nonces and generated keys. All implemented methods should be thread
+ * safe, because one instance is shared by all {@link Encrypter}s of the JVM. The instance in use
+ * is configured through {@link RandomSources#setDefault(RandomSource)}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 11:02
+ */
+public interface RandomSource {
+
+    /**
+     * Fills the given array with random bytes.
+     *
+     * @param bytes the array to fill
+     */
+    public void nextBytes(byte[] bytes);
+
+}
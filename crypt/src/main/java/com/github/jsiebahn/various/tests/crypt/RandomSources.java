@@ -0,0 +1,69 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.internal.ReseedingRandomSource;
+
+/**
+ * Holds the {@link RandomSource} used by all {@link Encrypter}s and key factories of the crypt
+ * module. If no {@link RandomSource} is {@link #setDefault(RandomSource) set}, a
+ * {@link ReseedingRandomSource} is used which keeps one generator per thread and reseeds it
+ * periodically.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 11:04
+ */
+public class RandomSources {
+
+    /**
+     * The {@link RandomSource} used if no other one is {@link #setDefault(RandomSource) set}.
+     */
+    private static final RandomSource BUILT_IN = new ReseedingRandomSource();
+
+    /**
+     * The {@link RandomSource} currently in use.
+     */
+    private static volatile RandomSource current = BUILT_IN;
+
+    /**
+     * Delegates to the {@link #current} {@link RandomSource} and records the time spent as
+     * {@link Phase#RANDOM}. It is only handed out while {@link Instrumentations#isEnabled()
+     * measurements are enabled}.
+     */
+    private static final RandomSource TIMED = new RandomSource() {
+        @Override
+        public void nextBytes(byte[] bytes) {
+            long start = Instrumentations.startNanos();
+            current.nextBytes(bytes);
+            Instrumentations.recordPhase(Phase.RANDOM, start);
+        }
+    };
+
+
+    /**
+     * Use the static methods.
+     */
+    private RandomSources() {
+        // nothing to do here
+    }
+
+    /**
+     * @return the {@link RandomSource} to use for initialisation vectors, nonces and keys. While
+     *      {@link Instrumentations#isEnabled() measurements are enabled}, it is a wrapper of the
+     *      configured one that measures the time spent.
+     */
+    public static RandomSource getDefault() {
+        return Instrumentations.isEnabled() ? TIMED : current;
+    }
+
+    /**
+     * Replaces the {@link RandomSource} used for initialisation vectors, nonces and keys. It
+     * should be set once when the application starts.
+     *
+     * @param randomSource the {@link RandomSource} to use. {@code null} restores the built in
+     *      {@link ReseedingRandomSource}
+     */
+    public static void setDefault(RandomSource randomSource) {
+        current = randomSource != null ? randomSource : BUILT_IN;
+    }
+
+}
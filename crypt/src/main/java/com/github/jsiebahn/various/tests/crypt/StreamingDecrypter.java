@@ -0,0 +1,28 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.io.InputStream;
+
+/**
+ * A {@link Decrypter} that is also able to decrypt data pulled from an {@link InputStream}. The
+ * cipher runs in the thread that reads from the returned stream, so a text or stream can be
+ * decrypted incrementally without a background thread and without holding it as a whole.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:15
+ */
+public interface StreamingDecrypter extends Decrypter {
+
+    /**
+     * Opens a stream that provides the plain content of {@code encrypted} while it is read. The
+     * header of {@code encrypted} is read immediately. Reading the returned stream throws an
+     * {@link java.io.IOException} if the encrypted data can not be decrypted or is not authentic,
+     * so content read from a stream that did not end regularly must not be trusted. Closing the
+     * returned stream closes {@code encrypted}. The returned stream is not thread safe.
+     *
+     * @param encrypted the stream the encrypted data is read from
+     * @return the stream of the plain data or {@code null} if the header of {@code encrypted}
+     *      can not be read
+     */
+    public InputStream openDecryptingStream(InputStream encrypted);
+
+}
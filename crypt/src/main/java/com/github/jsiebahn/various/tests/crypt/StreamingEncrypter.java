@@ -0,0 +1,27 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import java.io.OutputStream;
+
+/**
+ * An {@link Encrypter} that is also able to encrypt data pushed to an {@link OutputStream}. The
+ * cipher runs in the thread that writes to the returned stream, so a text or stream can be
+ * encrypted incrementally without a background thread and without holding it as a whole. The
+ * output can be decrypted by the corresponding {@link Decrypter} like the output of
+ * {@link #encrypt(java.io.InputStream, OutputStream)}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:15
+ */
+public interface StreamingEncrypter extends Encrypter {
+
+    /**
+     * Opens a stream that encrypts everything written to it into {@code encrypted}. Closing the
+     * returned stream completes the encryption and closes {@code encrypted}. The returned stream
+     * is not thread safe.
+     *
+     * @param encrypted the stream the encrypted data is written to
+     * @return the stream for the plain data or {@code null} if the encryption can not be started
+     */
+    public OutputStream openEncryptingStream(OutputStream encrypted);
+
+}
@@ -0,0 +1,169 @@
+package com.github.jsiebahn.various.tests.crypt.aes.cbc;
+
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+
+import javax.crypto.Mac;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * An {@link InputStream} that reads the data of the frames written by
+ * {@link HmacFrameOutputStream}. Every frame is verified before any of its data is returned, so
+ * modified data is detected at the frame it belongs to without reading the stream twice. The
+ * memory used is bounded by the length of one frame. The stream ends at the terminating frame. A
+ * frame that is not authentic or a stream that ends before the terminator fails with an
+ * {@link IOException}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:05
+ */
+class HmacFrameInputStream extends FilterInputStream {
+
+    private final Mac mac;
+
+    private final byte[] iv;
+
+    private final byte[] prefix = new byte[4];
+
+    private final byte[] tag;
+
+    /**
+     * The data of the current frame.
+     */
+    private byte[] frame = new byte[0];
+
+    private int position;
+
+    private int limit;
+
+    private long index;
+
+    /**
+     * If the terminator has been read.
+     */
+    private boolean ended;
+
+    /**
+     * @param in the stream to read the frames from
+     * @param mac the initialised {@link Mac} to verify the tags with
+     * @param iv the initialisation vector of the encrypted stream
+     */
+    HmacFrameInputStream(InputStream in, Mac mac, byte[] iv) {
+        super(in);
+        this.mac = mac;
+        this.iv = iv.clone();
+        this.tag = new byte[mac.getMacLength()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return this.frame[this.position++] & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.frame, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureAvailable()) {
+            int step = (int) Math.min(n - skipped, this.limit - this.position);
+            this.position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return the verified bytes of the current frame that have not been read yet
+     */
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads and verifies frames until data is available or the terminator has been read.
+     *
+     * @return if data is available
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (this.position == this.limit) {
+            if (this.ended) {
+                return false;
+            }
+            readFrame();
+        }
+        return true;
+    }
+
+    private void readFrame() throws IOException {
+        if (CipherStreamUtil.fill(this.in, this.prefix, 0, 4) < 4) {
+            throw new EOFException("Stream ended before the terminating frame.");
+        }
+        int length = ((this.prefix[0] & 0xFF) << 24) | ((this.prefix[1] & 0xFF) << 16)
+                | ((this.prefix[2] & 0xFF) << 8) | (this.prefix[3] & 0xFF);
+        if (length < 0 || length > HmacFrameOutputStream.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid length " + length + " of frame " + this.index);
+        }
+        if (length > this.frame.length) {
+            this.frame = new byte[length];
+        }
+        if (CipherStreamUtil.fill(this.in, this.frame, 0, length) < length
+                || CipherStreamUtil.fill(this.in, this.tag, 0, this.tag.length) < this.tag.length) {
+            throw new EOFException("Stream ended within frame " + this.index);
+        }
+
+        boolean last = length == 0;
+        byte[] expected = HmacFrameOutputStream.createTag(this.mac, this.iv, this.index, last,
+                this.frame, 0, length);
+        if (!MessageDigest.isEqual(expected, this.tag)) {
+            throw new IOException("Frame " + this.index + " is not authentic.");
+        }
+
+        this.index++;
+        this.position = 0;
+        this.limit = length;
+        this.ended = last;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.github.jsiebahn.various.tests.crypt.aes.cbc;
+
+import javax.crypto.Mac;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that writes every call of {@link #write(byte[], int, int)} as a frame
+ * authenticated with a {@link Mac}. Closing the stream writes an empty terminating frame:
+ * <pre>
+ *   frames := frame* terminator
+ *   frame  := length(4 byte big endian int) data tag
+ *   tag    := mac(iv || index(8 byte big endian long) || last(1 byte) || data)
+ * </pre>
+ * Only the terminator is flagged as last frame. Binding the index, the flag and the
+ * initialisation vector to every tag prevents that frames are reordered, dropped, moved between
+ * streams of the same key or that the stream is truncated at a frame boundary.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:05
+ */
+class HmacFrameOutputStream extends FilterOutputStream {
+
+    /**
+     * The maximum length of the data of a frame. Longer writes are split.
+     */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final Mac mac;
+
+    private final byte[] iv;
+
+    private long index;
+
+    private boolean closed;
+
+    /**
+     * @param out the stream to write the frames to
+     * @param mac the initialised {@link Mac} to create the tags with
+     * @param iv the initialisation vector of the encrypted stream
+     */
+    HmacFrameOutputStream(OutputStream out, Mac mac, byte[] iv) {
+        super(out);
+        this.mac = mac;
+        this.iv = iv.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * Writes {@code len} bytes as one frame or as multiple frames if {@code len} exceeds
+     * {@link #MAX_FRAME_LENGTH}.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int frameLength = Math.min(len, MAX_FRAME_LENGTH);
+            writeFrame(b, off, frameLength, false);
+            off += frameLength;
+            len -= frameLength;
+        }
+    }
+
+    /**
+     * Writes the terminating frame and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            writeFrame(new byte[0], 0, 0, true);
+        }
+        finally {
+            super.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private void writeFrame(byte[] b, int off, int len, boolean last) throws IOException {
+        this.out.write(len >>> 24);
+        this.out.write(len >>> 16);
+        this.out.write(len >>> 8);
+        this.out.write(len);
+        this.out.write(b, off, len);
+        this.out.write(createTag(this.mac, this.iv, this.index++, last, b, off, len));
+    }
+
+    /**
+     * Creates the tag of a frame.
+     */
+    static byte[] createTag(Mac mac, byte[] iv, long index, boolean last, byte[] b, int off,
+            int len) {
+        mac.update(iv);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (index >>> shift));
+        }
+        mac.update((byte) (last ? 1 : 0));
+        mac.update(b, off, len);
+        return mac.doFinal();
+    }
+
+}
@@ -1,6 +1,12 @@
 package com.github.jsiebahn.various.tests.crypt.aes.cbc;
 
-import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.ByteBufferDecrypter;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.StreamingDecrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherFilterInputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.LengthPrefixedInputStream;
 import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Base64InputStream;
@@ -9,37 +15,71 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * Decrypts {@code Strings} and {@code InputStreams} of content encrypted by the
- * {@link SymmetricKeyEncrypter}. The input is expected to be base64 encoded. The first 16 bytes of
- * the base64 decoded input are assumed to be used as initialisation vector. Obviously the given
+ * {@link SymmetricKeyEncrypter}. {@code Strings} are expected to be base64 encoded, the encoding of
+ * streams is {@link Encoding detected} automatically. The first 16 bytes of the decoded input
+ * are assumed to be used as initialisation vector. Obviously the given
  * {@link SymmetricKeyEncrypter#SymmetricKeyEncrypter(String) key} needs to be the same as used for
- * encryption.
+ * encryption. Streams are decrypted in buffers of a configurable size that is a multiple of the
+ * cipher block size. {@link ByteBuffer}s are expected to contain the raw initialisation vector
+ * and encrypted data without base64 encoding.
+ *
+ * Streams written with authenticated frames are verified frame by frame before the frame is
+ * decrypted, so a modified stream fails at the first modified frame. A decrypter that requires
+ * authentication rejects streams without frames, so the authentication can not be stripped.
+ * {@link #openDecryptingStream(InputStream) Opened streams} are decrypted in the reading thread
+ * in the same way.
  *
  * @author jsiebahn
  * @since 27.10.14 07:40
  */
-public class SymmetricKeyDecrypter implements Decrypter {
+public class SymmetricKeyDecrypter implements ByteBufferDecrypter, StreamingDecrypter {
 
     private static final Logger log = LoggerFactory.getLogger(SymmetricKeyDecrypter.class);
 
+    /**
+     * The initialisation vector of the current thread reused by
+     * {@link #decrypt(ByteBuffer, ByteBuffer)}.
+     */
+    private static final ThreadLocal<byte[]> IV_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SymmetricKeyUtil.BLOCK_SIZE];
+        }
+    };
+
     /**
      * The key spec to use.
      */
-    private SecretKeySpec secretKeySpec;
+    private final SecretKeySpec secretKeySpec;
+
+    /**
+     * The size of the buffer used to read from the encrypted {@link InputStream}. It is a multiple
+     * of {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     */
+    private final int bufferSize;
+
+    /**
+     * If only streams with authenticated frames are decrypted.
+     */
+    private final boolean authenticationRequired;
 
     /**
      * If this instance is correctly initialised.
      */
-    private boolean initialised;
+    private final boolean initialised;
 
 
     public SymmetricKeyDecrypter(String key) {
@@ -47,10 +87,34 @@ public class SymmetricKeyDecrypter implements Decrypter {
     }
 
     public SymmetricKeyDecrypter(byte[] key) {
-        if (key == null) {
-            return;
-        }
-        this.secretKeySpec = SymmetricKeyUtil.createSecretKeySpec(key);
+        this(key, CipherStreamUtil.DEFAULT_BUFFER_SIZE);
+    }
+
+    public SymmetricKeyDecrypter(String key, int bufferSize) {
+        this(StringUtil.stringToByte(key), bufferSize);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param bufferSize the size of the buffer used to decrypt streams. It is rounded up to a
+     *      multiple of {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     */
+    public SymmetricKeyDecrypter(byte[] key, int bufferSize) {
+        this(key, bufferSize, false);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param bufferSize the size of the buffer used to decrypt streams. It is rounded up to a
+     *      multiple of {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     * @param authenticationRequired if streams without authenticated frames are rejected.
+     *      Encrypted {@link String}s and {@link ByteBuffer}s are not affected.
+     */
+    public SymmetricKeyDecrypter(byte[] key, int bufferSize, boolean authenticationRequired) {
+        this.authenticationRequired = authenticationRequired;
+        this.bufferSize = CipherStreamUtil.normalizeBufferSize(bufferSize,
+                SymmetricKeyUtil.BLOCK_SIZE);
+        this.secretKeySpec = key != null ? SymmetricKeyUtil.createSecretKeySpec(key) : null;
         initialised = this.secretKeySpec != null;
     }
 
@@ -75,14 +139,14 @@ public class SymmetricKeyDecrypter implements Decrypter {
             log.error("Encrypted data without initialisation vector.");
             return null;
         }
-        if (ivAndEncryptedData.length < 16) {
+        if (ivAndEncryptedData.length < SymmetricKeyUtil.BLOCK_SIZE) {
             log.error("Encrypted data without initialisation vector. Length: {}",
                     ivAndEncryptedData.length);
             return null;
         }
 
-        byte[] iv = Arrays.copyOf(ivAndEncryptedData, 16);
-        byte[] data = Arrays.copyOfRange(ivAndEncryptedData, 16, ivAndEncryptedData.length);
+        byte[] iv = Arrays.copyOf(ivAndEncryptedData, SymmetricKeyUtil.BLOCK_SIZE);
+        int dataLength = ivAndEncryptedData.length - SymmetricKeyUtil.BLOCK_SIZE;
 
         Cipher cipher = initCipher(iv);
 
@@ -91,12 +155,16 @@ public class SymmetricKeyDecrypter implements Decrypter {
         }
 
         try {
-            final byte[] plain = cipher.doFinal(data);
+            final byte[] plain = cipher.doFinal(ivAndEncryptedData, SymmetricKeyUtil.BLOCK_SIZE,
+                    dataLength);
             return StringUtil.byteToString(plain);
         } catch (IllegalBlockSizeException e) {
-            log.error("Illegal block size in decryption. Data length: {}", data.length, e);
+            log.error("Illegal block size in decryption. Data length: {}", dataLength, e);
         } catch (BadPaddingException e) {
-            log.error("Bad padding size in decryption. Data length: {}", data.length, e);
+            log.error("Bad padding size in decryption. Data length: {}", dataLength, e);
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
         }
 
         return null;
@@ -121,47 +189,144 @@ public class SymmetricKeyDecrypter implements Decrypter {
             return false;
         }
 
-        CipherOutputStream cipherOs = null;
-        try (InputStream base64Decoder = new Base64InputStream(encrypted)) {
+        try (PushbackInputStream source = new PushbackInputStream(encrypted, 1);
+             OutputStream plainOs = plain) {
 
-            byte[] iv = new byte[16];
-            int i = 0;
-            while (i < 16) {
-                int intValue = base64Decoder.read();
-                if (intValue == -1) {
-                    log.error("Can not read initialisation vector, stream ended at byte {}", i);
-                    return false;
-                }
-                iv[i] = (byte) intValue;
-                i++;
+            byte[] iv = new byte[SymmetricKeyUtil.BLOCK_SIZE];
+            InputStream cipherText = openCipherText(source, iv);
+            if (cipherText == null) {
+                return false;
             }
 
             Cipher cipher = initCipher(iv);
 
-            cipherOs = new CipherOutputStream(plain, cipher);
-            byte[] b = new byte[1];
-            int bytesRead = base64Decoder.read(b);
-            while (bytesRead != -1) {
-                cipherOs.write(b, 0, bytesRead);
-                bytesRead = base64Decoder.read(b);
+            if (cipher == null) {
+                return false;
+            }
+
+            try {
+                CipherStreamUtil.transfer(cipher, cipherText, plainOs, this.bufferSize);
+            }
+            finally {
+                SymmetricKeyUtil.releaseCipher(cipher);
             }
+            plainOs.flush();
 
         } catch (IOException e) {
             log.error("Can not read from input stream or write to output stream.", e);
             return false;
+        } catch (IllegalBlockSizeException e) {
+            log.error("Illegal block size in stream decryption.", e);
+            return false;
+        } catch (BadPaddingException e) {
+            log.error("Bad padding in stream decryption.", e);
+            return false;
         }
-        finally {
-            if (cipherOs != null) {
-                try {
-                    cipherOs.flush();
-                    cipherOs.close();
-                } catch (IOException e) {
-                    log.error("Unable to flush and close cipher stream.", e);
-                }
+
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream openDecryptingStream(InputStream encrypted) {
+        if (!initialised) {
+            return null;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted InputStream is null.");
+            return null;
+        }
+
+        try {
+            byte[] iv = new byte[SymmetricKeyUtil.BLOCK_SIZE];
+            InputStream cipherText = openCipherText(new PushbackInputStream(encrypted, 1), iv);
+            Cipher cipher = cipherText != null ? initCipher(iv) : null;
+            if (cipher != null) {
+                return new CipherFilterInputStream(cipherText, cipher, this.bufferSize);
             }
+        } catch (IOException e) {
+            log.error("Can not read from input stream.", e);
         }
 
-        return true;
+        try {
+            encrypted.close();
+        } catch (IOException e) {
+            log.error("Could not close encrypted input stream.", e);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxPlainLength(int encryptedLength) {
+        return Math.max(0, encryptedLength - SymmetricKeyUtil.BLOCK_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(ByteBuffer encrypted, ByteBuffer plain) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (encrypted == null || plain == null) {
+            log.error("encrypted ByteBuffer {} or plain ByteBuffer {} is null.", encrypted, plain);
+            return false;
+        }
+
+        if (encrypted.remaining() < SymmetricKeyUtil.BLOCK_SIZE) {
+            log.error("Encrypted data without initialisation vector. Length: {}",
+                    encrypted.remaining());
+            return false;
+        }
+
+        int required = getMaxPlainLength(encrypted.remaining());
+        if (plain.remaining() < required) {
+            log.error("plain ByteBuffer too small. Required: {}, remaining: {}", required,
+                    plain.remaining());
+            return false;
+        }
+
+        int encryptedPosition = encrypted.position();
+        int plainPosition = plain.position();
+
+        byte[] iv = IV_BUFFER.get();
+        encrypted.get(iv);
+        Cipher cipher = initCipher(iv);
+
+        if (cipher == null) {
+            encrypted.position(encryptedPosition);
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            cipher.doFinal(encrypted, plain);
+            success = true;
+        } catch (IllegalBlockSizeException e) {
+            log.error("Illegal block size in decryption. Data length: {}", required, e);
+        } catch (BadPaddingException e) {
+            log.error("Bad padding size in decryption. Data length: {}", required, e);
+        } catch (ShortBufferException e) {
+            // should never happen as the remaining space has been checked
+            log.error("Short buffer: {} bytes", plain.remaining(), e);
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
+            if (!success) {
+                encrypted.position(encryptedPosition);
+                plain.position(plainPosition);
+            }
+        }
+        return success;
     }
 
     /**
@@ -177,14 +342,63 @@ public class SymmetricKeyDecrypter implements Decrypter {
     // helper
     //
 
+    /**
+     * Reads the type of {@code source} and the initialisation vector behind it into {@code iv}.
+     * The returned stream provides the cipher text: decoded from base64, read from length
+     * prefixed chunks or read from authenticated frames, which are verified before they are
+     * passed on.
+     *
+     * @return the stream of the cipher text or {@code null} if {@code source} can not be
+     *      decrypted by this instance
+     */
+    private InputStream openCipherText(PushbackInputStream source, byte[] iv)
+            throws IOException {
+
+        int type = EncodingUtil.readType(source);
+        boolean authenticated = type == EncodingUtil.TYPE_CBC_HMAC;
+        if (!authenticated && this.authenticationRequired) {
+            log.error("Stream is not authenticated. Type: {}", type);
+            return null;
+        }
+        if (!authenticated && type != EncodingUtil.TYPE_NONE && type != EncodingUtil.TYPE_CBC) {
+            log.error("Binary data of type {} can not be decrypted as type {}.", type,
+                    EncodingUtil.TYPE_CBC);
+            return null;
+        }
+        InputStream decoded = type == EncodingUtil.TYPE_NONE
+                ? new Base64InputStream(source)
+                : source;
+
+        int ivLength = CipherStreamUtil.fill(decoded, iv, 0, iv.length);
+        if (ivLength < iv.length) {
+            log.error("Can not read initialisation vector, stream ended at byte {}", ivLength);
+            return null;
+        }
+
+        if (authenticated) {
+            Mac mac = SymmetricKeyUtil.createStreamMac(this.secretKeySpec);
+            return mac != null ? new HmacFrameInputStream(decoded, mac, iv) : null;
+        }
+        return type == EncodingUtil.TYPE_CBC ? new LengthPrefixedInputStream(decoded) : decoded;
+    }
+
+    /**
+     * Borrows a {@link Cipher} and initialises it for decryption. The {@link Cipher} has to be
+     * {@link SymmetricKeyUtil#releaseCipher(Cipher) released} by the caller.
+     */
     private Cipher initCipher(byte[] initialisationVector) {
 
         Cipher cipher = SymmetricKeyUtil.createCipher();
 
+        if (cipher == null) {
+            return null;
+        }
+
         if (!SymmetricKeyUtil.initCipherForDecrypt(
                 cipher,
                 this.secretKeySpec,
                 initialisationVector)) {
+            SymmetricKeyUtil.releaseCipher(cipher);
             return null;
         }
 
@@ -1,42 +1,100 @@
 package com.github.jsiebahn.various.tests.crypt.aes.cbc;
 
+import com.github.jsiebahn.various.tests.crypt.BatchEncrypter;
+import com.github.jsiebahn.various.tests.crypt.ByteBufferEncrypter;
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
 import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.StreamingEncrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherFilterOutputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.LengthPrefixedOutputStream;
 import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.binary.Base64OutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * An {@link Encrypter} that encrypts with symmetric key encryption. Internally AES in counter
  * block mode is used. The encrypted result is prepended by the 16 byte initialisation vector which
- * is required for decryption. All data added to the stream is base64 encoded.
+ * is required for decryption. Data added to the stream is base64 encoded by default. With
+ * {@link Encoding#BINARY} the stream gets a binary header followed by the initialisation vector
+ * and the encrypted data in length prefixed chunks. Streams are encrypted in buffers of a
+ * configurable size that is a multiple of the cipher block size. Authenticated streams are
+ * always binary: the encrypted buffers are written as frames with an HMAC tag each, so that the
+ * {@link SymmetricKeyDecrypter} detects modifications while it decrypts.
+ * {@link ByteBuffer}s are encrypted into the raw initialisation vector and encrypted data without
+ * base64 encoding. {@link #openEncryptingStream(OutputStream) Opened streams} produce the same
+ * format in the writing thread. {@link #encryptAll(List, String[], int, int) Batches} share one
+ * cipher and one output buffer and get the initialisation vectors of all values at once.
  *
  * @author jsiebahn
  * @since 24.10.14 07:19
  */
-public class SymmetricKeyEncrypter implements Encrypter {
+public class SymmetricKeyEncrypter implements ByteBufferEncrypter, StreamingEncrypter,
+        BatchEncrypter {
 
     private static final Logger log = LoggerFactory.getLogger(SymmetricKeyEncrypter.class);
 
+    /**
+     * The initialisation vector of the current thread reused by
+     * {@link #encrypt(ByteBuffer, ByteBuffer)}.
+     */
+    private static final ThreadLocal<byte[]> IV_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SymmetricKeyUtil.BLOCK_SIZE];
+        }
+    };
+
     /**
      * The key spec to use.
      */
-    private SecretKeySpec secretKeySpec;
+    private final SecretKeySpec secretKeySpec;
+
+    /**
+     * The size of the buffer used to read from the plain {@link InputStream}. It is a multiple of
+     * {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     */
+    private final int bufferSize;
+
+    /**
+     * The encoding of encrypted streams.
+     */
+    private final Encoding encoding;
+
+    /**
+     * If streams are written in frames authenticated with an HMAC tag.
+     */
+    private final boolean authenticated;
 
     /**
      * If this instance is correctly initialised.
      */
-    private boolean initialised;
+    private final boolean initialised;
+
+    /**
+     * The result of the test encryption with the key. It is {@code null} until
+     * {@link #isReadyToOperate()} is called for the first time.
+     */
+    private volatile Boolean selfTestPassed;
 
     public SymmetricKeyEncrypter(String key) {
 
@@ -45,18 +103,52 @@ public class SymmetricKeyEncrypter implements Encrypter {
     }
 
     public SymmetricKeyEncrypter(byte[] key) {
-        if (key == null) {
-            return;
-        }
-        this.secretKeySpec = SymmetricKeyUtil.createSecretKeySpec(key);
+        this(key, CipherStreamUtil.DEFAULT_BUFFER_SIZE);
+    }
 
-        if (this.secretKeySpec == null) {
-            return;
-        }
+    public SymmetricKeyEncrypter(String key, int bufferSize) {
+        this(StringUtil.stringToByte(key), bufferSize);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param bufferSize the size of the buffer used to encrypt streams. It is rounded up to a
+     *      multiple of {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     */
+    public SymmetricKeyEncrypter(byte[] key, int bufferSize) {
+        this(key, bufferSize, Encoding.BASE64);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param bufferSize the size of the buffer used to encrypt streams. It is rounded up to a
+     *      multiple of {@link SymmetricKeyUtil#BLOCK_SIZE}.
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}. Encrypted {@link String}s are always base64 encoded.
+     */
+    public SymmetricKeyEncrypter(byte[] key, int bufferSize, Encoding encoding) {
+        this(key, bufferSize, encoding, false);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param bufferSize the size of the buffer used to encrypt streams. It is rounded up to a
+     *      multiple of {@link SymmetricKeyUtil#BLOCK_SIZE}. Every buffer of an authenticated
+     *      stream becomes one frame.
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}. It is ignored for authenticated streams.
+     * @param authenticated if streams are written in frames authenticated with an HMAC tag
+     */
+    public SymmetricKeyEncrypter(byte[] key, int bufferSize, Encoding encoding,
+            boolean authenticated) {
+        this.authenticated = authenticated;
+        this.encoding = encoding == null ? Encoding.BASE64 : encoding;
+        this.bufferSize = CipherStreamUtil.normalizeBufferSize(bufferSize,
+                SymmetricKeyUtil.BLOCK_SIZE);
+        this.secretKeySpec = key != null ? SymmetricKeyUtil.createSecretKeySpec(key) : null;
 
-        // do a test encryption to check initialisation state
-        initialised = true;
-        initialised = encrypt("test") != null;
+        // the test encryption is deferred to isReadyToOperate() to keep construction cheap
+        initialised = this.secretKeySpec != null;
 
     }
 
@@ -75,23 +167,36 @@ public class SymmetricKeyEncrypter implements Encrypter {
             return null;
         }
 
-        try {
-            Cipher cipher = SymmetricKeyUtil.createCipher();
+        Cipher cipher = SymmetricKeyUtil.createCipher();
 
-            if (cipher == null) {
-                return null;
-            }
+        if (cipher == null) {
+            return null;
+        }
 
+        try {
             byte[] iv = SymmetricKeyUtil.initCipherForEncrypt(cipher, this.secretKeySpec);
-            byte[] encrypted = cipher.doFinal(plainBytes);
-            byte[] ivAndEncrypted = new byte[iv.length + encrypted.length];
+            if (iv == null) {
+                return null;
+            }
+            // encrypt directly behind the initialisation vector to avoid copying
+            byte[] ivAndEncrypted = new byte[iv.length + cipher.getOutputSize(plainBytes.length)];
             System.arraycopy(iv, 0, ivAndEncrypted, 0, iv.length);
-            System.arraycopy(encrypted, 0, ivAndEncrypted, iv.length, encrypted.length);
+            int length = iv.length + cipher.doFinal(plainBytes, 0, plainBytes.length,
+                    ivAndEncrypted, iv.length);
+            if (length < ivAndEncrypted.length) {
+                ivAndEncrypted = Arrays.copyOf(ivAndEncrypted, length);
+            }
             return Base64.encodeBase64String(ivAndEncrypted);
         } catch (IllegalBlockSizeException e) {
             log.error("Illegal block size: {} bytes", plainBytes.length, e);
         } catch (BadPaddingException e) {
             log.error("Bad padding: {} bytes", plainBytes.length, e);
+        } catch (ShortBufferException e) {
+            // should never happen as the output is sized by Cipher.getOutputSize(int)
+            log.error("Short buffer: {} bytes", plainBytes.length, e);
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
         }
         return null;
     }
@@ -124,23 +229,25 @@ public class SymmetricKeyEncrypter implements Encrypter {
 
         byte[] iv = SymmetricKeyUtil.initCipherForEncrypt(cipher, this.secretKeySpec);
 
-        try (OutputStream base64Out = new Base64OutputStream(encrypted);
-             CipherOutputStream cipherOs = new CipherOutputStream(base64Out, cipher)) {
+        if (iv == null) {
+            SymmetricKeyUtil.releaseCipher(cipher);
+            return false;
+        }
 
-            base64Out.write(iv, 0, iv.length);
+        try (OutputStream encoded = openEncoding(encrypted, iv)) {
 
-            byte[] tempBytes = new byte[1];
-            int readLen = plain.read(tempBytes);
-            while (readLen != -1) {
-                cipherOs.write(tempBytes, 0, readLen);
-                readLen = plain.read(tempBytes);
-            }
+            CipherStreamUtil.transfer(cipher, plain, encoded, this.bufferSize);
 
             return true;
         } catch (IOException e) {
             log.error("Could read from input stream or write to output stream.", e);
+        } catch (IllegalBlockSizeException e) {
+            log.error("Illegal block size in stream encryption.", e);
+        } catch (BadPaddingException e) {
+            log.error("Bad padding in stream encryption.", e);
         }
         finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
             try {
                 plain.close();
             } catch (IOException e) {
@@ -150,12 +257,227 @@ public class SymmetricKeyEncrypter implements Encrypter {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The written data is buffered and encrypted in buffers of the configured size.
+     */
+    @Override
+    public OutputStream openEncryptingStream(OutputStream encrypted) {
+
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted OutputStream is null.");
+            return null;
+        }
+
+        Cipher cipher = SymmetricKeyUtil.createCipher();
+
+        if (cipher == null) {
+            return null;
+        }
+
+        byte[] iv = SymmetricKeyUtil.initCipherForEncrypt(cipher, this.secretKeySpec);
+
+        if (iv == null) {
+            SymmetricKeyUtil.releaseCipher(cipher);
+            return null;
+        }
+
+        try {
+            return new BufferedOutputStream(new CipherFilterOutputStream(
+                    openEncoding(encrypted, iv), cipher), this.bufferSize);
+        } catch (IOException e) {
+            log.error("Could not write to output stream.", e);
+            SymmetricKeyUtil.releaseCipher(cipher);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encryptAll(List<String> plain, String[] encrypted, int from, int to) {
+
+        if (!checkInitialised() || from >= to) {
+            return;
+        }
+
+        Cipher cipher = SymmetricKeyUtil.createCipher();
+
+        if (cipher == null) {
+            return;
+        }
+
+        try {
+            byte[] ivs = createIvs(to - from);
+            byte[] output = new byte[0];
+            for (int i = from; i < to; i++) {
+                byte[] plainBytes = StringUtil.stringToByte(plain.get(i));
+                int ivOffset = (i - from) * SymmetricKeyUtil.BLOCK_SIZE;
+                if (plainBytes == null || !SymmetricKeyUtil.initCipherForEncrypt(cipher,
+                        this.secretKeySpec, ivs, ivOffset)) {
+                    continue;
+                }
+                int required = SymmetricKeyUtil.BLOCK_SIZE
+                        + cipher.getOutputSize(plainBytes.length);
+                if (required > output.length) {
+                    output = new byte[required];
+                }
+                // encrypt directly behind the initialisation vector like encrypt(String)
+                System.arraycopy(ivs, ivOffset, output, 0, SymmetricKeyUtil.BLOCK_SIZE);
+                try {
+                    int length = SymmetricKeyUtil.BLOCK_SIZE + cipher.doFinal(plainBytes, 0,
+                            plainBytes.length, output, SymmetricKeyUtil.BLOCK_SIZE);
+                    encrypted[i] = Base64.encodeBase64String(Arrays.copyOf(output, length));
+                } catch (GeneralSecurityException e) {
+                    log.error("Could not encrypt value {} of batch: {} bytes", i,
+                            plainBytes.length, e);
+                }
+            }
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encryptAll(byte[][] plain, byte[][] encrypted, int from, int to) {
+
+        if (!checkInitialised() || from >= to) {
+            return;
+        }
+
+        Cipher cipher = SymmetricKeyUtil.createCipher();
+
+        if (cipher == null) {
+            return;
+        }
+
+        try {
+            byte[] ivs = createIvs(to - from);
+            byte[] iv = new byte[SymmetricKeyUtil.BLOCK_SIZE];
+            // an update of a buffer and the final block are at most one block longer
+            byte[] output = new byte[this.bufferSize + SymmetricKeyUtil.BLOCK_SIZE];
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            for (int i = from; i < to; i++) {
+                int ivOffset = (i - from) * SymmetricKeyUtil.BLOCK_SIZE;
+                if (plain[i] == null || !SymmetricKeyUtil.initCipherForEncrypt(cipher,
+                        this.secretKeySpec, ivs, ivOffset)) {
+                    continue;
+                }
+                System.arraycopy(ivs, ivOffset, iv, 0, iv.length);
+                os.reset();
+                try (OutputStream encoded = openEncoding(os, iv)) {
+                    // the same buffers and writes as CipherStreamUtil.transfer
+                    for (int offset = 0; offset < plain[i].length; offset += this.bufferSize) {
+                        int length = Math.min(this.bufferSize, plain[i].length - offset);
+                        encoded.write(output, 0, cipher.update(plain[i], offset, length,
+                                output, 0));
+                    }
+                    encoded.write(output, 0, cipher.doFinal(output, 0));
+                } catch (IOException | GeneralSecurityException e) {
+                    log.error("Could not encrypt value {} of batch: {} bytes", i,
+                            plain[i].length, e);
+                    continue;
+                }
+                encrypted[i] = os.toByteArray();
+            }
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxEncryptedLength(int plainLength) {
+        // the padding adds 1 to 16 bytes
+        return SymmetricKeyUtil.BLOCK_SIZE
+                + (plainLength / SymmetricKeyUtil.BLOCK_SIZE + 1) * SymmetricKeyUtil.BLOCK_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(ByteBuffer plain, ByteBuffer encrypted) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null || encrypted == null) {
+            log.error("plain ByteBuffer {} or encrypted ByteBuffer {} is null.", plain, encrypted);
+            return false;
+        }
+
+        int required = getMaxEncryptedLength(plain.remaining());
+        if (encrypted.remaining() < required) {
+            log.error("encrypted ByteBuffer too small. Required: {}, remaining: {}", required,
+                    encrypted.remaining());
+            return false;
+        }
+
+        Cipher cipher = SymmetricKeyUtil.createCipher();
+
+        if (cipher == null) {
+            return false;
+        }
+
+        int plainPosition = plain.position();
+        int encryptedPosition = encrypted.position();
+        boolean success = false;
+        try {
+            byte[] iv = IV_BUFFER.get();
+            if (!SymmetricKeyUtil.initCipherForEncrypt(cipher, this.secretKeySpec, iv)) {
+                return false;
+            }
+            encrypted.put(iv);
+            cipher.doFinal(plain, encrypted);
+            success = true;
+        } catch (IllegalBlockSizeException e) {
+            log.error("Illegal block size: {} bytes", plain.remaining(), e);
+        } catch (BadPaddingException e) {
+            log.error("Bad padding: {} bytes", plain.remaining(), e);
+        } catch (ShortBufferException e) {
+            // should never happen as the remaining space has been checked
+            log.error("Short buffer: {} bytes", encrypted.remaining(), e);
+        }
+        finally {
+            SymmetricKeyUtil.releaseCipher(cipher);
+            if (!success) {
+                plain.position(plainPosition);
+                encrypted.position(encryptedPosition);
+            }
+        }
+        return success;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean isReadyToOperate() {
-        return checkInitialised();
+        if (!checkInitialised()) {
+            return false;
+        }
+        Boolean passed = this.selfTestPassed;
+        if (passed == null) {
+            // concurrent callers may both run the test, which is harmless
+            passed = encrypt("test") != null;
+            this.selfTestPassed = passed;
+        }
+        return passed;
     }
 
 
@@ -163,6 +485,40 @@ public class SymmetricKeyEncrypter implements Encrypter {
     // helper
     //
 
+    /**
+     * Opens the configured encoding on {@code encrypted} and writes the initialisation vector.
+     *
+     * @return the stream to write the encrypted data to
+     */
+    private OutputStream openEncoding(OutputStream encrypted, byte[] iv) throws IOException {
+        if (this.authenticated) {
+            Mac mac = SymmetricKeyUtil.createStreamMac(this.secretKeySpec);
+            if (mac == null) {
+                throw new IOException("No MAC to authenticate stream.");
+            }
+            OutputStream encoded = EncodingUtil.openEncoding(encrypted, Encoding.BINARY,
+                    EncodingUtil.TYPE_CBC_HMAC);
+            encoded.write(iv, 0, iv.length);
+            return new HmacFrameOutputStream(encoded, mac, iv);
+        }
+        OutputStream encoded = EncodingUtil.openEncoding(encrypted, this.encoding,
+                EncodingUtil.TYPE_CBC);
+        encoded.write(iv, 0, iv.length);
+        if (this.encoding == Encoding.BINARY) {
+            return new LengthPrefixedOutputStream(encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Creates the random initialisation vectors of {@code count} values with a single call of
+     * the {@link RandomSources#getDefault() RandomSource}.
+     */
+    private static byte[] createIvs(int count) {
+        byte[] ivs = new byte[count * SymmetricKeyUtil.BLOCK_SIZE];
+        RandomSources.getDefault().nextBytes(ivs);
+        return ivs;
+    }
 
     private boolean checkInitialised() {
         if (this.secretKeySpec == null) {
@@ -1,14 +1,21 @@
 package com.github.jsiebahn.various.tests.crypt.aes.cbc;
 
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.Instrumentations;
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.*;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class for symmetric encryption. This utility encapsulates methods used by the
@@ -33,39 +40,54 @@ public class SymmetricKeyUtil {
      */
     static final String TRANSFORMATION = ALGORITHM + "/CBC/PKCS5PADDING";
 
+    /**
+     * The block size of {@link #ALGORITHM} in bytes. It is also the length of the initialisation
+     * vector.
+     */
+    static final int BLOCK_SIZE = 16;
+
     /**
      * The provider used to create the {@link Cipher} for {@link #TRANSFORMATION}.
      */
     static final String PROVIDER = "SunJCE";
 
     /**
-     * The algorithm used to get random bytes from a {@link SecureRandom}.
+     * Algorithm used to create hashes in key generation process.
      */
-    static final String RANDOM_ALGORITHM = "SHA1PRNG";
+    static final String HASH_ALGORITHM = "SHA-256";
 
     /**
-     * The provider used to get random bytes from a {@link SecureRandom}.
+     * The algorithm of the tags that authenticate the frames of encrypted streams.
      */
-    static final String RANDOM_PROVIDER = "SUN";
+    static final String STREAM_MAC_ALGORITHM = "HmacSHA256";
 
     /**
-     * Algorithm used to create hashes in key generation process.
+     * The label the key of {@link #STREAM_MAC_ALGORITHM} is derived with from the encryption
+     * key. It keeps the key of the tags independent from the key of the cipher.
      */
-    static final String HASH_ALGORITHM = "SHA-256";
+    private static final byte[] STREAM_MAC_LABEL = {
+            'c', 'b', 'c', '-', 's', 't', 'r', 'e', 'a', 'm', '-', 'm', 'a', 'c'};
 
     /**
      * The logger used by this class.
      */
     private static final Logger log = LoggerFactory.getLogger(SymmetricKeyUtil.class);
 
+    /**
+     * The maximum allowed key length by cipher algorithm. It does not change while the JVM runs.
+     */
+    private static final ConcurrentMap<String, Integer> MAX_KEY_LENGTHS =
+            new ConcurrentHashMap<>();
+
     /**
      * Creates a {@link Cipher} instance for symmetric key encryption or decryption using
      * {@link #TRANSFORMATION} from {@link #PROVIDER}.
      * The cipher is not yet initialised and can be used for encryption or decryption after it is
      * initialised with either {@link #initCipherForEncrypt(Cipher, SecretKeySpec)} or
-     * {@link #initCipherForDecrypt(Cipher, SecretKeySpec, byte[])}.
+     * {@link #initCipherForDecrypt(Cipher, SecretKeySpec, byte[])}. The instance is borrowed from
+     * the {@link CipherPool} and should be returned with {@link #releaseCipher(Cipher)} after use.
      *
-     * @return a new {@link Cipher} instance
+     * @return a {@link Cipher} instance exclusively owned by the caller
      */
     public static Cipher createCipher() {
 
@@ -73,14 +95,25 @@ public class SymmetricKeyUtil {
 
     }
 
+    /**
+     * Returns a {@link Cipher} created by {@link #createCipher()} to the {@link CipherPool}. The
+     * {@code cipher} must not be used by the caller afterwards.
+     *
+     * @param cipher the {@link Cipher} to return, may be {@code null}
+     */
+    public static void releaseCipher(Cipher cipher) {
+        CipherPool.release(cipher);
+    }
+
 
     /**
      * Initialises the given {@code cipher} for encryption with the statically defined
-     * {@link #TRANSFORMATION} using a random initialisation vector created
-     * with {@link SecureRandom}. The initialisation vector will be returned and should be bundled
-     * with the encrypted data. It is required for decryption. There is no need to keep the
-     * initialisation vector secret. This method should never throw any exception. If there is any
-     * problem with initialising the {@code cipher}, the return value will be {@code null}.
+     * {@link #TRANSFORMATION} using a random initialisation vector created with the
+     * {@link RandomSources#getDefault() default RandomSource}. The initialisation vector will be
+     * returned and should be bundled with the encrypted data. It is required for decryption. There
+     * is no need to keep the initialisation vector secret. This method should never throw any
+     * exception. If there is any problem with initialising the {@code cipher}, the return value
+     * will be {@code null}.
      *
      * @param cipher the {@link Cipher} to initialise for encryption with
      *      {@value #TRANSFORMATION}. It should be created with the configured
@@ -91,23 +124,56 @@ public class SymmetricKeyUtil {
      *      the initialisation of the {@code cipher} failed
      */
     public static byte[] initCipherForEncrypt(Cipher cipher, SecretKeySpec secretKeySpec) {
+        byte[] ivKey = new byte[BLOCK_SIZE];
+        return initCipherForEncrypt(cipher, secretKeySpec, ivKey) ? ivKey : null;
+    }
+
+    /**
+     * Initialises the given {@code cipher} for encryption like
+     * {@link #initCipherForEncrypt(Cipher, SecretKeySpec)}, but fills the random initialisation
+     * vector into the given array. The array may be reused by the caller after this method
+     * returns, which avoids an allocation per encryption.
+     *
+     * @param cipher the {@link Cipher} to initialise for encryption with
+     *      {@value #TRANSFORMATION}
+     * @param secretKeySpec the {@link SecretKeySpec} used by the {@code cipher} to encrypt the data
+     * @param iv an array of {@link #BLOCK_SIZE} bytes that is filled with the initialisation vector
+     * @return if the cipher could be initialised
+     */
+    public static boolean initCipherForEncrypt(Cipher cipher, SecretKeySpec secretKeySpec,
+            byte[] iv) {
+        RandomSources.getDefault().nextBytes(iv);
+        return initCipherForEncrypt(cipher, secretKeySpec, iv, 0);
+    }
+
+    /**
+     * Initialises the given {@code cipher} for encryption with the {@link #BLOCK_SIZE} bytes at
+     * {@code offset} in {@code ivs} as initialisation vector. The caller is responsible for
+     * filling them with random bytes, e.g. for all values of a batch with a single call of the
+     * {@link RandomSources#getDefault() default RandomSource}. Every initialisation vector must
+     * only be used once.
+     *
+     * @param cipher the {@link Cipher} to initialise for encryption with
+     *      {@value #TRANSFORMATION}
+     * @param secretKeySpec the {@link SecretKeySpec} used by the {@code cipher} to encrypt the data
+     * @param ivs an array containing the random initialisation vector
+     * @param offset the offset of the initialisation vector in {@code ivs}
+     * @return if the cipher could be initialised
+     */
+    public static boolean initCipherForEncrypt(Cipher cipher, SecretKeySpec secretKeySpec,
+            byte[] ivs, int offset) {
         try {
-            SecureRandom random = SecureRandom.getInstance(RANDOM_ALGORITHM, RANDOM_PROVIDER);
-            byte[] ivKey = new byte[16];
-            random.nextBytes(ivKey);
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(ivKey);
+            IvParameterSpec ivParameterSpec = new IvParameterSpec(ivs, offset, BLOCK_SIZE);
+            long start = Instrumentations.startNanos();
             cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
-            return ivKey;
+            Instrumentations.recordPhase(Phase.CIPHER_INIT, start);
+            return true;
         } catch (InvalidKeyException e) {
             log.error("Invalid key '{}' for {}", secretKeySpec, TRANSFORMATION, e);
         } catch (InvalidAlgorithmParameterException e) {
             log.error("Invalid algorithm param (iv?) for {}", secretKeySpec, TRANSFORMATION, e);
-        } catch (NoSuchAlgorithmException e) {
-            log.error("No such secure random algorithm: {}", RANDOM_ALGORITHM, e);
-        } catch (NoSuchProviderException e) {
-            log.error("No such secure random provider: {}", RANDOM_PROVIDER, e);
         }
-        return null;
+        return false;
     }
 
     /**
@@ -127,7 +193,9 @@ public class SymmetricKeyUtil {
     public static boolean initCipherForDecrypt(Cipher cipher, SecretKeySpec secretKeySpec,
             byte[] iv) {
         try {
+            long start = Instrumentations.startNanos();
             cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new IvParameterSpec(iv));
+            Instrumentations.recordPhase(Phase.CIPHER_INIT, start);
             return true;
         } catch (InvalidKeyException e) {
             log.error("Invalid key '{}' for {}", secretKeySpec, TRANSFORMATION, e);
@@ -139,7 +207,8 @@ public class SymmetricKeyUtil {
 
     /**
      * Creates a {@link SecretKeySpec} that can be used for symmetric key encryption or decryption.
-     * The {@link SecretKeySpec} will be derived from the given {@code key}.
+     * The {@link SecretKeySpec} will be derived from the given {@code key}. The key is derived
+     * once per encrypter or decrypter when it is created, so there is no shared cache.
      *
      * @param key any byte array used as key for encryption or decryption. It will be hashed to
      *      create a valid key according the requirements of the algorithm
@@ -148,7 +217,9 @@ public class SymmetricKeyUtil {
      */
     public static SecretKeySpec createSecretKeySpec(byte[] key) {
 
+        long start = Instrumentations.startNanos();
         byte[] validKey = createValidKey(key, ALGORITHM, HASH_ALGORITHM);
+        Instrumentations.recordPhase(Phase.KEY_DERIVATION, start);
 
         if (validKey == null) {
             log.error("Could not create valid key from '{}'", key);
@@ -158,6 +229,28 @@ public class SymmetricKeyUtil {
         return new SecretKeySpec(validKey, ALGORITHM);
     }
 
+    /**
+     * Creates the {@link Mac} that authenticates the frames of an encrypted stream. Its key is
+     * derived from the encryption key with {@link #STREAM_MAC_ALGORITHM} and a fixed label.
+     *
+     * @param secretKeySpec the key used to encrypt the stream
+     * @return the initialised {@link Mac} or {@code null} if it can not be created
+     */
+    static Mac createStreamMac(SecretKeySpec secretKeySpec) {
+        try {
+            Mac mac = Mac.getInstance(STREAM_MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secretKeySpec.getEncoded(), STREAM_MAC_ALGORITHM));
+            byte[] macKey = mac.doFinal(STREAM_MAC_LABEL);
+            mac.init(new SecretKeySpec(macKey, STREAM_MAC_ALGORITHM));
+            Arrays.fill(macKey, (byte) 0);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // should never happen as HmacSHA256 is available in every VM
+            log.error("Unable to create {}.", STREAM_MAC_ALGORITHM, e);
+            return null;
+        }
+    }
+
 
     //
     // Methods extracted for unit testing impossible corner cases to satisfy coverage.
@@ -169,17 +262,18 @@ public class SymmetricKeyUtil {
      * The cipher is not yet initialised and can be used for encryption or decryption after it is
      * initialised with either {@link #initCipherForEncrypt(Cipher, SecretKeySpec)} or
      * {@link #initCipherForDecrypt(Cipher, SecretKeySpec, byte[])}. Exceptions thrown by
-     * {@link Cipher#getInstance(String, String)} will be logged on error level.
+     * {@link Cipher#getInstance(String, String)} will be logged on error level. The instance is
+     * borrowed from the {@link CipherPool}.
      *
      * @param transformation the transformation to use, e.g. "AES/CBC/PKCS5PADDING"
      * @param provider the provider to use, e.g. "SunJCE"
-     * @return a new {@link Cipher} instance or {@code null} if
+     * @return a {@link Cipher} instance or {@code null} if
      *      {@link Cipher#getInstance(String, String)} throws an {@link Exception}
      */
     static Cipher createCipher(String transformation, String provider) {
         try {
 
-            return Cipher.getInstance(transformation, provider);
+            return CipherPool.borrow(transformation, provider);
 
         } catch (NoSuchAlgorithmException e) {
             // should never happen as the ALGORITHM is defined statically
@@ -217,7 +311,37 @@ public class SymmetricKeyUtil {
             return null;
         }
 
-        // evaluate the maximum allowed key length to provide the strongest possible encryption
+        int maxKeyLen = getMaxKeyLength(cipherAlgorithm);
+
+        // generate a valid key from a hash of the input key
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance(hashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // should not happen as SHA-256 should be available in every VM
+            log.error("Algorithm not found: {}", hashAlgorithm, e);
+            return null;
+        }
+        byte[] validKey = sha.digest(key);
+        validKey = Arrays.copyOf(validKey, maxKeyLen / 8);
+
+        return validKey;
+    }
+
+    /**
+     * Evaluates the maximum allowed key length to provide the strongest possible encryption with
+     * the given {@code cipherAlgorithm}. The evaluation and its log messages happen once per JVM.
+     *
+     * @param cipherAlgorithm the algorithm to use for encryption or decryption
+     * @return the key length in bit, at most 256 bit
+     */
+    static int getMaxKeyLength(String cipherAlgorithm) {
+
+        Integer known = MAX_KEY_LENGTHS.get(cipherAlgorithm);
+        if (known != null) {
+            return known;
+        }
+
         int maxKeyLen;
         try {
             maxKeyLen = Cipher.getMaxAllowedKeyLength(cipherAlgorithm);
@@ -239,21 +363,10 @@ public class SymmetricKeyUtil {
                     cipherAlgorithm);
             maxKeyLen = 256;
         }
-        log.info("Creating a valid key with {}bit for {}.", maxKeyLen, cipherAlgorithm);
-
-        // generate a valid key from a hash of the input key
-        MessageDigest sha;
-        try {
-            sha = MessageDigest.getInstance(hashAlgorithm);
-        } catch (NoSuchAlgorithmException e) {
-            // should not happen as SHA-256 should be available in every VM
-            log.error("Algorithm not found: {}", hashAlgorithm, e);
-            return null;
-        }
-        byte[] validKey = sha.digest(key);
-        validKey = Arrays.copyOf(validKey, maxKeyLen / 8);
+        log.info("Creating valid keys with {}bit for {}.", maxKeyLen, cipherAlgorithm);
 
-        return validKey;
+        Integer previous = MAX_KEY_LENGTHS.putIfAbsent(cipherAlgorithm, maxKeyLen);
+        return previous != null ? previous : maxKeyLen;
     }
 
 }
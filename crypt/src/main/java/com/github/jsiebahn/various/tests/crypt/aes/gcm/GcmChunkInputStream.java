@@ -0,0 +1,174 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link InputStream} that reads the chunks described in {@link GcmUtil} from the wrapped
+ * stream and provides their plain content in the calling thread. Every chunk is verified before
+ * its content is provided. The stream fails with an {@link IOException} if a chunk is not
+ * authentic, the payload is truncated or data follows the last chunk. It is confined to one
+ * thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:20
+ */
+class GcmChunkInputStream extends InputStream {
+
+    private final InputStream in;
+
+    private final Cipher cipher;
+
+    private final SecretKeySpec key;
+
+    private final byte[] streamId;
+
+    private final byte[] header = new byte[GcmUtil.HEADER_LENGTH];
+
+    private final byte[] nonce = new byte[GcmUtil.NONCE_LENGTH];
+
+    private byte[] input = new byte[0];
+
+    private byte[] output = new byte[0];
+
+    private int position;
+
+    private int limit;
+
+    private long index;
+
+    /**
+     * If the last chunk has been read.
+     */
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * If reading failed, so the stream must not end regularly afterwards.
+     */
+    private boolean failed;
+
+    /**
+     * @param in the stream the chunks are read from, positioned behind the payload header
+     * @param cipher a cipher for {@link GcmUtil#TRANSFORMATION}. It is owned by this stream until
+     *      it is closed.
+     * @param key the key to decrypt with
+     * @param streamId the stream id read from the payload header
+     */
+    GcmChunkInputStream(InputStream in, Cipher cipher, SecretKeySpec key, byte[] streamId) {
+        this.in = in;
+        this.cipher = cipher;
+        this.key = key;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (this.failed) {
+            throw new IOException("A previous read failed.");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (this.position == this.limit) {
+            if (this.finished) {
+                return -1;
+            }
+            try {
+                decryptChunk();
+            } catch (IOException | RuntimeException e) {
+                this.failed = true;
+                throw e;
+            }
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.output, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    /**
+     * Returns the cipher to the {@link CipherPool} and closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        CipherPool.release(this.cipher);
+        this.in.close();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads, verifies and decrypts the next chunk into {@link #output}.
+     */
+    private void decryptChunk() throws IOException {
+        if (CipherStreamUtil.fill(this.in, this.header, 0, this.header.length)
+                < this.header.length) {
+            throw new IOException("Encrypted data ended before the last chunk. Chunks: "
+                    + this.index);
+        }
+        int value = GcmUtil.readInt(this.header);
+        boolean last = (value & GcmUtil.LAST_CHUNK_FLAG) != 0;
+        int length = value & ~GcmUtil.LAST_CHUNK_FLAG;
+        if (length < GcmUtil.TAG_LENGTH || length > GcmUtil.MAX_CHUNK_SIZE + GcmUtil.TAG_LENGTH) {
+            throw new IOException("Invalid length " + length + " of chunk " + this.index + ".");
+        }
+        if (length > this.input.length) {
+            this.input = new byte[length];
+            this.output = new byte[length];
+        }
+
+        if (CipherStreamUtil.fill(this.in, this.nonce, 0, this.nonce.length) < this.nonce.length
+                || CipherStreamUtil.fill(this.in, this.input, 0, length) < length) {
+            throw new IOException("Encrypted data ended within chunk " + this.index + ".");
+        }
+
+        int plainLength;
+        try {
+            plainLength = GcmUtil.decryptChunk(this.cipher, this.key, this.streamId, this.index,
+                    last, this.nonce, this.input, length, this.output);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + this.index + " is not authentic.", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not decrypt chunk " + this.index + ".", e);
+        }
+
+        if (last && this.in.read() != -1) {
+            throw new IOException("Unexpected data after the last chunk.");
+        }
+        this.finished = last;
+        this.position = 0;
+        this.limit = plainLength;
+        this.index++;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link OutputStream} that collects the written data in chunks and writes every chunk
+ * encrypted as described in {@link GcmUtil} in the calling thread. A full chunk is encrypted when
+ * more data is written, so the last chunk is only known and marked when the stream is closed.
+ * The output equals the chunks written by {@link GcmEncrypter#encrypt(java.io.InputStream,
+ * OutputStream)} behind the payload header. It is confined to one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:20
+ */
+class GcmChunkOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    private final Cipher cipher;
+
+    private final SecretKeySpec key;
+
+    private final byte[] streamId;
+
+    private final byte[] chunk;
+
+    private final byte[] output;
+
+    private int length;
+
+    private long index;
+
+    private boolean closed;
+
+    /**
+     * @param out the stream the chunks are written to
+     * @param cipher a cipher for {@link GcmUtil#TRANSFORMATION}. It is owned by this stream until
+     *      it is closed.
+     * @param key the key to encrypt with
+     * @param streamId the stream id written in the payload header
+     * @param chunkSize the size of the plain data of a chunk
+     */
+    GcmChunkOutputStream(OutputStream out, Cipher cipher, SecretKeySpec key, byte[] streamId,
+            int chunkSize) {
+        this.out = out;
+        this.cipher = cipher;
+        this.key = key;
+        this.streamId = streamId;
+        this.chunk = new byte[chunkSize];
+        this.output = new byte[chunkSize + GcmUtil.TAG_LENGTH];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed.");
+        }
+        while (len > 0) {
+            if (this.length == this.chunk.length) {
+                encryptChunk(false);
+            }
+            int n = Math.min(len, this.chunk.length - this.length);
+            System.arraycopy(b, off, this.chunk, this.length, n);
+            this.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Encrypts the remaining data as last chunk and closes the wrapped stream.
+     *
+     * @throws IOException if the chunk can not be encrypted or written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            encryptChunk(true);
+            this.out.flush();
+        }
+        finally {
+            CipherPool.release(this.cipher);
+            this.out.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private void encryptChunk(boolean last) throws IOException {
+        try {
+            GcmUtil.encryptChunk(this.cipher, this.key, this.streamId, this.index, last,
+                    this.chunk, this.length, this.output, this.out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not encrypt chunk " + this.index + ".", e);
+        }
+        this.length = 0;
+        this.index++;
+    }
+
+}
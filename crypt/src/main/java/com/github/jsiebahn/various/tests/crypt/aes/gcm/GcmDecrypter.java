@@ -0,0 +1,519 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.ByteBufferDecrypter;
+import com.github.jsiebahn.various.tests.crypt.FileDecrypter;
+import com.github.jsiebahn.various.tests.crypt.StreamingDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.MappedRegions;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Decrypts {@code Strings} and {@code InputStreams} of content encrypted by the
+ * {@link GcmEncrypter}. {@code Strings} are expected to be base64 encoded, the
+ * {@link com.github.jsiebahn.various.tests.crypt.Encoding encoding} of streams is detected
+ * automatically. Every chunk is verified before
+ * its plain content is written, so only authentic data reaches the output. If a chunk is not
+ * authentic or the payload is truncated, the decryption fails. In this case the chunks written
+ * before are authentic, but the output is incomplete. {@link ByteBuffer}s are expected to contain
+ * the payload without base64 encoding. Binary files are decrypted chunk by chunk from memory
+ * mapped regions. {@link #openDecryptingStream(InputStream) Opened streams} are verified and
+ * decrypted chunk by chunk in the reading thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 12:52
+ */
+public class GcmDecrypter implements ByteBufferDecrypter, FileDecrypter,
+        StreamingDecrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(GcmDecrypter.class);
+
+    /**
+     * The key spec to use.
+     */
+    private final SecretKeySpec secretKeySpec;
+
+    /**
+     * The maximum number of chunks decrypted concurrently. Chunks are decrypted in the calling
+     * thread if it is less than {@code 2}.
+     */
+    private final int window;
+
+    /**
+     * If this instance is correctly initialised.
+     */
+    private final boolean initialised;
+
+
+    public GcmDecrypter(String key) {
+        this(StringUtil.stringToByte(key));
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     */
+    public GcmDecrypter(byte[] key) {
+        this(key, 1);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param window the maximum number of chunks decrypted concurrently by
+     *      {@link #decrypt(InputStream, OutputStream)}. Values greater than {@code 1} enable
+     *      parallel decryption on a shared pool.
+     */
+    public GcmDecrypter(byte[] key, int window) {
+        this.window = window;
+        this.secretKeySpec = key != null ? SymmetricKeyUtil.createSecretKeySpec(key) : null;
+        initialised = this.secretKeySpec != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String decrypt(String encrypted) {
+
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        if (encrypted == null) {
+            return null;
+        }
+
+        byte[] encryptedBytes = Base64.decodeBase64(encrypted);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(encryptedBytes.length);
+        try {
+            if (decryptChunks(new ByteArrayInputStream(encryptedBytes), plain)) {
+                return StringUtil.byteToString(plain.toByteArray());
+            }
+        } catch (IOException e) {
+            // should never happen with byte array streams
+            log.error("Could not read from byte array.", e);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(InputStream encrypted, OutputStream plain) {
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted InputStream is null.");
+            return false;
+        }
+
+        if (plain == null) {
+            log.error("plain OutputStream is null.");
+            return false;
+        }
+
+        try (InputStream source = encrypted;
+             OutputStream plainOs = plain) {
+
+            InputStream decoded = EncodingUtil.openDecoding(source, EncodingUtil.TYPE_GCM);
+            if (decoded == null || !decryptChunks(decoded, plainOs)) {
+                return false;
+            }
+            plainOs.flush();
+            return true;
+
+        } catch (IOException e) {
+            log.error("Can not read from input stream or write to output stream.", e);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The chunks are decrypted sequentially in the reading thread, even if a {@link #window} is
+     * configured.
+     */
+    @Override
+    public InputStream openDecryptingStream(InputStream encrypted) {
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted InputStream is null.");
+            return null;
+        }
+
+        try {
+            InputStream decoded = EncodingUtil.openDecoding(encrypted, EncodingUtil.TYPE_GCM);
+            byte[] streamId = decoded != null ? GcmUtil.readPayloadHeader(decoded) : null;
+            Cipher cipher = streamId != null ? GcmUtil.createCipher() : null;
+            if (cipher != null) {
+                return new GcmChunkInputStream(decoded, cipher, this.secretKeySpec, streamId);
+            }
+        } catch (IOException e) {
+            log.error("Can not read from input stream.", e);
+        }
+
+        try {
+            encrypted.close();
+        } catch (IOException e) {
+            log.error("Could not close encrypted input stream.", e);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxPlainLength(int encryptedLength) {
+        return Math.max(0, encryptedLength - GcmUtil.PAYLOAD_HEADER_LENGTH
+                - GcmUtil.HEADER_LENGTH - GcmUtil.NONCE_LENGTH - GcmUtil.TAG_LENGTH);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(ByteBuffer encrypted, ByteBuffer plain) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (encrypted == null || plain == null) {
+            log.error("encrypted ByteBuffer {} or plain ByteBuffer {} is null.", encrypted, plain);
+            return false;
+        }
+
+        int required = getMaxPlainLength(encrypted.remaining());
+        if (plain.remaining() < required) {
+            log.error("plain ByteBuffer too small. Required: {}, remaining: {}", required,
+                    plain.remaining());
+            return false;
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return false;
+        }
+
+        int encryptedPosition = encrypted.position();
+        int encryptedLimit = encrypted.limit();
+        int plainPosition = plain.position();
+        boolean success = false;
+        try {
+            success = decryptChunks(cipher, encrypted, plain);
+        } catch (AEADBadTagException e) {
+            log.error("Chunk is not authentic.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not decrypt chunk.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+            encrypted.limit(encryptedLimit);
+            if (!success) {
+                encrypted.position(encryptedPosition);
+                plain.position(plainPosition);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every chunk of a binary file is decrypted from a view of the mapped file into a direct
+     * buffer which is written to {@code plain}. Base64 encoded files and a configured
+     * {@link #window} are decrypted from a stream of the channel instead.
+     */
+    @Override
+    public boolean decrypt(FileChannel encrypted, FileChannel plain) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (encrypted == null || plain == null) {
+            log.error("encrypted FileChannel {} or plain FileChannel {} is null.", encrypted,
+                    plain);
+            return false;
+        }
+
+        Cipher cipher = null;
+        try (FileChannel source = encrypted;
+             FileChannel target = plain;
+             MappedRegions regions = new MappedRegions(source)) {
+
+            if (this.window > 1 || regions.size() == 0
+                    || regions.get(0, 1).get() != EncodingUtil.MAGIC) {
+                return decrypt(Channels.newInputStream(source), Channels.newOutputStream(target));
+            }
+
+            cipher = GcmUtil.createCipher();
+            return cipher != null && decryptChunks(cipher, regions, target);
+
+        } catch (AEADBadTagException e) {
+            log.error("Chunk is not authentic.", e);
+        } catch (IOException e) {
+            log.error("Could not read from encrypted file or write to plain file.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not decrypt chunk.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        return checkInitialised();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads the {@link GcmUtil#VERSION}, the stream id and all chunks from {@code encrypted} and
+     * writes the verified plain content of every chunk to {@code plain}.
+     *
+     * @return if all chunks are authentic and the last chunk has been found
+     */
+    private boolean decryptChunks(InputStream encrypted, OutputStream plain) throws IOException {
+
+        byte[] streamId = GcmUtil.readPayloadHeader(encrypted);
+        if (streamId == null) {
+            return false;
+        }
+
+        if (this.window > 1) {
+            return ParallelGcmUtil.decryptChunks(this.secretKeySpec, streamId, this.window,
+                    encrypted, plain);
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return false;
+        }
+
+        try {
+            byte[] header = new byte[GcmUtil.HEADER_LENGTH];
+            byte[] nonce = new byte[GcmUtil.NONCE_LENGTH];
+            byte[] input = new byte[0];
+            byte[] output = new byte[0];
+
+            long index = 0;
+            while (true) {
+                if (CipherStreamUtil.fill(encrypted, header, 0, header.length) < header.length) {
+                    log.error("Encrypted data ended before the last chunk. Chunks: {}", index);
+                    return false;
+                }
+                int value = GcmUtil.readInt(header);
+                boolean last = (value & GcmUtil.LAST_CHUNK_FLAG) != 0;
+                int length = value & ~GcmUtil.LAST_CHUNK_FLAG;
+                if (length < GcmUtil.TAG_LENGTH
+                        || length > GcmUtil.MAX_CHUNK_SIZE + GcmUtil.TAG_LENGTH) {
+                    log.error("Invalid length {} of chunk {}.", length, index);
+                    return false;
+                }
+                if (length > input.length) {
+                    input = new byte[length];
+                    output = new byte[length];
+                }
+
+                if (CipherStreamUtil.fill(encrypted, nonce, 0, nonce.length) < nonce.length
+                        || CipherStreamUtil.fill(encrypted, input, 0, length) < length) {
+                    log.error("Encrypted data ended within chunk {}.", index);
+                    return false;
+                }
+
+                int plainLength = GcmUtil.decryptChunk(cipher, this.secretKeySpec, streamId,
+                        index, last, nonce, input, length, output);
+                plain.write(output, 0, plainLength);
+
+                if (last) {
+                    break;
+                }
+                index++;
+            }
+
+            if (encrypted.read() != -1) {
+                log.error("Unexpected data after the last chunk.");
+                return false;
+            }
+            return true;
+        } catch (AEADBadTagException e) {
+            log.error("Chunk is not authentic.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not decrypt chunk.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the {@link GcmUtil#VERSION}, the stream id and all chunks from the remaining bytes of
+     * {@code encrypted} and puts the verified plain content of every chunk into {@code plain}.
+     * The limit of {@code encrypted} is modified and has to be restored by the caller.
+     *
+     * @return if all chunks are authentic and the last chunk ends at the limit of
+     *      {@code encrypted}
+     */
+    private boolean decryptChunks(Cipher cipher, ByteBuffer encrypted, ByteBuffer plain)
+            throws GeneralSecurityException {
+
+        if (encrypted.remaining() < GcmUtil.PAYLOAD_HEADER_LENGTH
+                || encrypted.get() != GcmUtil.VERSION) {
+            log.error("Unsupported version.");
+            return false;
+        }
+        byte[] streamId = new byte[GcmUtil.STREAM_ID_LENGTH];
+        encrypted.get(streamId);
+
+        int limit = encrypted.limit();
+        byte[] nonce = GcmUtil.getNonceBuffer();
+        long index = 0;
+        while (true) {
+            if (encrypted.remaining() < GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH) {
+                log.error("Encrypted data ended before the last chunk. Chunks: {}", index);
+                return false;
+            }
+            int value = GcmUtil.getInt(encrypted);
+            boolean last = (value & GcmUtil.LAST_CHUNK_FLAG) != 0;
+            int length = value & ~GcmUtil.LAST_CHUNK_FLAG;
+            encrypted.get(nonce);
+            if (length < GcmUtil.TAG_LENGTH || length > encrypted.remaining()) {
+                log.error("Invalid length {} of chunk {}.", length, index);
+                return false;
+            }
+
+            encrypted.limit(encrypted.position() + length);
+            GcmUtil.decryptChunk(cipher, this.secretKeySpec, streamId, index, last, nonce,
+                    encrypted, plain);
+            encrypted.limit(limit);
+
+            if (last) {
+                break;
+            }
+            index++;
+        }
+
+        if (encrypted.hasRemaining()) {
+            log.error("Unexpected data after the last chunk.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the binary header, the {@link GcmUtil#VERSION}, the stream id and all chunks from the
+     * mapped file and writes the verified plain content of every chunk to {@code plain}.
+     *
+     * @return if all chunks are authentic and the last chunk ends at the end of the file
+     */
+    private boolean decryptChunks(Cipher cipher, MappedRegions encrypted, FileChannel plain)
+            throws IOException, GeneralSecurityException {
+
+        long size = encrypted.size();
+        int headerLength = 3 + GcmUtil.PAYLOAD_HEADER_LENGTH;
+        if (size < headerLength) {
+            log.error("Encrypted file ended within the header.");
+            return false;
+        }
+        ByteBuffer header = encrypted.get(0, headerLength);
+        if (header.get() != EncodingUtil.MAGIC || header.get() != EncodingUtil.FORMAT_VERSION
+                || header.get() != EncodingUtil.TYPE_GCM || header.get() != GcmUtil.VERSION) {
+            log.error("Unsupported format of encrypted file.");
+            return false;
+        }
+        byte[] streamId = new byte[GcmUtil.STREAM_ID_LENGTH];
+        header.get(streamId);
+
+        byte[] nonce = new byte[GcmUtil.NONCE_LENGTH];
+        ByteBuffer output = ByteBuffer.allocateDirect(0);
+        long position = headerLength;
+        long index = 0;
+        while (true) {
+            if (size - position < GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH) {
+                log.error("Encrypted data ended before the last chunk. Chunks: {}", index);
+                return false;
+            }
+            ByteBuffer chunkHeader = encrypted.get(position,
+                    GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH);
+            int value = GcmUtil.getInt(chunkHeader);
+            boolean last = (value & GcmUtil.LAST_CHUNK_FLAG) != 0;
+            int length = value & ~GcmUtil.LAST_CHUNK_FLAG;
+            chunkHeader.get(nonce);
+            position += GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH;
+            if (length < GcmUtil.TAG_LENGTH
+                    || length > GcmUtil.MAX_CHUNK_SIZE + GcmUtil.TAG_LENGTH
+                    || length > size - position) {
+                log.error("Invalid length {} of chunk {}.", length, index);
+                return false;
+            }
+            if (length > output.capacity()) {
+                output = ByteBuffer.allocateDirect(length);
+            }
+
+            output.clear();
+            GcmUtil.decryptChunk(cipher, this.secretKeySpec, streamId, index, last, nonce,
+                    encrypted.get(position, length), output);
+            output.flip();
+            while (output.hasRemaining()) {
+                plain.write(output);
+            }
+            position += length;
+
+            if (last) {
+                break;
+            }
+            index++;
+        }
+
+        if (position != size) {
+            log.error("Unexpected data after the last chunk.");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean checkInitialised() {
+        if (!initialised) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+        return true;
+    }
+
+}
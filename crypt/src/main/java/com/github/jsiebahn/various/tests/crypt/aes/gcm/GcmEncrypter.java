@@ -0,0 +1,481 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.ByteBufferEncrypter;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.FileEncrypter;
+import com.github.jsiebahn.various.tests.crypt.StreamingEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.MappedRegions;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link Encrypter} that encrypts with AES in Galois/Counter Mode. In contrast to the
+ * {@link com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter} the encrypted
+ * result is authenticated, so any modification is detected by the {@link GcmDecrypter}. The plain
+ * data is split into chunks of a configurable size, each with its own random nonce and
+ * authentication tag as described in {@link GcmUtil}. Data added to the stream is base64 encoded
+ * unless {@link Encoding#BINARY} is configured. {@link ByteBuffer}s are encrypted into a single
+ * chunk without base64 encoding. Files are encrypted chunk by chunk from memory mapped regions.
+ * {@link #openEncryptingStream(OutputStream) Opened streams} produce the same chunks in the
+ * writing thread.
+ *
+ * The key is derived from the given pass phrase in the same way as for the
+ * {@link com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 12:31
+ */
+public class GcmEncrypter implements ByteBufferEncrypter, FileEncrypter,
+        StreamingEncrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(GcmEncrypter.class);
+
+    /**
+     * The key spec to use.
+     */
+    private final SecretKeySpec secretKeySpec;
+
+    /**
+     * The size of the plain data of a chunk in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * The maximum number of chunks encrypted concurrently. Chunks are encrypted in the calling
+     * thread if it is less than {@code 2}.
+     */
+    private final int window;
+
+    /**
+     * The encoding of encrypted streams.
+     */
+    private final Encoding encoding;
+
+    /**
+     * If this instance is correctly initialised.
+     */
+    private final boolean initialised;
+
+    /**
+     * The result of the test encryption of a single chunk. It is {@code null} until
+     * {@link #isReadyToOperate()} is called for the first time.
+     */
+    private volatile Boolean selfTestPassed;
+
+
+    public GcmEncrypter(String key) {
+        this(StringUtil.stringToByte(key));
+    }
+
+    public GcmEncrypter(byte[] key) {
+        this(key, GcmUtil.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param chunkSize the size of the plain data of a chunk in bytes. It is limited to
+     *      {@value GcmUtil#MAX_CHUNK_SIZE} bytes.
+     */
+    public GcmEncrypter(byte[] key, int chunkSize) {
+        this(key, chunkSize, 1);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param chunkSize the size of the plain data of a chunk in bytes. It is limited to
+     *      {@value GcmUtil#MAX_CHUNK_SIZE} bytes.
+     * @param window the maximum number of chunks encrypted concurrently by
+     *      {@link #encrypt(InputStream, OutputStream)}. Values greater than {@code 1} enable
+     *      parallel encryption on a shared pool. The memory used is about {@code 2 * window *
+     *      chunkSize} bytes.
+     */
+    public GcmEncrypter(byte[] key, int chunkSize, int window) {
+        this(key, chunkSize, window, Encoding.BASE64);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key.
+     * @param chunkSize the size of the plain data of a chunk in bytes. It is limited to
+     *      {@value GcmUtil#MAX_CHUNK_SIZE} bytes.
+     * @param window the maximum number of chunks encrypted concurrently by
+     *      {@link #encrypt(InputStream, OutputStream)}.
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}. Encrypted {@link String}s are always base64 encoded.
+     */
+    public GcmEncrypter(byte[] key, int chunkSize, int window, Encoding encoding) {
+        this.window = window;
+        this.encoding = encoding == null ? Encoding.BASE64 : encoding;
+        this.chunkSize = Math.min(CipherStreamUtil.normalizeBufferSize(chunkSize, 0),
+                GcmUtil.MAX_CHUNK_SIZE);
+        this.secretKeySpec = key != null ? SymmetricKeyUtil.createSecretKeySpec(key) : null;
+
+        // the test encryption runs on the first call of isReadyToOperate()
+        initialised = this.secretKeySpec != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encrypt(String plain) {
+
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        byte[] plainBytes = StringUtil.stringToByte(plain);
+        if (plainBytes == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(
+                getMaxEncryptedLength(plainBytes.length));
+        try {
+            encryptChunks(new ByteArrayInputStream(plainBytes), encrypted);
+            return Base64.encodeBase64String(encrypted.toByteArray());
+        } catch (IOException e) {
+            // should never happen with byte array streams
+            log.error("Could not write to byte array.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not encrypt {} bytes.", plainBytes.length, e);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(InputStream plain, OutputStream encrypted) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null) {
+            log.error("plain InputStream is null.");
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted OutputStream is null.");
+            return false;
+        }
+
+        try (OutputStream encoded = EncodingUtil.openEncoding(encrypted, this.encoding,
+                EncodingUtil.TYPE_GCM)) {
+            encryptChunks(plain, encoded);
+            return true;
+        } catch (IOException e) {
+            log.error("Could not read from input stream or write to output stream.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not encrypt chunk.", e);
+        }
+        finally {
+            try {
+                plain.close();
+            } catch (IOException e) {
+                log.error("Could not close plain input stream.", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The chunks are encrypted sequentially in the writing thread, even if a {@link #window} is
+     * configured.
+     */
+    @Override
+    public OutputStream openEncryptingStream(OutputStream encrypted) {
+
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted OutputStream is null.");
+            return null;
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return null;
+        }
+
+        try {
+            OutputStream encoded = EncodingUtil.openEncoding(encrypted, this.encoding,
+                    EncodingUtil.TYPE_GCM);
+            byte[] streamId = GcmUtil.writePayloadHeader(encoded);
+            return new GcmChunkOutputStream(encoded, cipher, this.secretKeySpec, streamId,
+                    this.chunkSize);
+        } catch (IOException e) {
+            log.error("Could not write to output stream.", e);
+            CipherPool.release(cipher);
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxEncryptedLength(int plainLength) {
+        return GcmUtil.PAYLOAD_HEADER_LENGTH + GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH
+                + plainLength + GcmUtil.TAG_LENGTH;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The remaining bytes of {@code plain} are encrypted as a single chunk and are therefore
+     * limited to {@value GcmUtil#MAX_CHUNK_SIZE} bytes.
+     */
+    @Override
+    public boolean encrypt(ByteBuffer plain, ByteBuffer encrypted) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null || encrypted == null) {
+            log.error("plain ByteBuffer {} or encrypted ByteBuffer {} is null.", plain, encrypted);
+            return false;
+        }
+
+        if (plain.remaining() > GcmUtil.MAX_CHUNK_SIZE) {
+            log.error("plain ByteBuffer exceeds the maximum chunk size: {} bytes",
+                    plain.remaining());
+            return false;
+        }
+
+        int required = getMaxEncryptedLength(plain.remaining());
+        if (encrypted.remaining() < required) {
+            log.error("encrypted ByteBuffer too small. Required: {}, remaining: {}", required,
+                    encrypted.remaining());
+            return false;
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return false;
+        }
+
+        int plainPosition = plain.position();
+        int encryptedPosition = encrypted.position();
+        boolean success = false;
+        try {
+            byte[] streamId = GcmUtil.createStreamId();
+            encrypted.put(GcmUtil.VERSION);
+            encrypted.put(streamId);
+            GcmUtil.encryptChunk(cipher, this.secretKeySpec, streamId, 0, true, plain,
+                    encrypted);
+            success = true;
+        } catch (GeneralSecurityException e) {
+            log.error("Could not encrypt {} bytes.", plain.remaining(), e);
+        }
+        finally {
+            CipherPool.release(cipher);
+            if (!success) {
+                plain.position(plainPosition);
+                encrypted.position(encryptedPosition);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every chunk is encrypted from a view of the mapped file into a direct buffer which is
+     * written to {@code encrypted}. If a {@link #window} is configured, the chunks are encrypted
+     * in parallel from a stream of the channel instead.
+     */
+    @Override
+    public boolean encrypt(FileChannel plain, FileChannel encrypted) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null || encrypted == null) {
+            log.error("plain FileChannel {} or encrypted FileChannel {} is null.", plain,
+                    encrypted);
+            return false;
+        }
+
+        if (this.window > 1) {
+            return encrypt(Channels.newInputStream(plain), Channels.newOutputStream(encrypted));
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return false;
+        }
+
+        try (FileChannel source = plain;
+             FileChannel target = encrypted;
+             MappedRegions regions = new MappedRegions(source);
+             OutputStream encoded = EncodingUtil.openEncoding(Channels.newOutputStream(target),
+                     this.encoding, EncodingUtil.TYPE_GCM)) {
+            encryptChunks(cipher, regions, target, encoded);
+            return true;
+        } catch (IOException e) {
+            log.error("Could not read from plain file or write to encrypted file.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not encrypt chunk.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        if (!checkInitialised()) {
+            return false;
+        }
+        Boolean passed = this.selfTestPassed;
+        if (passed == null) {
+            // concurrent callers may both run the test, which is harmless
+            passed = encrypt("test") != null;
+            this.selfTestPassed = passed;
+        }
+        return passed;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Writes the {@link GcmUtil#VERSION}, a new stream id and the encrypted chunks of
+     * {@code plain} to
+     * {@code encrypted}. One chunk is read ahead to know which chunk is the last one. The chunks
+     * are encrypted in parallel if a {@link #window} is configured.
+     */
+    private void encryptChunks(InputStream plain, OutputStream encrypted)
+            throws IOException, GeneralSecurityException {
+
+        byte[] streamId = GcmUtil.writePayloadHeader(encrypted);
+
+        if (this.window > 1) {
+            ParallelGcmUtil.encryptChunks(this.secretKeySpec, streamId, this.chunkSize,
+                    this.window, plain, encrypted);
+            return;
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            throw new GeneralSecurityException("No cipher for " + GcmUtil.TRANSFORMATION);
+        }
+
+        try {
+            byte[] current = new byte[this.chunkSize];
+            byte[] next = new byte[this.chunkSize];
+            byte[] output = new byte[this.chunkSize + GcmUtil.TAG_LENGTH];
+
+            int currentLength = CipherStreamUtil.fill(plain, current, 0, current.length);
+            long index = 0;
+            while (true) {
+                int nextLength = currentLength == current.length
+                        ? CipherStreamUtil.fill(plain, next, 0, next.length)
+                        : 0;
+                boolean last = nextLength == 0;
+
+                GcmUtil.encryptChunk(cipher, this.secretKeySpec, streamId, index, last,
+                        current, currentLength, output, encrypted);
+
+                if (last) {
+                    return;
+                }
+                byte[] swap = current;
+                current = next;
+                next = swap;
+                currentLength = nextLength;
+                index++;
+            }
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+    }
+
+    /**
+     * Writes the {@link GcmUtil#VERSION}, a new stream id and the encrypted chunks of the mapped
+     * file. Binary chunks are written to the {@code channel} directly, base64 encoded chunks
+     * through {@code encoded}, which is unbuffered for binary output.
+     */
+    private void encryptChunks(Cipher cipher, MappedRegions plain, FileChannel channel,
+            OutputStream encoded) throws IOException, GeneralSecurityException {
+
+        byte[] streamId = GcmUtil.writePayloadHeader(encoded);
+
+        int outputLength = GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH
+                + (int) Math.min(this.chunkSize, plain.size()) + GcmUtil.TAG_LENGTH;
+        boolean binary = this.encoding == Encoding.BINARY;
+        ByteBuffer output = binary
+                ? ByteBuffer.allocateDirect(outputLength)
+                : ByteBuffer.allocate(outputLength);
+
+        long position = 0;
+        long index = 0;
+        while (true) {
+            int length = (int) Math.min(this.chunkSize, plain.size() - position);
+            boolean last = position + length == plain.size();
+
+            output.clear();
+            GcmUtil.encryptChunk(cipher, this.secretKeySpec, streamId, index, last,
+                    plain.get(position, length), output);
+            output.flip();
+            if (binary) {
+                while (output.hasRemaining()) {
+                    channel.write(output);
+                }
+            } else {
+                encoded.write(output.array(), 0, output.limit());
+            }
+
+            if (last) {
+                return;
+            }
+            position += length;
+            index++;
+        }
+    }
+
+    private boolean checkInitialised() {
+        if (!initialised) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+        return true;
+    }
+
+}
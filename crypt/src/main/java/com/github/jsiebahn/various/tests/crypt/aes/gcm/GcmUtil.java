@@ -0,0 +1,416 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.Instrumentations;
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+/**
+ * Utility class for the chunked AES-GCM format written by {@link GcmEncrypter} and read by
+ * {@link GcmDecrypter}. The plain data is split into chunks that are encrypted and authenticated
+ * independently, so large payloads can be encrypted and verified chunk by chunk with constant
+ * memory.
+ *
+ * The format before base64 encoding is:
+ * <pre>
+ *   payload  := VERSION streamId chunk*
+ *   streamId := {@value #STREAM_ID_LENGTH} random bytes, new for every payload
+ *   chunk    := header nonce ciphertext
+ *   header   := 4 byte big endian int: bit 31 marks the last chunk, bits 0-30 are the length of
+ *               the ciphertext including the {@value #TAG_LENGTH} byte authentication tag
+ *   nonce    := {@value #NONCE_LENGTH} random bytes, new for every chunk
+ * </pre>
+ * The additional authenticated data of every chunk is the {@link #VERSION}, the stream id, the
+ * index of the chunk as 8 byte big endian long and the last chunk flag as one byte. Chunks can
+ * therefore not be reordered, dropped, appended or exchanged with the chunks of another payload
+ * encrypted with the same key, and a payload can not be truncated at a chunk boundary without
+ * failing the authentication. Every payload ends with exactly one last chunk, which may be empty.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 12:03
+ */
+public class GcmUtil {
+
+    /**
+     * The combined value of algorithm, block mode and padding mode used for encryption and
+     * decryption.
+     */
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * The provider used to create the {@link Cipher} for {@link #TRANSFORMATION}.
+     */
+    static final String PROVIDER = "SunJCE";
+
+    /**
+     * The version of the format. It is the first byte of every payload. Version {@code 1} had no
+     * stream id and is not supported anymore.
+     */
+    static final byte VERSION = 2;
+
+    /**
+     * The length of the random id of every payload in bytes.
+     */
+    static final int STREAM_ID_LENGTH = 16;
+
+    /**
+     * The length of {@link #VERSION} and stream id in front of the first chunk in bytes.
+     */
+    static final int PAYLOAD_HEADER_LENGTH = 1 + STREAM_ID_LENGTH;
+
+    /**
+     * The length of the random nonce of every chunk in bytes.
+     */
+    static final int NONCE_LENGTH = 12;
+
+    /**
+     * The length of the authentication tag of every chunk in bytes.
+     */
+    static final int TAG_LENGTH = 16;
+
+    /**
+     * The length of the chunk header in bytes.
+     */
+    static final int HEADER_LENGTH = 4;
+
+    /**
+     * The default size of the plain data of a chunk in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    /**
+     * The maximum size of the plain data of a chunk in bytes. It limits the memory a
+     * {@link GcmDecrypter} allocates for manipulated chunk headers.
+     */
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The bit of the chunk header that marks the last chunk.
+     */
+    static final int LAST_CHUNK_FLAG = 0x80000000;
+
+    /**
+     * The length of the additional authenticated data of every chunk in bytes.
+     */
+    static final int AAD_LENGTH = 1 + STREAM_ID_LENGTH + 8 + 1;
+
+    private static final Logger log = LoggerFactory.getLogger(GcmUtil.class);
+
+    /**
+     * The nonce of the current thread. It can be reused because {@link GCMParameterSpec} copies
+     * it.
+     */
+    private static final ThreadLocal<byte[]> NONCE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[NONCE_LENGTH];
+        }
+    };
+
+    /**
+     * The additional authenticated data of the current thread.
+     */
+    private static final ThreadLocal<byte[]> AAD_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[AAD_LENGTH];
+        }
+    };
+
+
+    //
+    // api
+    //
+
+    /**
+     * Borrows a {@link Cipher} for {@link #TRANSFORMATION} from the {@link CipherPool}. It has to
+     * be returned with {@link CipherPool#release(Cipher)}.
+     *
+     * @return the {@link Cipher} or {@code null} if it can not be created
+     */
+    static Cipher createCipher() {
+        try {
+            return CipherPool.borrow(TRANSFORMATION, PROVIDER);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the TRANSFORMATION is defined statically
+            log.error("No such algorithm: {}", TRANSFORMATION, e);
+        } catch (NoSuchPaddingException e) {
+            // should never happen as the TRANSFORMATION is defined statically
+            log.error("No such padding: {}", TRANSFORMATION, e);
+        } catch (NoSuchProviderException e) {
+            // should never happen as the PROVIDER is defined statically
+            log.error("No such provider: {}", PROVIDER, e);
+        }
+        return null;
+    }
+
+    /**
+     * Encrypts one chunk and writes it with header and nonce to {@code target}.
+     *
+     * @param cipher a {@link Cipher} for {@link #TRANSFORMATION}
+     * @param key the key to encrypt with
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if this is the last chunk of the payload
+     * @param plain the buffer holding the plain data
+     * @param length the number of plain bytes in {@code plain}
+     * @param output a buffer with at least {@code length + }{@link #TAG_LENGTH} bytes
+     * @param target the stream to write the chunk to
+     * @throws IOException if writing to {@code target} fails
+     * @throws GeneralSecurityException if the {@code cipher} fails
+     */
+    static void encryptChunk(Cipher cipher, SecretKeySpec key, byte[] streamId, long index,
+            boolean last, byte[] plain, int length, byte[] output, OutputStream target)
+            throws IOException, GeneralSecurityException {
+
+        byte[] nonce = initCipherForEncrypt(cipher, key, streamId, index, last);
+        int encryptedLength = cipher.doFinal(plain, 0, length, output, 0);
+
+        writeInt(target, last ? encryptedLength | LAST_CHUNK_FLAG : encryptedLength);
+        target.write(nonce);
+        target.write(output, 0, encryptedLength);
+    }
+
+    /**
+     * Decrypts and verifies one chunk.
+     *
+     * @param cipher a {@link Cipher} for {@link #TRANSFORMATION}
+     * @param key the key to decrypt with
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if the header marked this chunk as last chunk
+     * @param nonce the nonce of the chunk
+     * @param encrypted the buffer holding the ciphertext including the tag
+     * @param length the number of bytes in {@code encrypted}
+     * @param output a buffer with at least {@code length - }{@link #TAG_LENGTH} bytes
+     * @return the number of plain bytes written to {@code output}
+     * @throws AEADBadTagException if the chunk is not authentic
+     * @throws GeneralSecurityException if the {@code cipher} fails
+     */
+    static int decryptChunk(Cipher cipher, SecretKeySpec key, byte[] streamId, long index,
+            boolean last, byte[] nonce, byte[] encrypted, int length, byte[] output)
+            throws GeneralSecurityException {
+
+        initCipherForDecrypt(cipher, key, streamId, index, last, nonce);
+        return cipher.doFinal(encrypted, 0, length, output, 0);
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code plain} as one chunk and puts it with header and
+     * nonce into {@code target}. No arrays are allocated for the chunk.
+     *
+     * @param cipher a {@link Cipher} for {@link #TRANSFORMATION}
+     * @param key the key to encrypt with
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if this is the last chunk of the payload
+     * @param plain the buffer holding at most {@link #MAX_CHUNK_SIZE} plain bytes
+     * @param target the buffer with at least {@code plain.remaining() + }{@link #HEADER_LENGTH}
+     *      {@code + }{@link #NONCE_LENGTH}{@code + }{@link #TAG_LENGTH} bytes remaining
+     * @throws GeneralSecurityException if the {@code cipher} fails
+     */
+    static void encryptChunk(Cipher cipher, SecretKeySpec key, byte[] streamId, long index,
+            boolean last, ByteBuffer plain, ByteBuffer target) throws GeneralSecurityException {
+
+        byte[] nonce = initCipherForEncrypt(cipher, key, streamId, index, last);
+        int encryptedLength = plain.remaining() + TAG_LENGTH;
+
+        putInt(target, last ? encryptedLength | LAST_CHUNK_FLAG : encryptedLength);
+        target.put(nonce);
+        cipher.doFinal(plain, target);
+    }
+
+    /**
+     * Decrypts and verifies the remaining bytes of {@code encrypted} as one chunk and puts the
+     * plain content into {@code plain}.
+     *
+     * @param cipher a {@link Cipher} for {@link #TRANSFORMATION}
+     * @param key the key to decrypt with
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if the header marked this chunk as last chunk
+     * @param nonce the nonce of the chunk
+     * @param encrypted the buffer holding the ciphertext including the tag
+     * @param plain the buffer with at least {@code encrypted.remaining() - }{@link #TAG_LENGTH}
+     *      bytes remaining
+     * @throws AEADBadTagException if the chunk is not authentic
+     * @throws GeneralSecurityException if the {@code cipher} fails
+     */
+    static void decryptChunk(Cipher cipher, SecretKeySpec key, byte[] streamId, long index,
+            boolean last, byte[] nonce, ByteBuffer encrypted, ByteBuffer plain)
+            throws GeneralSecurityException {
+
+        initCipherForDecrypt(cipher, key, streamId, index, last, nonce);
+        cipher.doFinal(encrypted, plain);
+    }
+
+    /**
+     * @return the nonce array of the current thread. Its content is overwritten by the next
+     *      encryption of the thread.
+     */
+    static byte[] getNonceBuffer() {
+        return NONCE_BUFFER.get();
+    }
+
+    /**
+     * @return a new random stream id of {@link #STREAM_ID_LENGTH} bytes
+     */
+    static byte[] createStreamId() {
+        byte[] streamId = new byte[STREAM_ID_LENGTH];
+        RandomSources.getDefault().nextBytes(streamId);
+        return streamId;
+    }
+
+    /**
+     * Writes the {@link #VERSION} and a new stream id to {@code target}.
+     *
+     * @return the stream id to encrypt the chunks of the payload with
+     * @throws IOException if writing to {@code target} fails
+     */
+    static byte[] writePayloadHeader(OutputStream target) throws IOException {
+        byte[] streamId = createStreamId();
+        target.write(VERSION);
+        target.write(streamId);
+        return streamId;
+    }
+
+    /**
+     * Reads the {@link #VERSION} and the stream id from {@code source}.
+     *
+     * @return the stream id or {@code null} if the version is not supported or {@code source}
+     *      ends within the header
+     * @throws IOException if reading from {@code source} fails
+     */
+    static byte[] readPayloadHeader(InputStream source) throws IOException {
+        int version = source.read();
+        if (version != VERSION) {
+            log.error("Unsupported version: {}", version);
+            return null;
+        }
+        byte[] streamId = new byte[STREAM_ID_LENGTH];
+        if (CipherStreamUtil.fill(source, streamId, 0, streamId.length) < streamId.length) {
+            log.error("Encrypted data ended within the stream id.");
+            return null;
+        }
+        return streamId;
+    }
+
+    /**
+     * Creates the additional authenticated data of a chunk.
+     *
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if it is the last chunk of the payload
+     * @return {@link #VERSION}, {@code streamId}, {@code index} and {@code last} as
+     *      {@value #AAD_LENGTH} bytes
+     */
+    static byte[] createAad(byte[] streamId, long index, boolean last) {
+        return createAad(streamId, index, last, new byte[AAD_LENGTH]);
+    }
+
+    /**
+     * Writes the additional authenticated data of a chunk into {@code aad}.
+     *
+     * @param streamId the stream id of the payload
+     * @param index the index of the chunk in the payload
+     * @param last if it is the last chunk of the payload
+     * @param aad an array of {@link #AAD_LENGTH} bytes
+     * @return {@code aad}
+     */
+    static byte[] createAad(byte[] streamId, long index, boolean last, byte[] aad) {
+        aad[0] = VERSION;
+        System.arraycopy(streamId, 0, aad, 1, STREAM_ID_LENGTH);
+        for (int i = 0; i < 8; i++) {
+            aad[1 + STREAM_ID_LENGTH + i] = (byte) (index >>> (56 - 8 * i));
+        }
+        aad[AAD_LENGTH - 1] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    /**
+     * Writes {@code value} as 4 byte big endian int.
+     */
+    static void writeInt(OutputStream target, int value) throws IOException {
+        target.write(value >>> 24);
+        target.write(value >>> 16);
+        target.write(value >>> 8);
+        target.write(value);
+    }
+
+    /**
+     * Reads a 4 byte big endian int from {@code bytes}.
+     */
+    static int readInt(byte[] bytes) {
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8)
+                | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * Puts {@code value} as 4 byte big endian int independent of the byte order of
+     * {@code target}.
+     */
+    static void putInt(ByteBuffer target, int value) {
+        target.put((byte) (value >>> 24));
+        target.put((byte) (value >>> 16));
+        target.put((byte) (value >>> 8));
+        target.put((byte) value);
+    }
+
+    /**
+     * Gets a 4 byte big endian int independent of the byte order of {@code source}.
+     */
+    static int getInt(ByteBuffer source) {
+        return ((source.get() & 0xFF) << 24) | ((source.get() & 0xFF) << 16)
+                | ((source.get() & 0xFF) << 8) | (source.get() & 0xFF);
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Initialises the {@code cipher} for encryption of a chunk with a new random nonce.
+     *
+     * @return the nonce array of the current thread holding the new nonce
+     */
+    private static byte[] initCipherForEncrypt(Cipher cipher, SecretKeySpec key,
+            byte[] streamId, long index, boolean last) throws GeneralSecurityException {
+        byte[] nonce = NONCE_BUFFER.get();
+        RandomSources.getDefault().nextBytes(nonce);
+        long start = Instrumentations.startNanos();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        Instrumentations.recordPhase(Phase.CIPHER_INIT, start);
+        cipher.updateAAD(createAad(streamId, index, last, AAD_BUFFER.get()));
+        return nonce;
+    }
+
+    /**
+     * Initialises the {@code cipher} for decryption of a chunk.
+     */
+    private static void initCipherForDecrypt(Cipher cipher, SecretKeySpec key,
+            byte[] streamId, long index, boolean last, byte[] nonce)
+            throws GeneralSecurityException {
+        long start = Instrumentations.startNanos();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        Instrumentations.recordPhase(Phase.CIPHER_INIT, start);
+        cipher.updateAAD(createAad(streamId, index, last, AAD_BUFFER.get()));
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.WorkerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts and decrypts the chunks of the {@link GcmUtil} format concurrently. The streams are
+ * read by the calling thread, the chunks are encrypted or decrypted on the shared
+ * {@link WorkerPool} and written by the calling thread in their original order. At most
+ * {@code window} chunks are in flight at the same time, which bounds the memory to roughly
+ * {@code 2 * window * chunkSize} bytes. The format is the same as written and read sequentially,
+ * so data encrypted in parallel can be decrypted sequentially and vice versa.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 13:48
+ */
+class ParallelGcmUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelGcmUtil.class);
+
+
+    //
+    // api
+    //
+
+    /**
+     * Encrypts {@code plain} in chunks of {@code chunkSize} bytes and writes the chunks to
+     * {@code encrypted}. The {@link GcmUtil#VERSION} and the stream id must already be written.
+     *
+     * @param key the key to encrypt with
+     * @param streamId the stream id of the payload
+     * @param chunkSize the size of the plain data of a chunk in bytes
+     * @param window the maximum number of chunks in flight
+     * @param plain the stream to read the plain data from
+     * @param encrypted the stream to write the chunks to
+     * @throws IOException if reading or writing fails
+     * @throws GeneralSecurityException if a chunk can not be encrypted
+     */
+    static void encryptChunks(SecretKeySpec key, byte[] streamId, int chunkSize, int window,
+            InputStream plain, OutputStream encrypted)
+            throws IOException, GeneralSecurityException {
+
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>(window);
+        try {
+            byte[] current = new byte[chunkSize];
+            int currentLength = CipherStreamUtil.fill(plain, current, 0, current.length);
+            long index = 0;
+            while (true) {
+                byte[] next = currentLength == chunkSize ? new byte[chunkSize] : null;
+                int nextLength = next != null
+                        ? CipherStreamUtil.fill(plain, next, 0, next.length)
+                        : 0;
+                boolean last = nextLength == 0;
+
+                inFlight.add(WorkerPool.get().submit(
+                        new EncryptTask(key, streamId, index, last, current, currentLength)));
+                if (inFlight.size() >= window) {
+                    encrypted.write(await(inFlight.poll()));
+                }
+
+                if (last) {
+                    break;
+                }
+                current = next;
+                currentLength = nextLength;
+                index++;
+            }
+
+            while (!inFlight.isEmpty()) {
+                encrypted.write(await(inFlight.poll()));
+            }
+        }
+        finally {
+            cancel(inFlight);
+        }
+    }
+
+    /**
+     * Reads all chunks from {@code encrypted}, decrypts them and writes the verified plain
+     * content to {@code plain}. The {@link GcmUtil#VERSION} and the stream id must already be
+     * read.
+     *
+     * @param key the key to decrypt with
+     * @param streamId the stream id of the payload
+     * @param window the maximum number of chunks in flight
+     * @param encrypted the stream to read the chunks from
+     * @param plain the stream to write the plain data to
+     * @return if all chunks are authentic and the last chunk has been found
+     * @throws IOException if reading or writing fails
+     */
+    static boolean decryptChunks(SecretKeySpec key, byte[] streamId, int window,
+            InputStream encrypted, OutputStream plain) throws IOException {
+
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>(window);
+        try {
+            byte[] header = new byte[GcmUtil.HEADER_LENGTH];
+            long index = 0;
+            boolean last = false;
+            while (!last) {
+                if (CipherStreamUtil.fill(encrypted, header, 0, header.length) < header.length) {
+                    log.error("Encrypted data ended before the last chunk. Chunks: {}", index);
+                    return false;
+                }
+                int value = GcmUtil.readInt(header);
+                last = (value & GcmUtil.LAST_CHUNK_FLAG) != 0;
+                int length = value & ~GcmUtil.LAST_CHUNK_FLAG;
+                if (length < GcmUtil.TAG_LENGTH
+                        || length > GcmUtil.MAX_CHUNK_SIZE + GcmUtil.TAG_LENGTH) {
+                    log.error("Invalid length {} of chunk {}.", length, index);
+                    return false;
+                }
+
+                byte[] nonce = new byte[GcmUtil.NONCE_LENGTH];
+                byte[] input = new byte[length];
+                if (CipherStreamUtil.fill(encrypted, nonce, 0, nonce.length) < nonce.length
+                        || CipherStreamUtil.fill(encrypted, input, 0, length) < length) {
+                    log.error("Encrypted data ended within chunk {}.", index);
+                    return false;
+                }
+
+                inFlight.add(WorkerPool.get().submit(
+                        new DecryptTask(key, streamId, index, last, nonce, input)));
+                if (inFlight.size() >= window) {
+                    plain.write(await(inFlight.poll()));
+                }
+                index++;
+            }
+
+            if (encrypted.read() != -1) {
+                log.error("Unexpected data after the last chunk.");
+                return false;
+            }
+
+            while (!inFlight.isEmpty()) {
+                plain.write(await(inFlight.poll()));
+            }
+            return true;
+        } catch (AEADBadTagException e) {
+            log.error("Chunk is not authentic.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not decrypt chunk.", e);
+        }
+        finally {
+            cancel(inFlight);
+        }
+        return false;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Waits for the result of a chunk task.
+     *
+     * @throws GeneralSecurityException if the task failed to encrypt or decrypt the chunk
+     * @throws IOException if the waiting thread is interrupted
+     */
+    private static byte[] await(Future<byte[]> future)
+            throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for chunk.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw new IOException("Chunk task failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the remaining tasks after a failure.
+     */
+    private static void cancel(Deque<Future<byte[]>> inFlight) {
+        for (Future<byte[]> future : inFlight) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Borrows a {@link Cipher} for the current worker thread.
+     */
+    private static Cipher borrowCipher() throws GeneralSecurityException {
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            throw new GeneralSecurityException("No cipher for " + GcmUtil.TRANSFORMATION);
+        }
+        return cipher;
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Encrypts one chunk and returns it with header and nonce.
+     */
+    private static class EncryptTask implements Callable<byte[]> {
+
+        private final SecretKeySpec key;
+
+        private final byte[] streamId;
+
+        private final long index;
+
+        private final boolean last;
+
+        private final byte[] plain;
+
+        private final int length;
+
+        private EncryptTask(SecretKeySpec key, byte[] streamId, long index, boolean last,
+                byte[] plain, int length) {
+            this.key = key;
+            this.streamId = streamId;
+            this.index = index;
+            this.last = last;
+            this.plain = plain;
+            this.length = length;
+        }
+
+        @Override
+        public byte[] call() throws IOException, GeneralSecurityException {
+            Cipher cipher = borrowCipher();
+            try {
+                byte[] output = new byte[length + GcmUtil.TAG_LENGTH];
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream(GcmUtil.HEADER_LENGTH
+                        + GcmUtil.NONCE_LENGTH + output.length);
+                GcmUtil.encryptChunk(cipher, key, streamId, index, last, plain, length, output,
+                        chunk);
+                return chunk.toByteArray();
+            }
+            finally {
+                CipherPool.release(cipher);
+            }
+        }
+    }
+
+    /**
+     * Decrypts and verifies one chunk and returns the plain content.
+     */
+    private static class DecryptTask implements Callable<byte[]> {
+
+        private final SecretKeySpec key;
+
+        private final byte[] streamId;
+
+        private final long index;
+
+        private final boolean last;
+
+        private final byte[] nonce;
+
+        private final byte[] encrypted;
+
+        private DecryptTask(SecretKeySpec key, byte[] streamId, long index, boolean last,
+                byte[] nonce, byte[] encrypted) {
+            this.key = key;
+            this.streamId = streamId;
+            this.index = index;
+            this.last = last;
+            this.nonce = nonce;
+            this.encrypted = encrypted;
+        }
+
+        @Override
+        public byte[] call() throws GeneralSecurityException {
+            Cipher cipher = borrowCipher();
+            try {
+                byte[] output = new byte[encrypted.length];
+                int plainLength = GcmUtil.decryptChunk(cipher, key, streamId, index, last,
+                        nonce, encrypted, encrypted.length, output);
+                return Arrays.copyOf(output, plainLength);
+            }
+            finally {
+                CipherPool.release(cipher);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A read only {@link SeekableByteChannel} of the plain content of a container written by the
+ * {@link SeekableGcmEncrypter}. Every page is verified before any of its bytes are returned. A
+ * page that is not authentic fails the read with an {@link IOException}.
+ *
+ * The channel keeps the last page decrypted by {@link #read(ByteBuffer)}, so sequential reads
+ * decrypt every page once. {@link #read(ByteBuffer, long)} does not use that page and may be
+ * called by multiple threads at the same time. It borrows its page buffers from the channel, so
+ * repeated positional reads do not allocate.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:35
+ */
+public class SeekableGcmChannel implements SeekableByteChannel {
+
+    private final FileChannel source;
+
+    private final SecretKeySpec key;
+
+    private final byte[] streamId;
+
+    private final int pageSize;
+
+    private final long size;
+
+    private final long pageCount;
+
+    private volatile boolean open = true;
+
+    /**
+     * The position of {@link #read(ByteBuffer)}, guarded by this.
+     */
+    private long position;
+
+    /**
+     * The index of the page in {@link #page}, guarded by this.
+     */
+    private long pageIndex = -1;
+
+    /**
+     * The plain content of the page last read by {@link #read(ByteBuffer)}, guarded by this.
+     */
+    private Page page;
+
+    /**
+     * Page buffers that are not in use by {@link #read(ByteBuffer, long)}. It holds at most as
+     * many pages as threads have read concurrently.
+     */
+    private final Queue<Page> freePages = new ConcurrentLinkedQueue<>();
+
+
+    SeekableGcmChannel(FileChannel source, SecretKeySpec key, byte[] streamId, int pageSize,
+            long size) {
+        this.source = source;
+        this.key = key;
+        this.streamId = streamId;
+        this.pageSize = pageSize;
+        this.size = size;
+        this.pageCount = size == 0 ? 1 : (size - 1) / pageSize + 1;
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (this.position >= this.size) {
+            return -1;
+        }
+        if (this.page == null) {
+            this.page = new Page(this.pageSize);
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && this.position < this.size) {
+            long index = this.position / this.pageSize;
+            if (index != this.pageIndex) {
+                // invalidate first, the page is overwritten even if the decryption fails
+                this.pageIndex = -1;
+                readPage(index, this.page);
+                this.pageIndex = index;
+            }
+            total += this.page.copyTo(dst, (int) (this.position - index * this.pageSize));
+            this.position = this.pageIndex * this.pageSize + this.page.copied;
+        }
+        return total;
+    }
+
+    /**
+     * Reads plain content starting at the given {@code position} without changing the
+     * {@link #position() position} of this channel. It may be called concurrently.
+     *
+     * @param dst the buffer to read into
+     * @param position the position in the plain content to start reading at
+     * @return the number of bytes read or {@code -1} if {@code position} is at the end
+     * @throws IOException if a page can not be read or is not authentic
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        checkOpen();
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+        if (position >= this.size) {
+            return -1;
+        }
+
+        Page local = this.freePages.poll();
+        if (local == null) {
+            local = new Page(this.pageSize);
+        }
+        try {
+            int total = 0;
+            while (dst.hasRemaining() && position < this.size) {
+                long index = position / this.pageSize;
+                readPage(index, local);
+                int copied = local.copyTo(dst, (int) (position - index * this.pageSize));
+                total += copied;
+                position += copied;
+            }
+            return total;
+        }
+        finally {
+            this.freePages.offer(local);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return this.position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized SeekableGcmChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return the length of the plain content
+     */
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return this.size;
+    }
+
+    /**
+     * @throws NonWritableChannelException always as containers can not be modified
+     */
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * @throws NonWritableChannelException always as containers can not be modified
+     */
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * Closes the channel of the container.
+     */
+    @Override
+    public void close() throws IOException {
+        this.open = false;
+        this.source.close();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads {@code dst.remaining()} bytes from {@code source} starting at {@code position}.
+     *
+     * @throws EOFException if {@code source} ends before
+     */
+    static void readFully(FileChannel source, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = source.read(dst, position);
+            if (read < 0) {
+                throw new EOFException("Container ended at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads, verifies and decrypts the page with the given {@code index} into {@code page}.
+     */
+    private void readPage(long index, Page page) throws IOException {
+        boolean last = index == this.pageCount - 1;
+        int plainLength = last ? (int) (this.size - index * this.pageSize) : this.pageSize;
+        int encryptedLength = plainLength + GcmUtil.TAG_LENGTH;
+        long offset = SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                + index * (this.pageSize + SeekableGcmEncrypter.PAGE_OVERHEAD);
+
+        ByteBuffer raw = ByteBuffer.wrap(page.encrypted, 0, plainLength
+                + SeekableGcmEncrypter.PAGE_OVERHEAD);
+        readFully(this.source, raw, offset);
+
+        int header = GcmUtil.readInt(page.encrypted);
+        int expectedHeader = last ? encryptedLength | GcmUtil.LAST_CHUNK_FLAG : encryptedLength;
+        if (header != expectedHeader) {
+            throw new IOException("Invalid header of page " + index);
+        }
+        System.arraycopy(page.encrypted, GcmUtil.HEADER_LENGTH, page.nonce, 0,
+                GcmUtil.NONCE_LENGTH);
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            throw new IOException("No cipher for " + GcmUtil.TRANSFORMATION);
+        }
+        try {
+            // decrypt in place behind header and nonce
+            byte[] encrypted = page.encrypted;
+            int start = GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH;
+            System.arraycopy(encrypted, start, encrypted, 0, encryptedLength);
+            page.length = GcmUtil.decryptChunk(cipher, this.key, this.streamId, index, last,
+                    page.nonce, encrypted, encryptedLength, page.plain);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Page " + index + " is not authentic.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * The buffers to read and decrypt one page.
+     */
+    private static class Page {
+
+        private final byte[] encrypted;
+
+        private final byte[] nonce = new byte[GcmUtil.NONCE_LENGTH];
+
+        private final byte[] plain;
+
+        private int length;
+
+        /**
+         * The offset in the page behind the bytes copied by the last {@link #copyTo}.
+         */
+        private int copied;
+
+        Page(int pageSize) {
+            this.encrypted = new byte[pageSize + SeekableGcmEncrypter.PAGE_OVERHEAD];
+            this.plain = new byte[pageSize];
+        }
+
+        /**
+         * Copies plain content starting at {@code offset} in the page into {@code dst}.
+         *
+         * @return the number of bytes copied
+         */
+        int copyTo(ByteBuffer dst, int offset) {
+            int count = Math.min(dst.remaining(), this.length - offset);
+            dst.put(this.plain, offset, count);
+            this.copied = offset + count;
+            return count;
+        }
+
+    }
+
+}
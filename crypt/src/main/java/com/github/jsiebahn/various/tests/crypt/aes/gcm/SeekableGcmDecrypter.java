@@ -0,0 +1,160 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens containers written by the {@link SeekableGcmEncrypter} as read only
+ * {@link SeekableByteChannel}s of the plain content. Reading at any position decrypts and
+ * verifies only the pages that hold the requested bytes, so the cost of a read does not depend on
+ * its offset in the container.
+ *
+ * The returned channel is a {@link SeekableGcmChannel}. Its
+ * {@link SeekableGcmChannel#read(ByteBuffer, long) positional reads} do not change the position
+ * of the channel and may be called concurrently, so distinct pages can be decrypted in parallel.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:35
+ */
+public class SeekableGcmDecrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(SeekableGcmDecrypter.class);
+
+    private final SecretKeySpec secretKeySpec;
+
+
+    public SeekableGcmDecrypter(String key) {
+        this(StringUtil.stringToByte(key));
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key like for the
+     *      {@link GcmDecrypter}.
+     */
+    public SeekableGcmDecrypter(byte[] key) {
+        this.secretKeySpec = key == null ? null : SymmetricKeyUtil.createSecretKeySpec(key);
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * Opens the container in the file {@code encrypted}. The file is closed when the returned
+     * channel is closed.
+     *
+     * @param encrypted the container file
+     * @return the channel of the plain content or {@code null} if the file is no valid container
+     */
+    public SeekableGcmChannel open(Path encrypted) {
+        if (encrypted == null) {
+            log.error("Container file is null.");
+            return null;
+        }
+        FileChannel source;
+        try {
+            source = FileChannel.open(encrypted, StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.error("Could not open container {}.", encrypted, e);
+            return null;
+        }
+        SeekableGcmChannel channel = open(source);
+        if (channel == null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.error("Could not close container {}.", encrypted, e);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Opens the container read from {@code encrypted}. The {@code encrypted} channel is closed
+     * when the returned channel is closed.
+     *
+     * @param encrypted the channel of the container
+     * @return the channel of the plain content or {@code null} if it is no valid container
+     */
+    public SeekableGcmChannel open(FileChannel encrypted) {
+
+        if (this.secretKeySpec == null) {
+            log.error("{} not initialised.", this);
+            return null;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted FileChannel is null.");
+            return null;
+        }
+
+        try {
+            long containerLength = encrypted.size();
+            if (containerLength < SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                    + SeekableGcmEncrypter.TRAILER_LENGTH) {
+                log.error("Container is too short: {} bytes", containerLength);
+                return null;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH);
+            SeekableGcmChannel.readFully(encrypted, header, 0);
+            header.flip();
+            if (header.get() != EncodingUtil.MAGIC
+                    || header.get() != EncodingUtil.FORMAT_VERSION
+                    || header.get() != EncodingUtil.TYPE_SEEKABLE_GCM) {
+                log.error("Not a seekable container.");
+                return null;
+            }
+            int pageSize = header.getInt();
+            if (pageSize < 1 || pageSize > GcmUtil.MAX_CHUNK_SIZE) {
+                log.error("Invalid page size: {}", pageSize);
+                return null;
+            }
+            if (header.get() != GcmUtil.VERSION) {
+                log.error("Unsupported version of the seekable container.");
+                return null;
+            }
+            byte[] streamId = new byte[GcmUtil.STREAM_ID_LENGTH];
+            header.get(streamId);
+
+            ByteBuffer trailer = ByteBuffer.allocate(SeekableGcmEncrypter.TRAILER_LENGTH);
+            SeekableGcmChannel.readFully(encrypted, trailer,
+                    containerLength - SeekableGcmEncrypter.TRAILER_LENGTH);
+            trailer.flip();
+            long plainLength = trailer.getLong();
+
+            // compare page counts first to avoid an overflow for manipulated trailers
+            long pageCount = plainLength == 0 ? 1 : (plainLength - 1) / pageSize + 1;
+            long encryptedPageSize = pageSize + SeekableGcmEncrypter.PAGE_OVERHEAD;
+            long pagesLength = containerLength - SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                    - SeekableGcmEncrypter.TRAILER_LENGTH;
+            long lastPageLength = plainLength - (pageCount - 1) * pageSize
+                    + SeekableGcmEncrypter.PAGE_OVERHEAD;
+            if (plainLength < 0 || pageCount > pagesLength / encryptedPageSize + 1
+                    || (pageCount - 1) * encryptedPageSize + lastPageLength != pagesLength) {
+                log.error("Container length {} does not match plain length {}.", containerLength,
+                        plainLength);
+                return null;
+            }
+
+            return new SeekableGcmChannel(encrypted, this.secretKeySpec, streamId, pageSize,
+                    plainLength);
+        } catch (IOException e) {
+            log.error("Could not read container.", e);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts data into a seekable container that can be read from any offset with the
+ * {@link SeekableGcmDecrypter} without decrypting the data in front of it. The plain data is split
+ * into pages of a fixed size which are encrypted independently as chunks of the {@link GcmUtil}
+ * format. The container is always binary:
+ * <pre>
+ *   container := MAGIC FORMAT_VERSION TYPE_SEEKABLE_GCM pageSize VERSION streamId page* trailer
+ *   pageSize  := 4 byte big endian int, the size of the plain data of a page
+ *   VERSION   := the version of the GcmUtil format
+ *   streamId  := the random stream id of the GcmUtil format, bound to every page
+ *   page      := a chunk of the GcmUtil format, the last page is flagged as last chunk
+ *   trailer   := 8 byte big endian long, the length of the plain data
+ * </pre>
+ * All pages but the last hold exactly {@code pageSize} plain bytes, so the offset of every page
+ * is computed from its index and the trailer is enough to index the container. The trailer is
+ * verified by the length of the file and by the authenticated last page.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:35
+ */
+public class SeekableGcmEncrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(SeekableGcmEncrypter.class);
+
+    /**
+     * The default size of the plain data of a page in bytes.
+     */
+    public static final int DEFAULT_PAGE_SIZE = GcmUtil.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * The length of the container header in bytes.
+     */
+    static final int CONTAINER_HEADER_LENGTH = 3 + 4 + GcmUtil.PAYLOAD_HEADER_LENGTH;
+
+    /**
+     * The length of the container trailer in bytes.
+     */
+    static final int TRAILER_LENGTH = 8;
+
+    /**
+     * The bytes a page adds to its plain data.
+     */
+    static final int PAGE_OVERHEAD = GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH
+            + GcmUtil.TAG_LENGTH;
+
+    private final SecretKeySpec secretKeySpec;
+
+    private final int pageSize;
+
+
+    public SeekableGcmEncrypter(String key) {
+        this(StringUtil.stringToByte(key), DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param key any byte array used as key. It will be hashed to a valid AES key like for the
+     *      {@link GcmEncrypter}.
+     * @param pageSize the size of the plain data of a page in bytes. It is limited to
+     *      {@value GcmUtil#MAX_CHUNK_SIZE} bytes. Smaller pages make random access cheaper,
+     *      larger pages reduce the overhead of {@value #PAGE_OVERHEAD} bytes per page.
+     */
+    public SeekableGcmEncrypter(byte[] key, int pageSize) {
+        this.pageSize = Math.min(CipherStreamUtil.normalizeBufferSize(pageSize, 0),
+                GcmUtil.MAX_CHUNK_SIZE);
+        this.secretKeySpec = key == null ? null : SymmetricKeyUtil.createSecretKeySpec(key);
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * Encrypts the content of {@code plain} into a container written to {@code encrypted}. Both
+     * streams are closed.
+     *
+     * @param plain the stream where the plain content is read from
+     * @param encrypted the stream where the container is written to
+     * @return if the encryption has been successful
+     */
+    public boolean encrypt(InputStream plain, OutputStream encrypted) {
+
+        if (this.secretKeySpec == null) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+
+        if (plain == null || encrypted == null) {
+            log.error("plain InputStream {} or encrypted OutputStream {} is null.", plain,
+                    encrypted);
+            return false;
+        }
+
+        Cipher cipher = GcmUtil.createCipher();
+        if (cipher == null) {
+            return false;
+        }
+
+        try (InputStream closedPlain = plain;
+             OutputStream container = EncodingUtil.openEncoding(encrypted, Encoding.BINARY,
+                     EncodingUtil.TYPE_SEEKABLE_GCM)) {
+
+            GcmUtil.writeInt(container, this.pageSize);
+            byte[] streamId = GcmUtil.writePayloadHeader(container);
+            long plainLength = encryptPages(cipher, streamId, closedPlain, container);
+            GcmUtil.writeInt(container, (int) (plainLength >>> 32));
+            GcmUtil.writeInt(container, (int) plainLength);
+            return true;
+        } catch (IOException e) {
+            log.error("Can not read from input stream or write to output stream.", e);
+        } catch (GeneralSecurityException e) {
+            log.error("Could not encrypt page.", e);
+        }
+        finally {
+            CipherPool.release(cipher);
+        }
+        return false;
+    }
+
+    /**
+     * Encrypts the content of the file {@code plain} into a container in the file
+     * {@code encrypted}. An existing {@code encrypted} file is replaced. If the encryption fails,
+     * the incomplete container is deleted.
+     *
+     * @param plain the file where the plain content is read from
+     * @param encrypted the file where the container is written to
+     * @return if the encryption has been successful
+     */
+    public boolean encryptFile(Path plain, Path encrypted) {
+        if (plain == null || encrypted == null) {
+            log.error("Plain file {} or encrypted file {} is null.", plain, encrypted);
+            return false;
+        }
+
+        boolean success;
+        try {
+            success = encrypt(Files.newInputStream(plain), new BufferedOutputStream(
+                    Files.newOutputStream(encrypted), CipherStreamUtil.DEFAULT_BUFFER_SIZE));
+        } catch (IOException e) {
+            log.error("Could not open plain file {} or encrypted file {}.", plain, encrypted, e);
+            success = false;
+        }
+
+        if (!success) {
+            try {
+                Files.deleteIfExists(encrypted);
+            } catch (IOException e) {
+                log.error("Could not delete incomplete container {}.", encrypted, e);
+            }
+        }
+        return success;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Encrypts all pages. A page is only flagged as last page if the stream has no more data,
+     * which requires to read one page ahead.
+     *
+     * @return the length of the plain data
+     */
+    private long encryptPages(Cipher cipher, byte[] streamId, InputStream plain,
+            OutputStream container) throws IOException, GeneralSecurityException {
+
+        byte[] current = new byte[this.pageSize];
+        byte[] next = new byte[this.pageSize];
+        byte[] output = new byte[this.pageSize + GcmUtil.TAG_LENGTH];
+
+        int currentLength = CipherStreamUtil.fill(plain, current, 0, current.length);
+        long plainLength = 0;
+        long index = 0;
+        while (true) {
+            int nextLength = currentLength == this.pageSize
+                    ? CipherStreamUtil.fill(plain, next, 0, next.length)
+                    : 0;
+            boolean last = nextLength == 0;
+
+            GcmUtil.encryptChunk(cipher, this.secretKeySpec, streamId, index, last, current,
+                    currentLength, output, container);
+            plainLength += currentLength;
+
+            if (last) {
+                return plainLength;
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+            index++;
+        }
+    }
+
+}
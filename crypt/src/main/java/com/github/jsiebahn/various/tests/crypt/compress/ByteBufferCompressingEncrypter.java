@@ -0,0 +1,48 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import com.github.jsiebahn.various.tests.crypt.ByteBufferEncrypter;
+import com.github.jsiebahn.various.tests.crypt.Compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CompressingEncrypter} that keeps the {@link ByteBufferEncrypter} capability of the
+ * {@link ByteBufferEncrypter} it wraps. {@link ByteBuffer}s hold the raw form of encrypted
+ * {@link String}s, which are never compressed, so they are encrypted by the wrapped
+ * {@link ByteBufferEncrypter} unchanged.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:40
+ */
+public class ByteBufferCompressingEncrypter extends CompressingEncrypter
+        implements ByteBufferEncrypter {
+
+    private final ByteBufferEncrypter encrypter;
+
+    /**
+     * @param encrypter the {@link ByteBufferEncrypter} that encrypts the compressed data
+     * @param compression the compression to apply, not {@link Compression#NONE}
+     */
+    public ByteBufferCompressingEncrypter(ByteBufferEncrypter encrypter,
+            Compression compression) {
+        super(encrypter, compression);
+        this.encrypter = encrypter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxEncryptedLength(int plainLength) {
+        return this.encrypter.getMaxEncryptedLength(plainLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(ByteBuffer plain, ByteBuffer encrypted) {
+        return isReadyToOperate() && this.encrypter.encrypt(plain, encrypted);
+    }
+
+}
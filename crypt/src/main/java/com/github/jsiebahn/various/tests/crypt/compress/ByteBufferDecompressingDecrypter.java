@@ -0,0 +1,45 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import com.github.jsiebahn.various.tests.crypt.ByteBufferDecrypter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DecompressingDecrypter} that keeps the {@link ByteBufferDecrypter} capability of the
+ * {@link ByteBufferDecrypter} it wraps. {@link ByteBuffer}s hold the raw form of encrypted
+ * {@link String}s, which are never compressed, so they are decrypted by the wrapped
+ * {@link ByteBufferDecrypter} unchanged.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:40
+ */
+public class ByteBufferDecompressingDecrypter extends DecompressingDecrypter
+        implements ByteBufferDecrypter {
+
+    private final ByteBufferDecrypter decrypter;
+
+    /**
+     * @param decrypter the {@link ByteBufferDecrypter} that decrypts the compressed data
+     */
+    public ByteBufferDecompressingDecrypter(ByteBufferDecrypter decrypter) {
+        super(decrypter);
+        this.decrypter = decrypter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxPlainLength(int encryptedLength) {
+        return this.decrypter.getMaxPlainLength(encryptedLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(ByteBuffer encrypted, ByteBuffer plain) {
+        return isReadyToOperate() && this.decrypter.decrypt(encrypted, plain);
+    }
+
+}
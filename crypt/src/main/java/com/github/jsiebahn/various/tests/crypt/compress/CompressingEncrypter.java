@@ -0,0 +1,111 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * An {@link Encrypter} that compresses streams before they are encrypted by another
+ * {@link Encrypter}. The plain stream is compressed while the other {@link Encrypter} reads it,
+ * so no copy of the compressed data is created. The encrypted stream starts with a binary header
+ * whose type records the codec for the {@link DecompressingDecrypter}, followed by the output of
+ * the other {@link Encrypter}. Compressed streams are therefore always binary.
+ *
+ * Encrypted {@link String}s are passed to the other {@link Encrypter} unchanged. Short values
+ * rarely get smaller and their format is defined by the other {@link Encrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+public class CompressingEncrypter implements Encrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(CompressingEncrypter.class);
+
+    private final Encrypter encrypter;
+
+    private final Compression compression;
+
+    /**
+     * @param encrypter the {@link Encrypter} that encrypts the compressed data
+     * @param compression the compression to apply, not {@link Compression#NONE}
+     */
+    public CompressingEncrypter(Encrypter encrypter, Compression compression) {
+        this.encrypter = encrypter;
+        this.compression = compression;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encrypt(String plain) {
+        if (!checkInitialised()) {
+            return null;
+        }
+        return this.encrypter.encrypt(plain);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(InputStream plain, OutputStream encrypted) {
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null) {
+            log.error("plain InputStream is null.");
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted OutputStream is null.");
+            return false;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            CompressionUtil.writeHeader(encrypted, this.compression);
+            return this.encrypter.encrypt(new DeflaterInputStream(plain, deflater,
+                    CipherStreamUtil.DEFAULT_BUFFER_SIZE), encrypted);
+        } catch (IOException e) {
+            log.error("Could not write the compression header.", e);
+            return false;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        return checkInitialised() && this.encrypter.isReadyToOperate();
+    }
+
+
+    //
+    // helper
+    //
+
+    private boolean checkInitialised() {
+        if (this.encrypter == null || this.compression != Compression.DEFLATE) {
+            log.error("{} not initialised. Encrypter: {}, compression: {}", this, this.encrypter,
+                    this.compression);
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Utility class for the header that records the codec of compressed streams. Compressed streams
+ * are always {@link Encoding#BINARY} and their binary header carries the codec as type:
+ * <pre>
+ *   compressed := MAGIC FORMAT_VERSION codecType encrypted
+ * </pre>
+ * The {@code encrypted} data is written by the wrapped encrypter and starts with its own header.
+ * The plain data is never inspected, so any plain data survives unchanged.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+class CompressionUtil {
+
+    /**
+     * The length of the header in bytes.
+     */
+    static final int HEADER_LENGTH = 3;
+
+
+    //
+    // api
+    //
+
+    /**
+     * Writes the header for the given {@code compression}.
+     *
+     * @throws IOException if writing fails
+     */
+    static void writeHeader(OutputStream encrypted, Compression compression) throws IOException {
+        EncodingUtil.openEncoding(encrypted, Encoding.BINARY, toType(compression));
+    }
+
+    /**
+     * Reads the compression from the header of {@code encrypted}. The header is consumed if it
+     * records a compression, otherwise all read bytes are pushed back.
+     *
+     * @param encrypted a stream able to push back {@link #HEADER_LENGTH} bytes
+     * @return the recorded {@link Compression} or {@link Compression#NONE} if {@code encrypted}
+     *      is not compressed
+     * @throws IOException if reading fails
+     */
+    static Compression readHeader(PushbackInputStream encrypted) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        while (length < HEADER_LENGTH) {
+            int read = encrypted.read(header, length, HEADER_LENGTH - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length == HEADER_LENGTH && header[0] == EncodingUtil.MAGIC
+                && header[1] == EncodingUtil.FORMAT_VERSION
+                && header[2] == EncodingUtil.TYPE_DEFLATE) {
+            return Compression.DEFLATE;
+        }
+        encrypted.unread(header, 0, length);
+        return Compression.NONE;
+    }
+
+
+    //
+    // helper
+    //
+
+    private static byte toType(Compression compression) {
+        switch (compression) {
+            case DEFLATE:
+                return EncodingUtil.TYPE_DEFLATE;
+            default:
+                throw new IllegalArgumentException("No codec for " + compression);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * A {@link Decrypter} that decompresses the streams decrypted by another {@link Decrypter} if
+ * they have been compressed by the {@link CompressingEncrypter}. The codec is read from the
+ * binary header in front of the encrypted data. Streams without that header are passed to the
+ * other {@link Decrypter} unchanged, so data encrypted without compression can still be
+ * decrypted. Encrypted {@link String}s are never compressed and passed to the other
+ * {@link Decrypter} unchanged.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+public class DecompressingDecrypter implements Decrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(DecompressingDecrypter.class);
+
+    private final Decrypter decrypter;
+
+    /**
+     * @param decrypter the {@link Decrypter} that decrypts the compressed data
+     */
+    public DecompressingDecrypter(Decrypter decrypter) {
+        this.decrypter = decrypter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String decrypt(String encrypted) {
+        if (!checkInitialised()) {
+            return null;
+        }
+        return this.decrypter.decrypt(encrypted);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(InputStream encrypted, OutputStream plain) {
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted InputStream is null.");
+            return false;
+        }
+
+        if (plain == null) {
+            log.error("plain OutputStream is null.");
+            return false;
+        }
+
+        PushbackInputStream source = new PushbackInputStream(encrypted,
+                CompressionUtil.HEADER_LENGTH);
+        DecompressingOutputStream decompressed = null;
+        try {
+            if (CompressionUtil.readHeader(source) == Compression.NONE) {
+                return this.decrypter.decrypt(source, plain);
+            }
+            decompressed = new DecompressingOutputStream(plain);
+            if (!this.decrypter.decrypt(source, decompressed)) {
+                return false;
+            }
+            // not every decrypter closes the plain stream
+            decompressed.close();
+            return true;
+        } catch (IOException e) {
+            log.error("Could not decompress decrypted data.", e);
+            return false;
+        }
+        finally {
+            if (decompressed != null) {
+                decompressed.end();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        return checkInitialised() && this.decrypter.isReadyToOperate();
+    }
+
+
+    //
+    // helper
+    //
+
+    private boolean checkInitialised() {
+        if (this.decrypter == null) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+        return true;
+    }
+
+}
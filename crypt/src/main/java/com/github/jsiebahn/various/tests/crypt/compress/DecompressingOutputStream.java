@@ -0,0 +1,72 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * An {@link OutputStream} that inflates the data compressed by the {@link CompressingEncrypter}
+ * into the target. Closing the stream fails if the compressed data ended before the end of the
+ * compressed stream.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+class DecompressingOutputStream extends FilterOutputStream {
+
+    private final OutputStream target;
+
+    private final Inflater inflater;
+
+    private boolean closed;
+
+    DecompressingOutputStream(OutputStream target) {
+        this(target, new Inflater());
+    }
+
+    private DecompressingOutputStream(OutputStream target, Inflater inflater) {
+        super(new InflaterOutputStream(target, inflater));
+        this.target = target;
+        this.inflater = inflater;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+    }
+
+    /**
+     * Finishes the decompression and closes the target.
+     *
+     * @throws IOException if the compressed data is incomplete
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            ((InflaterOutputStream) this.out).finish();
+            if (!this.inflater.finished()) {
+                throw new IOException("Compressed data is incomplete.");
+            }
+        }
+        finally {
+            this.target.close();
+        }
+    }
+
+    /**
+     * Releases the {@link Inflater}.
+     */
+    void end() {
+        this.inflater.end();
+    }
+
+}
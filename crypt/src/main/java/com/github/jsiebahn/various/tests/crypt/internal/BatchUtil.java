@@ -0,0 +1,122 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Processes the values of a batch in slices of {@link #SLICE_SIZE} values. A slice is processed
+ * by one thread, so per thread state like the {@link CipherPool} and reusable buffers is shared by
+ * all values of the slice. Parallel batches process their slices on the shared
+ * {@link WorkerPool}, which also runs the chunks of parallel GCM streams. Small batches are
+ * always processed by the calling thread because the hand-off would cost more than the
+ * encryption of a few short values.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:10
+ */
+public class BatchUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchUtil.class);
+
+    /**
+     * The number of values processed by one thread in a row.
+     */
+    public static final int SLICE_SIZE = 256;
+
+
+    //
+    // api
+    //
+
+    /**
+     * Processes {@code size} values in slices with the given {@code processor}.
+     *
+     * @param size the number of values of the batch
+     * @param parallel if the slices may be processed concurrently
+     * @param processor processes the values of a slice
+     * @return if all slices have been processed. Failures of single values are left to the
+     *      {@code processor}.
+     */
+    public static boolean process(int size, boolean parallel, SliceProcessor processor) {
+        if (!parallel || size <= SLICE_SIZE) {
+            processor.process(0, size);
+            return true;
+        }
+
+        List<Future<?>> slices = new ArrayList<>(size / SLICE_SIZE + 1);
+        for (int from = 0; from < size; from += SLICE_SIZE) {
+            slices.add(WorkerPool.get().submit(
+                    new SliceTask(processor, from, Math.min(size, from + SLICE_SIZE))));
+        }
+
+        boolean success = true;
+        for (Future<?> slice : slices) {
+            try {
+                slice.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while waiting for batch.", e);
+                cancel(slices);
+                return false;
+            } catch (ExecutionException e) {
+                log.error("Slice of batch failed.", e.getCause());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+
+    //
+    // helper
+    //
+
+    private static void cancel(List<Future<?>> slices) {
+        for (Future<?> slice : slices) {
+            slice.cancel(false);
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Processes the values of a batch in the range {@code [from, to)}.
+     */
+    public interface SliceProcessor {
+
+        void process(int from, int to);
+
+    }
+
+    private static class SliceTask implements Callable<Void> {
+
+        private final SliceProcessor processor;
+
+        private final int from;
+
+        private final int to;
+
+        SliceTask(SliceProcessor processor, int from, int to) {
+            this.processor = processor;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Void call() {
+            processor.process(from, to);
+            return null;
+        }
+
+    }
+
+}
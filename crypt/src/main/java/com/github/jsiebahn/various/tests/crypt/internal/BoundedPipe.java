@@ -0,0 +1,214 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pipe with a bounded ring buffer between one writing and one reading thread. The writer blocks
+ * while the buffer is full, the reader blocks while it is empty. In contrast to
+ * {@link java.io.PipedInputStream} it waits on a {@link ReentrantLock} instead of polling a
+ * monitor, so a waiting virtual thread does not pin its carrier, and it does not fail if the
+ * writing thread ends before everything has been read.
+ *
+ * Closing the {@link #sink()} marks the end of the data. Closing the {@link #source()} fails any
+ * further write, so a writer never waits for a reader that is gone. A waiting thread that is
+ * interrupted fails with an {@link InterruptedIOException}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:40
+ */
+public class BoundedPipe {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private final byte[] buffer;
+
+    private final InputStream source = new Source();
+
+    private final OutputStream sink = new Sink();
+
+    /**
+     * The position of the next byte to read in {@link #buffer}.
+     */
+    private int readPosition;
+
+    /**
+     * The number of bytes in {@link #buffer}.
+     */
+    private int count;
+
+    private boolean sinkClosed;
+
+    private boolean sourceClosed;
+
+    /**
+     * @param capacity the number of bytes buffered between the writer and the reader
+     */
+    public BoundedPipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * @return the stream the written data is read from
+     */
+    public InputStream source() {
+        return this.source;
+    }
+
+    /**
+     * @return the stream the data is written to
+     */
+    public OutputStream sink() {
+        return this.sink;
+    }
+
+
+    //
+    // helper
+    //
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.count == 0) {
+                if (this.sourceClosed) {
+                    throw new IOException("Pipe closed.");
+                }
+                if (this.sinkClosed) {
+                    return -1;
+                }
+                await(this.notEmpty);
+            }
+            int n = Math.min(len, this.count);
+            int first = Math.min(n, this.buffer.length - this.readPosition);
+            System.arraycopy(this.buffer, this.readPosition, b, off, first);
+            System.arraycopy(this.buffer, 0, b, off + first, n - first);
+            this.readPosition = (this.readPosition + n) % this.buffer.length;
+            this.count -= n;
+            this.notFull.signal();
+            return n;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        this.lock.lock();
+        try {
+            while (len > 0) {
+                if (this.sourceClosed) {
+                    throw new IOException("Pipe closed by the reader.");
+                }
+                if (this.sinkClosed) {
+                    throw new IOException("Pipe closed.");
+                }
+                if (this.count == this.buffer.length) {
+                    await(this.notFull);
+                    continue;
+                }
+                int writePosition = (this.readPosition + this.count) % this.buffer.length;
+                int n = Math.min(len, Math.min(this.buffer.length - this.count,
+                        this.buffer.length - writePosition));
+                System.arraycopy(b, off, this.buffer, writePosition, n);
+                this.count += n;
+                off += n;
+                len -= n;
+                this.notEmpty.signal();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void closeSink() {
+        this.lock.lock();
+        try {
+            this.sinkClosed = true;
+            this.notEmpty.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void closeSource() {
+        this.lock.lock();
+        try {
+            this.sourceClosed = true;
+            this.count = 0;
+            this.notFull.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private static void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipe.");
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    private class Source extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : BoundedPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeSource();
+        }
+
+    }
+
+    private class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BoundedPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeSink();
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link InputStream} that passes the content of the wrapped stream through a {@link Cipher}
+ * in the calling thread while it is read. The cipher is finished when the wrapped stream ends. In
+ * contrast to {@link javax.crypto.CipherInputStream} a failure of the cipher, e.g. a bad padding,
+ * is reported as {@link IOException} instead of a regular end of the stream. Closing the stream
+ * returns the cipher to the {@link CipherPool} and closes the wrapped stream. It is confined to
+ * one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:05
+ */
+public class CipherFilterInputStream extends FilterInputStream {
+
+    private final Cipher cipher;
+
+    private final byte[] input;
+
+    private byte[] output = new byte[0];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * If the cipher has been finished.
+     */
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * If reading failed, so the stream must not end regularly afterwards.
+     */
+    private boolean failed;
+
+    /**
+     * @param in the stream the input of the {@code cipher} is read from
+     * @param cipher the initialised cipher. It is owned by this stream until it is closed.
+     * @param bufferSize the number of bytes read from {@code in} at once
+     */
+    public CipherFilterInputStream(InputStream in, Cipher cipher, int bufferSize) {
+        super(in);
+        this.cipher = cipher;
+        this.input = new byte[bufferSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (this.failed) {
+            throw new IOException("A previous read failed.");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (this.position == this.limit) {
+            if (this.finished) {
+                return -1;
+            }
+            try {
+                process();
+            } catch (IOException | RuntimeException e) {
+                this.failed = true;
+                throw e;
+            }
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.output, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(Math.max(n, 0), this.input.length)];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(skipped, 0, (int) Math.min(remaining, skipped.length));
+            if (read == -1) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - Math.max(remaining, 0);
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        // not supported
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Returns the cipher to the {@link CipherPool} and closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        CipherPool.release(this.cipher);
+        this.in.close();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads the next input and passes it through the cipher. The cipher is finished if the
+     * wrapped stream ended.
+     */
+    private void process() throws IOException {
+        int read = this.in.read(this.input, 0, this.input.length);
+        try {
+            if (read == -1) {
+                ensureOutput(this.cipher.getOutputSize(0));
+                this.limit = this.cipher.doFinal(this.output, 0);
+                this.finished = true;
+            }
+            else {
+                ensureOutput(this.cipher.getOutputSize(read));
+                this.limit = this.cipher.update(this.input, 0, read, this.output, 0);
+            }
+            this.position = 0;
+        } catch (ShortBufferException e) {
+            // should never happen as the output buffer is sized by Cipher.getOutputSize(int)
+            throw new IllegalStateException("Output buffer too small.", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not finish cipher.", e);
+        }
+    }
+
+    private void ensureOutput(int length) {
+        if (length > this.output.length) {
+            this.output = new byte[length];
+        }
+    }
+
+}
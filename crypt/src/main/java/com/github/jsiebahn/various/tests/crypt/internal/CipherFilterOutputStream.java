@@ -0,0 +1,96 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link OutputStream} that passes everything written to it through a {@link Cipher} in the
+ * calling thread and writes the result to the wrapped stream. Closing the stream finishes the
+ * cipher, returns it to the {@link CipherPool} and closes the wrapped stream. In contrast to
+ * {@link javax.crypto.CipherOutputStream} a failure of the cipher is reported as
+ * {@link IOException} instead of being ignored. It is confined to one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:05
+ */
+public class CipherFilterOutputStream extends FilterOutputStream {
+
+    private final Cipher cipher;
+
+    private byte[] output = new byte[0];
+
+    private boolean closed;
+
+    /**
+     * @param out the stream the output of the {@code cipher} is written to
+     * @param cipher the initialised cipher. It is owned by this stream until it is closed.
+     */
+    public CipherFilterOutputStream(OutputStream out, Cipher cipher) {
+        super(out);
+        this.cipher = cipher;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (len == 0) {
+            return;
+        }
+        try {
+            ensureOutput(this.cipher.getOutputSize(len));
+            int n = this.cipher.update(b, off, len, this.output, 0);
+            this.out.write(this.output, 0, n);
+        } catch (ShortBufferException e) {
+            // should never happen as the output buffer is sized by Cipher.getOutputSize(int)
+            throw new IllegalStateException("Output buffer too small.", e);
+        }
+    }
+
+    /**
+     * Finishes the cipher, writes its final output and closes the wrapped stream.
+     *
+     * @throws IOException if the cipher can not be finished or the output can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            ensureOutput(this.cipher.getOutputSize(0));
+            int n = this.cipher.doFinal(this.output, 0);
+            this.out.write(this.output, 0, n);
+            this.out.flush();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not finish cipher.", e);
+        }
+        finally {
+            CipherPool.release(this.cipher);
+            this.out.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private void ensureOutput(int length) {
+        if (length > this.output.length) {
+            this.output = new byte[length];
+        }
+    }
+
+}
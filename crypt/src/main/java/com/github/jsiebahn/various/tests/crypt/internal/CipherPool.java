@@ -0,0 +1,153 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Cache;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.Instrumentations;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link Cipher} instances keyed by transformation and provider. Creating a
+ * {@link Cipher} with {@link Cipher#getInstance(String, String)} requires a provider lookup and
+ * the construction of the cipher implementation, which is expensive compared to encrypting a short
+ * {@link String}.
+ *
+ * The pool is confined to the current thread. Every thread holds its own idle ciphers, so
+ * {@link #borrow(String, String) borrowing} and {@link #release(Cipher) releasing} does not need
+ * any synchronisation. A borrowed {@link Cipher} is exclusively owned by the borrower until it is
+ * released. It has to be initialised by the borrower with a fresh key and initialisation vector
+ * before it is used, because it may still hold the state of the previous borrower. Nested borrows
+ * of the same transformation on one thread are served with separate instances.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 10:05
+ */
+public class CipherPool {
+
+    /**
+     * The maximum number of idle {@link Cipher}s kept per thread, transformation and provider.
+     */
+    static final int MAX_IDLE = 4;
+
+    /**
+     * The idle {@link Cipher}s of the current thread by transformation and provider. The maps are
+     * nested to look up ciphers without creating a combined key.
+     */
+    private static final ThreadLocal<Map<String, Map<String, Deque<Cipher>>>> IDLE =
+            new ThreadLocal<Map<String, Map<String, Deque<Cipher>>>>() {
+                @Override
+                protected Map<String, Map<String, Deque<Cipher>>> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    /**
+     * Counts the borrows served with an idle {@link Cipher}.
+     */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Counts the borrows that required a new {@link Cipher}.
+     */
+    private static final AtomicLong misses = new AtomicLong();
+
+
+    //
+    // api
+    //
+
+    /**
+     * Borrows a {@link Cipher} for the given {@code transformation} from the given
+     * {@code provider}. An idle instance of the current thread is reused if available, otherwise
+     * a new instance is created. The {@link Cipher} should be {@link #release(Cipher) released}
+     * after use.
+     *
+     * @param transformation the transformation, e.g. "AES/CBC/PKCS5PADDING"
+     * @param provider the name of the provider, e.g. "SunJCE"
+     * @return a {@link Cipher} that needs to be initialised before use
+     * @throws NoSuchAlgorithmException see {@link Cipher#getInstance(String, String)}
+     * @throws NoSuchPaddingException see {@link Cipher#getInstance(String, String)}
+     * @throws NoSuchProviderException see {@link Cipher#getInstance(String, String)}
+     */
+    public static Cipher borrow(String transformation, String provider)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, NoSuchProviderException {
+
+        Map<String, Deque<Cipher>> byProvider = IDLE.get().get(transformation);
+        Deque<Cipher> idle = byProvider != null ? byProvider.get(provider) : null;
+        Cipher cipher = idle != null ? idle.pollFirst() : null;
+
+        if (cipher != null) {
+            hits.incrementAndGet();
+            Instrumentations.recordCacheAccess(Cache.CIPHER_POOL, true);
+            return cipher;
+        }
+
+        misses.incrementAndGet();
+        Instrumentations.recordCacheAccess(Cache.CIPHER_POOL, false);
+        long start = Instrumentations.startNanos();
+        cipher = Cipher.getInstance(transformation, provider);
+        Instrumentations.recordPhase(Phase.CIPHER_CREATION, start);
+        return cipher;
+    }
+
+    /**
+     * Returns a {@link Cipher} to the pool of the current thread. It must not be used by the caller
+     * afterwards. If the pool is full, the {@code cipher} is discarded.
+     *
+     * @param cipher the {@link Cipher} to return. {@code null} values are ignored
+     */
+    public static void release(Cipher cipher) {
+        if (cipher == null) {
+            return;
+        }
+
+        Map<String, Map<String, Deque<Cipher>>> pool = IDLE.get();
+        Map<String, Deque<Cipher>> byProvider = pool.get(cipher.getAlgorithm());
+        if (byProvider == null) {
+            byProvider = new HashMap<>();
+            pool.put(cipher.getAlgorithm(), byProvider);
+        }
+        String provider = cipher.getProvider().getName();
+        Deque<Cipher> idle = byProvider.get(provider);
+        if (idle == null) {
+            idle = new ArrayDeque<>(MAX_IDLE);
+            byProvider.put(provider, idle);
+        }
+        if (idle.size() < MAX_IDLE) {
+            idle.offerFirst(cipher);
+        }
+    }
+
+    /**
+     * @return the number of borrows served with an idle {@link Cipher} since the start of the JVM
+     *      or the last {@link #resetStatistics()}
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of borrows that created a new {@link Cipher} since the start of the JVM
+     *      or the last {@link #resetStatistics()}
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Resets {@link #getHitCount()} and {@link #getMissCount()} to {@code 0}.
+     */
+    public static void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streaming engine that pipes the content of an {@link InputStream} through an initialised
+ * {@link Cipher} into an {@link OutputStream}. The data is processed in buffers that are a
+ * multiple of the cipher block size, so every {@link Cipher#update(byte[], int, int, byte[])}
+ * works on complete blocks and the cipher does not need to hold back partial blocks between the
+ * calls.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 09:12
+ */
+public class CipherStreamUtil {
+
+    /**
+     * The buffer size used if no or an invalid buffer size is configured. It is the same as used
+     * for plain stream copies in {@code NoopUtil}.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+    /**
+     * The logger used if errors occur.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CipherStreamUtil.class);
+
+
+    //
+    // api
+    //
+
+    /**
+     * Normalizes the given {@code bufferSize} to a multiple of {@code blockSize}. The result is
+     * rounded up to the next multiple and is at least one block. Values less than {@code 1} are
+     * replaced by {@link #DEFAULT_BUFFER_SIZE}.
+     *
+     * @param bufferSize the desired buffer size in bytes
+     * @param blockSize the block size of the cipher, {@code 0} for stream ciphers
+     * @return a valid buffer size that is a multiple of {@code blockSize}
+     */
+    public static int normalizeBufferSize(int bufferSize, int blockSize) {
+        if (bufferSize < 1) {
+            log.warn("Invalid buffer size {}. Using {} bytes.", bufferSize, DEFAULT_BUFFER_SIZE);
+            bufferSize = DEFAULT_BUFFER_SIZE;
+        }
+        if (blockSize < 2) {
+            return bufferSize;
+        }
+        int remainder = bufferSize % blockSize;
+        return remainder == 0 ? bufferSize : bufferSize + blockSize - remainder;
+    }
+
+    /**
+     * Reads the {@code source} until it ends, passes the content through the {@code cipher} and
+     * writes the result into the {@code target}. The {@code cipher} is
+     * {@link Cipher#doFinal(byte[], int) finished} after the {@code source} ended. None of the
+     * streams is closed.
+     *
+     * @param cipher the initialised {@link Cipher} for encryption or decryption
+     * @param source the stream to read the input of the {@code cipher} from
+     * @param target the stream to write the output of the {@code cipher} to
+     * @param bufferSize the size of the read buffer. It should be
+     *      {@link #normalizeBufferSize(int, int) normalized} to a multiple of the block size.
+     * @return the number of bytes read from {@code source}
+     * @throws IOException if reading from {@code source} or writing to {@code target} fails
+     * @throws IllegalBlockSizeException if the {@code cipher} rejects the length of the input
+     * @throws BadPaddingException if the padding of decrypted data is invalid
+     */
+    public static long transfer(Cipher cipher, InputStream source, OutputStream target,
+            int bufferSize) throws IOException, IllegalBlockSizeException, BadPaddingException {
+
+        byte[] input = new byte[bufferSize];
+        byte[] output = new byte[cipher.getOutputSize(bufferSize)];
+        long total = 0;
+
+        try {
+            int read = fill(source, input, 0, input.length);
+            while (read > 0) {
+                total += read;
+                int required = cipher.getOutputSize(read);
+                if (required > output.length) {
+                    output = new byte[required];
+                }
+                int len = cipher.update(input, 0, read, output, 0);
+                target.write(output, 0, len);
+                read = fill(source, input, 0, input.length);
+            }
+
+            int required = cipher.getOutputSize(0);
+            if (required > output.length) {
+                output = new byte[required];
+            }
+            int len = cipher.doFinal(output, 0);
+            target.write(output, 0, len);
+        } catch (ShortBufferException e) {
+            // should never happen as the output buffer is sized by Cipher.getOutputSize(int)
+            throw new IllegalStateException("Output buffer too small.", e);
+        }
+
+        return total;
+    }
+
+    /**
+     * Reads from {@code source} until {@code len} bytes are read or the stream ended. In contrast
+     * to {@link InputStream#read(byte[], int, int)} this method does not return after partial
+     * reads.
+     *
+     * @param source the stream to read from
+     * @param buffer the buffer to read into
+     * @param off the offset in {@code buffer} where the first byte is stored
+     * @param len the number of bytes to read
+     * @return the number of bytes read. It is less than {@code len} only if the stream ended.
+     * @throws IOException if reading from {@code source} fails
+     */
+    public static int fill(InputStream source, byte[] buffer, int off, int len)
+            throws IOException {
+        int total = 0;
+        while (total < len) {
+            int read = source.read(buffer, off + total, len - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+}
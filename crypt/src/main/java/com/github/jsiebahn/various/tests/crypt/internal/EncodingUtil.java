@@ -0,0 +1,177 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Utility class for the {@link Encoding} of encrypted streams. {@link Encoding#BINARY} data starts
+ * with a header of three bytes:
+ * <pre>
+ *   header := MAGIC FORMAT_VERSION type
+ * </pre>
+ * The {@link #MAGIC} byte is not part of the Base64 alphabet, so the first byte of a stream tells
+ * whether it is binary or Base64 encoded. The type identifies the
+ * {@link com.github.jsiebahn.various.tests.crypt.Encrypter} that wrote the data.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:44
+ */
+public class EncodingUtil {
+
+    /**
+     * The first byte of {@link Encoding#BINARY} data.
+     */
+    public static final byte MAGIC = (byte) 0xB1;
+
+    /**
+     * The version of the binary header.
+     */
+    public static final byte FORMAT_VERSION = 1;
+
+    /**
+     * The type of data written by the symmetric key encrypter in CBC mode.
+     */
+    public static final byte TYPE_CBC = 1;
+
+    /**
+     * The type of data written by the symmetric key encrypter in GCM mode.
+     */
+    public static final byte TYPE_GCM = 2;
+
+    /**
+     * The type of data written by the RSA encrypter.
+     */
+    public static final byte TYPE_RSA = 3;
+
+    /**
+     * The type of the seekable container written by the GCM container encrypter. It is always
+     * binary.
+     */
+    public static final byte TYPE_SEEKABLE_GCM = 4;
+
+    /**
+     * The type of data written by the symmetric key encrypter in CBC mode with authenticated
+     * frames. It is always binary.
+     */
+    public static final byte TYPE_CBC_HMAC = 5;
+
+    /**
+     * The type of data compressed with {@link java.util.zip.Deflater} before it was encrypted by
+     * another encrypter. The data of that encrypter follows the header. It is always binary.
+     */
+    public static final byte TYPE_DEFLATE = 6;
+
+    /**
+     * The type returned by {@link #readType(PushbackInputStream)} for Base64 encoded data, which
+     * has no header.
+     */
+    public static final int TYPE_NONE = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(EncodingUtil.class);
+
+
+    //
+    // api
+    //
+
+    /**
+     * Creates the stream that encrypted data of the given {@code type} is written to. For
+     * {@link Encoding#BINARY} the header is written immediately. Closing the returned stream
+     * closes {@code encrypted}.
+     *
+     * @param encrypted the target stream
+     * @param encoding the encoding to use, {@code null} for {@link Encoding#BASE64}
+     * @param type the type of the encrypted data
+     * @return the stream to write the raw encrypted data to
+     * @throws IOException if the header can not be written
+     */
+    public static OutputStream openEncoding(OutputStream encrypted, Encoding encoding, byte type)
+            throws IOException {
+        if (encoding != Encoding.BINARY) {
+            return new Base64OutputStream(encrypted);
+        }
+        encrypted.write(MAGIC);
+        encrypted.write(FORMAT_VERSION);
+        encrypted.write(type);
+        return encrypted;
+    }
+
+    /**
+     * Detects the encoding of {@code encrypted} and creates the stream to read the raw encrypted
+     * data from. The header of binary data is consumed and checked.
+     *
+     * @param encrypted the source stream
+     * @param type the expected type of the encrypted data
+     * @return the stream to read the raw encrypted data from or {@code null} if the header does
+     *      not match
+     * @throws IOException if reading fails
+     */
+    public static InputStream openDecoding(InputStream encrypted, byte type) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(encrypted, 1);
+        Encoding encoding = readEncoding(pushback, type);
+        if (encoding == null) {
+            return null;
+        }
+        return encoding == Encoding.BINARY ? pushback : new Base64InputStream(pushback);
+    }
+
+    /**
+     * Detects the encoding of {@code encrypted} by its first byte. The header of binary data is
+     * consumed and checked, Base64 encoded data is left untouched.
+     *
+     * @param encrypted the source stream
+     * @param type the expected type of the encrypted data
+     * @return the detected encoding or {@code null} if the header does not match
+     * @throws IOException if reading fails
+     */
+    public static Encoding readEncoding(PushbackInputStream encrypted, byte type)
+            throws IOException {
+        int actualType = readType(encrypted);
+        if (actualType == TYPE_NONE) {
+            return Encoding.BASE64;
+        }
+        if (actualType != type) {
+            if (actualType != -1) {
+                log.error("Binary data of type {} can not be decrypted as type {}.", actualType,
+                        type);
+            }
+            return null;
+        }
+        return Encoding.BINARY;
+    }
+
+    /**
+     * Reads the type of {@code encrypted} for decrypters that accept more than one type. The
+     * header of binary data is consumed and checked, Base64 encoded data is left untouched.
+     *
+     * @param encrypted the source stream
+     * @return the type of binary data, {@link #TYPE_NONE} for Base64 encoded data or {@code -1}
+     *      if the binary format version is not supported
+     * @throws IOException if reading fails
+     */
+    public static int readType(PushbackInputStream encrypted) throws IOException {
+        int first = encrypted.read();
+        if (first != (MAGIC & 0xFF)) {
+            if (first != -1) {
+                encrypted.unread(first);
+            }
+            return TYPE_NONE;
+        }
+
+        int version = encrypted.read();
+        if (version != FORMAT_VERSION) {
+            log.error("Unsupported binary format version: {}", version);
+            return -1;
+        }
+        return encrypted.read();
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads the content of the chunks written by
+ * {@link LengthPrefixedOutputStream}. The stream ends at the terminating chunk. If the underlying
+ * stream ends before the terminator, an {@link EOFException} is thrown, so truncated data is not
+ * mistaken for complete data.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:58
+ */
+public class LengthPrefixedInputStream extends FilterInputStream {
+
+    /**
+     * Buffer for the length prefix.
+     */
+    private final byte[] prefix = new byte[4];
+
+    /**
+     * The bytes left in the current chunk.
+     */
+    private int remaining;
+
+    /**
+     * If the terminator has been read.
+     */
+    private boolean ended;
+
+    public LengthPrefixedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        if (!ensureRemaining()) {
+            return -1;
+        }
+        int b = this.in.read();
+        if (b == -1) {
+            throw new EOFException("Stream ended within a chunk.");
+        }
+        this.remaining--;
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureRemaining()) {
+            return -1;
+        }
+        int n = this.in.read(b, off, Math.min(len, this.remaining));
+        if (n == -1) {
+            throw new EOFException("Stream ended within a chunk.");
+        }
+        this.remaining -= n;
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() throws IOException {
+        return this.ended ? 0 : Math.min(this.remaining, this.in.available());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Reads the next length prefix if the current chunk is exhausted.
+     *
+     * @return if there are bytes left to read
+     */
+    private boolean ensureRemaining() throws IOException {
+        while (this.remaining == 0) {
+            if (this.ended) {
+                return false;
+            }
+            if (CipherStreamUtil.fill(this.in, this.prefix, 0, this.prefix.length)
+                    < this.prefix.length) {
+                throw new EOFException("Stream ended before the terminating chunk.");
+            }
+            int length = ((this.prefix[0] & 0xFF) << 24) | ((this.prefix[1] & 0xFF) << 16)
+                    | ((this.prefix[2] & 0xFF) << 8) | (this.prefix[3] & 0xFF);
+            if (length < 0) {
+                throw new IOException("Invalid chunk length: " + length);
+            }
+            this.ended = length == 0;
+            this.remaining = length;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that writes every written array as a chunk prefixed by its length.
+ * Closing the stream writes a chunk of length {@code 0} as terminator, so a reader can detect
+ * truncated data:
+ * <pre>
+ *   stream := chunk* int32(0)
+ *   chunk  := int32(length) byte[length]
+ * </pre>
+ * The length is written in big endian byte order. The stream is read by
+ * {@link LengthPrefixedInputStream}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:52
+ */
+public class LengthPrefixedOutputStream extends FilterOutputStream {
+
+    /**
+     * Buffer for the length prefix.
+     */
+    private final byte[] prefix = new byte[4];
+
+    /**
+     * If the terminator has been written.
+     */
+    private boolean closed;
+
+    public LengthPrefixedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            // an empty chunk would be read as terminator
+            return;
+        }
+        writePrefix(len);
+        this.out.write(b, off, len);
+    }
+
+    /**
+     * Writes the terminator and closes the underlying stream.
+     *
+     * @throws IOException if the terminator can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            writePrefix(0);
+            this.out.flush();
+        }
+        finally {
+            this.out.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private void writePrefix(int length) throws IOException {
+        this.prefix[0] = (byte) (length >>> 24);
+        this.prefix[1] = (byte) (length >>> 16);
+        this.prefix[2] = (byte) (length >>> 8);
+        this.prefix[3] = (byte) length;
+        this.out.write(this.prefix, 0, this.prefix.length);
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides the content of a file as {@link ByteBuffer}s backed by memory mapped regions, so that
+ * it can be passed to {@link javax.crypto.Cipher#doFinal(ByteBuffer, ByteBuffer)} without copying
+ * it to the heap. The file is mapped region by region, so files larger than {@code 2 GiB} can be
+ * read as well.
+ *
+ * At most one region is mapped at a time. Mapping the next region and {@link #close() closing}
+ * unmap the current region explicitly if the JVM allows it, otherwise it is released by the
+ * garbage collector. Buffers returned by {@link #get(long, int)} must therefore not be used after
+ * the next call of {@link #get(long, int)} or {@link #close()}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:30
+ */
+public class MappedRegions implements Closeable {
+
+    /**
+     * The default size of a mapped region in bytes.
+     */
+    public static final long DEFAULT_REGION_SIZE = 64L * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(MappedRegions.class);
+
+    /**
+     * Unmaps regions explicitly or {@code null} if the JVM does not allow it.
+     */
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * The channel of the file. It is not closed by this instance.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of the file when it has been opened.
+     */
+    private final long size;
+
+    /**
+     * The minimum size of a mapped region in bytes.
+     */
+    private final long regionSize;
+
+    /**
+     * The currently mapped region or {@code null}.
+     */
+    private MappedByteBuffer region;
+
+    /**
+     * The position of {@link #region} in the file.
+     */
+    private long regionStart;
+
+
+    public MappedRegions(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param channel the channel of the file to read. It is not closed with this instance.
+     * @param regionSize the size of a mapped region in bytes. A region is larger if a single
+     *      {@link #get(long, int)} requests more bytes.
+     * @throws IOException if the size of the file can not be read
+     */
+    public MappedRegions(FileChannel channel, long regionSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.regionSize = Math.max(1, Math.min(regionSize, Integer.MAX_VALUE));
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * @return the size of the file
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Provides {@code length} bytes of the file starting at {@code position}. A new region is
+     * mapped if the bytes are not in the current region.
+     *
+     * @param position the position in the file
+     * @param length the number of bytes
+     * @return a buffer with the requested bytes between its position and its limit. It is valid
+     *      until the next call.
+     * @throws EOFException if the file ends before
+     * @throws IOException if the region can not be mapped
+     */
+    public ByteBuffer get(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > this.size) {
+            throw new EOFException("File of " + this.size + " bytes ended before " + position
+                    + " + " + length);
+        }
+        if (length == 0) {
+            return EMPTY.duplicate();
+        }
+        if (this.region == null || position < this.regionStart
+                || position + length > this.regionStart + this.region.capacity()) {
+            unmapRegion();
+            long mapLength = Math.min(Math.max(this.regionSize, length), this.size - position);
+            this.region = this.channel.map(FileChannel.MapMode.READ_ONLY, position, mapLength);
+            this.regionStart = position;
+        }
+        ByteBuffer view = this.region.duplicate();
+        int offset = (int) (position - this.regionStart);
+        view.limit(offset + length);
+        view.position(offset);
+        return view;
+    }
+
+    /**
+     * Unmaps the current region. The channel is not closed.
+     */
+    @Override
+    public void close() {
+        unmapRegion();
+    }
+
+
+    //
+    // helper
+    //
+
+    private void unmapRegion() {
+        MappedByteBuffer mapped = this.region;
+        this.region = null;
+        if (mapped != null && UNMAPPER != null) {
+            try {
+                UNMAPPER.unmap(mapped);
+            } catch (Exception e) {
+                log.debug("Could not unmap region, it is released by the garbage collector.", e);
+            }
+        }
+    }
+
+    /**
+     * Looks up the internal API to release a mapped buffer immediately: {@code Unsafe} in Java 9
+     * and later, the {@code Cleaner} of the buffer before.
+     */
+    private static Unmapper createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            log.debug("No Unsafe to unmap regions, trying the cleaner of the buffer.", e);
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        clean.invoke(bufferCleaner);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            log.debug("Regions can not be unmapped explicitly.", e);
+        }
+        return null;
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Releases a mapped buffer through an internal API of the JVM.
+     */
+    private interface Unmapper {
+
+        void unmap(MappedByteBuffer buffer) throws Exception;
+
+    }
+
+}
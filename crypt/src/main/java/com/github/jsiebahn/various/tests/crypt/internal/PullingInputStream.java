@@ -0,0 +1,192 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link InputStream} that provides the output of a transforming {@link OutputStream}, e.g.
+ * an encrypting stream, for the content of a source stream. Whenever the output is consumed, the
+ * next block of the source is read and written to the transforming stream in the calling thread,
+ * so no background thread is needed and only the output of one block is buffered. The
+ * transforming stream writes to a {@link Buffer} that is passed to this stream:
+ * <pre>
+ *   PullingInputStream.Buffer buffer = new PullingInputStream.Buffer();
+ *   InputStream pulling = new PullingInputStream(source, encrypter.openEncryptingStream(buffer),
+ *           buffer, bufferSize);
+ * </pre>
+ * The transforming stream is closed when the source ended, an exception thrown while closing it
+ * is reported at the end of this stream. It is confined to one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 20:10
+ */
+public class PullingInputStream extends InputStream {
+
+    private final InputStream source;
+
+    private final OutputStream transforming;
+
+    private final Buffer buffer;
+
+    private final byte[] input;
+
+    /**
+     * If the source ended and the transforming stream has been closed.
+     */
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * If reading failed, so the stream must not end regularly afterwards.
+     */
+    private boolean failed;
+
+    /**
+     * @param source the stream to read from
+     * @param transforming the stream the content of {@code source} is written to. It must write
+     *      its output to {@code buffer}.
+     * @param buffer the buffer that receives the output of {@code transforming}
+     * @param bufferSize the number of bytes read from {@code source} at once
+     */
+    public PullingInputStream(InputStream source, OutputStream transforming, Buffer buffer,
+            int bufferSize) {
+        this.source = source;
+        this.transforming = transforming;
+        this.buffer = buffer;
+        this.input = new byte[bufferSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (this.failed) {
+            throw new IOException("A previous read failed.");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (this.buffer.available() == 0) {
+            if (this.finished) {
+                return -1;
+            }
+            try {
+                transformNext();
+            } catch (IOException | RuntimeException e) {
+                this.failed = true;
+                throw e;
+            }
+        }
+        return this.buffer.drain(b, off, len);
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.available();
+    }
+
+    /**
+     * Closes the source and the transforming stream, which releases its resources.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (!this.finished) {
+                this.finished = true;
+                this.transforming.close();
+            }
+        }
+        finally {
+            this.source.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Writes the next block of the source to the transforming stream or closes it if the source
+     * ended.
+     */
+    private void transformNext() throws IOException {
+        int read = this.source.read(this.input, 0, this.input.length);
+        if (read == -1) {
+            this.finished = true;
+            this.transforming.close();
+        }
+        else {
+            this.transforming.write(this.input, 0, read);
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Collects the output of the transforming stream until it is read. It grows with the output
+     * of a single block and is compacted when it is drained.
+     */
+    public static class Buffer extends OutputStream {
+
+        private byte[] bytes = new byte[256];
+
+        private int start;
+
+        private int end;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (this.end + len > this.bytes.length) {
+                int available = this.end - this.start;
+                byte[] target = available + len > this.bytes.length
+                        ? new byte[Math.max(2 * this.bytes.length, available + len)]
+                        : this.bytes;
+                System.arraycopy(this.bytes, this.start, target, 0, available);
+                this.bytes = target;
+                this.start = 0;
+                this.end = available;
+            }
+            System.arraycopy(b, off, this.bytes, this.end, len);
+            this.end += len;
+        }
+
+        int available() {
+            return this.end - this.start;
+        }
+
+        int drain(byte[] b, int off, int len) {
+            int n = Math.min(len, this.end - this.start);
+            System.arraycopy(this.bytes, this.start, b, off, n);
+            this.start += n;
+            if (this.start == this.end) {
+                this.start = 0;
+                this.end = 0;
+            }
+            return n;
+        }
+
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import com.github.jsiebahn.various.tests.crypt.RandomSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link RandomSource} that keeps one deterministic random bit generator per thread. Threads
+ * never contend for a generator, and no provider lookup or seeding happens when random bytes are
+ * requested. Every generator is seeded from a shared strong {@link SecureRandom} when it is
+ * created and is reseeded after it produced a configured number of bytes or a configured time
+ * elapsed.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 11:10
+ */
+public class ReseedingRandomSource implements RandomSource {
+
+    /**
+     * The algorithm of the per thread {@link SecureRandom}.
+     */
+    static final String RANDOM_ALGORITHM = "SHA1PRNG";
+
+    /**
+     * The provider of the per thread {@link SecureRandom}.
+     */
+    static final String RANDOM_PROVIDER = "SUN";
+
+    /**
+     * The number of bytes in a seed.
+     */
+    static final int SEED_LENGTH = 32;
+
+    /**
+     * The default number of bytes a generator produces before it is reseeded.
+     */
+    static final long DEFAULT_RESEED_BYTES = 1024L * 1024L;
+
+    /**
+     * The default time in milliseconds after which a generator is reseeded.
+     */
+    static final long DEFAULT_RESEED_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Logger log = LoggerFactory.getLogger(ReseedingRandomSource.class);
+
+    /**
+     * The strong source of seeds. It is only accessed to seed and reseed the generators.
+     */
+    private final SecureRandom seedSource = new SecureRandom();
+
+    /**
+     * The number of bytes a generator produces before it is reseeded.
+     */
+    private final long reseedBytes;
+
+    /**
+     * The time in milliseconds after which a generator is reseeded.
+     */
+    private final long reseedMillis;
+
+    /**
+     * The generator of the current thread.
+     */
+    private final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+            return new Generator(createSecureRandom());
+        }
+    };
+
+
+    /**
+     * Creates a {@link ReseedingRandomSource} reseeding every
+     * {@value #DEFAULT_RESEED_BYTES} bytes or ten minutes.
+     */
+    public ReseedingRandomSource() {
+        this(DEFAULT_RESEED_BYTES, DEFAULT_RESEED_MILLIS);
+    }
+
+    /**
+     * @param reseedBytes the number of bytes a generator produces before it is reseeded
+     * @param reseedMillis the time in milliseconds after which a generator is reseeded
+     */
+    public ReseedingRandomSource(long reseedBytes, long reseedMillis) {
+        this.reseedBytes = reseedBytes;
+        this.reseedMillis = reseedMillis;
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        Generator generator = generators.get();
+        if (generator.bytesSinceSeed >= this.reseedBytes
+                || System.currentTimeMillis() >= generator.nextSeedAt) {
+            seed(generator);
+        }
+        generator.random.nextBytes(bytes);
+        generator.bytesSinceSeed += bytes.length;
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Supplements the seed of the {@code generator} with fresh bytes of the {@link #seedSource}.
+     * The first call replaces the self seeding of the {@link SecureRandom}.
+     */
+    private void seed(Generator generator) {
+        byte[] seed = new byte[SEED_LENGTH];
+        seedSource.nextBytes(seed);
+        generator.random.setSeed(seed);
+        generator.bytesSinceSeed = 0;
+        generator.nextSeedAt = System.currentTimeMillis() + this.reseedMillis;
+    }
+
+    private SecureRandom createSecureRandom() {
+        try {
+            return SecureRandom.getInstance(RANDOM_ALGORITHM, RANDOM_PROVIDER);
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("No such secure random algorithm: {}. Using platform default.",
+                    RANDOM_ALGORITHM, e);
+        } catch (NoSuchProviderException e) {
+            log.warn("No such secure random provider: {}. Using platform default.",
+                    RANDOM_PROVIDER, e);
+        }
+        return new SecureRandom();
+    }
+
+
+    /**
+     * The state of the generator of one thread.
+     */
+    private static class Generator {
+
+        private final SecureRandom random;
+
+        private long bytesSinceSeed;
+
+        /**
+         * Initially {@code 0} to seed the generator before it produces the first bytes.
+         */
+        private long nextSeedAt;
+
+        Generator(SecureRandom random) {
+            this.random = random;
+        }
+    }
+
+}
@@ -48,6 +48,67 @@ public class StringUtil {
         return byteToString(bytes, ENCODING);
     }
 
+    /**
+     * Calculates the length of {@code s} in {@link #ENCODING} without encoding it. Unpaired
+     * surrogates count like the replacement character they are encoded as.
+     *
+     * @param s the {@link String} to measure, may be {@code null}
+     * @return the number of bytes of the encoded {@code s} or {@code 0} for {@code null}
+     */
+    public static int utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                // encoded as '?'
+                length++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Calculates the number of bytes a Base64 decoder produces for {@code s} without decoding
+     * it. Characters outside of the Base64 alphabet and padding are ignored like the decoder does.
+     *
+     * @param s the Base64 encoded {@link String}, may be {@code null}
+     * @return the number of decoded bytes or {@code 0} for {@code null}
+     */
+    public static int base64DecodedLength(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int digits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '+' || c == '/' || c == '-' || c == '_') {
+                digits++;
+            }
+            else if (c == '=') {
+                break;
+            }
+        }
+        return digits * 3 / 4;
+    }
+
 
     //
     // helper
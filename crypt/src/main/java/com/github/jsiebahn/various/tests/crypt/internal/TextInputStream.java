@@ -0,0 +1,63 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reads the characters of Base64 encoded data from a {@link Reader} as bytes, so that encrypted
+ * text can be decrypted as a stream. Every ASCII character is one byte, other characters are
+ * rejected because they are not part of Base64 encoded data.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:20
+ */
+public class TextInputStream extends InputStream {
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[4096];
+
+    /**
+     * @param reader the {@link Reader} providing the characters, it is closed with this stream
+     */
+    public TextInputStream(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = this.reader.read();
+        return c < 0 ? -1 : toByte((char) c);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = this.reader.read(this.buffer, 0, Math.min(len, this.buffer.length));
+        for (int i = 0; i < read; i++) {
+            b[off + i] = toByte(this.buffer[i]);
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+
+    //
+    // helper
+    //
+
+    private static byte toByte(char c) throws IOException {
+        if (c > 0x7F) {
+            throw new IOException("Unexpected character in encrypted text: " + (int) c);
+        }
+        return (byte) c;
+    }
+
+}
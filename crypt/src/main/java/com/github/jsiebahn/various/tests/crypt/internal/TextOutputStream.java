@@ -0,0 +1,68 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes the bytes of Base64 encoded data as characters to a {@link Writer}, so that encrypted
+ * streams can be written to text targets. Every byte is one ASCII character, bytes outside of the
+ * ASCII range are rejected because they are not part of Base64 encoded data.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:20
+ */
+public class TextOutputStream extends OutputStream {
+
+    private final Writer writer;
+
+    private final char[] buffer = new char[4096];
+
+    /**
+     * @param writer the {@link Writer} receiving the characters, it is closed with this stream
+     */
+    public TextOutputStream(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.writer.write(toChar((byte) b));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, this.buffer.length);
+            for (int i = 0; i < chunk; i++) {
+                this.buffer[i] = toChar(b[off + i]);
+            }
+            this.writer.write(this.buffer, 0, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+
+    //
+    // helper
+    //
+
+    private static char toChar(byte b) throws IOException {
+        if (b < 0) {
+            throw new IOException("Binary data can not be written as text, use Base64 encoding.");
+        }
+        return (char) b;
+    }
+
+}
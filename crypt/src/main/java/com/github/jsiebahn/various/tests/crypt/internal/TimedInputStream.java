@@ -0,0 +1,62 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that measures the time spent reading from the wrapped stream and counts
+ * the bytes read. It is used to separate I/O from cryptographic work when
+ * {@link com.github.jsiebahn.various.tests.crypt.Instrumentations#isEnabled() measurements are
+ * enabled}. It is confined to one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:55
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private long nanos;
+
+    private long bytes;
+
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int read = super.read();
+        this.nanos += System.nanoTime() - start;
+        if (read >= 0) {
+            this.bytes++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(b, off, len);
+        this.nanos += System.nanoTime() - start;
+        if (read > 0) {
+            this.bytes += read;
+        }
+        return read;
+    }
+
+    /**
+     * @return the time spent in the wrapped stream in nanoseconds
+     */
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    /**
+     * @return the number of bytes read
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that measures the time spent writing to the wrapped stream, the
+ * counterpart of {@link TimedInputStream}. It is confined to one thread.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:55
+ */
+public class TimedOutputStream extends FilterOutputStream {
+
+    private long nanos;
+
+    public TimedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        this.out.write(b);
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        this.out.write(b, off, len);
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        this.out.flush();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        this.out.close();
+        this.nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return the time spent in the wrapped stream in nanoseconds
+     */
+    public long getNanos() {
+        return this.nanos;
+    }
+
+}
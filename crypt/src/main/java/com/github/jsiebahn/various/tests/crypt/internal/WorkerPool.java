@@ -0,0 +1,47 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the {@link ForkJoinPool} shared by all parallel operations of this module: the slices of
+ * parallel batches and the chunks of parallel GCM streams. One pool sized to the available
+ * processors keeps concurrent parallel operations from oversubscribing the CPU, and its long
+ * living threads reuse their entries of the {@link CipherPool}. The pool is created on first use.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 21:10
+ */
+public class WorkerPool {
+
+    private WorkerPool() {
+        // static access only
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * @return the pool shared by all parallel operations
+     */
+    public static ForkJoinPool get() {
+        return PoolHolder.POOL;
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Holds the shared pool so that it is only created when parallel processing is used.
+     */
+    private static class PoolHolder {
+
+        private static final ForkJoinPool POOL =
+                new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class for the key id in front of data encrypted with a {@link KeyRing}:
+ * <pre>
+ *   keyed := keyId '$' encrypted
+ * </pre>
+ * The key id is ASCII text, so the same prefix works for encrypted {@link String}s and streams
+ * in any encoding. The {@link #SEPARATOR} is no base64 character and base64 data never contains
+ * it. Binary data starts with a header byte that is no key id character. Data without key id is
+ * therefore never mistaken for data with key id.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:40
+ */
+class KeyIdUtil {
+
+    /**
+     * Separates the key id from the encrypted data.
+     */
+    static final char SEPARATOR = '$';
+
+    /**
+     * The maximum length of a key id.
+     */
+    static final int MAX_KEY_ID_LENGTH = 32;
+
+
+    //
+    // api
+    //
+
+    /**
+     * @return {@code true} if {@code keyId} consists of 1 to {@link #MAX_KEY_ID_LENGTH} key id
+     *      characters
+     */
+    static boolean isValidKeyId(String keyId) {
+        if (keyId == null || keyId.isEmpty() || keyId.length() > MAX_KEY_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < keyId.length(); i++) {
+            if (!isKeyIdChar(keyId.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the {@link #SEPARATOR} behind the key id or {@code -1} if
+     *      {@code encrypted} does not start with a key id
+     */
+    static int indexOfSeparator(String encrypted) {
+        if (encrypted == null) {
+            return -1;
+        }
+        int limit = Math.min(encrypted.length(), MAX_KEY_ID_LENGTH + 1);
+        for (int i = 0; i < limit; i++) {
+            char c = encrypted.charAt(i);
+            if (c == SEPARATOR) {
+                return i > 0 ? i : -1;
+            }
+            if (!isKeyIdChar(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the key id from the start of a stream. If the stream does not start with a key id,
+     * all bytes read are unread again.
+     *
+     * @param in a stream that can unread at least {@link #MAX_KEY_ID_LENGTH} + 1 bytes
+     * @return the key id or {@code null} if the stream does not start with a key id
+     * @throws IOException if reading from {@code in} fails
+     */
+    static String readKeyId(PushbackInputStream in) throws IOException {
+        byte[] read = new byte[MAX_KEY_ID_LENGTH + 1];
+        int length = 0;
+        while (length < read.length) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            read[length++] = (byte) b;
+            if (b == SEPARATOR && length > 1) {
+                return new String(read, 0, length - 1, StandardCharsets.US_ASCII);
+            }
+            if (!isKeyIdChar((char) b)) {
+                break;
+            }
+        }
+        in.unread(read, 0, length);
+        return null;
+    }
+
+
+    //
+    // helper
+    //
+
+    private static boolean isKeyIdChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '.' || c == '-' || c == '_';
+    }
+
+}
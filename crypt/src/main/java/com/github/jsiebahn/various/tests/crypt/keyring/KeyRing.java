@@ -0,0 +1,215 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A set of keys identified by short key ids. New data is encrypted with the primary key and
+ * prefixed with its key id by the {@link KeyRingEncrypter}. The {@link KeyRingDecrypter} selects
+ * the key by the id of the encrypted data with a single hash lookup. Data encrypted before the key
+ * ring was introduced carries no key id and is decrypted with the optional
+ * {@link #setLegacyDecrypter(Decrypter) legacy decrypter}.
+ *
+ * Keys are rotated at runtime: a new key is {@link #addKey(String, Encrypter, Decrypter) added}
+ * and made {@link #setPrimaryKey(String) primary}, while the old keys still decrypt existing data.
+ * The {@link ReEncryptionJob} migrates existing data to the primary key in the background, after
+ * which old keys can be {@link #removeKey(String) removed}. A {@code KeyRing} is thread safe.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:40
+ */
+public class KeyRing {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRing.class);
+
+    /**
+     * The maximum length of a key id.
+     */
+    public static final int MAX_KEY_ID_LENGTH = KeyIdUtil.MAX_KEY_ID_LENGTH;
+
+    /**
+     * The keys by key id.
+     */
+    private final ConcurrentMap<String, Key> keys = new ConcurrentHashMap<>();
+
+    /**
+     * The key used to encrypt new data, {@code null} until one is set.
+     */
+    private volatile Key primaryKey;
+
+    /**
+     * The decrypter for data without key id, {@code null} if such data is not expected.
+     */
+    private volatile Decrypter legacyDecrypter;
+
+
+    //
+    // api
+    //
+
+    /**
+     * Adds a key to this key ring. Keys that only decrypt existing data may be added without
+     * {@code encrypter}.
+     *
+     * @param keyId the id of the key of up to {@value #MAX_KEY_ID_LENGTH} letters, digits,
+     *      {@code '.'}, {@code '-'} or {@code '_'}. It is stored with every encrypted value and
+     *      should therefore be short, e.g. {@code "2026-10"}.
+     * @param encrypter the {@link Encrypter} of the key or {@code null} if the key is only used
+     *      for decryption
+     * @param decrypter the {@link Decrypter} of the key
+     * @return {@code true} if the key was added, {@code false} if the {@code keyId} is invalid or
+     *      already in use or no {@code decrypter} is given
+     */
+    public boolean addKey(String keyId, Encrypter encrypter, Decrypter decrypter) {
+        if (!KeyIdUtil.isValidKeyId(keyId)) {
+            log.error("Invalid key id: {}", keyId);
+            return false;
+        }
+        if (decrypter == null) {
+            log.error("No decrypter for key {}.", keyId);
+            return false;
+        }
+        if (this.keys.putIfAbsent(keyId, new Key(keyId, encrypter, decrypter)) != null) {
+            log.error("Key {} is already in use.", keyId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Selects the key that encrypts new data. Concurrent encryptions complete with the key they
+     * started with.
+     *
+     * @param keyId the id of a key added with an {@link Encrypter}
+     * @return {@code true} if the key is primary now
+     */
+    public boolean setPrimaryKey(String keyId) {
+        Key key = keyId != null ? this.keys.get(keyId) : null;
+        if (key == null || key.encrypter == null) {
+            log.error("Key {} is unknown or can not encrypt.", keyId);
+            return false;
+        }
+        this.primaryKey = key;
+        return true;
+    }
+
+    /**
+     * Removes a key that is not needed anymore, because all data has been re-encrypted. The
+     * primary key can not be removed.
+     *
+     * @param keyId the id of the key to remove
+     * @return {@code true} if the key was removed
+     */
+    public boolean removeKey(String keyId) {
+        Key primary = this.primaryKey;
+        if (keyId == null || primary != null && primary.id.equals(keyId)) {
+            log.error("Key {} can not be removed.", keyId);
+            return false;
+        }
+        return this.keys.remove(keyId) != null;
+    }
+
+    /**
+     * @param legacyDecrypter the {@link Decrypter} for data without key id, {@code null} to
+     *      reject such data
+     */
+    public void setLegacyDecrypter(Decrypter legacyDecrypter) {
+        this.legacyDecrypter = legacyDecrypter;
+    }
+
+    /**
+     * @return the id of the primary key or {@code null} if none is set
+     */
+    public String getPrimaryKeyId() {
+        Key primary = this.primaryKey;
+        return primary != null ? primary.id : null;
+    }
+
+    /**
+     * @return the ids of all keys in natural order
+     */
+    public Set<String> getKeyIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(this.keys.keySet()));
+    }
+
+    /**
+     * Reads the key id of an encrypted {@link String} without decrypting it.
+     *
+     * @param encrypted a value encrypted by an {@link Encrypter}
+     * @return the key id or {@code null} if {@code encrypted} has no key id
+     */
+    public String getKeyId(String encrypted) {
+        int separator = KeyIdUtil.indexOfSeparator(encrypted);
+        return separator > 0 ? encrypted.substring(0, separator) : null;
+    }
+
+    /**
+     * @param encrypted a value encrypted by an {@link Encrypter}
+     * @return {@code true} if {@code encrypted} is encrypted with the current primary key and
+     *      does not need to be re-encrypted
+     */
+    public boolean isEncryptedWithPrimaryKey(String encrypted) {
+        String primaryKeyId = getPrimaryKeyId();
+        return primaryKeyId != null && primaryKeyId.equals(getKeyId(encrypted));
+    }
+
+
+    //
+    // internal api
+    //
+
+    Key getPrimaryKey() {
+        return this.primaryKey;
+    }
+
+    Key getKey(String keyId) {
+        return this.keys.get(keyId);
+    }
+
+    Decrypter getLegacyDecrypter() {
+        return this.legacyDecrypter;
+    }
+
+    boolean hasDecrypters() {
+        return !this.keys.isEmpty() || this.legacyDecrypter != null;
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * A key of the ring with the prefix written in front of the data it encrypts.
+     */
+    static class Key {
+
+        final String id;
+
+        /**
+         * The key id and {@link KeyIdUtil#SEPARATOR} as ASCII bytes.
+         */
+        final byte[] prefix;
+
+        final Encrypter encrypter;
+
+        final Decrypter decrypter;
+
+        private Key(String id, Encrypter encrypter, Decrypter decrypter) {
+            this.id = id;
+            this.prefix = (id + KeyIdUtil.SEPARATOR).getBytes(StandardCharsets.US_ASCII);
+            this.encrypter = encrypter;
+            this.decrypter = decrypter;
+        }
+    }
+
+}
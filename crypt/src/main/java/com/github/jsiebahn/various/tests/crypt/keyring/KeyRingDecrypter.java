@@ -0,0 +1,146 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * A {@link Decrypter} that reads the key id in front of the encrypted data and decrypts with the
+ * matching key of a {@link KeyRing}. Data without key id is passed to the legacy decrypter of the
+ * {@link KeyRing}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:55
+ */
+public class KeyRingDecrypter implements Decrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRingDecrypter.class);
+
+    private final KeyRing keyRing;
+
+    /**
+     * @param keyRing the {@link KeyRing} providing the keys
+     */
+    public KeyRingDecrypter(KeyRing keyRing) {
+        this.keyRing = keyRing;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String decrypt(String encrypted) {
+        if (!checkInitialised() || encrypted == null) {
+            return null;
+        }
+
+        int separator = KeyIdUtil.indexOfSeparator(encrypted);
+        Decrypter decrypter = separator > 0
+                ? findDecrypter(encrypted.substring(0, separator))
+                : findDecrypter(null);
+        if (decrypter == null) {
+            return null;
+        }
+        return decrypter.decrypt(separator > 0 ? encrypted.substring(separator + 1) : encrypted);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean decrypt(InputStream encrypted, OutputStream plain) {
+        if (!checkInitialised()) {
+            close(encrypted, plain);
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted InputStream is null.");
+            close(null, plain);
+            return false;
+        }
+
+        PushbackInputStream in = new PushbackInputStream(encrypted,
+                KeyIdUtil.MAX_KEY_ID_LENGTH + 1);
+        Decrypter decrypter;
+        try {
+            decrypter = findDecrypter(KeyIdUtil.readKeyId(in));
+        } catch (IOException e) {
+            log.error("Could not read key id from input stream.", e);
+            close(in, plain);
+            return false;
+        }
+        if (decrypter == null) {
+            close(in, plain);
+            return false;
+        }
+        return decrypter.decrypt(in, plain);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        return checkInitialised() && this.keyRing.hasDecrypters();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * @param keyId the key id of the encrypted data or {@code null} if it has none
+     * @return the {@link Decrypter} for {@code keyId} or {@code null} if the key is unknown
+     */
+    private Decrypter findDecrypter(String keyId) {
+        if (keyId == null) {
+            Decrypter legacyDecrypter = this.keyRing.getLegacyDecrypter();
+            if (legacyDecrypter == null) {
+                log.error("Encrypted data has no key id and no legacy decrypter is set.");
+            }
+            return legacyDecrypter;
+        }
+        KeyRing.Key key = this.keyRing.getKey(keyId);
+        if (key == null) {
+            log.error("Unknown key id: {}", keyId);
+            return null;
+        }
+        return key.decrypter;
+    }
+
+    private boolean checkInitialised() {
+        if (this.keyRing == null) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the streams of a decryption that ends before a decrypter of the key ring takes them.
+     */
+    private static void close(InputStream encrypted, OutputStream plain) {
+        if (encrypted != null) {
+            try {
+                encrypted.close();
+            } catch (IOException e) {
+                log.error("Could not close encrypted input stream.", e);
+            }
+        }
+        if (plain != null) {
+            try {
+                plain.close();
+            } catch (IOException e) {
+                log.error("Could not close plain output stream.", e);
+            }
+        }
+    }
+
+}
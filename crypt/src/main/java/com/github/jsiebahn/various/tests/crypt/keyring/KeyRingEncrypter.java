@@ -0,0 +1,115 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link Encrypter} that encrypts with the primary key of a {@link KeyRing} and writes the id
+ * of the key in front of the encrypted data, so the {@link KeyRingDecrypter} finds the key again
+ * after the primary key has been changed.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:55
+ */
+public class KeyRingEncrypter implements Encrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRingEncrypter.class);
+
+    private final KeyRing keyRing;
+
+    /**
+     * @param keyRing the {@link KeyRing} providing the primary key
+     */
+    public KeyRingEncrypter(KeyRing keyRing) {
+        this.keyRing = keyRing;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encrypt(String plain) {
+        KeyRing.Key key = getPrimaryKey();
+        if (key == null) {
+            return null;
+        }
+        String encrypted = key.encrypter.encrypt(plain);
+        return encrypted != null ? key.id + KeyIdUtil.SEPARATOR + encrypted : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(InputStream plain, OutputStream encrypted) {
+        KeyRing.Key key = getPrimaryKey();
+        if (key == null) {
+            close(plain, encrypted);
+            return false;
+        }
+
+        if (plain == null || encrypted == null) {
+            log.error("plain InputStream {} or encrypted OutputStream {} is null.", plain,
+                    encrypted);
+            close(plain, encrypted);
+            return false;
+        }
+
+        try {
+            encrypted.write(key.prefix);
+        } catch (IOException e) {
+            log.error("Could not write key id to output stream.", e);
+            close(plain, encrypted);
+            return false;
+        }
+        return key.encrypter.encrypt(plain, encrypted);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        KeyRing.Key key = getPrimaryKey();
+        return key != null && key.encrypter.isReadyToOperate();
+    }
+
+
+    //
+    // helper
+    //
+
+    private KeyRing.Key getPrimaryKey() {
+        KeyRing.Key key = this.keyRing != null ? this.keyRing.getPrimaryKey() : null;
+        if (key == null) {
+            log.error("{} has no primary key.", this);
+        }
+        return key;
+    }
+
+    /**
+     * Closes the streams of an encryption that ends before the encrypter of the key takes them.
+     */
+    private static void close(InputStream plain, OutputStream encrypted) {
+        if (plain != null) {
+            try {
+                plain.close();
+            } catch (IOException e) {
+                log.error("Could not close plain input stream.", e);
+            }
+        }
+        if (encrypted != null) {
+            try {
+                encrypted.close();
+            } catch (IOException e) {
+                log.error("Could not close encrypted output stream.", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Migrates the values of a {@link ReEncryptionStore} to the primary key of a {@link KeyRing}.
+ * The job is meant to run in the background, e.g. submitted to an executor, while the
+ * application keeps reading and writing the store. Values already encrypted with the primary key
+ * are skipped, all others are decrypted with their key and written back encrypted with the
+ * primary key if they have not been changed in the meantime.
+ *
+ * The job reads at most {@code maxRecordsPerSecond} records to limit the load on the store. The
+ * counters and the {@link #getCursor() cursor} can be read at any time as progress metrics. A job
+ * that has been {@link #stop() stopped} or failed is resumed by a new job starting after the
+ * cursor of the old one.
+ *
+ * @param <K> the type of the record keys
+ * @author jsiebahn
+ * @since 17.10.26 16:05
+ */
+public class ReEncryptionJob<K> implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReEncryptionJob.class);
+
+    private final KeyRingEncrypter encrypter;
+
+    private final KeyRingDecrypter decrypter;
+
+    private final KeyRing keyRing;
+
+    private final ReEncryptionStore<K> store;
+
+    private final int batchSize;
+
+    /**
+     * The minimum time between two records in nanoseconds, {@code 0} for no throttling.
+     */
+    private final long nanosPerRecord;
+
+    private final AtomicLong scanned = new AtomicLong();
+
+    private final AtomicLong reEncrypted = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    /**
+     * The key of the last processed record.
+     */
+    private volatile K cursor;
+
+    private volatile boolean stopped;
+
+    private volatile boolean finished;
+
+    private volatile long startedNanos;
+
+    private volatile long endedNanos;
+
+    /**
+     * Creates a job that processes the whole store.
+     *
+     * @param keyRing the {@link KeyRing} with the keys of all values and the primary key
+     * @param store the values to re-encrypt
+     * @param batchSize the number of records read at once
+     * @param maxRecordsPerSecond the maximum number of records read per second, {@code 0} for
+     *      no limit
+     */
+    public ReEncryptionJob(KeyRing keyRing, ReEncryptionStore<K> store, int batchSize,
+            double maxRecordsPerSecond) {
+        this(keyRing, store, batchSize, maxRecordsPerSecond, null);
+    }
+
+    /**
+     * Creates a job that resumes after the {@link #getCursor() cursor} of a previous job.
+     *
+     * @param keyRing the {@link KeyRing} with the keys of all values and the primary key
+     * @param store the values to re-encrypt
+     * @param batchSize the number of records read at once
+     * @param maxRecordsPerSecond the maximum number of records read per second, {@code 0} for
+     *      no limit
+     * @param startAfter the key after which the job starts, {@code null} to start at the first
+     *      record
+     */
+    public ReEncryptionJob(KeyRing keyRing, ReEncryptionStore<K> store, int batchSize,
+            double maxRecordsPerSecond, K startAfter) {
+        this.keyRing = keyRing;
+        this.encrypter = new KeyRingEncrypter(keyRing);
+        this.decrypter = new KeyRingDecrypter(keyRing);
+        this.store = store;
+        this.batchSize = Math.max(1, batchSize);
+        this.nanosPerRecord = maxRecordsPerSecond > 0
+                ? (long) (TimeUnit.SECONDS.toNanos(1) / maxRecordsPerSecond) : 0;
+        this.cursor = startAfter;
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * Re-encrypts all records after the {@link #getCursor() cursor} until the end of the store
+     * is reached, the job is {@link #stop() stopped} or reading from the store fails.
+     */
+    @Override
+    public void run() {
+        if (this.keyRing == null || this.store == null || this.keyRing.getPrimaryKey() == null) {
+            log.error("{} needs a store and a key ring with primary key.", this);
+            return;
+        }
+
+        this.startedNanos = System.nanoTime();
+        try {
+            while (!this.stopped) {
+                Map<K, String> batch = this.store.nextBatch(this.cursor, this.batchSize);
+                if (batch == null) {
+                    log.error("Could not read records after {}, re-encryption stopped.",
+                            this.cursor);
+                    return;
+                }
+                if (batch.isEmpty()) {
+                    this.finished = true;
+                    log.info("Re-encryption finished: {} records, {} re-encrypted, {} failed.",
+                            this.scanned.get(), this.reEncrypted.get(), this.failed.get());
+                    return;
+                }
+                for (Map.Entry<K, String> record : batch.entrySet()) {
+                    if (this.stopped || !throttle()) {
+                        return;
+                    }
+                    reEncrypt(record.getKey(), record.getValue());
+                    this.cursor = record.getKey();
+                }
+            }
+        }
+        finally {
+            this.endedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Stops the job after the current record.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * @return the key of the last processed record, the job resumes after it
+     */
+    public K getCursor() {
+        return this.cursor;
+    }
+
+    /**
+     * @return {@code true} if all records of the store have been processed
+     */
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * @return the number of processed records
+     */
+    public long getScanned() {
+        return this.scanned.get();
+    }
+
+    /**
+     * @return the number of records written back encrypted with the primary key
+     */
+    public long getReEncrypted() {
+        return this.reEncrypted.get();
+    }
+
+    /**
+     * @return the number of records that were already encrypted with the primary key or empty
+     */
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * @return the number of records that could not be decrypted or encrypted
+     */
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * @return the number of records that were changed by others while they were re-encrypted.
+     *      They are written by the application and therefore usually encrypted with the primary
+     *      key already.
+     */
+    public long getConflicts() {
+        return this.conflicts.get();
+    }
+
+    /**
+     * @return the processed records per second since the job started
+     */
+    public double getRecordsPerSecond() {
+        long started = this.startedNanos;
+        if (started == 0) {
+            return 0;
+        }
+        long ended = this.endedNanos > started ? this.endedNanos : System.nanoTime();
+        return this.scanned.get() * (double) TimeUnit.SECONDS.toNanos(1)
+                / Math.max(1, ended - started);
+    }
+
+
+    //
+    // helper
+    //
+
+    private void reEncrypt(K key, String value) {
+        this.scanned.incrementAndGet();
+
+        if (value == null || this.keyRing.isEncryptedWithPrimaryKey(value)) {
+            this.skipped.incrementAndGet();
+            return;
+        }
+
+        String plain = this.decrypter.decrypt(value);
+        String encrypted = plain != null ? this.encrypter.encrypt(plain) : null;
+        if (encrypted == null) {
+            log.warn("Could not re-encrypt record {}.", key);
+            this.failed.incrementAndGet();
+            return;
+        }
+
+        if (this.store.update(key, value, encrypted)) {
+            this.reEncrypted.incrementAndGet();
+        }
+        else {
+            this.conflicts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until the next record may be processed.
+     *
+     * @return {@code false} if the thread has been interrupted
+     */
+    private boolean throttle() {
+        if (this.nanosPerRecord == 0) {
+            return true;
+        }
+        long due = this.startedNanos + this.scanned.get() * this.nanosPerRecord;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                log.info("Re-encryption interrupted after {}.", this.cursor);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import java.util.Map;
+
+/**
+ * Access to stored encrypted values for the {@link ReEncryptionJob}, e.g. a column of a database
+ * table. The records are read in batches in a stable order of their keys, so the job can resume
+ * after the last key it processed.
+ *
+ * @param <K> the type of the record keys
+ * @author jsiebahn
+ * @since 17.10.26 16:05
+ */
+public interface ReEncryptionStore<K> {
+
+    /**
+     * Reads the next records.
+     *
+     * @param after the key of the last record of the previous batch or {@code null} for the
+     *      first batch
+     * @param limit the maximum number of records to read
+     * @return the encrypted values of up to {@code limit} records following {@code after} by
+     *      key in iteration order. It is empty if no records follow and {@code null} if reading
+     *      failed.
+     */
+    public Map<K, String> nextBatch(K after, int limit);
+
+    /**
+     * Replaces the encrypted value of a record if it has not been changed since it was read.
+     *
+     * @param key the key of the record
+     * @param expected the encrypted value read with {@link #nextBatch(Object, int)}
+     * @param reEncrypted the value encrypted with the primary key
+     * @return {@code true} if the value was replaced, {@code false} if the record has been changed
+     *      or removed in the meantime or writing failed
+     */
+    public boolean update(K key, String expected, String reEncrypted);
+
+}
@@ -0,0 +1,34 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+/**
+ * The formats of key files written by
+ * {@link RsaKeyFactory#writeKeys(RsaKeySpecPair, java.io.OutputStream, java.io.OutputStream,
+ * KeyFormat)}. The {@link RsaKeyFactory} detects the format when reading a key, so keys in any
+ * format can be read.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:50
+ */
+public enum KeyFormat {
+
+    /**
+     * The integers of the key are written as length prefixed binary data behind a versioned
+     * header. This is the default. It is about half the size of {@link #LEGACY} and is read
+     * without object deserialisation.
+     */
+    COMPACT,
+
+    /**
+     * The key is written as PEM, with the public key as X.509 {@code SubjectPublicKeyInfo} and
+     * the private key as unencrypted PKCS#8. Use it to exchange keys with other tools.
+     */
+    PEM,
+
+    /**
+     * The integers of the key are written as serialised {@link java.math.BigInteger}s in Base64.
+     * This is the format of all keys created before {@link #COMPACT} was available. Use it only
+     * while instances that can not read other formats still need the keys.
+     */
+    LEGACY
+
+}
@@ -1,8 +1,13 @@
 package com.github.jsiebahn.various.tests.crypt.rsa;
 
 import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Cache;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.Instrumentations;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
-import org.apache.commons.codec.binary.Base64InputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,16 +16,30 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPrivateKeySpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
 
 /**
  * Decrypts data that has been encrypted with {@link RsaEncrypter#encrypt(String)} or
- * {@link RsaEncrypter#encrypt(java.io.InputStream, java.io.OutputStream)}.
+ * {@link RsaEncrypter#encrypt(java.io.InputStream, java.io.OutputStream)}. The
+ * {@link com.github.jsiebahn.various.tests.crypt.Encoding encoding} of streams is detected
+ * automatically.
+ *
+ * Symmetric keys reused by the {@link RsaEncrypter} for several messages are cached by their key
+ * id in a bounded cache, so the RSA decryption of the key is only needed for the first message of
+ * a session. A cached key is only used if the encrypted key of the message is the same as the one
+ * it has been decrypted from.
+ *
+ * Data encrypted by the {@link RsaMultiRecipientEncrypter} is decrypted with the encrypted key
+ * that matches the fingerprint of the private key.
  *
  * @author jsiebahn
  * @since 03.11.14 07:25
@@ -30,25 +49,46 @@ public class RsaDecrypter implements Decrypter {
     private static final Logger log = LoggerFactory.getLogger(RsaDecrypter.class);
 
 
-    private PrivateKey privateKey;
+    /**
+     * The number of session keys cached by default.
+     */
+    public static final int DEFAULT_KEY_CACHE_SIZE = 16;
 
-    private boolean initialised;
+    private final PrivateKey privateKey;
+
+    /**
+     * The fingerprint of the key pair to find the encrypted key of this recipient in data
+     * encrypted for multiple recipients.
+     */
+    private final byte[] fingerprint;
+
+    /**
+     * The decrypted session keys by key id in access order, guarded by itself.
+     */
+    private final Map<Long, CachedKey> keyCache;
+
+    private final boolean initialised;
 
     public RsaDecrypter(RSAPrivateKeySpec privateKeySpec) {
-        try {
-            KeyFactory factory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
-            this.privateKey = factory.generatePrivate(privateKeySpec);
-        } catch (NoSuchAlgorithmException e) {
-            // should never happen as the ALGORITHM is defined statically
-            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
-            initialised = false;
-            return;
-        } catch (InvalidKeySpecException e) {
-            log.error("Unable to create private key for key spec: {}", privateKeySpec, e);
-            initialised = false;
-            return;
-        }
+        this(privateKeySpec, DEFAULT_KEY_CACHE_SIZE);
+    }
 
+    /**
+     * @param privateKeySpec the private key to decrypt the symmetric keys with
+     * @param keyCacheSize the maximum number of cached session keys, {@code 0} to disable the
+     *      cache
+     */
+    public RsaDecrypter(RSAPrivateKeySpec privateKeySpec, final int keyCacheSize) {
+        this.keyCache = new LinkedHashMap<Long, CachedKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedKey> eldest) {
+                return size() > keyCacheSize;
+            }
+        };
+
+        this.privateKey = createPrivateKey(privateKeySpec);
+        this.fingerprint = this.privateKey != null
+                ? RsaKeyFactory.createFingerprint(privateKeySpec.getModulus()) : null;
         initialised = this.privateKey != null;
     }
 
@@ -107,36 +147,74 @@ public class RsaDecrypter implements Decrypter {
             return false;
         }
 
-        Cipher cipher = initCipher();
-        if (cipher == null) {
-            return false;
-        }
-
         int aesKeyLength = -1;
 
-        try (InputStream base64Decoder = new Base64InputStream(encrypted)) {
+        try (InputStream source = encrypted) {
 
-            byte[] aesKeyLengthRaw = new byte[2];
-            if (base64Decoder.read(aesKeyLengthRaw) != 2) {
+            InputStream decoded = EncodingUtil.openDecoding(source, EncodingUtil.TYPE_RSA);
+            if (decoded == null) {
+                return false;
+            }
+
+            int first = decoded.read();
+            if (first == -1) {
                 log.error("Could not read aes key length.");
                 return false;
             }
-            aesKeyLength = convertAesKeyLength(aesKeyLengthRaw);
+
+            if (first == RsaProperties.MULTI_RECIPIENT_MARKER) {
+                byte[] encryptedAesKey = readRecipientKey(decoded);
+                if (encryptedAesKey == null) {
+                    return false;
+                }
+                aesKeyLength = encryptedAesKey.length;
+                Decrypter aesDecrypter = new SymmetricKeyDecrypter(decryptAesKey(encryptedAesKey));
+                if (aesDecrypter.decrypt(decoded, plain)) {
+                    return true;
+                }
+                log.error("Could not decrypt payload.");
+                return false;
+            }
+
+            Long keyId = null;
+            if (first == RsaProperties.SESSION_KEY_MARKER) {
+                byte[] keyIdRaw = new byte[RsaProperties.KEY_ID_LENGTH];
+                if (CipherStreamUtil.fill(decoded, keyIdRaw, 0, keyIdRaw.length)
+                        != keyIdRaw.length) {
+                    log.error("Could not read key id.");
+                    return false;
+                }
+                keyId = ByteBuffer.wrap(keyIdRaw).getLong();
+                first = decoded.read();
+            }
+
+            int second = decoded.read();
+            if (first == -1 || second == -1) {
+                log.error("Could not read aes key length.");
+                return false;
+            }
+            aesKeyLength = convertAesKeyLength(new byte[] {(byte) first, (byte) second});
             if (aesKeyLength <= 0) {
                 log.error("Could not read an encrypted aes key of length: {}.", aesKeyLength);
                 return false;
             }
             byte[] encryptedAesKey = new byte[aesKeyLength];
-            if (base64Decoder.read(encryptedAesKey) != aesKeyLength) {
+            if (CipherStreamUtil.fill(decoded, encryptedAesKey, 0, aesKeyLength)
+                    != aesKeyLength) {
                 log.error("Could not read aes key.");
                 return false;
             }
 
-            final byte[] plainAesKey = cipher.doFinal(encryptedAesKey);
+            Decrypter aesDecrypter = getCachedDecrypter(keyId, encryptedAesKey);
 
-            Decrypter aesDecrypter = new SymmetricKeyDecrypter(plainAesKey);
+            if (aesDecrypter == null) {
+                aesDecrypter = new SymmetricKeyDecrypter(decryptAesKey(encryptedAesKey));
+                if (keyId != null) {
+                    putCachedDecrypter(keyId, encryptedAesKey, aesDecrypter);
+                }
+            }
 
-            if (aesDecrypter.decrypt(base64Decoder, plain)) {
+            if (aesDecrypter.decrypt(decoded, plain)) {
                 return true;
             }
 
@@ -163,10 +241,16 @@ public class RsaDecrypter implements Decrypter {
 
 
 
+    /**
+     * Borrows a {@link Cipher} from the {@link CipherPool} and initialises it for decryption with
+     * the {@link #privateKey}. The {@link Cipher} has to be {@link CipherPool#release(Cipher)
+     * released} by the caller.
+     */
     private Cipher initCipher() {
 
+        Cipher cipher = null;
         try {
-            Cipher cipher = Cipher.getInstance(RsaProperties.TRANSFORMATION, RsaProperties.PROVIDER);
+            cipher = CipherPool.borrow(RsaProperties.TRANSFORMATION, RsaProperties.PROVIDER);
 
             cipher.init(Cipher.DECRYPT_MODE, this.privateKey);
 
@@ -181,6 +265,7 @@ public class RsaDecrypter implements Decrypter {
             return null;
         } catch (InvalidKeyException e) {
             log.error("Invalid key: {}", this.privateKey, e);
+            CipherPool.release(cipher);
             return null;
         } catch (NoSuchProviderException e) {
             log.error("No such provider: {}", RsaProperties.PROVIDER, e);
@@ -189,6 +274,114 @@ public class RsaDecrypter implements Decrypter {
 
     }
 
+    /**
+     * Reads the header of data encrypted for multiple recipients behind the
+     * {@link RsaProperties#MULTI_RECIPIENT_MARKER} and picks the encrypted key of this recipient.
+     *
+     * @return the encrypted key of this recipient or {@code null} if there is none
+     */
+    private byte[] readRecipientKey(InputStream decoded) throws IOException {
+        byte[] countRaw = new byte[2];
+        if (CipherStreamUtil.fill(decoded, countRaw, 0, 2) != 2) {
+            log.error("Could not read number of recipients.");
+            return null;
+        }
+        int count = ((countRaw[0] & 0xFF) << 8) | (countRaw[1] & 0xFF);
+
+        byte[] ownKey = null;
+        byte[] recipient = new byte[RsaProperties.FINGERPRINT_LENGTH];
+        byte[] lengthRaw = new byte[2];
+        for (int i = 0; i < count; i++) {
+            if (CipherStreamUtil.fill(decoded, recipient, 0, recipient.length) != recipient.length
+                    || CipherStreamUtil.fill(decoded, lengthRaw, 0, 2) != 2) {
+                log.error("Could not read recipient {} of {}.", i, count);
+                return null;
+            }
+            int length = convertAesKeyLength(lengthRaw);
+            if (length <= 0) {
+                log.error("Could not read an encrypted aes key of length: {}.", length);
+                return null;
+            }
+            byte[] encryptedAesKey = new byte[length];
+            if (CipherStreamUtil.fill(decoded, encryptedAesKey, 0, length) != length) {
+                log.error("Could not read aes key of recipient {}.", i);
+                return null;
+            }
+            if (ownKey == null && Arrays.equals(this.fingerprint, recipient)) {
+                ownKey = encryptedAesKey;
+            }
+        }
+
+        if (ownKey == null) {
+            log.error("Data is not encrypted for this private key. Recipients: {}", count);
+        }
+        return ownKey;
+    }
+
+    /**
+     * Decrypts the symmetric key with the {@link #privateKey}.
+     *
+     * @throws IllegalBlockSizeException if the encrypted key has an invalid length
+     * @throws BadPaddingException if the encrypted key has not been encrypted with the
+     *      corresponding public key
+     */
+    private byte[] decryptAesKey(byte[] encryptedAesKey)
+            throws IllegalBlockSizeException, BadPaddingException, IOException {
+        long start = Instrumentations.startNanos();
+        Cipher cipher = initCipher();
+        if (cipher == null) {
+            throw new IOException("No cipher to decrypt the aes key.");
+        }
+        try {
+            return cipher.doFinal(encryptedAesKey);
+        }
+        finally {
+            CipherPool.release(cipher);
+            Instrumentations.recordPhase(Phase.RSA_UNWRAP, start);
+        }
+    }
+
+    /**
+     * @return the private key for {@code privateKeySpec} or {@code null} if it is invalid
+     */
+    private static PrivateKey createPrivateKey(RSAPrivateKeySpec privateKeySpec) {
+        try {
+            KeyFactory factory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
+            return factory.generatePrivate(privateKeySpec);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the ALGORITHM is defined statically
+            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
+        } catch (InvalidKeySpecException e) {
+            log.error("Unable to create private key for key spec: {}", privateKeySpec, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the cached decrypter for the session key with the given id or {@code null} if it
+     *      is not cached or has been decrypted from another encrypted key
+     */
+    private Decrypter getCachedDecrypter(Long keyId, byte[] encryptedAesKey) {
+        if (keyId == null) {
+            return null;
+        }
+        synchronized (this.keyCache) {
+            CachedKey cached = this.keyCache.get(keyId);
+            if (cached != null && Arrays.equals(cached.encryptedAesKey, encryptedAesKey)) {
+                Instrumentations.recordCacheAccess(Cache.RSA_SESSION_KEY, true);
+                return cached.decrypter;
+            }
+        }
+        Instrumentations.recordCacheAccess(Cache.RSA_SESSION_KEY, false);
+        return null;
+    }
+
+    private void putCachedDecrypter(Long keyId, byte[] encryptedAesKey, Decrypter decrypter) {
+        synchronized (this.keyCache) {
+            this.keyCache.put(keyId, new CachedKey(encryptedAesKey, decrypter));
+        }
+    }
+
     private int convertAesKeyLength(byte[] keyLengthInBytes) {
         return ((int) keyLengthInBytes[0]) * 128 + ((int) keyLengthInBytes[1]);
     }
@@ -200,4 +393,20 @@ public class RsaDecrypter implements Decrypter {
         }
         return true;
     }
+
+
+    /**
+     * A decrypted session key with the encrypted key it has been decrypted from.
+     */
+    private static class CachedKey {
+
+        private final byte[] encryptedAesKey;
+
+        private final Decrypter decrypter;
+
+        private CachedKey(byte[] encryptedAesKey, Decrypter decrypter) {
+            this.encryptedAesKey = encryptedAesKey;
+            this.decrypter = decrypter;
+        }
+    }
 }
@@ -1,8 +1,14 @@
 package com.github.jsiebahn.various.tests.crypt.rsa;
 
+import com.github.jsiebahn.various.tests.crypt.Encoding;
 import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.Instrumentations;
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
-import org.apache.commons.codec.binary.Base64OutputStream;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherPool;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,6 +17,9 @@ import java.io.*;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
@@ -21,6 +30,15 @@ import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.string
  * encryption result. It is used to decrypt the payload with {@link RsaDecrypter#decrypt(String)}
  * or {@link RsaDecrypter#decrypt(java.io.InputStream, java.io.OutputStream)} if the corresponding
  * private key is set to decrypt the symmetric key that is shipped along with the encryption result.
+ * Streams are base64 encoded unless {@link Encoding#BINARY} is configured, encrypted
+ * {@link String}s are always base64 encoded.
+ *
+ * By default every message gets its own symmetric key, which costs an RSA encryption and the
+ * setup of a {@link SymmetricKeyEncrypter} per message. With session keys one symmetric key is
+ * reused for a configurable number of messages or time. The result then starts with
+ * {@link RsaProperties#SESSION_KEY_MARKER} and a random key id in front of the encrypted key, so
+ * the {@link RsaDecrypter} can cache the decrypted key. Every message still contains the
+ * encrypted key and can be decrypted on its own.
  *
  * @author jsiebahn
  * @since 03.11.14 07:12
@@ -29,31 +47,68 @@ public class RsaEncrypter implements Encrypter {
 
     private static final Logger log = LoggerFactory.getLogger(RsaEncrypter.class);
 
-    private PublicKey publicKey;
+    private final PublicKey publicKey;
+
+    private final Encoding encoding;
 
-    private boolean initialised;
+    /**
+     * The maximum number of messages encrypted with the same session key. Every message gets a
+     * new key if it is less than {@code 2}.
+     */
+    private final int maxMessagesPerKey;
+
+    /**
+     * The maximum age of a session key in nanoseconds, {@code 0} for no limit.
+     */
+    private final long maxKeyAgeNanos;
+
+    /**
+     * The current session key. It is only replaced while holding the lock of {@code this}, but
+     * used without locking as long as it is valid.
+     */
+    private volatile SessionKey sessionKey;
+
+    private final boolean initialised;
+
+    /**
+     * The result of the test encryption including key generation and the RSA operation. It is
+     * {@code null} until {@link #isReadyToOperate()} is called for the first time.
+     */
+    private volatile Boolean selfTestPassed;
 
 
     public RsaEncrypter(RSAPublicKeySpec publicKeySpec) {
+        this(publicKeySpec, Encoding.BASE64);
+    }
 
-        try {
-            KeyFactory factory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
-            this.publicKey = factory.generatePublic(publicKeySpec);
-        } catch (NoSuchAlgorithmException e) {
-            // should never happen as the ALGORITHM is defined statically
-            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
-            initialised = false;
-            return;
-        } catch (InvalidKeySpecException e) {
-            log.error("Unable to create public key for key spec: {}", publicKeySpec, e);
-            initialised = false;
-            return;
-        }
+    /**
+     * @param publicKeySpec the public key to encrypt the symmetric keys with
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}
+     */
+    public RsaEncrypter(RSAPublicKeySpec publicKeySpec, Encoding encoding) {
+        this(publicKeySpec, encoding, 1, 0);
+    }
 
+    /**
+     * @param publicKeySpec the public key to encrypt the symmetric keys with
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}
+     * @param maxMessagesPerKey the maximum number of messages encrypted with the same session
+     *      key, {@code 1} for a new key per message
+     * @param maxKeyAgeMillis the maximum time a session key is used in milliseconds, {@code 0}
+     *      for no time limit
+     */
+    public RsaEncrypter(RSAPublicKeySpec publicKeySpec, Encoding encoding, int maxMessagesPerKey,
+            long maxKeyAgeMillis) {
+        this.encoding = encoding == null ? Encoding.BASE64 : encoding;
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxKeyAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxKeyAgeMillis));
+
+        this.publicKey = createPublicKey(publicKeySpec);
 
-        // do a test encryption to check initialisation state
+        // the expensive test encryption is deferred to isReadyToOperate()
         initialised = this.publicKey != null;
-        initialised = encrypt("test") != null;
     }
 
     /**
@@ -74,7 +129,7 @@ public class RsaEncrypter implements Encrypter {
         try (ByteArrayOutputStream out = new ByteArrayOutputStream();
                 ByteArrayInputStream in = new ByteArrayInputStream(stringToByte(plain))) {
 
-            if (encrypt(in, out)) {
+            if (encrypt(in, out, Encoding.BASE64)) {
                 return byteToString(out.toByteArray());
             }
             log.error("Unable to encrypt plain text.");
@@ -90,6 +145,33 @@ public class RsaEncrypter implements Encrypter {
      */
     @Override
     public boolean encrypt(InputStream plain, OutputStream encrypted) {
+        return encrypt(plain, encrypted, this.encoding);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        if (!checkInitialised()) {
+            return false;
+        }
+        Boolean passed = this.selfTestPassed;
+        if (passed == null) {
+            // concurrent callers may both run the test, which is harmless
+            passed = encrypt("test") != null;
+            this.selfTestPassed = passed;
+        }
+        return passed;
+    }
+
+
+
+    /**
+     * Encrypts {@code plain} into {@code encrypted} with the given {@code encoding}. The payload
+     * is encrypted with the same encoding, so binary data is not encoded twice.
+     */
+    private boolean encrypt(InputStream plain, OutputStream encrypted, Encoding encoding) {
 
         if (!checkInitialised()) {
             return false;
@@ -105,26 +187,19 @@ public class RsaEncrypter implements Encrypter {
             return false;
         }
 
-        Cipher cipher = initCipher();
+        WrappedKey key = this.maxMessagesPerKey > 1 ? nextSessionKey() : wrapKey(null);
 
-        if (cipher == null) {
+        if (key == null) {
             return false;
         }
 
-        byte[] aesKey = createAesKey();
-
-        byte[] encryptedAesKey = encryptAesKey(aesKey);
-
-        byte[] aesKeyLength = createEncryptedAesKeyLength(encryptedAesKey);
-
-        Encrypter aesEncrypter = new SymmetricKeyEncrypter(aesKey);
-
+        Encrypter aesEncrypter = key.getEncrypter(encoding);
 
-        try (OutputStream base64Out = new Base64OutputStream(encrypted)) {
+        try (OutputStream encoded = EncodingUtil.openEncoding(encrypted, encoding,
+                EncodingUtil.TYPE_RSA)) {
 
-            base64Out.write(aesKeyLength);
-            base64Out.write(encryptedAesKey);
-            if (aesEncrypter.encrypt(plain, base64Out)) {
+            encoded.write(key.header);
+            if (aesEncrypter.encrypt(plain, encoded)) {
                 return true;
             }
 
@@ -144,19 +219,76 @@ public class RsaEncrypter implements Encrypter {
     }
 
     /**
-     * {@inheritDoc}
+     * Returns the current session key and creates a new one if the current key has been used for
+     * {@link #maxMessagesPerKey} messages or is older than {@link #maxKeyAgeNanos}. A valid key is
+     * taken without locking, so concurrent messages only wait for each other while the key is
+     * replaced.
      */
-    @Override
-    public boolean isReadyToOperate() {
-        return checkInitialised();
+    private WrappedKey nextSessionKey() {
+        SessionKey current = this.sessionKey;
+        if (current != null && current.tryAcquire(System.nanoTime(), this.maxMessagesPerKey,
+                this.maxKeyAgeNanos)) {
+            return current.key;
+        }
+        return replaceSessionKey();
+    }
+
+    private synchronized WrappedKey replaceSessionKey() {
+        long now = System.nanoTime();
+        // another thread may have replaced the key while this one was waiting for the lock
+        SessionKey current = this.sessionKey;
+        if (current != null && current.tryAcquire(now, this.maxMessagesPerKey,
+                this.maxKeyAgeNanos)) {
+            return current.key;
+        }
+        byte[] keyId = new byte[RsaProperties.KEY_ID_LENGTH];
+        RandomSources.getDefault().nextBytes(keyId);
+        WrappedKey key = wrapKey(keyId);
+        if (key == null) {
+            return null;
+        }
+        SessionKey sessionKey = new SessionKey(key, now);
+        sessionKey.tryAcquire(now, this.maxMessagesPerKey, this.maxKeyAgeNanos);
+        this.sessionKey = sessionKey;
+        return key;
     }
 
+    /**
+     * Creates a random symmetric key and encrypts it with the {@link #publicKey}.
+     *
+     * @param keyId the id of a session key or {@code null} for a key used for one message
+     */
+    private WrappedKey wrapKey(byte[] keyId) {
+        byte[] aesKey = createAesKey();
+
+        byte[] encryptedAesKey = aesKey != null ? encryptAesKey(aesKey) : null;
 
+        if (encryptedAesKey == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        if (keyId != null) {
+            header.write(RsaProperties.SESSION_KEY_MARKER);
+            header.write(keyId, 0, keyId.length);
+        }
+        byte[] aesKeyLength = createEncryptedAesKeyLength(encryptedAesKey);
+        header.write(aesKeyLength, 0, aesKeyLength.length);
+        header.write(encryptedAesKey, 0, encryptedAesKey.length);
+
+        return new WrappedKey(aesKey, header.toByteArray());
+    }
 
+    /**
+     * Borrows a {@link Cipher} from the {@link CipherPool} and initialises it for encryption with
+     * the {@link #publicKey}. The {@link Cipher} has to be {@link CipherPool#release(Cipher)
+     * released} by the caller.
+     */
     private Cipher initCipher() {
 
+        Cipher cipher = null;
         try {
-            Cipher cipher = Cipher.getInstance(RsaProperties.TRANSFORMATION, RsaProperties.PROVIDER);
+            cipher = CipherPool.borrow(RsaProperties.TRANSFORMATION, RsaProperties.PROVIDER);
             cipher.init(Cipher.ENCRYPT_MODE, this.publicKey);
             return cipher;
 
@@ -170,6 +302,7 @@ public class RsaEncrypter implements Encrypter {
             return null;
         } catch (InvalidKeyException e) {
             log.error("Unable to init cipher for public key: {}", this.publicKey, e);
+            CipherPool.release(cipher);
             return null;
         } catch (NoSuchProviderException e) {
             log.error("No such provider: {}", RsaProperties.PROVIDER, e);
@@ -178,13 +311,35 @@ public class RsaEncrypter implements Encrypter {
 
     }
 
-    private byte[] createAesKey() {
+    /**
+     * @return the public key for {@code publicKeySpec} or {@code null} if it is invalid
+     */
+    private static PublicKey createPublicKey(RSAPublicKeySpec publicKeySpec) {
+        try {
+            KeyFactory factory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
+            return factory.generatePublic(publicKeySpec);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the ALGORITHM is defined statically
+            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
+        } catch (InvalidKeySpecException e) {
+            log.error("Unable to create public key for key spec: {}", publicKeySpec, e);
+        }
+        return null;
+    }
+
+    static byte[] createAesKey() {
         RsaKeyFactory factory = new RsaKeyFactory();
 
         return factory.createAesKey(RsaProperties.KEY_SIZE);
     }
 
-    private byte[] encryptAesKey(byte[] aesKey) {
+    /**
+     * Encrypts the symmetric key with the {@link #publicKey}.
+     *
+     * @return the encrypted key or {@code null} if the encryption failed
+     */
+    byte[] encryptAesKey(byte[] aesKey) {
+        long start = Instrumentations.startNanos();
         Cipher cipher = initCipher();
 
         if (cipher == null) {
@@ -198,11 +353,15 @@ public class RsaEncrypter implements Encrypter {
         } catch (BadPaddingException e) {
             log.error("Bad padding: {} bytes, {}", aesKey.length, RsaProperties.ALGORITHM, e);
         }
+        finally {
+            CipherPool.release(cipher);
+            Instrumentations.recordPhase(Phase.RSA_WRAP, start);
+        }
 
         return null;
     }
 
-    private byte[] createEncryptedAesKeyLength(byte[] encryptedAesKey) {
+    static byte[] createEncryptedAesKeyLength(byte[] encryptedAesKey) {
 
         int length = encryptedAesKey.length;
         byte firstByte = (byte) (length / 128);
@@ -218,4 +377,84 @@ public class RsaEncrypter implements Encrypter {
         }
         return true;
     }
+
+
+    /**
+     * A symmetric key with the header that ships it encrypted with the public key.
+     */
+    private static class WrappedKey {
+
+        private final byte[] aesKey;
+
+        /**
+         * The header written in front of the payload.
+         */
+        private final byte[] header;
+
+        /**
+         * The encrypters for the key by {@link Encoding#ordinal()}, created on first use.
+         */
+        private final AtomicReferenceArray<SymmetricKeyEncrypter> encrypters =
+                new AtomicReferenceArray<>(Encoding.values().length);
+
+        private WrappedKey(byte[] aesKey, byte[] header) {
+            this.aesKey = aesKey;
+            this.header = header;
+        }
+
+        private SymmetricKeyEncrypter getEncrypter(Encoding encoding) {
+            SymmetricKeyEncrypter encrypter = this.encrypters.get(encoding.ordinal());
+            if (encrypter == null) {
+                // concurrent callers may create an instance each, only the first one is kept
+                this.encrypters.compareAndSet(encoding.ordinal(), null,
+                        new SymmetricKeyEncrypter(this.aesKey,
+                                CipherStreamUtil.DEFAULT_BUFFER_SIZE, encoding));
+                encrypter = this.encrypters.get(encoding.ordinal());
+            }
+            return encrypter;
+        }
+    }
+
+    /**
+     * A {@link WrappedKey} reused for several messages.
+     */
+    private static class SessionKey {
+
+        private final WrappedKey key;
+
+        /**
+         * The {@link System#nanoTime()} when the key has been created.
+         */
+        private final long created;
+
+        /**
+         * The number of messages encrypted with the key.
+         */
+        private final AtomicInteger messages = new AtomicInteger();
+
+        private SessionKey(WrappedKey key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+
+        /**
+         * Counts a message if the key may still be used for it.
+         *
+         * @return {@code false} if the key is expired or has been used for {@code maxMessages}
+         *      messages
+         */
+        private boolean tryAcquire(long now, int maxMessages, long maxAgeNanos) {
+            if (maxAgeNanos > 0 && now - this.created >= maxAgeNanos) {
+                return false;
+            }
+            int used;
+            do {
+                used = this.messages.get();
+                if (used >= maxMessages) {
+                    return false;
+                }
+            } while (!this.messages.compareAndSet(used, used + 1));
+            return true;
+        }
+    }
 }
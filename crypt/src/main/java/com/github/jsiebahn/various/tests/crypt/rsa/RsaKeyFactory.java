@@ -1,45 +1,75 @@
 package com.github.jsiebahn.various.tests.crypt.rsa;
 
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.codec.binary.Base64OutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * This class handles creation and loading of RSA keys.
+ * This class handles creation and loading of RSA keys. Private keys are stored with their Chinese
+ * Remainder Theorem (CRT) parameters, which allows the JCE to decrypt about 3 to 4 times faster.
+ * Private keys written in the legacy format without CRT parameters can still be read.
+ *
+ * New keys are written in the {@link KeyFormat#COMPACT} format, which is read without Java object
+ * deserialisation. The format of a key is detected when it is read, so keys written in the
+ * {@link KeyFormat#LEGACY} format are still loaded and can be migrated by writing them again.
  *
  * @author jsiebahn
  * @since 02.11.14 08:55
  */
 public class RsaKeyFactory {
 
-    /**
-     * The algorithm used to get random bytes from a {@link SecureRandom}.
-     */
-    static final String RANDOM_ALGORITHM = "SHA1PRNG";
+    private static final Logger log = LoggerFactory.getLogger(RsaKeyFactory.class);
+
+    private static final String PEM_PUBLIC_KEY = "PUBLIC KEY";
+
+    private static final String PEM_PRIVATE_KEY = "PRIVATE KEY";
+
+    private static final int PEM_LINE_LENGTH = 64;
+
+    private static final byte[] PEM_LINE_SEPARATOR = {'\n'};
 
     /**
-     * The provider used to get random bytes from a {@link SecureRandom}.
+     * The pool of pre-generated keys set by {@link #setKeyPool(RsaKeyPool)} or {@code null} if
+     * keys are generated when they are needed.
      */
-    static final String RANDOM_PROVIDER = "SUN";
-
-    private static final Logger log = LoggerFactory.getLogger(RsaKeyFactory.class);
+    private static volatile RsaKeyPool keyPool;
 
 
     /**
      * Creates a new pair of public and private key to be used with rsa encryption. The keys are
-     * saved into the given streams.
+     * saved into the given streams in the {@link KeyFormat#COMPACT} format. If a
+     * {@link #setKeyPool(RsaKeyPool) key pool} is set, a
+     * pre-generated pair is taken from it.
      *
      * @param privateKeyLocation  the stream to save the private key into
      * @param publicKeyLocation the stream to save the public key into
@@ -47,6 +77,24 @@ public class RsaKeyFactory {
      */
     public RsaKeySpecPair createKeys(OutputStream privateKeyLocation, OutputStream publicKeyLocation) {
 
+        RsaKeyPool pool = keyPool;
+        RsaKeySpecPair keySpec = pool != null ? pool.takeKeyPair() : generateKeys();
+        if (keySpec == null) {
+            return null;
+        }
+
+        return writeKeys(keySpec, privateKeyLocation, publicKeyLocation) ? keySpec : null;
+    }
+
+    /**
+     * Generates a new pair of public and private key to be used with rsa encryption on the
+     * calling thread. The keys are not saved.
+     *
+     * @return the created keys bundled in a {@link RsaKeySpecPair} or {@code null} if an error
+     *      occurred
+     */
+    public RsaKeySpecPair generateKeys() {
+
         KeyPairGenerator kpg;
         try {
             kpg = KeyPairGenerator.getInstance(RsaProperties.ALGORITHM,
@@ -74,56 +122,127 @@ public class RsaKeyFactory {
         }
 
         RSAPublicKeySpec publicKeySpec;
-        RSAPrivateKeySpec privateKeySpec;
+        RSAPrivateCrtKeySpec privateKeySpec;
         try {
             publicKeySpec = keyFactory.getKeySpec(kp.getPublic(), RSAPublicKeySpec.class);
-            privateKeySpec = keyFactory.getKeySpec(kp.getPrivate(), RSAPrivateKeySpec.class);
+            privateKeySpec = keyFactory.getKeySpec(kp.getPrivate(), RSAPrivateCrtKeySpec.class);
         } catch (InvalidKeySpecException e) {
             log.error("Invalid key spec.", e);
             return null;
         }
 
-        RsaKeySpecPair keySpec = new RsaKeySpecPair(privateKeySpec, publicKeySpec);
+        return new RsaKeySpecPair(privateKeySpec, publicKeySpec);
+    }
 
-        // save the keys
-        try (OutputStream base64Public = new Base64OutputStream(publicKeyLocation);
-             ObjectOutputStream publicKeyStream = new ObjectOutputStream(base64Public);
-             OutputStream base64Private = new Base64OutputStream(privateKeyLocation);
-             ObjectOutputStream privateKeyStream = new ObjectOutputStream(base64Private)) {
+    /**
+     * Saves the keys into the given streams in the {@link KeyFormat#COMPACT} format. The streams
+     * are closed.
+     *
+     * @param keySpec the keys to save, the private key must contain the CRT parameters
+     * @param privateKeyLocation  the stream to save the private key into
+     * @param publicKeyLocation the stream to save the public key into
+     * @return {@code true} if the keys have been saved
+     */
+    public boolean writeKeys(RsaKeySpecPair keySpec, OutputStream privateKeyLocation,
+            OutputStream publicKeyLocation) {
+        return writeKeys(keySpec, privateKeyLocation, publicKeyLocation, KeyFormat.COMPACT);
+    }
 
-            publicKeyStream.writeObject(keySpec.getPublicKeySpec().getModulus());
-            publicKeyStream.writeObject(keySpec.getPublicKeySpec().getPublicExponent());
+    /**
+     * Saves the keys into the given streams in the given {@code format}. Keys in any format are
+     * read by {@link #readPrivateKey(InputStream)} and {@link #readPublicKey(InputStream)}. The
+     * streams are closed.
+     *
+     * @param keySpec the keys to save, the private key must contain the CRT parameters
+     * @param privateKeyLocation  the stream to save the private key into
+     * @param publicKeyLocation the stream to save the public key into
+     * @param format the format of the saved keys
+     * @return {@code true} if the keys have been saved
+     */
+    public boolean writeKeys(RsaKeySpecPair keySpec, OutputStream privateKeyLocation,
+            OutputStream publicKeyLocation, KeyFormat format) {
 
-            privateKeyStream.writeObject(keySpec.getPrivateKeySpec().getModulus());
-            privateKeyStream.writeObject(keySpec.getPrivateKeySpec().getPrivateExponent());
+        if (!(keySpec.getPrivateKeySpec() instanceof RSAPrivateCrtKeySpec)) {
+            log.error("Only private keys with CRT parameters can be saved.");
+            return false;
+        }
+        RSAPrivateCrtKeySpec privateKeySpec = (RSAPrivateCrtKeySpec) keySpec.getPrivateKeySpec();
+        RSAPublicKeySpec publicKeySpec = keySpec.getPublicKeySpec();
+
+        // the modulus and the private exponent are first in every format but PEM, so the CRT
+        // parameters are optional when reading
+        BigInteger[] publicKey = {publicKeySpec.getModulus(), publicKeySpec.getPublicExponent()};
+        BigInteger[] privateKey = {privateKeySpec.getModulus(),
+                privateKeySpec.getPrivateExponent(), privateKeySpec.getPublicExponent(),
+                privateKeySpec.getPrimeP(), privateKeySpec.getPrimeQ(),
+                privateKeySpec.getPrimeExponentP(), privateKeySpec.getPrimeExponentQ(),
+                privateKeySpec.getCrtCoefficient()};
+
+        try (OutputStream publicOut = publicKeyLocation;
+             OutputStream privateOut = privateKeyLocation) {
+
+            switch (format) {
+                case COMPACT:
+                    writeCompact(publicOut, RsaProperties.COMPACT_KEY_TYPE_PUBLIC, publicKey);
+                    writeCompact(privateOut, RsaProperties.COMPACT_KEY_TYPE_PRIVATE, privateKey);
+                    return true;
+                case PEM:
+                    return writePem(publicOut, PEM_PUBLIC_KEY, publicKeySpec)
+                            && writePem(privateOut, PEM_PRIVATE_KEY, privateKeySpec);
+                case LEGACY:
+                    writeLegacy(publicOut, publicKey);
+                    writeLegacy(privateOut, privateKey);
+                    return true;
+                default:
+                    log.error("Unsupported key format: {}", format);
+                    return false;
+            }
 
         }
         catch (IOException e) {
             log.error("IOException while saving the keys into the given streams.", e);
-            return null;
+            return false;
         }
-
-        return keySpec;
     }
 
     /**
      * Reads the {@link RSAPrivateKeySpec} from the {@code inputStream}. The stream is expected to
      * be derived from the {@link OutputStream} written by
-     * {@link #createKeys(java.io.OutputStream, java.io.OutputStream)}. So it should contain the two
-     * {@link BigInteger}s of the private key as serialized objects.
+     * {@link #writeKeys(RsaKeySpecPair, OutputStream, OutputStream, KeyFormat)} in any
+     * {@link KeyFormat}. In the {@link KeyFormat#LEGACY legacy format} it should contain the two
+     * {@link BigInteger}s of the private key as serialized objects, optionally followed by the six
+     * {@link BigInteger}s of the CRT parameters.
      *
      * @param inputStream the {@link InputStream} containing {@code modulus} and
      *      {@code privateExponent} of an {@link RSAPrivateKeySpec}
      * @return the {@link RSAPrivateKeySpec} read from the given {@code inputStream} or {@code null}
-     *      if the private key could not be read from the {@code inputStream}
+     *      if the private key could not be read from the {@code inputStream}. It is a
+     *      {@link RSAPrivateCrtKeySpec} if the stream contains the CRT parameters.
      */
     public RSAPrivateKeySpec readPrivateKey(InputStream inputStream) {
 
-        try (Base64InputStream base64Is = new Base64InputStream(inputStream);
-             ObjectInputStream objectIs = new ObjectInputStream(base64Is)) {
-            BigInteger modulus = (BigInteger) objectIs.readObject();
-            BigInteger exponent = (BigInteger) objectIs.readObject();
-            return new RSAPrivateKeySpec(modulus, exponent);
+        try (PushbackInputStream in = new PushbackInputStream(inputStream, 1)) {
+            BigInteger[] key;
+            switch (detectFormat(in)) {
+                case COMPACT:
+                    key = readCompact(in, RsaProperties.COMPACT_KEY_TYPE_PRIVATE);
+                    break;
+                case PEM:
+                    return readPemPrivateKey(in);
+                default:
+                    key = readLegacy(in);
+                    break;
+            }
+
+            if (key.length == 2) {
+                // legacy format without CRT parameters
+                return new RSAPrivateKeySpec(key[0], key[1]);
+            }
+            if (key.length == 8) {
+                return new RSAPrivateCrtKeySpec(key[0], key[2], key[1], key[3], key[4], key[5],
+                        key[6], key[7]);
+            }
+            log.error("Unexpected number of integers in private key: {}", key.length);
         } catch (IOException e) {
             log.error("Could not read private key from input stream.", e);
         } catch (ClassNotFoundException e) {
@@ -139,7 +258,8 @@ public class RsaKeyFactory {
     /**
      * Reads the {@link RSAPublicKeySpec} from the {@code inputStream}. The stream is expected to
      * be derived from the {@link OutputStream} written by
-     * {@link #createKeys(java.io.OutputStream, java.io.OutputStream)}. So it should contain the two
+     * {@link #writeKeys(RsaKeySpecPair, OutputStream, OutputStream, KeyFormat)} in any
+     * {@link KeyFormat}. In the {@link KeyFormat#LEGACY legacy format} it should contain the two
      * {@link BigInteger}s of the public key as serialized objects expecting the modulus being the
      * first one.
      *
@@ -150,11 +270,23 @@ public class RsaKeyFactory {
      */
     public RSAPublicKeySpec readPublicKey(InputStream inputStream) {
 
-        try (Base64InputStream base64Is = new Base64InputStream(inputStream);
-             ObjectInputStream objectIs = new ObjectInputStream(base64Is)) {
-            BigInteger modulus = (BigInteger) objectIs.readObject();
-            BigInteger exponent = (BigInteger) objectIs.readObject();
-            return new RSAPublicKeySpec(modulus, exponent);
+        try (PushbackInputStream in = new PushbackInputStream(inputStream, 1)) {
+            BigInteger[] key;
+            switch (detectFormat(in)) {
+                case COMPACT:
+                    key = readCompact(in, RsaProperties.COMPACT_KEY_TYPE_PUBLIC);
+                    break;
+                case PEM:
+                    return readPemPublicKey(in);
+                default:
+                    key = readLegacy(in);
+                    break;
+            }
+
+            if (key.length == 2) {
+                return new RSAPublicKeySpec(key[0], key[1]);
+            }
+            log.error("Unexpected number of integers in public key: {}", key.length);
         } catch (IOException e) {
             log.error("Could not read public key from input stream.", e);
         } catch (ClassNotFoundException e) {
@@ -167,25 +299,290 @@ public class RsaKeyFactory {
 
     }
 
+    /**
+     * Creates a random key for the symmetric encryption of the payload. It has the maximum length
+     * that can be encrypted with PKCS#1 padding and the given {@code rsaKeyLength}. The random
+     * bytes are taken from the {@link RandomSources#getDefault() default RandomSource} or from
+     * the {@link #setKeyPool(RsaKeyPool) key pool} if it provides keys of that length.
+     *
+     * @param rsaKeyLength the length of the RSA key in bit
+     * @return the random key
+     */
     byte[] createAesKey(int rsaKeyLength) {
 
+        RsaKeyPool pool = keyPool;
+        if (pool != null && pool.getDataKeyLength() == aesKeyLength(rsaKeyLength)) {
+            return pool.takeDataKey();
+        }
+
+        byte[] aesKey = new byte[aesKeyLength(rsaKeyLength)];
+        RandomSources.getDefault().nextBytes(aesKey);
+        return aesKey;
+
+    }
+
+
+    /**
+     * @param rsaKeyLength the length of the RSA key in bit
+     * @return the maximum length of a symmetric key that can be encrypted with PKCS#1 padding
+     */
+    static int aesKeyLength(int rsaKeyLength) {
+        return rsaKeyLength / 8 - 11;
+    }
+
+    /**
+     * @return the pool of pre-generated keys or {@code null} if none is set
+     */
+    public static RsaKeyPool getKeyPool() {
+        return keyPool;
+    }
+
+    /**
+     * Lets all {@link RsaKeyFactory}s take new key pairs and the symmetric keys of the
+     * {@link RsaEncrypter} from a pool that generates them in the background. It should be set
+     * once when the application starts, so that the keys are ready when they are needed.
+     *
+     * @param pool the pool to take keys from, {@code null} to generate keys when they are
+     *      needed. The pool is not closed when it is replaced.
+     */
+    public static void setKeyPool(RsaKeyPool pool) {
+        keyPool = pool;
+    }
+
+    /**
+     * Creates the fingerprint that identifies an RSA key pair by its {@code modulus}.
+     *
+     * @param modulus the modulus shared by the public and the private key
+     * @return the first {@value RsaProperties#FINGERPRINT_LENGTH} bytes of the
+     *      {@value RsaProperties#FINGERPRINT_ALGORITHM} hash of the modulus or {@code null} if
+     *      the hash can not be created
+     */
+    static byte[] createFingerprint(BigInteger modulus) {
         try {
-            SecureRandom random = SecureRandom.getInstance(RANDOM_ALGORITHM, RANDOM_PROVIDER);
-            byte[] aesKey = new byte[rsaKeyLength / 8 - 11];
-            random.nextBytes(aesKey);
-            return aesKey;
+            MessageDigest digest = MessageDigest.getInstance(RsaProperties.FINGERPRINT_ALGORITHM);
+            return Arrays.copyOf(digest.digest(modulus.toByteArray()),
+                    RsaProperties.FINGERPRINT_LENGTH);
         } catch (NoSuchAlgorithmException e) {
-            log.error("NoSuchAlgorithm {}", RANDOM_ALGORITHM, e);
+            // should never happen as SHA-256 is available in every VM
+            log.error("Algorithm not found: {}", RsaProperties.FINGERPRINT_ALGORITHM, e);
             return null;
-        } catch (NoSuchProviderException e) {
-            log.error("NoSuchProvider {}", RANDOM_PROVIDER, e);
         }
+    }
+
+
+    //
+    // helper
+    //
 
+    /**
+     * Detects the format of a key file by its first byte. The byte is pushed back.
+     */
+    private KeyFormat detectFormat(PushbackInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            throw new EOFException("Key file is empty.");
+        }
+        in.unread(first);
+        if (first == RsaProperties.COMPACT_KEY_MARKER) {
+            return KeyFormat.COMPACT;
+        }
+        return first == '-' ? KeyFormat.PEM : KeyFormat.LEGACY;
+    }
+
+    /**
+     * Writes the header of the {@link KeyFormat#COMPACT} format followed by the number of
+     * integers and each integer with a two byte length prefix.
+     */
+    private void writeCompact(OutputStream out, int type, BigInteger[] integers)
+            throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(RsaProperties.COMPACT_KEY_MARKER);
+        data.writeByte(RsaProperties.COMPACT_KEY_VERSION);
+        data.writeByte(type);
+        data.writeByte(integers.length);
+        for (BigInteger integer : integers) {
+            byte[] bytes = integer.toByteArray();
+            data.writeShort(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads the integers written by {@link #writeCompact(OutputStream, int, BigInteger[])}.
+     */
+    private BigInteger[] readCompact(InputStream in, int expectedType) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        data.readUnsignedByte(); // the marker has been checked by detectFormat
+        int version = data.readUnsignedByte();
+        if (version != RsaProperties.COMPACT_KEY_VERSION) {
+            throw new IOException("Unsupported key file version " + version);
+        }
+        int type = data.readUnsignedByte();
+        if (type != expectedType) {
+            throw new IOException("Unexpected key type " + type + ", expected " + expectedType);
+        }
+        BigInteger[] integers = new BigInteger[data.readUnsignedByte()];
+        for (int i = 0; i < integers.length; i++) {
+            byte[] bytes = new byte[data.readUnsignedShort()];
+            data.readFully(bytes);
+            integers[i] = new BigInteger(bytes);
+        }
+        return integers;
+    }
+
+    private void writeLegacy(OutputStream out, BigInteger[] integers) throws IOException {
+        // closes the Base64OutputStream to write its final block but keeps out open
+        try (ObjectOutputStream objects = new ObjectOutputStream(
+                new Base64OutputStream(new NonClosingOutputStream(out)))) {
+            for (BigInteger integer : integers) {
+                objects.writeObject(integer);
+            }
+        }
+    }
+
+    /**
+     * Reads the serialised integers of the {@link KeyFormat#LEGACY} format until the stream ends.
+     */
+    private BigInteger[] readLegacy(InputStream in) throws IOException, ClassNotFoundException {
+        List<BigInteger> integers = new ArrayList<>(8);
+        try (ObjectInputStream objects = new ObjectInputStream(new Base64InputStream(in))) {
+            BigInteger integer;
+            while ((integer = readOptionalBigInteger(objects)) != null) {
+                integers.add(integer);
+            }
+        }
+        return integers.toArray(new BigInteger[integers.size()]);
+    }
+
+    /**
+     * Writes the encoded key of {@code keySpec} with PEM boundaries.
+     *
+     * @return {@code false} if the key could not be encoded
+     */
+    private boolean writePem(OutputStream out, String label, KeySpec keySpec)
+            throws IOException {
+        byte[] encoded;
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
+            encoded = keySpec instanceof RSAPublicKeySpec
+                    ? keyFactory.generatePublic(keySpec).getEncoded()
+                    : keyFactory.generatePrivate(keySpec).getEncoded();
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the ALGORITHM is defined statically
+            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
+            return false;
+        } catch (InvalidKeySpecException e) {
+            log.error("Unable to encode key as {}.", label, e);
+            return false;
+        }
+
+        String pem = "-----BEGIN " + label + "-----\n"
+                + new Base64(PEM_LINE_LENGTH, PEM_LINE_SEPARATOR).encodeToString(encoded)
+                + "-----END " + label + "-----\n";
+        out.write(pem.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    private RSAPrivateKeySpec readPemPrivateKey(InputStream in) throws IOException {
+        byte[] encoded = readPem(in, PEM_PRIVATE_KEY);
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
+            PrivateKey key = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            return key instanceof RSAPrivateCrtKey
+                    ? keyFactory.getKeySpec(key, RSAPrivateCrtKeySpec.class)
+                    : keyFactory.getKeySpec(key, RSAPrivateKeySpec.class);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the ALGORITHM is defined statically
+            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
+        } catch (InvalidKeySpecException e) {
+            log.error("Invalid PKCS#8 private key.", e);
+        }
         return null;
+    }
 
+    private RSAPublicKeySpec readPemPublicKey(InputStream in) throws IOException {
+        byte[] encoded = readPem(in, PEM_PUBLIC_KEY);
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance(RsaProperties.ALGORITHM);
+            PublicKey key = keyFactory.generatePublic(new X509EncodedKeySpec(encoded));
+            return keyFactory.getKeySpec(key, RSAPublicKeySpec.class);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen as the ALGORITHM is defined statically
+            log.error("Algorithm not found: {}", RsaProperties.ALGORITHM, e);
+        } catch (InvalidKeySpecException e) {
+            log.error("Invalid X.509 public key.", e);
+        }
+        return null;
     }
 
+    /**
+     * Reads the Base64 content between the PEM boundaries with the given {@code label}.
+     */
+    private byte[] readPem(InputStream in, String label) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        String pem = new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+
+        String begin = "-----BEGIN " + label + "-----";
+        String end = "-----END " + label + "-----";
+        int start = pem.indexOf(begin);
+        int stop = pem.indexOf(end);
+        if (start < 0 || stop < start) {
+            throw new IOException("No PEM boundaries for " + label + " found.");
+        }
+        return Base64.decodeBase64(pem.substring(start + begin.length(), stop));
+    }
 
+    /**
+     * Reads the next {@link BigInteger} from the stream if it has not ended.
+     *
+     * @return the read value or {@code null} if the stream ended
+     */
+    private BigInteger readOptionalBigInteger(ObjectInputStream objectIs)
+            throws IOException, ClassNotFoundException {
+        try {
+            return (BigInteger) objectIs.readObject();
+        } catch (EOFException e) {
+            return null;
+        } catch (OptionalDataException e) {
+            if (e.eof) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+
+    //
+    // inner classes
+    //
+
+    /**
+     * Keeps the wrapped stream open when it is closed, so a stream can be closed to finish its
+     * encoding while the underlying stream is still written.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
 
+    }
 
 }
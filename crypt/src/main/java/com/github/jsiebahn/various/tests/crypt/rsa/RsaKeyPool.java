@@ -0,0 +1,284 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+import com.github.jsiebahn.various.tests.crypt.RandomSources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates RSA key pairs and random symmetric data keys on a background thread and keeps them
+ * until they are taken. Generating a 2048 bit key pair takes hundreds of milliseconds, taking it
+ * from the pool is a constant time queue operation. The pool is refilled up to its watermarks
+ * whenever keys are taken. If the pool is depleted, the caller generates the key itself and the
+ * miss is counted, so the watermarks can be tuned with {@link #getKeyPairMisses()} and
+ * {@link #getDataKeyMisses()}.
+ *
+ * The pool is used by every {@link RsaKeyFactory} once it is
+ * {@link RsaKeyFactory#setKeyPool(RsaKeyPool) set}. Pooled keys are held in memory until they
+ * are taken and every key is handed out only once.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:10
+ */
+public class RsaKeyPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RsaKeyPool.class);
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final int keyPairWatermark;
+
+    private final int dataKeyWatermark;
+
+    private final int dataKeyLength = RsaKeyFactory.aesKeyLength(RsaProperties.KEY_SIZE);
+
+    private final RsaKeyFactory keyFactory = new RsaKeyFactory();
+
+    private final Queue<RsaKeySpecPair> keyPairs = new ConcurrentLinkedQueue<>();
+
+    private final Queue<byte[]> dataKeys = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The size of {@link #keyPairs}, which is not available in constant time from the queue.
+     */
+    private final AtomicInteger availableKeyPairs = new AtomicInteger();
+
+    /**
+     * The size of {@link #dataKeys}, which is not available in constant time from the queue.
+     */
+    private final AtomicInteger availableDataKeys = new AtomicInteger();
+
+    private final AtomicLong keyPairsTaken = new AtomicLong();
+
+    private final AtomicLong keyPairMisses = new AtomicLong();
+
+    private final AtomicLong dataKeysTaken = new AtomicLong();
+
+    private final AtomicLong dataKeyMisses = new AtomicLong();
+
+    /**
+     * If a refill is submitted to the {@link #executor} and has not finished yet.
+     */
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private final ExecutorService executor;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates the pool and starts filling it in the background.
+     *
+     * @param keyPairWatermark the number of RSA key pairs kept ready
+     * @param dataKeyWatermark the number of symmetric data keys kept ready
+     */
+    public RsaKeyPool(int keyPairWatermark, int dataKeyWatermark) {
+        this.keyPairWatermark = Math.max(0, keyPairWatermark);
+        this.dataKeyWatermark = Math.max(0, dataKeyWatermark);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rsa-key-pool-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduleRefill();
+    }
+
+
+    //
+    // api
+    //
+
+    /**
+     * Takes a pre-generated key pair or generates one on the calling thread if the pool is
+     * depleted.
+     *
+     * @return a key pair that has not been handed out before or {@code null} if it could not be
+     *      generated
+     */
+    public RsaKeySpecPair takeKeyPair() {
+        RsaKeySpecPair keyPair = this.keyPairs.poll();
+        if (keyPair != null) {
+            this.availableKeyPairs.decrementAndGet();
+            this.keyPairsTaken.incrementAndGet();
+        }
+        else {
+            this.keyPairMisses.incrementAndGet();
+        }
+        scheduleRefill();
+        return keyPair != null ? keyPair : this.keyFactory.generateKeys();
+    }
+
+    /**
+     * Takes a pre-generated symmetric key or generates one on the calling thread if the pool is
+     * depleted.
+     *
+     * @return a random key of {@link #getDataKeyLength()} bytes that has not been handed out
+     *      before
+     */
+    public byte[] takeDataKey() {
+        byte[] dataKey = this.dataKeys.poll();
+        if (dataKey != null) {
+            this.availableDataKeys.decrementAndGet();
+            this.dataKeysTaken.incrementAndGet();
+        }
+        else {
+            this.dataKeyMisses.incrementAndGet();
+        }
+        scheduleRefill();
+        return dataKey != null ? dataKey : createDataKey();
+    }
+
+    /**
+     * Stops the background generation and drops the keys that have not been taken. Keys can still
+     * be taken, but they are generated on the calling thread.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.executor.shutdown();
+        while (this.keyPairs.poll() != null) {
+            this.availableKeyPairs.decrementAndGet();
+        }
+        while (this.dataKeys.poll() != null) {
+            this.availableDataKeys.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the length of the data keys in bytes, which is the maximum length that can be
+     *      encrypted with an RSA key of {@value RsaProperties#KEY_SIZE} bit
+     */
+    public int getDataKeyLength() {
+        return this.dataKeyLength;
+    }
+
+    /**
+     * @return the number of key pairs ready to be taken
+     */
+    public int getAvailableKeyPairs() {
+        return this.availableKeyPairs.get();
+    }
+
+    /**
+     * @return the number of data keys ready to be taken
+     */
+    public int getAvailableDataKeys() {
+        return this.availableDataKeys.get();
+    }
+
+    /**
+     * @return the number of key pairs taken from the pool
+     */
+    public long getKeyPairsTaken() {
+        return this.keyPairsTaken.get();
+    }
+
+    /**
+     * @return the number of key pairs that had to be generated by the caller because the pool
+     *      was depleted
+     */
+    public long getKeyPairMisses() {
+        return this.keyPairMisses.get();
+    }
+
+    /**
+     * @return the number of data keys taken from the pool
+     */
+    public long getDataKeysTaken() {
+        return this.dataKeysTaken.get();
+    }
+
+    /**
+     * @return the number of data keys that had to be generated by the caller because the pool
+     *      was depleted
+     */
+    public long getDataKeyMisses() {
+        return this.dataKeyMisses.get();
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Submits a refill unless the pool is full or a refill is already running.
+     */
+    private void scheduleRefill() {
+        if (this.closed || !needsRefill() || !this.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (refill()) {
+                        // keys taken while the refill was finishing did not schedule a new one
+                        scheduleRefill();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the pool has been closed concurrently
+            this.refilling.set(false);
+        }
+    }
+
+    /**
+     * Generates keys until both watermarks are reached. The cheap data keys are preferred, so
+     * they do not run out while a key pair is generated.
+     *
+     * @return {@code false} if a key pair could not be generated
+     */
+    private boolean refill() {
+        try {
+            while (!this.closed) {
+                if (this.availableDataKeys.get() < this.dataKeyWatermark) {
+                    this.dataKeys.offer(createDataKey());
+                    this.availableDataKeys.incrementAndGet();
+                }
+                else if (this.availableKeyPairs.get() < this.keyPairWatermark) {
+                    RsaKeySpecPair keyPair = this.keyFactory.generateKeys();
+                    if (keyPair == null) {
+                        log.error("Could not generate key pair, refill of {} stopped.", this);
+                        return false;
+                    }
+                    this.keyPairs.offer(keyPair);
+                    this.availableKeyPairs.incrementAndGet();
+                }
+                else {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            this.refilling.set(false);
+        }
+    }
+
+    private boolean needsRefill() {
+        return this.availableDataKeys.get() < this.dataKeyWatermark
+                || this.availableKeyPairs.get() < this.keyPairWatermark;
+    }
+
+    private byte[] createDataKey() {
+        byte[] dataKey = new byte[this.dataKeyLength];
+        RandomSources.getDefault().nextBytes(dataKey);
+        return dataKey;
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.CipherStreamUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
+
+/**
+ * Encrypts data for multiple recipients. The payload is encrypted once with a random symmetric
+ * key like by the {@link RsaEncrypter}. The symmetric key is encrypted with the public key of
+ * every recipient and all encrypted keys are written in front of the payload:
+ * <pre>
+ *   data      := MULTI_RECIPIENT_MARKER count(2) recipient* payload
+ *   recipient := fingerprint(16) length(2) encryptedKey
+ * </pre>
+ * The {@link RsaDecrypter} of each recipient finds its encrypted key by the fingerprint of its
+ * key pair, so the effort is one encryption of the payload and one RSA operation per recipient
+ * instead of one encryption of the payload per recipient. Streams are base64 encoded unless
+ * {@link Encoding#BINARY} is configured, encrypted {@link String}s are always base64 encoded.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:20
+ */
+public class RsaMultiRecipientEncrypter implements Encrypter {
+
+    private static final Logger log = LoggerFactory.getLogger(RsaMultiRecipientEncrypter.class);
+
+    /**
+     * The encrypters of the recipients used to encrypt the symmetric key.
+     */
+    private final List<RsaEncrypter> recipients = new ArrayList<>();
+
+    /**
+     * The fingerprints of the recipients in the order of {@link #recipients}.
+     */
+    private final List<byte[]> fingerprints = new ArrayList<>();
+
+    private final Encoding encoding;
+
+    private final boolean initialised;
+
+    /**
+     * The result of the test encryption for all recipients. It is {@code null} until
+     * {@link #isReadyToOperate()} is called for the first time.
+     */
+    private volatile Boolean selfTestPassed;
+
+
+    public RsaMultiRecipientEncrypter(Collection<RSAPublicKeySpec> publicKeySpecs) {
+        this(publicKeySpecs, Encoding.BASE64);
+    }
+
+    /**
+     * @param publicKeySpecs the public keys of the recipients, at most
+     *      {@value RsaProperties#MAX_RECIPIENTS}
+     * @param encoding the encoding of encrypted streams, {@code null} for
+     *      {@link Encoding#BASE64}
+     */
+    public RsaMultiRecipientEncrypter(Collection<RSAPublicKeySpec> publicKeySpecs,
+            Encoding encoding) {
+        this.encoding = encoding == null ? Encoding.BASE64 : encoding;
+
+        initialised = addRecipients(publicKeySpecs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String encrypt(String plain) {
+
+        if (!checkInitialised()) {
+            return null;
+        }
+
+        byte[] plainBytes = stringToByte(plain);
+        if (plainBytes == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (encrypt(new ByteArrayInputStream(plainBytes), out, Encoding.BASE64)) {
+            return byteToString(out.toByteArray());
+        }
+        log.error("Unable to encrypt plain text.");
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean encrypt(InputStream plain, OutputStream encrypted) {
+        return encrypt(plain, encrypted, this.encoding);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadyToOperate() {
+        if (!checkInitialised()) {
+            return false;
+        }
+        Boolean passed = this.selfTestPassed;
+        if (passed == null) {
+            // the test encrypts the key for every recipient
+            passed = encrypt("test") != null;
+            this.selfTestPassed = passed;
+        }
+        return passed;
+    }
+
+
+    //
+    // helper
+    //
+
+    private boolean encrypt(InputStream plain, OutputStream encrypted, Encoding encoding) {
+
+        if (!checkInitialised()) {
+            return false;
+        }
+
+        if (plain == null) {
+            log.error("plain InputStream is null.");
+            return false;
+        }
+
+        if (encrypted == null) {
+            log.error("encrypted OutputStream is null.");
+            return false;
+        }
+
+        byte[] aesKey = RsaEncrypter.createAesKey();
+        byte[] header = createHeader(aesKey);
+
+        if (header == null) {
+            return false;
+        }
+
+        Encrypter aesEncrypter = new SymmetricKeyEncrypter(aesKey,
+                CipherStreamUtil.DEFAULT_BUFFER_SIZE, encoding);
+
+        try (OutputStream encoded = EncodingUtil.openEncoding(encrypted, encoding,
+                EncodingUtil.TYPE_RSA)) {
+
+            encoded.write(header);
+            if (aesEncrypter.encrypt(plain, encoded)) {
+                return true;
+            }
+
+            log.error("Could not encrypt payload.");
+
+        } catch (IOException e) {
+            log.error("Could not read from input stream or write to output stream.", e);
+        }
+        finally {
+            try {
+                plain.close();
+            } catch (IOException e) {
+                log.error("Could not close plain input stream.", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the header with the symmetric key encrypted for every recipient.
+     *
+     * @return the header or {@code null} if the key could not be encrypted for a recipient
+     */
+    private byte[] createHeader(byte[] aesKey) {
+        int count = this.recipients.size();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(RsaProperties.MULTI_RECIPIENT_MARKER);
+        header.write(count >>> 8);
+        header.write(count);
+
+        for (int i = 0; i < count; i++) {
+            byte[] encryptedAesKey = this.recipients.get(i).encryptAesKey(aesKey);
+            if (encryptedAesKey == null) {
+                log.error("Could not encrypt key for recipient {}.", i);
+                return null;
+            }
+            byte[] fingerprint = this.fingerprints.get(i);
+            byte[] length = RsaEncrypter.createEncryptedAesKeyLength(encryptedAesKey);
+            header.write(fingerprint, 0, fingerprint.length);
+            header.write(length, 0, length.length);
+            header.write(encryptedAesKey, 0, encryptedAesKey.length);
+        }
+        return header.toByteArray();
+    }
+
+    /**
+     * Adds an {@link RsaEncrypter} and the fingerprint of each public key to {@link #recipients}
+     * and {@link #fingerprints}.
+     *
+     * @return {@code false} if the recipients are invalid
+     */
+    private boolean addRecipients(Collection<RSAPublicKeySpec> publicKeySpecs) {
+        if (publicKeySpecs == null || publicKeySpecs.isEmpty()
+                || publicKeySpecs.size() > RsaProperties.MAX_RECIPIENTS) {
+            log.error("Invalid recipients: {}", publicKeySpecs);
+            return false;
+        }
+
+        for (RSAPublicKeySpec publicKeySpec : publicKeySpecs) {
+            if (publicKeySpec == null) {
+                log.error("Public key of recipient is null.");
+                return false;
+            }
+            RsaEncrypter recipient = new RsaEncrypter(publicKeySpec);
+            byte[] fingerprint = RsaKeyFactory.createFingerprint(publicKeySpec.getModulus());
+            if (fingerprint == null) {
+                return false;
+            }
+            this.recipients.add(recipient);
+            this.fingerprints.add(fingerprint);
+        }
+
+        return true;
+    }
+
+    private boolean checkInitialised() {
+        if (!initialised) {
+            log.error("{} not initialised.", this);
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -34,4 +34,58 @@ class RsaProperties {
      */
     static final int KEY_SIZE = 2048;
 
+    /**
+     * The first byte of data encrypted with a reused session key. Data encrypted with a key per
+     * message starts with the high byte of the encrypted key length, which is much smaller.
+     */
+    static final int SESSION_KEY_MARKER = 0xFF;
+
+    /**
+     * The length of the id of a session key in bytes.
+     */
+    static final int KEY_ID_LENGTH = 8;
+
+    /**
+     * The first byte of data encrypted for multiple recipients by the
+     * {@link RsaMultiRecipientEncrypter}.
+     */
+    static final int MULTI_RECIPIENT_MARKER = 0xFE;
+
+    /**
+     * The maximum number of recipients of the {@link RsaMultiRecipientEncrypter}.
+     */
+    static final int MAX_RECIPIENTS = 0xFFFF;
+
+    /**
+     * The algorithm used to create the fingerprint of a key from its modulus.
+     */
+    static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /**
+     * The length of the fingerprint of a key in bytes.
+     */
+    static final int FINGERPRINT_LENGTH = 16;
+
+    /**
+     * The first byte of a key file in the {@link KeyFormat#COMPACT} format. It is neither part of
+     * the Base64 alphabet of {@link KeyFormat#LEGACY} nor the start of {@link KeyFormat#PEM}.
+     */
+    static final int COMPACT_KEY_MARKER = 0xB1;
+
+    /**
+     * The version of the {@link KeyFormat#COMPACT} format following the
+     * {@link #COMPACT_KEY_MARKER}.
+     */
+    static final int COMPACT_KEY_VERSION = 1;
+
+    /**
+     * The type of a public key in the {@link KeyFormat#COMPACT} format.
+     */
+    static final int COMPACT_KEY_TYPE_PUBLIC = 1;
+
+    /**
+     * The type of a private key in the {@link KeyFormat#COMPACT} format.
+     */
+    static final int COMPACT_KEY_TYPE_PRIVATE = 2;
+
 }
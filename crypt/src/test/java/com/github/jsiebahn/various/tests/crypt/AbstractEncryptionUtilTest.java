@@ -9,6 +9,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.UUID;
 
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
@@ -294,6 +296,46 @@ public abstract class AbstractEncryptionUtilTest {
 
     }
 
+    @Test
+    public void shouldEncryptAndDecryptFilesByPath() throws Exception {
+
+        EncryptionUtil encryptionUtil = new EncryptionUtil(createEncrypter(), createDecrypter());
+
+        File plainFile = File.createTempFile(this.getClass().getCanonicalName(), "colors.jpg");
+        plainFile.deleteOnExit();
+        InputStream is = AbstractEncryptionUtilTest.class.getResourceAsStream("colors.jpg");
+        Files.copy(is, plainFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        File encryptedFile = File.createTempFile(this.getClass().getCanonicalName(),
+                ".encrypted.colors.jpg");
+        encryptedFile.deleteOnExit();
+        File decryptedFile = File.createTempFile(this.getClass().getCanonicalName(),
+                ".decrypted.colors.jpg");
+        decryptedFile.deleteOnExit();
+
+        assertTrue(encryptionUtil.encryptFile(plainFile.toPath(), encryptedFile.toPath()));
+
+        // the same format as written to streams
+        ByteArrayOutputStream decryptedStream = new ByteArrayOutputStream();
+        assertTrue(encryptionUtil.decrypt(new FileInputStream(encryptedFile), decryptedStream));
+        assertArrayEquals(Files.readAllBytes(plainFile.toPath()), decryptedStream.toByteArray());
+
+        assertTrue(encryptionUtil.decryptFile(encryptedFile.toPath(), decryptedFile.toPath()));
+        assertArrayEquals(Files.readAllBytes(plainFile.toPath()),
+                Files.readAllBytes(decryptedFile.toPath()));
+
+        // incomplete output is deleted
+        Files.write(encryptedFile.toPath(), "AAAA".getBytes("UTF-8"));
+        if (!encryptionUtil.decryptFile(encryptedFile.toPath(), decryptedFile.toPath())) {
+            assertFalse(decryptedFile.exists());
+        }
+
+        assertFalse(encryptionUtil.encryptFile(plainFile.toPath(), plainFile.toPath()));
+        assertFalse(encryptionUtil.encryptFile(new File(plainFile.getPath() + ".missing").toPath(),
+                encryptedFile.toPath()));
+        assertTrue(encryptedFile.exists());
+        assertFalse(encryptionUtil.encryptFile(null, encryptedFile.toPath()));
+    }
+
     @Test
     public void shouldEncryptAndDecryptMarkupFiles() throws Exception {
 
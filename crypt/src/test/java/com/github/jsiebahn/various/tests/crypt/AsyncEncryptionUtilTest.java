@@ -0,0 +1,318 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.noop.NoopDecrypter;
+import com.github.jsiebahn.various.tests.crypt.noop.NoopEncrypter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AsyncEncryptionUtil} with symmetric key encryption.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:45
+ */
+public class AsyncEncryptionUtilTest {
+
+    private ExecutorService executor;
+
+    private AsyncEncryptionUtil asyncEncryptionUtil;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        asyncEncryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("async pass phrase")
+                .buildAsync(executor);
+    }
+
+    @After
+    public void tearDown() {
+        asyncEncryptionUtil.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEncryptAndDecryptString() throws Exception {
+
+        String encrypted = asyncEncryptionUtil.encrypt("plain").get();
+
+        assertNotNull(encrypted);
+        assertEquals("plain", asyncEncryptionUtil.decrypt(encrypted).get());
+    }
+
+    @Test
+    public void testEncryptAndDecryptBytes() throws Exception {
+
+        byte[] plain = createPlain(1000);
+        byte[] encrypted = asyncEncryptionUtil.encrypt(plain).get();
+
+        assertArrayEquals(plain, asyncEncryptionUtil.decrypt(encrypted).get());
+    }
+
+    @Test
+    public void testDecryptInvalidString() throws Exception {
+
+        assertNull(asyncEncryptionUtil.decrypt("invalid").get());
+    }
+
+    @Test
+    public void testEncryptAndDecryptStreams() throws Exception {
+
+        byte[] plain = createPlain(100000);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        assertTrue(asyncEncryptionUtil.encrypt(new ByteArrayInputStream(plain), encrypted).get());
+        assertTrue(asyncEncryptionUtil.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                decrypted).get());
+        assertArrayEquals(plain, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testPipedStreamsLargerThanPipe() throws Exception {
+
+        byte[] plain = createPlain(5 * AsyncEncryptionUtil.PIPE_SIZE + 17);
+
+        InputStream encrypting = asyncEncryptionUtil.openEncryptingStream(
+                new ByteArrayInputStream(plain));
+        InputStream decrypting = asyncEncryptionUtil.openDecryptingStream(encrypting);
+
+        assertArrayEquals(plain, readAll(decrypting));
+    }
+
+    @Test(expected = IOException.class)
+    public void testPipedStreamReportsFailure() throws Exception {
+
+        InputStream decrypting = asyncEncryptionUtil.openDecryptingStream(
+                new ByteArrayInputStream(createPlain(1000)));
+
+        readAll(decrypting);
+    }
+
+    @Test
+    public void testOpenedStreamsDoNotNeedTheExecutor() throws Exception {
+
+        // all threads are busy, streams of AES crypters are processed by the caller anyway
+        CountDownLatch release = new CountDownLatch(1);
+        occupy(executor, 2, release);
+        try {
+            byte[] plain = createPlain(3 * AsyncEncryptionUtil.PIPE_SIZE);
+            InputStream encrypting = asyncEncryptionUtil.openEncryptingStream(
+                    new ByteArrayInputStream(plain));
+
+            assertArrayEquals(plain, readAll(asyncEncryptionUtil.openDecryptingStream(
+                    encrypting)));
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testPipedStreamsOfOtherCrypters() throws Exception {
+
+        try (AsyncEncryptionUtil noop = new AsyncEncryptionUtil(new EncryptionUtil(
+                new NoopEncrypter(), new NoopDecrypter()), executor)) {
+            byte[] plain = createPlain(3 * AsyncEncryptionUtil.PIPE_SIZE + 1);
+
+            assertArrayEquals(plain, readAll(noop.openDecryptingStream(
+                    noop.openEncryptingStream(new ByteArrayInputStream(plain)))));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testPipedStreamFailsIfExecutorIsSaturated() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        occupy(executor, 2, release);
+        try (AsyncEncryptionUtil noop = new AsyncEncryptionUtil(new EncryptionUtil(
+                new NoopEncrypter(), new NoopDecrypter()), executor, 100)) {
+            readAll(noop.openEncryptingStream(new ByteArrayInputStream(createPlain(10))));
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testCompletionListener() throws Exception {
+
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<String> encrypted = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        asyncEncryptionUtil.encrypt("plain", new CompletionListener<String>() {
+            @Override
+            public void completed(String result) {
+                encrypted.set(result);
+                done.countDown();
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                failure.set(cause);
+                done.countDown();
+            }
+        });
+        final AtomicBoolean decrypted = new AtomicBoolean();
+        asyncEncryptionUtil.decrypt(new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream(), new CompletionListener<Boolean>() {
+                    @Override
+                    public void completed(Boolean result) {
+                        decrypted.set(result);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void failed(Throwable cause) {
+                        failure.set(cause);
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals("plain", asyncEncryptionUtil.decrypt(encrypted.get()).get());
+        // the failed decryption completes with false like the EncryptionUtil
+        assertFalse(decrypted.get());
+    }
+
+    @Test
+    public void testCompletionListenerOfCancelledOperation() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        occupy(executor, 2, release);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            Future<byte[]> result = asyncEncryptionUtil.encrypt(new byte[10],
+                    new CompletionListener<byte[]>() {
+                        @Override
+                        public void completed(byte[] result) {
+                            fail("Cancelled operation completed.");
+                        }
+
+                        @Override
+                        public void failed(Throwable cause) {
+                            failure.set(cause);
+                        }
+                    });
+            assertTrue(result.cancel(false));
+        }
+        finally {
+            release.countDown();
+        }
+
+        assertTrue(failure.get() instanceof CancellationException);
+    }
+
+    @Test
+    public void testBuildAsyncWithDefaultExecutor() throws Exception {
+
+        try (AsyncEncryptionUtil util = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("async pass phrase")
+                .buildAsync()) {
+            assertEquals("plain", util.decrypt(util.encrypt("plain").get()).get());
+        }
+    }
+
+    @Test
+    public void testOperationsAfterClose() throws Exception {
+
+        AsyncEncryptionUtil util = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("async pass phrase")
+                .buildAsync();
+        util.close();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Future<String> result = util.encrypt("plain", new CompletionListener<String>() {
+            @Override
+            public void completed(String result) {
+                fail("Rejected operation completed.");
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                failure.set(cause);
+            }
+        });
+
+        assertTrue(result.isDone());
+        assertTrue(failure.get() instanceof RejectedExecutionException);
+        try {
+            util.decrypt(new byte[10]).get();
+            fail("Rejected operation returned a result.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        try (AsyncEncryptionUtil noop = new AsyncEncryptionUtil(new EncryptionUtil(
+                new NoopEncrypter(), new NoopDecrypter()))) {
+            noop.close();
+            assertNull(noop.openEncryptingStream(new ByteArrayInputStream(createPlain(10))));
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    /**
+     * Blocks {@code threads} threads of the {@code executor} until {@code release} is counted
+     * down.
+     */
+    private static void occupy(ExecutorService executor, int threads,
+            final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch occupied = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    occupied.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(occupied.await(10, TimeUnit.SECONDS));
+    }
+
+    private static byte[] createPlain(int length) {
+        byte[] plain = new byte[length];
+        new Random(length).nextBytes(plain);
+        return plain;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream closed = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = closed.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
@@ -4,21 +4,28 @@ import ch.qos.logback.classic.Level;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
 import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmDecrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
 import com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopDecrypter;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopEncrypter;
 import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
 import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeySpecPair;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
 import static org.junit.Assert.*;
 
 /**
@@ -45,6 +52,8 @@ public class EncryptionUtilBuilderTest {
                 LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, NoopDecrypter.class));
         beforeLevels.put(SymmetricKeyDecrypter.class,
                 LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, SymmetricKeyDecrypter.class));
+        beforeLevels.put(GcmDecrypter.class,
+                LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, GcmDecrypter.class));
         beforeLevels.put(SymmetricKeyUtil.class,
                 LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, SymmetricKeyUtil.class));
     }
@@ -143,6 +152,205 @@ public class EncryptionUtilBuilderTest {
         assertConfiguredForDecryption(encryptionUtil);
     }
 
+    @Test
+    public void testBuildGcm() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPassPhrase("test phrase")
+                .withCipherMode(CipherMode.GCM)
+                .build();
+        assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+
+        // the cipher mode applies independent of the order
+        EncryptionUtil decryptionUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withCipherMode(CipherMode.GCM)
+                .withPassPhrase("test phrase")
+                .buildForDecryption();
+        assertEquals("plain", decryptionUtil.decrypt(encryptionUtil.encrypt("plain")));
+
+        EncryptionUtil cbcUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPassPhrase("test phrase")
+                .build();
+        assertNull(cbcUtil.decrypt(encryptionUtil.encrypt("plain")));
+    }
+
+    @Test
+    public void testBuildGcmWithParallelism() {
+
+        EncryptionUtil parallelUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withParallelism(4)
+                .withCipherMode(CipherMode.GCM)
+                .withPassPhrase("test phrase")
+                .build();
+        assertConfiguredForEncryptionAndDecryption(parallelUtil);
+
+        EncryptionUtil sequentialUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withCipherMode(CipherMode.GCM)
+                .withPassPhrase("test phrase")
+                .build();
+        assertEquals("plain", sequentialUtil.decrypt(parallelUtil.encrypt("plain")));
+    }
+
+    @Test
+    public void testBuildGcmWithInvalidParallelism() {
+
+        for (int parallelism : new int[] {0, -1}) {
+            EncryptionUtil encryptionUtil = EncryptionUtilBuilder
+                    .encryptionUtil()
+                    .withParallelism(parallelism)
+                    .withCipherMode(CipherMode.GCM)
+                    .withPassPhrase("test phrase")
+                    .build();
+            assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+
+            byte[] plain = new byte[300 * 1024];
+            assertArrayEquals(plain, encryptionUtil.decrypt(encryptionUtil.encrypt(plain)));
+        }
+    }
+
+    @Test
+    public void testLastConfigurationWins() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPassPhrase("test phrase")
+                .withNoop()
+                .withCipherMode(CipherMode.GCM)
+                .build();
+        assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+        assertEquals("plain", encryptionUtil.encrypt("plain"));
+    }
+
+    @Test
+    public void testBuildWithBinaryEncoding() {
+
+        byte[] plain = stringToByte("plain test");
+        for (CipherMode cipherMode : CipherMode.values()) {
+            EncryptionUtil binaryUtil = EncryptionUtilBuilder
+                    .encryptionUtil()
+                    .withEncoding(Encoding.BINARY)
+                    .withCipherMode(cipherMode)
+                    .withPassPhrase("test phrase")
+                    .build();
+            assertConfiguredForEncryptionAndDecryption(binaryUtil);
+
+            EncryptionUtil base64Util = EncryptionUtilBuilder
+                    .encryptionUtil()
+                    .withCipherMode(cipherMode)
+                    .withPassPhrase("test phrase")
+                    .build();
+
+            byte[] binary = binaryUtil.encrypt(plain);
+            byte[] base64 = base64Util.encrypt(plain);
+            assertEquals(EncodingUtil.MAGIC, binary[0]);
+            assertTrue(binary.length < base64.length);
+
+            // decryption detects the encoding
+            assertArrayEquals(plain, base64Util.decrypt(binary));
+            assertArrayEquals(plain, binaryUtil.decrypt(base64));
+        }
+    }
+
+    @Test
+    public void testBuildWithStreamAuthentication() {
+
+        byte[] plain = stringToByte("plain test");
+        EncryptionUtil authenticatedUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withStreamAuthentication(true)
+                .withPassPhrase("test phrase")
+                .build();
+        assertConfiguredForEncryptionAndDecryption(authenticatedUtil);
+
+        byte[] authenticated = authenticatedUtil.encrypt(plain);
+        assertEquals(EncodingUtil.TYPE_CBC_HMAC, authenticated[2]);
+        assertArrayEquals(plain, authenticatedUtil.decrypt(authenticated));
+
+        byte[] unauthenticated = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPassPhrase("test phrase")
+                .build()
+                .encrypt(plain);
+        assertNull(authenticatedUtil.decrypt(unauthenticated));
+    }
+
+    @Test
+    public void testBuildRsaWithBinaryEncoding() {
+
+        ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+        ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+        new RsaKeyFactory().createKeys(privateKey, publicKey);
+
+        // the encoding applies independent of the order
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPublicKeyFromInputStream(new ByteArrayInputStream(publicKey.toByteArray()))
+                .withPrivateKeyFromInputStream(new ByteArrayInputStream(privateKey.toByteArray()))
+                .withEncoding(Encoding.BINARY)
+                .build();
+        assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+
+        byte[] plain = stringToByte("plain test");
+        byte[] encrypted = encryptionUtil.encrypt(plain);
+        assertEquals(EncodingUtil.MAGIC, encrypted[0]);
+        assertArrayEquals(plain, encryptionUtil.decrypt(encrypted));
+        assertEquals("plain test", encryptionUtil.decrypt(encryptionUtil.encrypt("plain test")));
+    }
+
+    @Test
+    public void testBuildRsaWithSessionKeys() {
+
+        ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+        ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+        new RsaKeyFactory().createKeys(privateKey, publicKey);
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder
+                .encryptionUtil()
+                .withPublicKeyFromInputStream(new ByteArrayInputStream(publicKey.toByteArray()))
+                .withPrivateKeyFromInputStream(new ByteArrayInputStream(privateKey.toByteArray()))
+                .withSessionKeys(1000, 1, TimeUnit.MINUTES)
+                .build();
+        assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+
+        for (int i = 0; i < 10; i++) {
+            String plain = "plain " + i;
+            assertEquals(plain, encryptionUtil.decrypt(encryptionUtil.encrypt(plain)));
+        }
+    }
+
+    @Test
+    public void testBuildRsaWithInvalidSessionKeys() {
+
+        ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+        ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+        new RsaKeyFactory().createKeys(privateKey, publicKey);
+
+        EncryptionUtilBuilder[] builders = {
+                EncryptionUtilBuilder.encryptionUtil().withSessionKeys(-1, 1, TimeUnit.MINUTES),
+                EncryptionUtilBuilder.encryptionUtil().withSessionKeys(10, -1, TimeUnit.MINUTES),
+                EncryptionUtilBuilder.encryptionUtil().withSessionKeys(10, 1, null)
+        };
+        for (EncryptionUtilBuilder builder : builders) {
+            EncryptionUtil encryptionUtil = builder
+                    .withPublicKeyFromInputStream(new ByteArrayInputStream(
+                            publicKey.toByteArray()))
+                    .withPrivateKeyFromInputStream(new ByteArrayInputStream(
+                            privateKey.toByteArray()))
+                    .build();
+            assertConfiguredForEncryptionAndDecryption(encryptionUtil);
+
+            // the default of one key per message is kept, so there is no session key marker
+            byte[] encrypted = Base64.decodeBase64(encryptionUtil.encrypt("plain"));
+            assertNotEquals((byte) 0xFF, encrypted[0]);
+            assertEquals("plain", encryptionUtil.decrypt(Base64.encodeBase64String(encrypted)));
+        }
+    }
+
     @Test
     public void testNotMatchingEncrypterAndDecrypter() {
 
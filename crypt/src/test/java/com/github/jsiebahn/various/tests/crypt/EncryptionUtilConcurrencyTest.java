@@ -0,0 +1,231 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaDecrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaEncrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeySpecPair;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stresses one shared {@link EncryptionUtil} per key with 1 to 64 threads. Every thread encrypts
+ * and decrypts its own values through the {@link String}, {@code byte[]} and stream api and
+ * checks the results. The throughput per thread count is logged for a rough comparison, the JMH
+ * benchmarks in {@code crypt-benchmarks} are the reference for performance.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 15:10
+ */
+public class EncryptionUtilConcurrencyTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EncryptionUtilConcurrencyTest.class);
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static final int OPERATIONS_PER_THREAD = 20;
+
+    private static RsaKeySpecPair rsaKeySpecPair;
+
+    @BeforeClass
+    public static void initKeySpec() {
+        rsaKeySpecPair = new RsaKeyFactory().createKeys(new ByteArrayOutputStream(),
+                new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptConcurrentlyWithCbc() throws Exception {
+        assertRoundTripsConcurrently("CBC", EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("concurrent pass phrase")
+                .build());
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptConcurrentlyWithAuthenticatedCbc() throws Exception {
+        assertRoundTripsConcurrently("CBC-HMAC", EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("concurrent pass phrase")
+                .withStreamAuthentication(true)
+                .build());
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptConcurrentlyWithGcm() throws Exception {
+        assertRoundTripsConcurrently("GCM", EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("concurrent pass phrase")
+                .withCipherMode(CipherMode.GCM)
+                .withParallelism(4)
+                .build());
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptConcurrentlyWithRsaSessionKeys() throws Exception {
+        assertRoundTripsConcurrently("RSA", new EncryptionUtil(
+                new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec(), Encoding.BINARY, 100, 0),
+                new RsaDecrypter(rsaKeySpecPair.getPrivateKeySpec())));
+    }
+
+    @Test
+    public void shouldNotExceedMaxMessagesPerSessionKeyConcurrently() throws Exception {
+
+        final int maxMessagesPerKey = 3;
+        final Encrypter encrypter = new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec(),
+                Encoding.BASE64, maxMessagesPerKey, 0);
+        final ConcurrentMap<String, AtomicInteger> messagesByKey = new ConcurrentHashMap<>();
+
+        runConcurrently(64, new Operation() {
+            @Override
+            public void run(int thread, int operation) {
+                byte[] encrypted = Base64.decodeBase64(encrypter.encrypt("plain"));
+                // marker and key id identify the session key
+                String keyId = Base64.encodeBase64String(Arrays.copyOf(encrypted, 9));
+                AtomicInteger messages = new AtomicInteger();
+                AtomicInteger existing = messagesByKey.putIfAbsent(keyId, messages);
+                (existing != null ? existing : messages).incrementAndGet();
+            }
+        });
+
+        int total = 0;
+        for (AtomicInteger messages : messagesByKey.values()) {
+            assertTrue(messages.get() <= maxMessagesPerKey);
+            total += messages.get();
+        }
+        assertEquals(64 * OPERATIONS_PER_THREAD, total);
+    }
+
+    @Test
+    public void shouldCreateOneKeyPairForConcurrentBuilders() throws Exception {
+
+        final File privateKeyFile = File.createTempFile(getClass().getSimpleName(), ".prv.key");
+        final File publicKeyFile = File.createTempFile(getClass().getSimpleName(), ".pub.key");
+        assertTrue(privateKeyFile.delete());
+        assertTrue(publicKeyFile.delete());
+        privateKeyFile.deleteOnExit();
+        publicKeyFile.deleteOnExit();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<EncryptionUtil>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<EncryptionUtil>() {
+                    @Override
+                    public EncryptionUtil call() {
+                        return EncryptionUtilBuilder.encryptionUtil()
+                                .withKeyPair(privateKeyFile, publicKeyFile)
+                                .build();
+                    }
+                }));
+            }
+
+            String encrypted = results.get(0).get().encrypt("plain");
+            for (Future<EncryptionUtil> result : results) {
+                assertNotNull(result.get());
+                assertEquals("plain", result.get().decrypt(encrypted));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            privateKeyFile.delete();
+            publicKeyFile.delete();
+        }
+    }
+
+    // helper
+
+    private void assertRoundTripsConcurrently(String name, final EncryptionUtil encryptionUtil)
+            throws Exception {
+
+        assertNotNull(encryptionUtil);
+
+        for (int threads : THREAD_COUNTS) {
+            long nanos = runConcurrently(threads, new Operation() {
+                @Override
+                public void run(int thread, int operation) {
+                    String plain = "thread " + thread + " operation " + operation;
+                    assertEquals(plain, encryptionUtil.decrypt(encryptionUtil.encrypt(plain)));
+
+                    byte[] plainBytes = plain.getBytes(StandardCharsets.UTF_8);
+                    assertArrayEquals(plainBytes,
+                            encryptionUtil.decrypt(encryptionUtil.encrypt(plainBytes)));
+
+                    ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                    assertTrue(encryptionUtil.encrypt(new ByteArrayInputStream(plainBytes),
+                            encrypted));
+                    ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                    assertTrue(encryptionUtil.decrypt(
+                            new ByteArrayInputStream(encrypted.toByteArray()), decrypted));
+                    assertArrayEquals(plainBytes, decrypted.toByteArray());
+                }
+            });
+            log.info("{} with {} threads: {} round trips/s", name, threads,
+                    threads * OPERATIONS_PER_THREAD * TimeUnit.SECONDS.toNanos(1) / nanos);
+        }
+    }
+
+    /**
+     * Runs {@link #OPERATIONS_PER_THREAD} operations in each of {@code threads} threads that
+     * start at the same time and fails with the first error of any thread.
+     *
+     * @return the time all threads needed in nanoseconds
+     */
+    private long runConcurrently(int threads, final Operation operation) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> results = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                            operation.run(thread, j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long started = System.nanoTime();
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+            return Math.max(1, System.nanoTime() - started);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // inner classes
+
+    private interface Operation {
+
+        void run(int thread, int operation) throws Exception;
+
+    }
+
+}
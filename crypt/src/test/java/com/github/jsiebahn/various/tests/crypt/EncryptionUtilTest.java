@@ -1,13 +1,26 @@
 package com.github.jsiebahn.various.tests.crypt;
 
 import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.internal.BatchUtil;
 import com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopDecrypter;
 import com.github.jsiebahn.various.tests.crypt.noop.NoopEncrypter;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -160,6 +173,177 @@ public class EncryptionUtilTest {
 
     }
 
+    @Test
+    public void testEncryptAllAndDecryptAll() throws Exception {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("batch pass phrase")
+                .build();
+        List<String> plain = createPlainTexts(3 * BatchUtil.SLICE_SIZE + 1);
+
+        for (boolean parallel : new boolean[] {false, true}) {
+            List<String> encrypted = encryptionUtil.encryptAll(plain, false, parallel);
+            assertEquals(plain.size(), encrypted.size());
+            assertEquals(plain.get(7), encryptionUtil.decrypt(encrypted.get(7)));
+            assertEquals(plain, encryptionUtil.decryptAll(encrypted, parallel));
+        }
+    }
+
+    @Test
+    public void testEncryptAllAndDecryptAllBytes() throws Exception {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("batch pass phrase")
+                .build();
+        byte[][] plain = new byte[2 * BatchUtil.SLICE_SIZE + 1][];
+        for (int i = 1; i < plain.length; i++) {
+            plain[i] = ("value " + i).getBytes("UTF-8");
+        }
+
+        for (boolean parallel : new boolean[] {false, true}) {
+            byte[][] encrypted = encryptionUtil.encryptAll(plain, false, parallel);
+            assertNull(encrypted[0]);
+            assertArrayEquals(plain[3], encryptionUtil.decrypt(encrypted[3]));
+            byte[][] decrypted = encryptionUtil.decryptAll(encrypted, parallel);
+            for (int i = 0; i < plain.length; i++) {
+                assertArrayEquals(plain[i], decrypted[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testEncryptAllWithoutDecrypter() throws Exception {
+
+        Level before = LoggingTestUtil.setLogLevel(Level.OFF, EncryptionUtil.class);
+
+        try {
+            EncryptionUtil encryptionUtil = new EncryptionUtil(new NoopEncrypter(), null);
+            List<String> plain = Arrays.asList("first", "second");
+
+            assertNull(encryptionUtil.encryptAll(plain));
+            assertNull(encryptionUtil.decryptAll(plain));
+            assertEquals(plain, encryptionUtil.encryptAll(plain, true, false));
+        }
+        finally {
+            LoggingTestUtil.setLogLevel(before, EncryptionUtil.class);
+        }
+    }
+
+    @Test
+    public void testEncryptingWriterAndDecryptingReader() throws Exception {
+
+        EncryptionUtil encryptionUtil = createTextEncryptionUtil();
+        // multi byte characters are split at the boundaries of the buffers
+        String plain = createText(3 * 64 * 1024 + 5);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+        try (Writer writer = encryptionUtil.openEncryptingWriter(encrypted)) {
+            for (int i = 0; i < plain.length(); i += 1000) {
+                writer.write(plain, i, Math.min(1000, plain.length() - i));
+            }
+        }
+
+        assertEquals(plain, readAll(encryptionUtil.openDecryptingReader(
+                new ByteArrayInputStream(encrypted.toByteArray()))));
+        // the same result as encrypting the whole text as String
+        assertEquals(plain, encryptionUtil.decrypt(encrypted.toString("US-ASCII")));
+    }
+
+    @Test
+    public void testTextWriterAndTextReader() throws Exception {
+
+        EncryptionUtil encryptionUtil = createTextEncryptionUtil();
+        String plain = createText(10000);
+        StringWriter encrypted = new StringWriter();
+
+        try (Writer writer = encryptionUtil.openEncryptingWriter(encrypted)) {
+            writer.write(plain);
+        }
+
+        assertEquals(plain, readAll(encryptionUtil.openDecryptingReader(
+                new StringReader(encrypted.toString()))));
+
+        // text encrypted as String is read as well
+        String encryptedString = encryptionUtil.encrypt(plain);
+        assertEquals(plain, readAll(encryptionUtil.openDecryptingReader(
+                new StringReader(encryptedString))));
+    }
+
+    @Test
+    public void testEncryptingWriterRejectsBinaryEncodingForText() throws Exception {
+
+        EncryptionUtil binary = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("text pass phrase")
+                .withEncoding(Encoding.BINARY)
+                .build();
+
+        assertNull(binary.openEncryptingWriter(new StringWriter()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecryptingReaderReportsFailure() throws Exception {
+
+        EncryptionUtil encryptionUtil = createTextEncryptionUtil();
+        // too short for the header
+        assertNull(encryptionUtil.openDecryptingReader(new StringReader("invalid")));
+
+        // the cipher text is truncated within the last block
+        byte[] encrypted = Base64.decodeBase64(encryptionUtil.encrypt(createText(100)));
+        String truncated = Base64.encodeBase64String(Arrays.copyOf(encrypted,
+                encrypted.length - 1));
+        readAll(encryptionUtil.openDecryptingReader(new StringReader(truncated)));
+    }
+
+    @Test
+    public void testWriterAndReaderRequireStreamingCrypters() throws Exception {
+
+        EncryptionUtil noop = new EncryptionUtil(new NoopEncrypter(), new NoopDecrypter());
+
+        assertNull(noop.openEncryptingWriter(new ByteArrayOutputStream()));
+        assertNull(noop.openDecryptingReader(new ByteArrayInputStream(new byte[10])));
+    }
+
+
+    //
+    // helper
+    //
+
+    private static List<String> createPlainTexts(int count) {
+        List<String> plain = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            plain.add("value " + i);
+        }
+        return plain;
+    }
+
+    private static EncryptionUtil createTextEncryptionUtil() {
+        return EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("text pass phrase")
+                .build();
+    }
+
+    private static String createText(int length) {
+        StringBuilder text = new StringBuilder(length);
+        Random random = new Random(length);
+        String characters = "abc \u00e4\u00f6\u00fc\u20ac\n";
+        while (text.length() < length) {
+            text.append(characters.charAt(random.nextInt(characters.length())));
+        }
+        return text.toString();
+    }
+
+    private static String readAll(Reader in) throws IOException {
+        try (Reader closed = in) {
+            StringBuilder out = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = closed.read(buffer)) != -1) {
+                out.append(buffer, 0, read);
+            }
+            return out.toString();
+        }
+    }
+
 
     //
     // test classes to test isConfiguredFor...()
@@ -0,0 +1,213 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Cache;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Operation;
+import com.github.jsiebahn.various.tests.crypt.Instrumentation.Phase;
+import com.github.jsiebahn.various.tests.crypt.internal.ReseedingRandomSource;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaDecrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaEncrypter;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeyFactory;
+import com.github.jsiebahn.various.tests.crypt.rsa.RsaKeySpecPair;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link Instrumentation} hooks of the crypt module with an
+ * {@link InMemoryInstrumentation}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:40
+ */
+public class InstrumentationTest {
+
+    private static RsaKeySpecPair rsaKeySpecPair;
+
+    private InMemoryInstrumentation instrumentation;
+
+    @Before
+    public void setInstrumentation() {
+        if (rsaKeySpecPair == null) {
+            rsaKeySpecPair = new RsaKeyFactory().createKeys(new ByteArrayOutputStream(),
+                    new ByteArrayOutputStream());
+        }
+        this.instrumentation = new InMemoryInstrumentation();
+        Instrumentations.setDefault(this.instrumentation);
+    }
+
+    @After
+    public void restoreDefault() {
+        Instrumentations.setDefault(null);
+    }
+
+    @Test
+    public void shouldRecordStringOperations() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        // the builder verifies the configuration with an encryption
+        instrumentation.reset();
+
+        String encrypted = encryptionUtil.encrypt("pl\u00e4in");
+        assertEquals("pl\u00e4in", encryptionUtil.decrypt(encrypted));
+
+        assertEquals(1, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertEquals(6, instrumentation.getBytes(Operation.ENCRYPT_STRING));
+        assertEquals(0, instrumentation.getFailures(Operation.ENCRYPT_STRING));
+        assertEquals(1, instrumentation.getCount(Operation.DECRYPT_STRING));
+        assertEquals(Base64.decodeBase64(encrypted).length,
+                instrumentation.getBytes(Operation.DECRYPT_STRING));
+        assertTrue(instrumentation.getTotalNanos(Operation.ENCRYPT_STRING) > 0);
+        assertEquals(2, instrumentation.getCount(Phase.CIPHER_INIT));
+        assertEquals(1, instrumentation.getCount(Phase.RANDOM));
+    }
+
+    @Test
+    public void shouldRecordEncodedLengthOfBatchValues() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        instrumentation.reset();
+
+        assertEquals(3, encryptionUtil.encryptAll(Arrays.asList("\u20ac", "pl\u00e4in", null))
+                .size());
+
+        assertEquals(3, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertEquals(9, instrumentation.getBytes(Operation.ENCRYPT_STRING));
+    }
+
+    @Test
+    public void shouldRecordStreamOperations() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .withCipherMode(CipherMode.GCM)
+                .build();
+        instrumentation.reset();
+        byte[] plain = "plain text of a stream".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(encryptionUtil.encrypt(new ByteArrayInputStream(plain), encrypted));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        assertTrue(encryptionUtil.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                decrypted));
+
+        assertEquals("plain text of a stream", new String(decrypted.toByteArray(),
+                StandardCharsets.UTF_8));
+        assertEquals(1, instrumentation.getCount(Operation.ENCRYPT_STREAM));
+        assertEquals(plain.length, instrumentation.getBytes(Operation.ENCRYPT_STREAM));
+        assertEquals(1, instrumentation.getCount(Operation.DECRYPT_STREAM));
+        assertEquals(encrypted.size(), instrumentation.getBytes(Operation.DECRYPT_STREAM));
+        assertEquals(2, instrumentation.getCount(Phase.IO));
+        assertTrue(instrumentation.getCount(Phase.CIPHER_INIT) >= 2);
+    }
+
+    @Test
+    public void shouldRecordRsaPhasesAndSessionKeyCache() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withEncrypter(new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec(),
+                        Encoding.BASE64, 100, 60000))
+                .withDecrypter(new RsaDecrypter(rsaKeySpecPair.getPrivateKeySpec()))
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("plain", encryptionUtil.decrypt(encryptionUtil.encrypt("plain")));
+        }
+
+        // the session key is created for the verification of the builder and used afterwards
+        assertEquals(4, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertEquals(1, instrumentation.getCount(Phase.RSA_WRAP));
+        assertEquals(1, instrumentation.getCount(Phase.RSA_UNWRAP));
+        assertEquals(1, instrumentation.getMisses(Cache.RSA_SESSION_KEY));
+        assertEquals(3, instrumentation.getHits(Cache.RSA_SESSION_KEY));
+        assertTrue(instrumentation.getHits(Cache.CIPHER_POOL) > 0);
+    }
+
+    @Test
+    public void shouldRecordRejectedOperationAsFailure() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withDecrypter(new RsaDecrypter(rsaKeySpecPair.getPrivateKeySpec()))
+                .buildForDecryption();
+
+        assertNull(encryptionUtil.encrypt("plain"));
+
+        assertEquals(1, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertEquals(1, instrumentation.getFailures(Operation.ENCRYPT_STRING));
+    }
+
+    @Test
+    public void shouldExportSnapshotAndReset() {
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        instrumentation.reset();
+        encryptionUtil.encrypt("plain");
+
+        Map<String, Long> snapshot = instrumentation.snapshot();
+
+        assertEquals(Long.valueOf(1), snapshot.get("encrypt_string.count"));
+        assertEquals(Long.valueOf(5), snapshot.get("encrypt_string.bytes"));
+        assertTrue(snapshot.get("encrypt_string.p99_nanos")
+                >= snapshot.get("encrypt_string.p50_nanos"));
+        assertTrue(snapshot.containsKey("cipher_init.count"));
+        assertTrue(snapshot.containsKey("cipher_pool.hits"));
+        assertNull(snapshot.get("decrypt_string.count"));
+
+        instrumentation.reset();
+
+        assertEquals(0, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertNull(instrumentation.snapshot().get("encrypt_string.count"));
+    }
+
+    @Test
+    public void shouldEstimatePercentilesByPowersOfTwo() {
+
+        for (int i = 0; i < 99; i++) {
+            instrumentation.recordPhase(Phase.IO, 1000);
+        }
+        instrumentation.recordPhase(Phase.IO, 1000000);
+
+        assertEquals(1023, instrumentation.getPercentileNanos(Phase.IO, 50));
+        assertEquals(1023, instrumentation.getPercentileNanos(Phase.IO, 99));
+        assertEquals(1048575, instrumentation.getPercentileNanos(Phase.IO, 100));
+        assertEquals(0, instrumentation.getPercentileNanos(Phase.RANDOM, 99));
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() {
+
+        Instrumentations.setDefault(null);
+        assertThat(RandomSources.getDefault(), instanceOf(ReseedingRandomSource.class));
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        assertEquals("plain", encryptionUtil.decrypt(encryptionUtil.encrypt("plain")));
+
+        assertEquals(0, instrumentation.getCount(Operation.ENCRYPT_STRING));
+        assertEquals(0, instrumentation.getCount(Phase.CIPHER_INIT));
+        assertEquals(0, instrumentation.getHits(Cache.CIPHER_POOL));
+        assertThat(Instrumentations.getDefault(), not(instanceOf(
+                InMemoryInstrumentation.class)));
+    }
+
+}
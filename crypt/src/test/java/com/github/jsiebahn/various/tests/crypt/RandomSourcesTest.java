@@ -0,0 +1,89 @@
+package com.github.jsiebahn.various.tests.crypt;
+
+import com.github.jsiebahn.various.tests.crypt.internal.ReseedingRandomSource;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RandomSources}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 11:31
+ */
+public class RandomSourcesTest {
+
+    @After
+    public void restoreDefault() {
+        RandomSources.setDefault(null);
+    }
+
+    @Test
+    public void shouldUseReseedingRandomSourceByDefault() {
+        assertThat(RandomSources.getDefault(), instanceOf(ReseedingRandomSource.class));
+    }
+
+    @Test
+    public void shouldUseConfiguredRandomSource() {
+
+        CountingRandomSource randomSource = new CountingRandomSource();
+        RandomSources.setDefault(randomSource);
+        assertSame(randomSource, RandomSources.getDefault());
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        int before = randomSource.calls;
+
+        String encrypted = encryptionUtil.encrypt("plain");
+
+        assertTrue(randomSource.calls > before);
+        assertEquals("plain", encryptionUtil.decrypt(encrypted));
+
+        RandomSources.setDefault(null);
+        assertThat(RandomSources.getDefault(), instanceOf(ReseedingRandomSource.class));
+    }
+
+    @Test
+    public void shouldCreateInitialisationVectorsOfBatchWithOneCall() {
+
+        CountingRandomSource randomSource = new CountingRandomSource();
+        RandomSources.setDefault(randomSource);
+
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("test")
+                .build();
+        List<String> plain = Collections.nCopies(100, "plain");
+        int before = randomSource.calls;
+
+        List<String> encrypted = encryptionUtil.encryptAll(plain);
+
+        assertEquals(before + 1, randomSource.calls);
+        assertEquals(plain, encryptionUtil.decryptAll(encrypted));
+    }
+
+
+    /**
+     * Produces predictable bytes and counts the calls.
+     */
+    private static class CountingRandomSource implements RandomSource {
+
+        private int calls;
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            calls++;
+            Arrays.fill(bytes, (byte) calls);
+        }
+    }
+
+}
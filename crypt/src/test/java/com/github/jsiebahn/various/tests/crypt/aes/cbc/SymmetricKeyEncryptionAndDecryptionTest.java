@@ -1,11 +1,25 @@
 package com.github.jsiebahn.various.tests.crypt.aes.cbc;
 
 import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
 import com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil;
+import org.apache.commons.codec.binary.Base64;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
 import static com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil.setLogLevel;
 import static org.junit.Assert.*;
@@ -103,4 +117,408 @@ public class SymmetricKeyEncryptionAndDecryptionTest {
 
     }
 
+    @Test
+    public void shouldEncryptAndDecryptStreamsWithAnyBufferSize() throws Exception {
+
+        int[] bufferSizes = {1, 16, 100, 16384, 65536};
+
+        for (int length : new int[] {0, 15, 16, 17, 100000}) {
+            byte[] plain = new byte[length];
+            new Random(length).nextBytes(plain);
+
+            for (int encryptBufferSize : bufferSizes) {
+                SymmetricKeyEncrypter encrypter =
+                        new SymmetricKeyEncrypter("t\u00E4st", encryptBufferSize);
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+
+                for (int decryptBufferSize : bufferSizes) {
+                    SymmetricKeyDecrypter decrypter =
+                            new SymmetricKeyDecrypter("t\u00E4st", decryptBufferSize);
+                    ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                    assertTrue(decrypter.decrypt(
+                            new ByteArrayInputStream(encrypted.toByteArray()), decrypted));
+                    assertArrayEquals(plain, decrypted.toByteArray());
+                }
+            }
+        }
+
+    }
+
+    @Test
+    public void shouldNotDecryptTruncatedStreams() throws Exception {
+
+        byte[] plain = new byte[1000];
+        new Random(1).nextBytes(plain);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(new SymmetricKeyEncrypter("test").encrypt(new ByteArrayInputStream(plain),
+                encrypted));
+
+        // cut the stream in the middle of a cipher block, base64 will produce a partial block
+        String base64 = new String(encrypted.toByteArray(), "UTF-8");
+        byte[] truncated = base64.substring(0, base64.length() - 10).getBytes("UTF-8");
+
+        Level before = setLogLevel(Level.OFF, SymmetricKeyDecrypter.class);
+        try {
+            assertFalse(new SymmetricKeyDecrypter("test").decrypt(
+                    new ByteArrayInputStream(truncated), new ByteArrayOutputStream()));
+            assertFalse(new SymmetricKeyDecrypter("test").decrypt(
+                    new ByteArrayInputStream("AAAA".getBytes("UTF-8")),
+                    new ByteArrayOutputStream()));
+        }
+        finally {
+            setLogLevel(before, SymmetricKeyDecrypter.class);
+        }
+
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptByteBuffers() throws Exception {
+
+        SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter("test");
+        SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter("test");
+
+        for (int length : new int[] {0, 15, 16, 17, 1000}) {
+            byte[] plain = new byte[length];
+            new Random(length).nextBytes(plain);
+
+            for (boolean direct : new boolean[] {false, true}) {
+                ByteBuffer plainBuffer = allocate(length, direct);
+                plainBuffer.put(plain).flip();
+                ByteBuffer encrypted = allocate(encrypter.getMaxEncryptedLength(length), direct);
+
+                assertTrue(encrypter.encrypt(plainBuffer, encrypted));
+                assertFalse(plainBuffer.hasRemaining());
+                encrypted.flip();
+
+                ByteBuffer decrypted =
+                        allocate(decrypter.getMaxPlainLength(encrypted.remaining()), direct);
+                assertTrue(decrypter.decrypt(encrypted, decrypted));
+                assertFalse(encrypted.hasRemaining());
+                decrypted.flip();
+
+                byte[] actual = new byte[decrypted.remaining()];
+                decrypted.get(actual);
+                assertArrayEquals(plain, actual);
+            }
+        }
+    }
+
+    @Test
+    public void shouldEncryptByteBuffersInStringFormat() throws Exception {
+
+        ByteBuffer encrypted = ByteBuffer.allocate(100);
+        assertTrue(new SymmetricKeyEncrypter("test").encrypt(
+                ByteBuffer.wrap(stringToByte("t\u00E4st")), encrypted));
+        encrypted.flip();
+        byte[] raw = new byte[encrypted.remaining()];
+        encrypted.get(raw);
+
+        assertEquals("t\u00E4st",
+                new SymmetricKeyDecrypter("test").decrypt(Base64.encodeBase64String(raw)));
+
+        String encryptedString = new SymmetricKeyEncrypter("test").encrypt("t\u00E4st");
+        ByteBuffer plain = ByteBuffer.allocate(100);
+        assertTrue(new SymmetricKeyDecrypter("test").decrypt(
+                ByteBuffer.wrap(Base64.decodeBase64(encryptedString)), plain));
+        plain.flip();
+        byte[] plainBytes = new byte[plain.remaining()];
+        plain.get(plainBytes);
+        assertEquals("t\u00E4st", byteToString(plainBytes));
+    }
+
+    @Test
+    public void shouldNotChangeByteBuffersOnFailure() throws Exception {
+
+        Level encrypterBefore = setLogLevel(Level.OFF, SymmetricKeyEncrypter.class);
+        Level decrypterBefore = setLogLevel(Level.OFF, SymmetricKeyDecrypter.class);
+        try {
+            SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter("test");
+            ByteBuffer plain = ByteBuffer.wrap(new byte[20]);
+            ByteBuffer tooSmall = ByteBuffer.allocate(encrypter.getMaxEncryptedLength(20) - 1);
+            assertFalse(encrypter.encrypt(plain, tooSmall));
+            assertEquals(0, plain.position());
+            assertEquals(0, tooSmall.position());
+            assertFalse(encrypter.encrypt(null, tooSmall));
+
+            ByteBuffer encrypted = ByteBuffer.allocate(encrypter.getMaxEncryptedLength(20));
+            assertTrue(encrypter.encrypt(plain, encrypted));
+            encrypted.flip();
+            encrypted.put(encrypted.limit() - 1, (byte) (encrypted.get(encrypted.limit() - 1) ^ 1));
+
+            SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter("other");
+            ByteBuffer decrypted = ByteBuffer.allocate(100);
+            assertFalse(decrypter.decrypt(encrypted, decrypted));
+            assertEquals(0, encrypted.position());
+            assertEquals(0, decrypted.position());
+            assertFalse(decrypter.decrypt(ByteBuffer.allocate(15), decrypted));
+            assertFalse(decrypter.decrypt(encrypted, ByteBuffer.allocate(1)));
+        }
+        finally {
+            setLogLevel(encrypterBefore, SymmetricKeyEncrypter.class);
+            setLogLevel(decrypterBefore, SymmetricKeyDecrypter.class);
+        }
+    }
+
+
+    @Test
+    public void shouldEncryptAndDecryptBinaryStreams() throws Exception {
+
+        byte[] plain = new byte[100000];
+        new Random(42).nextBytes(plain);
+
+        SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"), 4096,
+                Encoding.BINARY);
+        SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter("test");
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+        byte[] binary = encrypted.toByteArray();
+        assertEquals(EncodingUtil.MAGIC, binary[0]);
+        assertEquals(EncodingUtil.FORMAT_VERSION, binary[1]);
+        assertEquals(EncodingUtil.TYPE_CBC, binary[2]);
+        assertTrue(binary.length < plain.length * 4 / 3);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        assertTrue(decrypter.decrypt(new ByteArrayInputStream(binary), decrypted));
+        assertArrayEquals(plain, decrypted.toByteArray());
+
+        // strings stay base64 encoded
+        assertEquals("test", decrypter.decrypt(encrypter.encrypt("test")));
+    }
+
+    @Test
+    public void shouldNotDecryptTruncatedBinaryStreams() throws Exception {
+
+        Level decrypterBefore = setLogLevel(Level.OFF, SymmetricKeyDecrypter.class);
+        try {
+            SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"), 16,
+                    Encoding.BINARY);
+            SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter("test");
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(encrypter.encrypt(new ByteArrayInputStream(new byte[64]), encrypted));
+            byte[] binary = encrypted.toByteArray();
+
+            // without the terminating chunk
+            byte[] truncated = Arrays.copyOf(binary, binary.length - 4);
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(truncated),
+                    new ByteArrayOutputStream()));
+
+            byte[] otherType = binary.clone();
+            otherType[2] = EncodingUtil.TYPE_GCM;
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(otherType),
+                    new ByteArrayOutputStream()));
+
+            byte[] otherVersion = binary.clone();
+            otherVersion[1] = 2;
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(otherVersion),
+                    new ByteArrayOutputStream()));
+        }
+        finally {
+            setLogLevel(decrypterBefore, SymmetricKeyDecrypter.class);
+        }
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptAuthenticatedStreams() throws Exception {
+
+        byte[] plain = new byte[100000];
+        new Random(42).nextBytes(plain);
+
+        SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"), 4096,
+                Encoding.BASE64, true);
+        SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter(stringToByte("test"), 4096,
+                true);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+        byte[] binary = encrypted.toByteArray();
+        assertEquals(EncodingUtil.TYPE_CBC_HMAC, binary[2]);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        assertTrue(decrypter.decrypt(new ByteArrayInputStream(binary), decrypted));
+        assertArrayEquals(plain, decrypted.toByteArray());
+
+        // decrypters that do not require authentication accept it as well
+        decrypted = new ByteArrayOutputStream();
+        assertTrue(new SymmetricKeyDecrypter("test").decrypt(new ByteArrayInputStream(binary),
+                decrypted));
+        assertArrayEquals(plain, decrypted.toByteArray());
+    }
+
+    @Test
+    public void shouldDetectModifiedAuthenticatedStreams() throws Exception {
+
+        Level decrypterBefore = setLogLevel(Level.OFF, SymmetricKeyDecrypter.class);
+        try {
+            byte[] plain = new byte[10 * 4096];
+            SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"),
+                    4096, Encoding.BINARY, true);
+            SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter(stringToByte("test"),
+                    4096, true);
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+            byte[] binary = encrypted.toByteArray();
+
+            // header, iv and 5 frames of length, data and tag are in front of the modified byte
+            int frameLength = 4 + 4096 + 32;
+            byte[] modified = binary.clone();
+            modified[3 + 16 + 5 * frameLength + 100] ^= 1;
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(modified), decrypted));
+            assertTrue(decrypted.size() <= 5 * 4096);
+
+            // without the terminating frame
+            byte[] truncated = Arrays.copyOf(binary, binary.length - 36);
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(truncated),
+                    new ByteArrayOutputStream()));
+
+            // with the iv of another stream
+            byte[] otherIv = binary.clone();
+            otherIv[3] ^= 1;
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(otherIv),
+                    new ByteArrayOutputStream()));
+
+            // without authentication
+            encrypted = new ByteArrayOutputStream();
+            assertTrue(new SymmetricKeyEncrypter(stringToByte("test"), 4096, Encoding.BINARY)
+                    .encrypt(new ByteArrayInputStream(plain), encrypted));
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                    new ByteArrayOutputStream()));
+        }
+        finally {
+            setLogLevel(decrypterBefore, SymmetricKeyDecrypter.class);
+        }
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptOpenedStreams() throws Exception {
+
+        byte[] plain = new byte[100000];
+        new Random(7).nextBytes(plain);
+
+        for (Encoding encoding : Encoding.values()) {
+            for (boolean authenticated : new boolean[] {false, true}) {
+                SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"),
+                        4096, encoding, authenticated);
+                SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter(stringToByte("test"),
+                        4096, authenticated);
+
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                try (OutputStream encrypting = encrypter.openEncryptingStream(encrypted)) {
+                    for (int i = 0; i < plain.length; i += 999) {
+                        encrypting.write(plain, i, Math.min(999, plain.length - i));
+                    }
+                }
+
+                // compatible with the stream api in both directions
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                assertTrue(decrypter.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                        decrypted));
+                assertArrayEquals(plain, decrypted.toByteArray());
+                assertArrayEquals(plain, readAll(decrypter.openDecryptingStream(
+                        new ByteArrayInputStream(encrypted.toByteArray()))));
+
+                encrypted = new ByteArrayOutputStream();
+                assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+                assertArrayEquals(plain, readAll(decrypter.openDecryptingStream(
+                        new ByteArrayInputStream(encrypted.toByteArray()))));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReportFailureOfOpenedDecryptingStreams() throws Exception {
+
+        Level decrypterBefore = setLogLevel(Level.OFF, SymmetricKeyDecrypter.class);
+        try {
+            SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"),
+                    4096, Encoding.BINARY, true);
+            SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter(stringToByte("test"),
+                    4096, true);
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(encrypter.encrypt(new ByteArrayInputStream(new byte[10 * 4096]),
+                    encrypted));
+            byte[] modified = encrypted.toByteArray();
+            modified[modified.length - 100] ^= 1;
+
+            try {
+                readAll(decrypter.openDecryptingStream(new ByteArrayInputStream(modified)));
+                fail("Modified stream has been decrypted.");
+            } catch (IOException e) {
+                // expected
+            }
+
+            // the type is checked when the stream is opened
+            modified[2] = EncodingUtil.TYPE_GCM;
+            assertNull(decrypter.openDecryptingStream(new ByteArrayInputStream(modified)));
+        }
+        finally {
+            setLogLevel(decrypterBefore, SymmetricKeyDecrypter.class);
+        }
+    }
+
+    @Test
+    public void shouldEncryptBatches() throws Exception {
+
+        List<String> texts = Arrays.asList("first", null, "", "fourth \u20ac");
+        byte[][] values = {new byte[0], null, new byte[10000], "fourth".getBytes("UTF-8")};
+        new Random(3).nextBytes(values[2]);
+
+        for (Encoding encoding : Encoding.values()) {
+            for (boolean authenticated : new boolean[] {false, true}) {
+                SymmetricKeyEncrypter encrypter = new SymmetricKeyEncrypter(stringToByte("test"),
+                        4096, encoding, authenticated);
+                SymmetricKeyDecrypter decrypter = new SymmetricKeyDecrypter(stringToByte("test"),
+                        4096, authenticated);
+
+                String[] encryptedTexts = new String[texts.size()];
+                encrypter.encryptAll(texts, encryptedTexts, 0, texts.size());
+                byte[][] encryptedValues = new byte[values.length][];
+                encrypter.encryptAll(values, encryptedValues, 0, values.length);
+
+                for (int i = 0; i < texts.size(); i++) {
+                    assertEquals(texts.get(i), decrypter.decrypt(encryptedTexts[i]));
+                }
+                assertNull(encryptedValues[1]);
+                for (int i : new int[] {0, 2, 3}) {
+                    ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                    assertTrue(decrypter.decrypt(new ByteArrayInputStream(encryptedValues[i]),
+                            decrypted));
+                    assertArrayEquals(values[i], decrypted.toByteArray());
+                }
+                // the same length as the stream api, every value with its own iv
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                assertTrue(encrypter.encrypt(new ByteArrayInputStream(values[2]), encrypted));
+                assertEquals(encrypted.size(), encryptedValues[2].length);
+                assertNotEquals(encryptedTexts[0], encrypter.encrypt(texts.get(0)));
+            }
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream closed = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int read;
+            while ((read = closed.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
 }
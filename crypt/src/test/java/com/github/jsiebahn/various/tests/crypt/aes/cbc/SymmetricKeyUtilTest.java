@@ -128,6 +128,17 @@ public class SymmetricKeyUtilTest {
         assertNull(SymmetricKeyUtil.createSecretKeySpec(null));
     }
 
+    @Test
+    public void testCreateSecretKeySpecDerivesKey() {
+        SecretKeySpec first = SymmetricKeyUtil.createSecretKeySpec("test".getBytes());
+        SecretKeySpec second = SymmetricKeyUtil.createSecretKeySpec("test".getBytes());
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        assertArrayEquals(createValidKey("test".getBytes(), SymmetricKeyUtil.ALGORITHM,
+                SymmetricKeyUtil.HASH_ALGORITHM), second.getEncoded());
+        assertNotEquals(first, SymmetricKeyUtil.createSecretKeySpec("other".getBytes()));
+    }
+
     @Test
     public void testInitCipherDecrypt() throws Exception {
 
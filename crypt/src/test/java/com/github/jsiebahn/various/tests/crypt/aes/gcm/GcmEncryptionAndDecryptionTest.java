@@ -0,0 +1,495 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmUtil.PAYLOAD_HEADER_LENGTH;
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link GcmEncrypter} and {@link GcmDecrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 13:24
+ */
+public class GcmEncryptionAndDecryptionTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private static final int FRAME_LENGTH = GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH
+            + CHUNK_SIZE + GcmUtil.TAG_LENGTH;
+
+    /**
+     * The offset of the ciphertext of the second chunk in a raw payload.
+     */
+    private static final int SECOND_CIPHERTEXT_OFFSET = PAYLOAD_HEADER_LENGTH + FRAME_LENGTH
+            + GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH;
+
+    private Level symmetricKeyUtilBefore;
+
+    private Level gcmEncrypterBefore;
+
+    private Level gcmDecrypterBefore;
+
+    @Before
+    public void disableLogging() {
+        symmetricKeyUtilBefore = LoggingTestUtil.setLogLevel(Level.ERROR, SymmetricKeyUtil.class);
+        gcmEncrypterBefore = LoggingTestUtil.setLogLevel(Level.OFF, GcmEncrypter.class);
+        gcmDecrypterBefore = LoggingTestUtil.setLogLevel(Level.OFF, GcmDecrypter.class);
+    }
+
+    @After
+    public void enableLogging() {
+        LoggingTestUtil.setLogLevel(symmetricKeyUtilBefore, SymmetricKeyUtil.class);
+        LoggingTestUtil.setLogLevel(gcmEncrypterBefore, GcmEncrypter.class);
+        LoggingTestUtil.setLogLevel(gcmDecrypterBefore, GcmDecrypter.class);
+    }
+
+    @Test
+    public void testExtendCoverage() {
+        new GcmUtil();
+    }
+
+    @Test
+    public void shouldNotBeReadyToOperateWhenConstructedWithNullValue() throws Exception {
+
+        assertFalse(new GcmEncrypter((String) null).isReadyToOperate());
+        assertFalse(new GcmEncrypter((byte[]) null).isReadyToOperate());
+        assertNull(new GcmEncrypter((byte[]) null).encrypt("test"));
+
+        assertFalse(new GcmDecrypter((String) null).isReadyToOperate());
+        assertFalse(new GcmDecrypter((byte[]) null).isReadyToOperate());
+        assertNull(new GcmDecrypter((byte[]) null).decrypt("test"));
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptStreamsWithAnyChunkSize() throws Exception {
+
+        GcmDecrypter decrypter = new GcmDecrypter("t\u00E4st");
+
+        for (int length : new int[] {0, 1, 99, 100, 101, 100000}) {
+            byte[] plain = new byte[length];
+            new Random(length).nextBytes(plain);
+
+            for (int chunkSize : new int[] {1, 16, 100, GcmUtil.DEFAULT_CHUNK_SIZE}) {
+                GcmEncrypter encrypter = new GcmEncrypter(stringToByte("t\u00E4st"), chunkSize);
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                assertTrue(decrypter.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                        decrypted));
+                assertArrayEquals(plain, decrypted.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptInParallel() throws Exception {
+
+        byte[] plain = new byte[100000];
+        new Random(1).nextBytes(plain);
+
+        for (int encryptWindow : new int[] {1, 2, 8}) {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(new GcmEncrypter(stringToByte("test"), CHUNK_SIZE, encryptWindow)
+                    .encrypt(new ByteArrayInputStream(plain), encrypted));
+
+            for (int decryptWindow : new int[] {1, 2, 8}) {
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                assertTrue(new GcmDecrypter(stringToByte("test"), decryptWindow).decrypt(
+                        new ByteArrayInputStream(encrypted.toByteArray()), decrypted));
+                assertArrayEquals(plain, decrypted.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptBinaryStreams() throws Exception {
+
+        byte[] plain = new byte[1000];
+        new Random(2).nextBytes(plain);
+
+        for (int window : new int[] {1, 4}) {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(new GcmEncrypter(stringToByte("test"), CHUNK_SIZE, window, Encoding.BINARY)
+                    .encrypt(new ByteArrayInputStream(plain), encrypted));
+            byte[] binary = encrypted.toByteArray();
+            assertEquals(EncodingUtil.MAGIC, binary[0]);
+            assertEquals(EncodingUtil.TYPE_GCM, binary[2]);
+            // the header is followed by the raw payload
+            assertEquals(3 + PAYLOAD_HEADER_LENGTH + 10 * FRAME_LENGTH, binary.length);
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            assertTrue(new GcmDecrypter(stringToByte("test"), window).decrypt(
+                    new ByteArrayInputStream(binary), decrypted));
+            assertArrayEquals(plain, decrypted.toByteArray());
+
+            binary[binary.length - 1] ^= 1;
+            assertFalse(new GcmDecrypter("test").decrypt(new ByteArrayInputStream(binary),
+                    new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptFileChannels() throws Exception {
+
+        File plainFile = createFile();
+        File encryptedFile = createFile();
+        File decryptedFile = createFile();
+
+        for (Encoding encoding : Encoding.values()) {
+            for (int length : new int[] {0, 1, CHUNK_SIZE, 1000, 1001}) {
+                byte[] plain = new byte[length];
+                new Random(length).nextBytes(plain);
+                Files.write(plainFile.toPath(), plain);
+
+                assertTrue(new GcmEncrypter(stringToByte("test"), CHUNK_SIZE, 1, encoding)
+                        .encrypt(open(plainFile, false), open(encryptedFile, true)));
+                byte[] encrypted = Files.readAllBytes(encryptedFile.toPath());
+
+                // the stream decryption reads the same format
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                assertTrue(new GcmDecrypter("test").decrypt(new ByteArrayInputStream(encrypted),
+                        decrypted));
+                assertArrayEquals(plain, decrypted.toByteArray());
+
+                assertTrue(new GcmDecrypter("test").decrypt(open(encryptedFile, false),
+                        open(decryptedFile, true)));
+                assertArrayEquals(plain, Files.readAllBytes(decryptedFile.toPath()));
+            }
+        }
+
+        byte[] encrypted = Files.readAllBytes(encryptedFile.toPath());
+        encrypted[encrypted.length - 1] ^= 1;
+        Files.write(encryptedFile.toPath(), encrypted);
+        assertFalse(new GcmDecrypter("test").decrypt(open(encryptedFile, false),
+                open(decryptedFile, true)));
+    }
+
+    @Test
+    public void shouldNotDecryptModifiedChunkInParallel() throws Exception {
+
+        Level before = LoggingTestUtil.setLogLevel(Level.OFF, ParallelGcmUtil.class);
+        try {
+            byte[] raw = encryptRaw(new byte[250]);
+            raw[SECOND_CIPHERTEXT_OFFSET + 5] ^= 1;
+            assertFalse(new GcmDecrypter(stringToByte("test"), 4).decrypt(
+                    new ByteArrayInputStream(Base64.encodeBase64(raw)),
+                    new ByteArrayOutputStream()));
+
+            byte[] truncated = Arrays.copyOf(encryptRaw(new byte[250]),
+                    PAYLOAD_HEADER_LENGTH + 2 * FRAME_LENGTH);
+            assertFalse(new GcmDecrypter(stringToByte("test"), 4).decrypt(
+                    new ByteArrayInputStream(Base64.encodeBase64(truncated)),
+                    new ByteArrayOutputStream()));
+        }
+        finally {
+            LoggingTestUtil.setLogLevel(before, ParallelGcmUtil.class);
+        }
+    }
+
+    @Test
+    public void shouldUseNewNonceForEveryChunk() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[2 * CHUNK_SIZE]);
+
+        byte[] firstNonce = Arrays.copyOfRange(raw, PAYLOAD_HEADER_LENGTH + GcmUtil.HEADER_LENGTH,
+                PAYLOAD_HEADER_LENGTH + GcmUtil.HEADER_LENGTH + GcmUtil.NONCE_LENGTH);
+        byte[] secondNonce = Arrays.copyOfRange(raw,
+                SECOND_CIPHERTEXT_OFFSET - GcmUtil.NONCE_LENGTH, SECOND_CIPHERTEXT_OFFSET);
+
+        assertFalse(Arrays.equals(firstNonce, secondNonce));
+    }
+
+    @Test
+    public void shouldNotDecryptModifiedChunk() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+        raw[SECOND_CIPHERTEXT_OFFSET + 5] ^= 1;
+
+        assertFalse(decryptRaw(raw));
+    }
+
+    @Test
+    public void shouldNotDecryptReorderedChunks() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+        byte[] reordered = raw.clone();
+        System.arraycopy(raw, PAYLOAD_HEADER_LENGTH, reordered,
+                PAYLOAD_HEADER_LENGTH + FRAME_LENGTH, FRAME_LENGTH);
+        System.arraycopy(raw, PAYLOAD_HEADER_LENGTH + FRAME_LENGTH, reordered,
+                PAYLOAD_HEADER_LENGTH, FRAME_LENGTH);
+
+        assertFalse(decryptRaw(reordered));
+    }
+
+    @Test
+    public void shouldNotDecryptChunksOfAnotherPayload() throws Exception {
+
+        byte[] first = encryptRaw(new byte[250]);
+        byte[] second = encryptRaw(new byte[250]);
+
+        // same key, same index, but another stream id
+        byte[] mixed = first.clone();
+        System.arraycopy(second, PAYLOAD_HEADER_LENGTH + FRAME_LENGTH, mixed,
+                PAYLOAD_HEADER_LENGTH + FRAME_LENGTH, FRAME_LENGTH);
+
+        assertFalse(decryptRaw(mixed));
+        assertFalse(Arrays.equals(Arrays.copyOf(first, PAYLOAD_HEADER_LENGTH),
+                Arrays.copyOf(second, PAYLOAD_HEADER_LENGTH)));
+    }
+
+    @Test
+    public void shouldNotDecryptTruncatedPayload() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+
+        // the last chunk is missing
+        assertFalse(decryptRaw(Arrays.copyOf(raw, PAYLOAD_HEADER_LENGTH + 2 * FRAME_LENGTH)));
+
+        // the second chunk is marked as last chunk
+        byte[] markedAsLast = Arrays.copyOf(raw, PAYLOAD_HEADER_LENGTH + 2 * FRAME_LENGTH);
+        markedAsLast[PAYLOAD_HEADER_LENGTH + FRAME_LENGTH] |= (byte) 0x80;
+        assertFalse(decryptRaw(markedAsLast));
+
+        // the last chunk is incomplete
+        assertFalse(decryptRaw(Arrays.copyOf(raw, raw.length - 1)));
+    }
+
+    @Test
+    public void shouldNotDecryptAppendedData() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+
+        assertFalse(decryptRaw(Arrays.copyOf(raw, raw.length + 1)));
+    }
+
+    @Test
+    public void shouldNotDecryptUnknownVersion() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[10]);
+        // the version without stream id
+        raw[0] = 1;
+
+        assertFalse(decryptRaw(raw));
+        assertNull(new GcmDecrypter("test").decrypt(""));
+    }
+
+    @Test
+    public void shouldNotDecryptWithOtherKey() throws Exception {
+
+        String encrypted = new GcmEncrypter("test").encrypt("plain");
+
+        assertEquals("plain", new GcmDecrypter("test").decrypt(encrypted));
+        assertNull(new GcmDecrypter("other").decrypt(encrypted));
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptByteBuffers() throws Exception {
+
+        GcmEncrypter encrypter = new GcmEncrypter("test");
+        GcmDecrypter decrypter = new GcmDecrypter("test");
+
+        for (int length : new int[] {0, 1, 1000}) {
+            byte[] plain = new byte[length];
+            new Random(length).nextBytes(plain);
+
+            for (boolean direct : new boolean[] {false, true}) {
+                ByteBuffer plainBuffer = direct
+                        ? ByteBuffer.allocateDirect(length)
+                        : ByteBuffer.allocate(length);
+                plainBuffer.put(plain).flip();
+                int encryptedLength = encrypter.getMaxEncryptedLength(length);
+                ByteBuffer encrypted = direct
+                        ? ByteBuffer.allocateDirect(encryptedLength)
+                        : ByteBuffer.allocate(encryptedLength);
+
+                assertTrue(encrypter.encrypt(plainBuffer, encrypted));
+                assertFalse(plainBuffer.hasRemaining());
+                encrypted.flip();
+
+                ByteBuffer decrypted =
+                        ByteBuffer.allocate(decrypter.getMaxPlainLength(encrypted.remaining()));
+                assertTrue(decrypter.decrypt(encrypted, decrypted));
+                assertFalse(encrypted.hasRemaining());
+
+                assertArrayEquals(plain, decrypted.array());
+            }
+        }
+    }
+
+    @Test
+    public void shouldDecryptStreamPayloadFromByteBuffer() throws Exception {
+
+        byte[] plain = new byte[250];
+        new Random(1).nextBytes(plain);
+        byte[] raw = encryptRaw(plain);
+
+        ByteBuffer decrypted = ByteBuffer.allocate(new GcmDecrypter("test").getMaxPlainLength(
+                raw.length));
+        assertTrue(new GcmDecrypter("test").decrypt(ByteBuffer.wrap(raw), decrypted));
+        decrypted.flip();
+        byte[] actual = new byte[decrypted.remaining()];
+        decrypted.get(actual);
+        assertArrayEquals(plain, actual);
+
+        ByteBuffer encrypted = ByteBuffer.allocate(100);
+        assertTrue(new GcmEncrypter("test").encrypt(ByteBuffer.wrap(stringToByte("plain")),
+                encrypted));
+        encrypted.flip();
+        byte[] encryptedBytes = new byte[encrypted.remaining()];
+        encrypted.get(encryptedBytes);
+        assertEquals("plain",
+                new GcmDecrypter("test").decrypt(Base64.encodeBase64String(encryptedBytes)));
+    }
+
+    @Test
+    public void shouldNotDecryptModifiedByteBuffer() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+        raw[SECOND_CIPHERTEXT_OFFSET + 5] ^= 1;
+
+        ByteBuffer encrypted = ByteBuffer.wrap(raw);
+        ByteBuffer plain = ByteBuffer.allocate(raw.length);
+        assertFalse(new GcmDecrypter("test").decrypt(encrypted, plain));
+        assertEquals(0, encrypted.position());
+        assertEquals(raw.length, encrypted.limit());
+        assertEquals(0, plain.position());
+
+        assertFalse(new GcmDecrypter("test").decrypt(
+                ByteBuffer.wrap(Arrays.copyOf(raw, PAYLOAD_HEADER_LENGTH + 2 * FRAME_LENGTH)),
+                plain));
+        assertFalse(new GcmEncrypter("test").encrypt(ByteBuffer.allocate(10),
+                ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptOpenedStreams() throws Exception {
+
+        byte[] plain = new byte[1050];
+        new Random(5).nextBytes(plain);
+
+        for (Encoding encoding : Encoding.values()) {
+            GcmEncrypter encrypter = new GcmEncrypter(stringToByte("test"), CHUNK_SIZE, 1,
+                    encoding);
+            GcmDecrypter decrypter = new GcmDecrypter("test");
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            try (OutputStream encrypting = encrypter.openEncryptingStream(encrypted)) {
+                for (int i = 0; i < plain.length; i += 33) {
+                    encrypting.write(plain, i, Math.min(33, plain.length - i));
+                }
+            }
+
+            // compatible with the stream api in both directions
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            assertTrue(decrypter.decrypt(new ByteArrayInputStream(encrypted.toByteArray()),
+                    decrypted));
+            assertArrayEquals(plain, decrypted.toByteArray());
+            assertArrayEquals(plain, readAll(decrypter.openDecryptingStream(
+                    new ByteArrayInputStream(encrypted.toByteArray()))));
+
+            encrypted = new ByteArrayOutputStream();
+            assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+            assertArrayEquals(plain, readAll(decrypter.openDecryptingStream(
+                    new ByteArrayInputStream(encrypted.toByteArray()))));
+        }
+    }
+
+    @Test
+    public void shouldNotProvideModifiedChunksFromOpenedStreams() throws Exception {
+
+        byte[] raw = encryptRaw(new byte[250]);
+        byte[] modified = raw.clone();
+        modified[SECOND_CIPHERTEXT_OFFSET + 5] ^= 1;
+
+        for (byte[] invalid : new byte[][] {modified, Arrays.copyOf(raw, raw.length - 1),
+                Arrays.copyOf(raw, raw.length + 1)}) {
+            InputStream decrypting = new GcmDecrypter("test").openDecryptingStream(
+                    new ByteArrayInputStream(Base64.encodeBase64(invalid)));
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            try {
+                int read;
+                while ((read = decrypting.read()) != -1) {
+                    decrypted.write(read);
+                }
+                fail("Invalid payload has been decrypted.");
+            } catch (IOException e) {
+                // only authentic chunks have been provided and the failure is permanent
+                assertTrue(decrypted.size() <= 250);
+                try {
+                    decrypting.read();
+                    fail("Failed stream ended regularly.");
+                } catch (IOException expected) {
+                    // expected
+                }
+            }
+            decrypting.close();
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private File createFile() throws Exception {
+        File file = File.createTempFile(this.getClass().getCanonicalName(), ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private FileChannel open(File file, boolean write) throws Exception {
+        return write
+                ? FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream closed = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = closed.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private byte[] encryptRaw(byte[] plain) throws Exception {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(new GcmEncrypter(stringToByte("test"), CHUNK_SIZE).encrypt(
+                new ByteArrayInputStream(plain), encrypted));
+        return Base64.decodeBase64(encrypted.toByteArray());
+    }
+
+    private boolean decryptRaw(byte[] raw) throws Exception {
+        return new GcmDecrypter("test").decrypt(new ByteArrayInputStream(Base64.encodeBase64(raw)),
+                new ByteArrayOutputStream());
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.*;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyUtil;
+import com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests {@link EncryptionUtil} with {@link GcmEncrypter} and {@link GcmDecrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 13:20
+ */
+public class GcmEncryptionUtilTest extends AbstractEncryptionUtilTest {
+
+    private static final Level FORCE_LOG_LEVEL = Level.OFF;
+
+    private Map<Class, Level> beforeLevels = new HashMap<>();
+
+    @Before
+    public void disableLogging() {
+        beforeLevels.put(GcmEncrypter.class,
+                LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, GcmEncrypter.class));
+        beforeLevels.put(GcmDecrypter.class,
+                LoggingTestUtil.setLogLevel(FORCE_LOG_LEVEL, GcmDecrypter.class));
+        beforeLevels.put(SymmetricKeyUtil.class,
+                LoggingTestUtil.setLogLevel(Level.ERROR, SymmetricKeyUtil.class));
+    }
+
+    @After
+    public void enableLogging() {
+        for(Map.Entry<Class, Level> entry : beforeLevels.entrySet()) {
+            LoggingTestUtil.setLogLevel(entry.getValue(), entry.getKey());
+        }
+    }
+
+    @Override
+    protected Encrypter createEncrypter() {
+        return new GcmEncrypter("test key");
+    }
+
+    @Override
+    protected Decrypter createDecrypter() {
+        return new GcmDecrypter("test key");
+    }
+
+    @Test
+    @Override
+    public void shouldNotBeModifiable() {
+        super.shouldNotBeModifiable();
+    }
+
+}
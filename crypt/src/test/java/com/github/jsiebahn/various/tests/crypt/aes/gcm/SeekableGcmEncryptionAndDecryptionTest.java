@@ -0,0 +1,199 @@
+package com.github.jsiebahn.various.tests.crypt.aes.gcm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the seekable container of {@link SeekableGcmEncrypter} and {@link SeekableGcmDecrypter}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 18:35
+ */
+public class SeekableGcmEncryptionAndDecryptionTest {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final byte[] KEY = "seekable key".getBytes();
+
+    private byte[] plain;
+
+    private Path container;
+
+    @Before
+    public void setUp() throws Exception {
+        plain = new byte[10 * PAGE_SIZE + 123];
+        new Random(42).nextBytes(plain);
+        File file = File.createTempFile(getClass().getCanonicalName(), ".container");
+        file.deleteOnExit();
+        container = file.toPath();
+        assertTrue(new SeekableGcmEncrypter(KEY, PAGE_SIZE).encrypt(
+                new ByteArrayInputStream(plain), Files.newOutputStream(container)));
+    }
+
+    @Test
+    public void shouldReadSequentially() throws Exception {
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            assertEquals(plain.length, channel.size());
+            ByteBuffer decrypted = ByteBuffer.allocate(plain.length);
+            ByteBuffer buffer = ByteBuffer.allocate(333);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                decrypted.put(buffer);
+                buffer.clear();
+            }
+            assertArrayEquals(plain, decrypted.array());
+        }
+    }
+
+    @Test
+    public void shouldReadFromAnyPosition() throws Exception {
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1500);
+            channel.position(plain.length - 1500);
+            assertEquals(1500, channel.read(buffer));
+            assertArrayEquals(Arrays.copyOfRange(plain, plain.length - 1500, plain.length),
+                    buffer.array());
+            assertEquals(-1, channel.read(buffer));
+
+            buffer.clear();
+            assertEquals(1500, channel.read(buffer, 999));
+            assertArrayEquals(Arrays.copyOfRange(plain, 999, 2499), buffer.array());
+            assertEquals(plain.length, channel.position());
+        }
+    }
+
+    @Test
+    public void shouldReadPagesConcurrently() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (final SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            List<Future<byte[]>> pages = new ArrayList<>();
+            for (int i = 0; i < plain.length; i += PAGE_SIZE) {
+                final int position = i;
+                pages.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        ByteBuffer page = ByteBuffer.allocate(
+                                Math.min(PAGE_SIZE, plain.length - position));
+                        channel.read(page, position);
+                        return page.array();
+                    }
+                }));
+            }
+            for (int i = 0; i < pages.size(); i++) {
+                int from = i * PAGE_SIZE;
+                assertArrayEquals(Arrays.copyOfRange(plain, from,
+                        Math.min(plain.length, from + PAGE_SIZE)), pages.get(i).get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldEncryptEmptyContent() throws Exception {
+
+        assertTrue(new SeekableGcmEncrypter(KEY, PAGE_SIZE).encrypt(
+                new ByteArrayInputStream(new byte[0]), Files.newOutputStream(container)));
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            assertEquals(0, channel.size());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotReadModifiedPage() throws Exception {
+
+        byte[] encrypted = Files.readAllBytes(container);
+        encrypted[SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                + 3 * (PAGE_SIZE + SeekableGcmEncrypter.PAGE_OVERHEAD) + 100] ^= 1;
+        Files.write(container, encrypted);
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            channel.read(ByteBuffer.allocate(10), 3 * PAGE_SIZE + 5);
+        }
+    }
+
+    @Test
+    public void shouldReadIntactPagesAfterModifiedPage() throws Exception {
+
+        byte[] encrypted = Files.readAllBytes(container);
+        encrypted[SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                + 3 * (PAGE_SIZE + SeekableGcmEncrypter.PAGE_OVERHEAD) + 100] ^= 1;
+        Files.write(container, encrypted);
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            try {
+                channel.read(ByteBuffer.allocate(10), 3 * PAGE_SIZE + 5);
+                fail("Modified page was read.");
+            }
+            catch (IOException e) {
+                // expected, the page buffer is reused by the next read
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(1500);
+            assertEquals(1500, channel.read(buffer, 4 * PAGE_SIZE + 7));
+            assertArrayEquals(Arrays.copyOfRange(plain, 4 * PAGE_SIZE + 7, 5 * PAGE_SIZE + 507),
+                    buffer.array());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotReadPageOfAnotherContainer() throws Exception {
+
+        ByteArrayOutputStream other = new ByteArrayOutputStream();
+        assertTrue(new SeekableGcmEncrypter(KEY, PAGE_SIZE).encrypt(
+                new ByteArrayInputStream(plain), other));
+
+        // same key, same page index, but another stream id
+        byte[] encrypted = Files.readAllBytes(container);
+        int offset = SeekableGcmEncrypter.CONTAINER_HEADER_LENGTH
+                + 3 * (PAGE_SIZE + SeekableGcmEncrypter.PAGE_OVERHEAD);
+        System.arraycopy(other.toByteArray(), offset, encrypted, offset,
+                PAGE_SIZE + SeekableGcmEncrypter.PAGE_OVERHEAD);
+        Files.write(container, encrypted);
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter(KEY).open(container)) {
+            channel.read(ByteBuffer.allocate(10), 3 * PAGE_SIZE + 5);
+        }
+    }
+
+    @Test
+    public void shouldNotOpenTruncatedContainer() throws Exception {
+
+        byte[] encrypted = Files.readAllBytes(container);
+        Files.write(container, Arrays.copyOf(encrypted, encrypted.length - PAGE_SIZE));
+
+        assertNull(new SeekableGcmDecrypter(KEY).open(container));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotReadWithOtherKey() throws Exception {
+
+        try (SeekableGcmChannel channel = new SeekableGcmDecrypter("other").open(container)) {
+            channel.read(ByteBuffer.allocate(10));
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.github.jsiebahn.various.tests.crypt.compress;
+
+import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.AbstractEncryptionUtilTest;
+import com.github.jsiebahn.various.tests.crypt.ByteBufferDecrypter;
+import com.github.jsiebahn.various.tests.crypt.ByteBufferEncrypter;
+import com.github.jsiebahn.various.tests.crypt.Compression;
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtilBuilder;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.internal.EncodingUtil;
+import com.github.jsiebahn.various.tests.crypt.noop.NoopDecrypter;
+import com.github.jsiebahn.various.tests.crypt.noop.NoopEncrypter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil.setLogLevel;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CompressingEncrypter} and {@link DecompressingDecrypter} around symmetric key
+ * encryption.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:40
+ */
+public class CompressionEncryptionUtilTest extends AbstractEncryptionUtilTest {
+
+    @Override
+    protected Encrypter createEncrypter() {
+        return new CompressingEncrypter(new SymmetricKeyEncrypter("compressed"),
+                Compression.DEFLATE);
+    }
+
+    @Override
+    protected Decrypter createDecrypter() {
+        return new DecompressingDecrypter(new SymmetricKeyDecrypter("compressed"));
+    }
+
+    /**
+     * Compressed streams are binary like authenticated streams, so they are not decrypted as
+     * {@link String} but as byte array.
+     */
+    @Test
+    @Override
+    public void shouldEncryptStreamAndDecryptString() throws Exception {
+
+        EncryptionUtil encryptionUtil = new EncryptionUtil(createEncrypter(), createDecrypter());
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertTrue(encryptionUtil.encrypt(new ByteArrayInputStream("plain text".getBytes()),
+                encrypted));
+
+        assertEquals(EncodingUtil.MAGIC, encrypted.toByteArray()[0]);
+        assertArrayEquals("plain text".getBytes(),
+                encryptionUtil.decrypt(encrypted.toByteArray()));
+    }
+
+    /**
+     * Compressed byte arrays are binary like authenticated streams, so they are not decrypted as
+     * {@link String} but as byte array.
+     */
+    @Test
+    @Override
+    public void shouldEncryptByteArrayAndDecryptString() throws Exception {
+
+        EncryptionUtil encryptionUtil = new EncryptionUtil(createEncrypter(), createDecrypter());
+        byte[] encrypted = encryptionUtil.encrypt("plain text".getBytes());
+
+        assertEquals(EncodingUtil.MAGIC, encrypted[0]);
+        assertArrayEquals("plain text".getBytes(), encryptionUtil.decrypt(encrypted));
+    }
+
+    @Test
+    public void shouldCompressBeforeEncryption() {
+
+        byte[] plain = createJson(1000);
+        EncryptionUtil compressing = EncryptionUtilBuilder.encryptionUtil()
+                .withCompression(Compression.DEFLATE)
+                .withPassPhrase("compressed")
+                .build();
+        EncryptionUtil uncompressed = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("compressed")
+                .build();
+
+        byte[] compressed = compressing.encrypt(plain);
+        assertTrue(compressed.length * 5 < uncompressed.encrypt(plain).length);
+        assertArrayEquals(plain, compressing.decrypt(compressed));
+
+        // data encrypted without compression is still decrypted
+        assertArrayEquals(plain, compressing.decrypt(uncompressed.encrypt(plain)));
+    }
+
+    @Test
+    public void shouldCompressAuthenticatedStreams() {
+
+        byte[] plain = createJson(1000);
+        EncryptionUtil compressing = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("compressed")
+                .withStreamAuthentication(true)
+                .withCompression(Compression.DEFLATE)
+                .build();
+
+        assertNotNull(compressing);
+        assertEquals("plain", compressing.decrypt(compressing.encrypt("plain")));
+        byte[] encrypted = compressing.encrypt(plain);
+        assertEquals(EncodingUtil.TYPE_DEFLATE, encrypted[2]);
+        assertArrayEquals(plain, compressing.decrypt(encrypted));
+    }
+
+    @Test
+    public void shouldNotInspectPlainData() {
+
+        EncryptionUtil compressing = EncryptionUtilBuilder.encryptionUtil()
+                .withCompression(Compression.DEFLATE)
+                .withPassPhrase("compressed")
+                .build();
+        EncryptionUtil uncompressed = EncryptionUtilBuilder.encryptionUtil()
+                .withPassPhrase("compressed")
+                .build();
+
+        // plain data that looks like a compression header
+        byte[] plain = {EncodingUtil.MAGIC, EncodingUtil.FORMAT_VERSION, EncodingUtil.TYPE_DEFLATE,
+                (byte) 0xC0, (byte) 0xDE, 1, 1, 42};
+        assertArrayEquals(plain, compressing.decrypt(compressing.encrypt(plain)));
+        assertArrayEquals(plain, compressing.decrypt(uncompressed.encrypt(plain)));
+    }
+
+    @Test
+    public void shouldKeepByteBufferCapability() {
+
+        ByteBufferEncrypter encrypter = new ByteBufferCompressingEncrypter(
+                new SymmetricKeyEncrypter("compressed"), Compression.DEFLATE);
+        ByteBufferDecrypter decrypter = new ByteBufferDecompressingDecrypter(
+                new SymmetricKeyDecrypter("compressed"));
+
+        ByteBuffer plain = ByteBuffer.wrap("plain".getBytes());
+        ByteBuffer encrypted = ByteBuffer.allocate(encrypter.getMaxEncryptedLength(5));
+        assertTrue(encrypter.encrypt(plain, encrypted));
+        encrypted.flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(
+                decrypter.getMaxPlainLength(encrypted.remaining()));
+        assertTrue(decrypter.decrypt(encrypted, decrypted));
+        assertEquals("plain", new String(decrypted.array(), 0, decrypted.position()));
+    }
+
+    @Test
+    public void shouldRecordCodecInBinaryHeader() {
+
+        byte[] plain = createJson(10);
+        Level before = setLogLevel(Level.ERROR, DecompressingDecrypter.class);
+        try {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            assertTrue(new CompressingEncrypter(new NoopEncrypter(), Compression.DEFLATE)
+                    .encrypt(new ByteArrayInputStream(plain), encrypted));
+
+            byte[] compressed = encrypted.toByteArray();
+            assertArrayEquals(new byte[] {EncodingUtil.MAGIC, EncodingUtil.FORMAT_VERSION,
+                    EncodingUtil.TYPE_DEFLATE}, Arrays.copyOf(compressed,
+                    CompressionUtil.HEADER_LENGTH));
+
+            Decrypter decrypter = new DecompressingDecrypter(new NoopDecrypter());
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            assertTrue(decrypter.decrypt(new ByteArrayInputStream(compressed), decrypted));
+            assertArrayEquals(plain, decrypted.toByteArray());
+
+            // incomplete compressed data
+            byte[] truncated = Arrays.copyOf(compressed, compressed.length - 10);
+            setLogLevel(Level.OFF, DecompressingDecrypter.class);
+            assertFalse(decrypter.decrypt(new ByteArrayInputStream(truncated),
+                    new ByteArrayOutputStream()));
+
+            // data shorter than the header
+            decrypted = new ByteArrayOutputStream();
+            assertTrue(decrypter.decrypt(new ByteArrayInputStream(new byte[] {1, 2}),
+                    decrypted));
+            assertArrayEquals(new byte[] {1, 2}, decrypted.toByteArray());
+        }
+        finally {
+            setLogLevel(before, DecompressingDecrypter.class);
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private static byte[] createJson(int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"record ").append(i)
+                    .append("\",\"active\":true},");
+        }
+        json.append("{}]");
+        return json.toString().getBytes();
+    }
+
+}
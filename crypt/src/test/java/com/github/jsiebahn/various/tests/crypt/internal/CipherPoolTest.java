@@ -0,0 +1,120 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link CipherPool}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 10:41
+ */
+public class CipherPoolTest {
+
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+    private static final String PROVIDER = "SunJCE";
+
+    @Before
+    public void drainPool() throws Exception {
+        // other tests of this thread may have released ciphers of the same transformation
+        List<Cipher> borrowed = new ArrayList<>();
+        for (int i = 0; i < CipherPool.MAX_IDLE; i++) {
+            borrowed.add(CipherPool.borrow(TRANSFORMATION, PROVIDER));
+        }
+        CipherPool.resetStatistics();
+    }
+
+    @Test
+    public void testExtendCoverage() {
+        new CipherPool();
+    }
+
+    @Test
+    public void shouldReuseReleasedCipher() throws Exception {
+
+        Cipher first = CipherPool.borrow(TRANSFORMATION, PROVIDER);
+        assertEquals(0, CipherPool.getHitCount());
+        assertEquals(1, CipherPool.getMissCount());
+
+        CipherPool.release(first);
+        Cipher second = CipherPool.borrow(TRANSFORMATION, PROVIDER);
+
+        assertSame(first, second);
+        assertEquals(1, CipherPool.getHitCount());
+        assertEquals(1, CipherPool.getMissCount());
+
+        CipherPool.release(second);
+    }
+
+    @Test
+    public void shouldServeNestedBorrowsWithSeparateInstances() throws Exception {
+
+        Cipher outer = CipherPool.borrow(TRANSFORMATION, PROVIDER);
+        Cipher inner = CipherPool.borrow(TRANSFORMATION, PROVIDER);
+
+        assertNotSame(outer, inner);
+        assertEquals(2, CipherPool.getMissCount());
+
+        CipherPool.release(inner);
+        CipherPool.release(outer);
+    }
+
+    @Test
+    public void shouldKeepLimitedNumberOfIdleCiphers() throws Exception {
+
+        List<Cipher> borrowed = new ArrayList<>();
+        for (int i = 0; i < CipherPool.MAX_IDLE + 2; i++) {
+            borrowed.add(CipherPool.borrow(TRANSFORMATION, PROVIDER));
+        }
+        for (Cipher cipher : borrowed) {
+            CipherPool.release(cipher);
+        }
+        CipherPool.resetStatistics();
+
+        for (int i = 0; i < CipherPool.MAX_IDLE + 2; i++) {
+            CipherPool.borrow(TRANSFORMATION, PROVIDER);
+        }
+        assertEquals(CipherPool.MAX_IDLE, CipherPool.getHitCount());
+        assertEquals(2, CipherPool.getMissCount());
+    }
+
+    @Test
+    public void shouldNotShareCiphersBetweenThreads() throws Exception {
+
+        final Cipher released = CipherPool.borrow(TRANSFORMATION, PROVIDER);
+        CipherPool.release(released);
+
+        final AtomicReference<Cipher> borrowedByOtherThread = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    borrowedByOtherThread.set(CipherPool.borrow(TRANSFORMATION, PROVIDER));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNotSame(released, borrowedByOtherThread.get());
+        assertSame(released, CipherPool.borrow(TRANSFORMATION, PROVIDER));
+    }
+
+    @Test
+    public void shouldIgnoreNull() {
+        CipherPool.release(null);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import ch.qos.logback.classic.Level;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil.setLogLevel;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link CipherStreamUtil}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 09:40
+ */
+public class CipherStreamUtilTest {
+
+    @Test
+    public void testExtendCoverage() {
+        new CipherStreamUtil();
+    }
+
+    @Test
+    public void testNormalizeBufferSize() {
+        assertEquals(16, CipherStreamUtil.normalizeBufferSize(1, 16));
+        assertEquals(16, CipherStreamUtil.normalizeBufferSize(16, 16));
+        assertEquals(32, CipherStreamUtil.normalizeBufferSize(17, 16));
+        assertEquals(16384, CipherStreamUtil.normalizeBufferSize(16384, 16));
+        assertEquals(17, CipherStreamUtil.normalizeBufferSize(17, 0));
+
+        Level before = setLogLevel(Level.OFF, CipherStreamUtil.class);
+        try {
+            assertEquals(CipherStreamUtil.DEFAULT_BUFFER_SIZE,
+                    CipherStreamUtil.normalizeBufferSize(0, 16));
+            assertEquals(CipherStreamUtil.DEFAULT_BUFFER_SIZE,
+                    CipherStreamUtil.normalizeBufferSize(-1, 16));
+        }
+        finally {
+            setLogLevel(before, CipherStreamUtil.class);
+        }
+    }
+
+    @Test
+    public void testFill() throws Exception {
+        byte[] source = new byte[100];
+        new Random(1).nextBytes(source);
+
+        byte[] buffer = new byte[64];
+        InputStream in = new OneByteInputStream(new ByteArrayInputStream(source));
+
+        assertEquals(64, CipherStreamUtil.fill(in, buffer, 0, 64));
+        assertArrayEquals(Arrays.copyOf(source, 64), buffer);
+        assertEquals(36, CipherStreamUtil.fill(in, buffer, 0, 64));
+        assertEquals(0, CipherStreamUtil.fill(in, buffer, 0, 64));
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+        IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+
+        for (int length : new int[] {0, 1, 15, 16, 17, 4095, 4096, 70001}) {
+            byte[] plain = new byte[length];
+            new Random(length).nextBytes(plain);
+
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            byte[] expected = cipher.doFinal(plain);
+
+            for (int bufferSize : new int[] {16, 64, 4096}) {
+                cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                assertEquals(length, CipherStreamUtil.transfer(cipher,
+                        new OneByteInputStream(new ByteArrayInputStream(plain)), encrypted,
+                        bufferSize));
+                assertArrayEquals(expected, encrypted.toByteArray());
+
+                cipher.init(Cipher.DECRYPT_MODE, key, iv);
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                CipherStreamUtil.transfer(cipher, new ByteArrayInputStream(expected), decrypted,
+                        bufferSize);
+                assertArrayEquals(plain, decrypted.toByteArray());
+            }
+        }
+    }
+
+
+    /**
+     * Returns at most one byte per read to simulate slow sources.
+     */
+    private static class OneByteInputStream extends FilterInputStream {
+
+        OneByteInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link MappedRegions}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 19:30
+ */
+public class MappedRegionsTest {
+
+    @Test
+    public void shouldReadAcrossRegions() throws Exception {
+
+        byte[] content = new byte[10000];
+        new Random(1).nextBytes(content);
+        File file = createFile(content);
+
+        for (long regionSize : new long[] {1, 7, 4096, 10000, MappedRegions.DEFAULT_REGION_SIZE}) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 MappedRegions regions = new MappedRegions(channel, regionSize)) {
+                assertEquals(content.length, regions.size());
+                for (int position = 0; position < content.length; position += 999) {
+                    int length = Math.min(999, content.length - position);
+                    assertArrayEquals(Arrays.copyOfRange(content, position, position + length),
+                            toArray(regions.get(position, length)));
+                }
+                // going back maps the region again
+                assertArrayEquals(Arrays.copyOfRange(content, 0, 3), toArray(regions.get(0, 3)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadEmptyFile() throws Exception {
+
+        File file = createFile(new byte[0]);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             MappedRegions regions = new MappedRegions(channel)) {
+            assertEquals(0, regions.size());
+            assertEquals(0, regions.get(0, 0).remaining());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldNotReadBeyondEndOfFile() throws Exception {
+
+        File file = createFile(new byte[] {1, 2, 3});
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             MappedRegions regions = new MappedRegions(channel)) {
+            regions.get(2, 2);
+        }
+    }
+
+
+    //
+    // helper
+    //
+
+    private File createFile(byte[] content) throws Exception {
+        File file = File.createTempFile(this.getClass().getCanonicalName(), ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
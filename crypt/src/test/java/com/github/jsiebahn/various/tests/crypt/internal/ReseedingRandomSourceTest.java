@@ -0,0 +1,82 @@
+package com.github.jsiebahn.various.tests.crypt.internal;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link ReseedingRandomSource}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 11:24
+ */
+public class ReseedingRandomSourceTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void shouldCreateDifferentBytes() {
+
+        ReseedingRandomSource randomSource = new ReseedingRandomSource();
+
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        randomSource.nextBytes(first);
+        randomSource.nextBytes(second);
+
+        assertThat(first, not(equalTo(second)));
+        assertThat(first, not(equalTo(new byte[16])));
+    }
+
+    @Test
+    public void shouldCreateDifferentBytesWhenReseeding() {
+
+        // reseed on every call
+        ReseedingRandomSource randomSource = new ReseedingRandomSource(1, 0);
+
+        Set<String> values = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[16];
+            randomSource.nextBytes(bytes);
+            values.add(new String(bytes, ISO_8859_1));
+        }
+
+        assertEquals(100, values.size());
+    }
+
+    @Test
+    public void shouldCreateDifferentBytesInEveryThread() throws Exception {
+
+        final ReseedingRandomSource randomSource = new ReseedingRandomSource();
+        final Set<String> values = Collections.synchronizedSet(new HashSet<String>());
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        byte[] bytes = new byte[16];
+                        randomSource.nextBytes(bytes);
+                        values.add(new String(bytes, ISO_8859_1));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(800, values.size());
+    }
+
+}
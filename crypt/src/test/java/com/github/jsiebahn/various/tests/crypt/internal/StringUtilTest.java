@@ -2,10 +2,13 @@ package com.github.jsiebahn.various.tests.crypt.internal;
 
 import ch.qos.logback.classic.Level;
 
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Test;
 
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.base64DecodedLength;
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.byteToString;
 import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.stringToByte;
+import static com.github.jsiebahn.various.tests.crypt.internal.StringUtil.utf8Length;
 import static com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil.setLogLevel;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -62,4 +65,23 @@ public class StringUtilTest {
         }
 
     }
+
+    @Test
+    public void testUtf8Length() throws Exception {
+        assertEquals(0, utf8Length(null));
+        for (String s : new String[] {"", "plain", "pl\u00e4in", "\u20ac", "\ud83d\ude00",
+                "\ud83d", "a\ude00b"}) {
+            assertEquals(s, s.getBytes("UTF-8").length, utf8Length(s));
+        }
+    }
+
+    @Test
+    public void testBase64DecodedLength() throws Exception {
+        assertEquals(0, base64DecodedLength(null));
+        for (int length = 0; length < 10; length++) {
+            String encoded = Base64.encodeBase64String(new byte[length]);
+            assertEquals(length, base64DecodedLength(encoded));
+            assertEquals(length, base64DecodedLength(encoded + "\r\n"));
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import ch.qos.logback.classic.Level;
+import com.github.jsiebahn.various.tests.crypt.AbstractEncryptionUtilTest;
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtilBuilder;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmDecrypter;
+import com.github.jsiebahn.various.tests.crypt.aes.gcm.GcmEncrypter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.jsiebahn.various.tests.crypt.internal.test.util.LoggingTestUtil.setLogLevel;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link KeyRingEncrypter} and {@link KeyRingDecrypter} with a primary GCM key, an old
+ * CBC key and a legacy decrypter for data without key id.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 16:20
+ */
+public class KeyRingEncryptionUtilTest extends AbstractEncryptionUtilTest {
+
+    @Override
+    protected Encrypter createEncrypter() {
+        return new KeyRingEncrypter(createKeyRing());
+    }
+
+    @Override
+    protected Decrypter createDecrypter() {
+        return new KeyRingDecrypter(createKeyRing());
+    }
+
+    @Test
+    public void shouldPrefixEncryptedDataWithKeyId() {
+
+        KeyRing keyRing = createKeyRing();
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withKeyRing(keyRing)
+                .build();
+
+        String encrypted = encryptionUtil.encrypt("plain");
+        assertTrue(encrypted.startsWith("2026-10$"));
+        assertEquals("2026-10", keyRing.getKeyId(encrypted));
+        assertTrue(keyRing.isEncryptedWithPrimaryKey(encrypted));
+
+        byte[] encryptedBytes = encryptionUtil.encrypt("plain".getBytes(StandardCharsets.UTF_8));
+        assertEquals("2026-10$", new String(encryptedBytes, 0, 8, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void shouldDecryptWithOldKeysAfterRotation() {
+
+        KeyRing keyRing = createKeyRing();
+        EncryptionUtil encryptionUtil = EncryptionUtilBuilder.encryptionUtil()
+                .withKeyRing(keyRing)
+                .build();
+        String encryptedWithGcm = encryptionUtil.encrypt("plain");
+
+        assertTrue(keyRing.setPrimaryKey("2025-01"));
+        String encryptedWithCbc = encryptionUtil.encrypt("plain");
+
+        assertEquals("2025-01", keyRing.getKeyId(encryptedWithCbc));
+        assertFalse(keyRing.isEncryptedWithPrimaryKey(encryptedWithGcm));
+        assertEquals("plain", encryptionUtil.decrypt(encryptedWithGcm));
+        assertEquals("plain", encryptionUtil.decrypt(encryptedWithCbc));
+    }
+
+    @Test
+    public void shouldDecryptLegacyDataWithoutKeyId() {
+
+        EncryptionUtil legacy = new EncryptionUtil(new SymmetricKeyEncrypter("legacy"),
+                new SymmetricKeyDecrypter("legacy"));
+        EncryptionUtil encryptionUtil = new EncryptionUtil(createEncrypter(),
+                createDecrypter());
+
+        String encrypted = legacy.encrypt("plain");
+        assertNull(createKeyRing().getKeyId(encrypted));
+        assertEquals("plain", encryptionUtil.decrypt(encrypted));
+
+        byte[] plain = "plain".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encryptedStream = new ByteArrayOutputStream();
+        assertTrue(new SymmetricKeyEncrypter("legacy".getBytes(StandardCharsets.UTF_8), 16,
+                Encoding.BINARY).encrypt(new ByteArrayInputStream(plain), encryptedStream));
+        assertArrayEquals(plain, encryptionUtil.decrypt(encryptedStream.toByteArray()));
+    }
+
+    @Test
+    public void shouldNotDecryptUnknownOrRemovedKeys() {
+
+        KeyRing keyRing = createKeyRing();
+        EncryptionUtil encryptionUtil = new EncryptionUtil(new KeyRingEncrypter(keyRing),
+                new KeyRingDecrypter(keyRing));
+        keyRing.setPrimaryKey("2025-01");
+        String encrypted = encryptionUtil.encrypt("plain");
+        keyRing.setPrimaryKey("2026-10");
+
+        Level before = setLogLevel(Level.OFF, KeyRingDecrypter.class);
+        try {
+            assertTrue(keyRing.removeKey("2025-01"));
+            assertNull(encryptionUtil.decrypt(encrypted));
+            assertNull(encryptionUtil.decrypt("unknown$" + encrypted.substring(8)));
+        }
+        finally {
+            setLogLevel(before, KeyRingDecrypter.class);
+        }
+    }
+
+    @Test
+    public void shouldValidateKeys() {
+
+        KeyRing keyRing = createKeyRing();
+        Level before = setLogLevel(Level.OFF, KeyRing.class);
+        try {
+            assertFalse(keyRing.addKey("2026-10", new SymmetricKeyEncrypter("a"),
+                    new SymmetricKeyDecrypter("a")));
+            assertFalse(keyRing.addKey("in valid", new SymmetricKeyEncrypter("a"),
+                    new SymmetricKeyDecrypter("a")));
+            assertFalse(keyRing.addKey("", new SymmetricKeyEncrypter("a"),
+                    new SymmetricKeyDecrypter("a")));
+            assertFalse(keyRing.addKey("no-decrypter", new SymmetricKeyEncrypter("a"), null));
+            assertTrue(keyRing.addKey("decrypt-only", null, new SymmetricKeyDecrypter("a")));
+            assertFalse(keyRing.setPrimaryKey("decrypt-only"));
+            assertFalse(keyRing.setPrimaryKey("unknown"));
+            assertFalse(keyRing.removeKey("2026-10"));
+        }
+        finally {
+            setLogLevel(before, KeyRing.class);
+        }
+
+        assertEquals("2026-10", keyRing.getPrimaryKeyId());
+        assertEquals(3, keyRing.getKeyIds().size());
+    }
+
+    @Test
+    public void shouldCloseStreamsOfFailedOperations() {
+
+        KeyRing keyRing = new KeyRing();
+        keyRing.addKey("2026-10", null, new GcmDecrypter("new key"));
+        final AtomicInteger closed = new AtomicInteger();
+        Level beforeEncrypter = setLogLevel(Level.OFF, KeyRingEncrypter.class);
+        Level beforeDecrypter = setLogLevel(Level.OFF, KeyRingDecrypter.class);
+        try {
+            // no primary key
+            assertFalse(new KeyRingEncrypter(keyRing).encrypt(
+                    new ByteArrayInputStream(new byte[10]) {
+                        @Override
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    }, new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    }));
+            // unknown key id
+            assertFalse(new KeyRingDecrypter(keyRing).decrypt(
+                    new ByteArrayInputStream("unknown$data".getBytes(StandardCharsets.US_ASCII)) {
+                        @Override
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    }, new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    }));
+        }
+        finally {
+            setLogLevel(beforeEncrypter, KeyRingEncrypter.class);
+            setLogLevel(beforeDecrypter, KeyRingDecrypter.class);
+        }
+
+        assertEquals(4, closed.get());
+    }
+
+    // helper
+
+    static KeyRing createKeyRing() {
+        KeyRing keyRing = new KeyRing();
+        keyRing.addKey("2025-01", new SymmetricKeyEncrypter("old key"),
+                new SymmetricKeyDecrypter("old key"));
+        keyRing.addKey("2026-10", new GcmEncrypter("new key"), new GcmDecrypter("new key"));
+        keyRing.setPrimaryKey("2026-10");
+        keyRing.setLegacyDecrypter(new SymmetricKeyDecrypter("legacy"));
+        return keyRing;
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.github.jsiebahn.various.tests.crypt.keyring;
+
+import com.github.jsiebahn.various.tests.crypt.aes.cbc.SymmetricKeyEncrypter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ReEncryptionJob} with an in memory {@link ReEncryptionStore}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 16:30
+ */
+public class ReEncryptionJobTest {
+
+    private KeyRing keyRing;
+
+    private MapStore store;
+
+    @Before
+    public void setUp() {
+        keyRing = KeyRingEncryptionUtilTest.createKeyRing();
+        keyRing.setPrimaryKey("2025-01");
+        KeyRingEncrypter oldEncrypter = new KeyRingEncrypter(keyRing);
+        SymmetricKeyEncrypter legacyEncrypter = new SymmetricKeyEncrypter("legacy");
+
+        store = new MapStore();
+        for (int i = 0; i < 100; i++) {
+            store.values.put(i, i % 2 == 0 ? oldEncrypter.encrypt("value " + i)
+                    : legacyEncrypter.encrypt("value " + i));
+        }
+
+        keyRing.setPrimaryKey("2026-10");
+        store.values.put(100, new KeyRingEncrypter(keyRing).encrypt("value 100"));
+    }
+
+    @Test
+    public void shouldReEncryptAllValuesWithPrimaryKey() {
+
+        ReEncryptionJob<Integer> job = new ReEncryptionJob<>(keyRing, store, 7, 0);
+        job.run();
+
+        assertTrue(job.isFinished());
+        assertEquals(101, job.getScanned());
+        assertEquals(100, job.getReEncrypted());
+        assertEquals(1, job.getSkipped());
+        assertEquals(0, job.getFailed());
+        assertEquals(Integer.valueOf(100), job.getCursor());
+        assertTrue(job.getRecordsPerSecond() > 0);
+
+        KeyRingDecrypter decrypter = new KeyRingDecrypter(keyRing);
+        for (int i = 0; i <= 100; i++) {
+            String value = store.values.get(i);
+            assertTrue(keyRing.isEncryptedWithPrimaryKey(value));
+            assertEquals("value " + i, decrypter.decrypt(value));
+        }
+
+        // the old key is not needed anymore
+        assertTrue(keyRing.removeKey("2025-01"));
+
+        ReEncryptionJob<Integer> second = new ReEncryptionJob<>(keyRing, store, 50, 0);
+        second.run();
+        assertEquals(0, second.getReEncrypted());
+        assertEquals(101, second.getSkipped());
+    }
+
+    @Test
+    public void shouldThrottleAndResumeAfterCursor() throws Exception {
+
+        final ReEncryptionJob<Integer> job = new ReEncryptionJob<>(keyRing, store, 10, 200);
+        Thread thread = new Thread(job);
+        long started = System.nanoTime();
+        thread.start();
+        Thread.sleep(100);
+        job.stop();
+        thread.join();
+
+        assertFalse(job.isFinished());
+        assertTrue(job.getScanned() < 101);
+        // 200 records per second allow at most one record every 5 ms
+        assertTrue(job.getScanned() <= (System.nanoTime() - started) / 5000000 + 1);
+
+        ReEncryptionJob<Integer> resumed = new ReEncryptionJob<>(keyRing, store, 10, 0,
+                job.getCursor());
+        resumed.run();
+
+        assertTrue(resumed.isFinished());
+        assertEquals(101, job.getScanned() + resumed.getScanned());
+        assertEquals(100, job.getReEncrypted() + resumed.getReEncrypted());
+    }
+
+    @Test
+    public void shouldNotOverwriteConcurrentChanges() {
+
+        final String changed = new KeyRingEncrypter(keyRing).encrypt("changed");
+        ReEncryptionStore<Integer> changingStore = new ReEncryptionStore<Integer>() {
+            @Override
+            public Map<Integer, String> nextBatch(Integer after, int limit) {
+                Map<Integer, String> batch = store.nextBatch(after, limit);
+                // the application writes record 0 after it has been read by the job
+                store.values.put(0, changed);
+                return batch;
+            }
+
+            @Override
+            public boolean update(Integer key, String expected, String reEncrypted) {
+                return store.update(key, expected, reEncrypted);
+            }
+        };
+
+        ReEncryptionJob<Integer> job = new ReEncryptionJob<>(keyRing, changingStore, 10, 0);
+        job.run();
+
+        assertEquals(1, job.getConflicts());
+        assertEquals(99, job.getReEncrypted());
+        assertEquals(changed, store.values.get(0));
+    }
+
+    // inner classes
+
+    private static class MapStore implements ReEncryptionStore<Integer> {
+
+        private final ConcurrentSkipListMap<Integer, String> values =
+                new ConcurrentSkipListMap<>();
+
+        @Override
+        public Map<Integer, String> nextBatch(Integer after, int limit) {
+            Map<Integer, String> batch = new LinkedHashMap<>();
+            Map<Integer, String> tail = after == null ? values : values.tailMap(after, false);
+            for (Map.Entry<Integer, String> entry : tail.entrySet()) {
+                if (batch.size() == limit) {
+                    break;
+                }
+                batch.put(entry.getKey(), entry.getValue());
+            }
+            return batch;
+        }
+
+        @Override
+        public boolean update(Integer key, String expected, String reEncrypted) {
+            return values.replace(key, expected, reEncrypted);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+import com.github.jsiebahn.various.tests.crypt.EncryptionUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RsaKeyPool} and its use by the {@link RsaKeyFactory}.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:25
+ */
+public class RsaKeyPoolTest {
+
+    @Test
+    public void shouldFillPoolInBackground() throws Exception {
+
+        try (RsaKeyPool pool = new RsaKeyPool(2, 10)) {
+            awaitFilled(pool, 2, 10);
+
+            RsaKeySpecPair first = pool.takeKeyPair();
+            RsaKeySpecPair second = pool.takeKeyPair();
+            assertNotNull(first);
+            assertNotNull(second);
+            assertNotEquals(first.getPublicKeySpec().getModulus(),
+                    second.getPublicKeySpec().getModulus());
+
+            byte[] dataKey = pool.takeDataKey();
+            assertEquals(RsaProperties.KEY_SIZE / 8 - 11, dataKey.length);
+            assertFalse(Arrays.equals(dataKey, pool.takeDataKey()));
+
+            assertEquals(2, pool.getKeyPairsTaken());
+            assertEquals(0, pool.getKeyPairMisses());
+            assertEquals(2, pool.getDataKeysTaken());
+            assertEquals(0, pool.getDataKeyMisses());
+
+            // taken keys are replaced in the background
+            awaitFilled(pool, 2, 10);
+        }
+    }
+
+    @Test
+    public void shouldGenerateKeysOnCallerIfDepleted() {
+
+        try (RsaKeyPool pool = new RsaKeyPool(0, 0)) {
+            RsaKeySpecPair keyPair = pool.takeKeyPair();
+            assertNotNull(keyPair);
+            assertNotNull(pool.takeDataKey());
+
+            assertEquals(0, pool.getKeyPairsTaken());
+            assertEquals(1, pool.getKeyPairMisses());
+            assertEquals(1, pool.getDataKeyMisses());
+            assertEquals(0, pool.getAvailableKeyPairs());
+        }
+    }
+
+    @Test
+    public void shouldCreateKeysFromPool() throws Exception {
+
+        RsaKeyPool pool = new RsaKeyPool(1, 5);
+        RsaKeyFactory.setKeyPool(pool);
+        try {
+            awaitFilled(pool, 1, 5);
+
+            RsaKeyFactory keyFactory = new RsaKeyFactory();
+            ByteArrayOutputStream privateKey = new ByteArrayOutputStream();
+            ByteArrayOutputStream publicKey = new ByteArrayOutputStream();
+            RsaKeySpecPair keys = keyFactory.createKeys(privateKey, publicKey);
+            assertNotNull(keys);
+            assertEquals(1, pool.getKeyPairsTaken());
+            assertEquals(keys.getPublicKeySpec().getModulus(), keyFactory.readPublicKey(
+                    new ByteArrayInputStream(publicKey.toByteArray())).getModulus());
+
+            // the symmetric keys of the encrypter are taken from the pool as well
+            EncryptionUtil encryptionUtil = new EncryptionUtil(
+                    new RsaEncrypter(keys.getPublicKeySpec()),
+                    new RsaDecrypter(keyFactory.readPrivateKey(
+                            new ByteArrayInputStream(privateKey.toByteArray()))));
+            assertEquals("plain", encryptionUtil.decrypt(encryptionUtil.encrypt("plain")));
+            assertTrue(pool.getDataKeysTaken() + pool.getDataKeyMisses() > 0);
+        }
+        finally {
+            RsaKeyFactory.setKeyPool(null);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldDropKeysOnClose() throws Exception {
+
+        RsaKeyPool pool = new RsaKeyPool(0, 10);
+        awaitFilled(pool, 0, 10);
+        pool.close();
+
+        assertEquals(0, pool.getAvailableDataKeys());
+        assertNotNull(pool.takeDataKey());
+        assertEquals(1, pool.getDataKeyMisses());
+    }
+
+    // helper
+
+    private static void awaitFilled(RsaKeyPool pool, int keyPairs, int dataKeys)
+            throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 30000;
+        while (pool.getAvailableKeyPairs() < keyPairs || pool.getAvailableDataKeys() < dataKeys) {
+            assertTrue("pool not filled in time", System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+
+}
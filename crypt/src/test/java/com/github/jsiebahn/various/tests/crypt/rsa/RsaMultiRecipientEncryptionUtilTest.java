@@ -0,0 +1,105 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+import com.github.jsiebahn.various.tests.crypt.AbstractEncryptionUtilTest;
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RsaMultiRecipientEncrypter} with the {@link RsaDecrypter} of each recipient.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 17:20
+ */
+public class RsaMultiRecipientEncryptionUtilTest extends AbstractEncryptionUtilTest {
+
+    private static RsaKeySpecPair first;
+
+    private static RsaKeySpecPair second;
+
+    private static RsaKeySpecPair other;
+
+    @Before
+    public void initKeySpecs() {
+        if (first == null) {
+            first = createKeys();
+            second = createKeys();
+            other = createKeys();
+        }
+    }
+
+    @Override
+    protected Encrypter createEncrypter() {
+        return new RsaMultiRecipientEncrypter(Arrays.asList(first.getPublicKeySpec(),
+                second.getPublicKeySpec()));
+    }
+
+    @Override
+    protected Decrypter createDecrypter() {
+        return new RsaDecrypter(second.getPrivateKeySpec());
+    }
+
+    @Test
+    public void shouldDecryptForEveryRecipient() {
+
+        String encrypted = createEncrypter().encrypt("plain");
+
+        assertEquals("plain", new RsaDecrypter(first.getPrivateKeySpec()).decrypt(encrypted));
+        assertEquals("plain", new RsaDecrypter(second.getPrivateKeySpec()).decrypt(encrypted));
+    }
+
+    @Test
+    public void shouldNotDecryptForOtherKey() {
+
+        String encrypted = createEncrypter().encrypt("plain");
+
+        assertNull(new RsaDecrypter(other.getPrivateKeySpec()).decrypt(encrypted));
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptBinaryStreams() {
+
+        Encrypter encrypter = new RsaMultiRecipientEncrypter(Arrays.asList(
+                first.getPublicKeySpec(), second.getPublicKeySpec()), Encoding.BINARY);
+        byte[] plain = "plain binary".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        assertTrue(encrypter.encrypt(new ByteArrayInputStream(plain), encrypted));
+        assertTrue(new RsaDecrypter(first.getPrivateKeySpec()).decrypt(
+                new ByteArrayInputStream(encrypted.toByteArray()), decrypted));
+        assertArrayEquals(plain, decrypted.toByteArray());
+    }
+
+    @Test
+    public void shouldNotBeReadyWithoutRecipients() {
+
+        Encrypter encrypter = new RsaMultiRecipientEncrypter(
+                Collections.<RSAPublicKeySpec>emptyList());
+
+        assertFalse(encrypter.isReadyToOperate());
+        assertNull(encrypter.encrypt("plain"));
+    }
+
+
+    //
+    // helper
+    //
+
+    private static RsaKeySpecPair createKeys() {
+        return new RsaKeyFactory().createKeys(new ByteArrayOutputStream(),
+                new ByteArrayOutputStream());
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.github.jsiebahn.various.tests.crypt.rsa;
+
+import com.github.jsiebahn.various.tests.crypt.AbstractEncryptionUtilTest;
+import com.github.jsiebahn.various.tests.crypt.Decrypter;
+import com.github.jsiebahn.various.tests.crypt.Encoding;
+import com.github.jsiebahn.various.tests.crypt.Encrypter;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RsaEncrypter} and {@link RsaDecrypter} with reused session keys.
+ *
+ * @author jsiebahn
+ * @since 17.10.26 16:40
+ */
+public class RsaSessionKeyEncryptionUtilTest extends AbstractEncryptionUtilTest {
+
+    private static RsaKeySpecPair rsaKeySpecPair;
+
+    /**
+     * The length of marker, key id, key length and encrypted key.
+     */
+    private static final int HEADER_LENGTH = 1 + RsaProperties.KEY_ID_LENGTH + 2
+            + RsaProperties.KEY_SIZE / 8;
+
+    @Before
+    public void initKeySpec() {
+        if (rsaKeySpecPair == null) {
+            RsaKeyFactory factory = new RsaKeyFactory();
+            rsaKeySpecPair = factory.createKeys(new ByteArrayOutputStream(),
+                    new ByteArrayOutputStream());
+        }
+    }
+
+    @Override
+    protected Encrypter createEncrypter() {
+        return new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec(), Encoding.BASE64, 100, 60000);
+    }
+
+    @Override
+    protected Decrypter createDecrypter() {
+        return new RsaDecrypter(rsaKeySpecPair.getPrivateKeySpec());
+    }
+
+    @Test
+    public void shouldReuseKeyForMaxMessages() {
+
+        Encrypter encrypter = new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec(),
+                Encoding.BASE64, 2, 0);
+        byte[] first = Base64.decodeBase64(encrypter.encrypt("plain"));
+        byte[] second = Base64.decodeBase64(encrypter.encrypt("plain"));
+        byte[] third = Base64.decodeBase64(encrypter.encrypt("plain"));
+
+        assertEquals((byte) RsaProperties.SESSION_KEY_MARKER, first[0]);
+        assertArrayEquals(header(first), header(second));
+        assertFalse(Arrays.equals(header(second), header(third)));
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void shouldUseNewKeyPerMessageByDefault() {
+
+        Encrypter encrypter = new RsaEncrypter(rsaKeySpecPair.getPublicKeySpec());
+        byte[] first = Base64.decodeBase64(encrypter.encrypt("plain"));
+        byte[] second = Base64.decodeBase64(encrypter.encrypt("plain"));
+
+        assertNotEquals((byte) RsaProperties.SESSION_KEY_MARKER, first[0]);
+        assertFalse(Arrays.equals(Arrays.copyOf(first, 258), Arrays.copyOf(second, 258)));
+    }
+
+    @Test
+    public void shouldDecryptWithoutKeyCache() {
+
+        Encrypter encrypter = createEncrypter();
+        Decrypter decrypter = new RsaDecrypter(rsaKeySpecPair.getPrivateKeySpec(), 0);
+
+        assertEquals("plain 1", decrypter.decrypt(encrypter.encrypt("plain 1")));
+        assertEquals("plain 2", decrypter.decrypt(encrypter.encrypt("plain 2")));
+    }
+
+    @Test
+    public void shouldNotUseCachedKeyForOtherEncryptedKey() {
+
+        Decrypter decrypter = createDecrypter();
+        byte[] first = Base64.decodeBase64(createEncrypter().encrypt("plain 1"));
+        byte[] second = Base64.decodeBase64(createEncrypter().encrypt("plain 2"));
+        assertEquals("plain 1", decrypter.decrypt(Base64.encodeBase64String(first)));
+
+        // use the key id of the cached key for another encrypted key
+        System.arraycopy(first, 1, second, 1, RsaProperties.KEY_ID_LENGTH);
+        assertEquals("plain 2", decrypter.decrypt(Base64.encodeBase64String(second)));
+    }
+
+
+    //
+    // helper
+    //
+
+    private static byte[] header(byte[] encrypted) {
+        return Arrays.copyOf(encrypted, HEADER_LENGTH);
+    }
+
+}